@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.repository.xml.XMLFilesRepositoryService;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Ingests a collection of TRiDaS files (like the TRiCYCLE output) as draft projects. 
+ * 
+ * The work for each file is done in stages: parse, build tree, validate, store and optionally index. 
+ * Each stage has its own workers and bounded queues connect the stages, 
+ * so the parsing of the next files overlaps with storing the previous ones 
+ * and only a limited number of projects are in memory. 
+ * The progress is logged; when a batch is restarted with the same log 
+ * the files that were ingested already are skipped, 
+ * and the files that were stored but not indexed are only indexed. 
+ * 
+ * Note: the validation needs the entity tree, so the tree is build before validating.
+ */
+public class BulkIngestEngine
+{
+	private static Logger logger = Logger.getLogger(BulkIngestEngine.class);
+
+	public static final String PARSE_STAGE = "parse";
+	public static final String TREE_STAGE = "tree";
+	public static final String VALIDATE_STAGE = "validate";
+	public static final String STORE_STAGE = "store";
+	public static final String INDEX_STAGE = "index";
+
+	static final String WORKERS_SETTING_PREFIX = "ingest.workers.";
+	static final String QUEUE_CAPACITY_SETTING = "ingest.queue.capacity";
+
+	private final String userId;
+	private final Map<String, Integer> workers = new LinkedHashMap<String, Integer>();
+	private int queueCapacity;
+	private boolean indexing = false;
+	private boolean rejectingInvalid = false;
+
+	/**
+	 * @param userId
+	 *        the user that will be the owner of the ingested projects
+	 */
+	public BulkIngestEngine(String userId)
+	{
+		this.userId = userId;
+
+		Properties settings = DccdConfigurationService.getService().getSettings();
+		for (String stage : new String[] { PARSE_STAGE, TREE_STAGE, VALIDATE_STAGE, STORE_STAGE, INDEX_STAGE })
+		{
+			workers.put(stage, Integer.parseInt(settings.getProperty(WORKERS_SETTING_PREFIX + stage, "1").trim()));
+		}
+		queueCapacity = Integer.parseInt(settings.getProperty(QUEUE_CAPACITY_SETTING, "4").trim());
+	}
+
+	public void setWorkers(String stage, int count)
+	{
+		if (!workers.containsKey(stage))
+			throw new IllegalArgumentException("No such stage: " + stage);
+		if (count < 1)
+			throw new IllegalArgumentException("count must be 1 or bigger");
+		workers.put(stage, count);
+	}
+
+	public int getWorkers(String stage)
+	{
+		return workers.get(stage);
+	}
+
+	/**
+	 * @param queueCapacity
+	 *        the maximum number of projects waiting for each stage
+	 */
+	public void setQueueCapacity(int queueCapacity)
+	{
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be 1 or bigger");
+		this.queueCapacity = queueCapacity;
+	}
+
+	public int getQueueCapacity()
+	{
+		return queueCapacity;
+	}
+
+	/**
+	 * Note: only needed when the store does not update the search index itself
+	 * 
+	 * @param indexing
+	 *        true if the search index must be updated after storing
+	 */
+	public void setIndexing(boolean indexing)
+	{
+		this.indexing = indexing;
+	}
+
+	public boolean isIndexing()
+	{
+		return indexing;
+	}
+
+	/**
+	 * @param rejectingInvalid
+	 *        true if projects with validation errors must not be stored; 
+	 *        by default they are stored as a draft, like with an upload
+	 */
+	public void setRejectingInvalid(boolean rejectingInvalid)
+	{
+		this.rejectingInvalid = rejectingInvalid;
+	}
+
+	public boolean isRejectingInvalid()
+	{
+		return rejectingInvalid;
+	}
+
+	/**
+	 * Ingest the files, the ones that are done according to the log are skipped. 
+	 * A file that fails is logged and the others are ingested.
+	 * 
+	 * @param files
+	 *        the TRiDaS files
+	 * @param progressLog
+	 *        the log of a previous run or a new one
+	 * @return The report with the counts and the metrics of each stage
+	 * @throws InterruptedException
+	 *         when interrupted, the workers are stopped
+	 */
+	public BulkIngestReport ingest(List<File> files, ProgressLog progressLog) throws InterruptedException
+	{
+		final Run run = new Run(progressLog);
+		Pipeline<IngestItem> pipeline = new Pipeline<IngestItem>("dccd-ingest-", queueCapacity)
+		{
+			protected void completed(IngestItem item)
+			{
+				done(run, item);
+			}
+
+			protected void failed(IngestItem item, Stage<IngestItem> stage, Exception e)
+			{
+				fail(run, item, stage.getName(), e);
+			}
+		};
+		addStages(pipeline, run);
+
+		try
+		{
+			pipeline.start();
+			int skipped = 0;
+			for (File file : files)
+			{
+				String key = getKey(file);
+				if (progressLog.isDone(key))
+				{
+					logger.debug("Skipping, already ingested: " + file.getPath());
+					skipped++;
+				}
+				else
+				{
+					// stored by a previous run, but not indexed
+					String storedSid = progressLog.getCheckpoint(key);
+					if (storedSid != null)
+						logger.info("Resuming, already stored as " + storedSid + ": " + file.getPath());
+					pipeline.put(new IngestItem(file, storedSid));
+				}
+			}
+			List<StageMetrics> metrics = pipeline.finish();
+			if (indexing)
+				flushIndex();
+
+			BulkIngestReport report = new BulkIngestReport(run.ingested.get(), skipped, run.failures, metrics);
+			logger.info("Bulk ingest done: " + report);
+			return report;
+		}
+		finally
+		{
+			// stops the workers when interrupted
+			pipeline.stop();
+		}
+	}
+
+	// the steps before the store are skipped for the items that were stored by a previous run
+	private void addStages(Pipeline<IngestItem> pipeline, final Run run)
+	{
+		pipeline.addStage(new Pipeline.Stage<IngestItem>(PARSE_STAGE, getWorkers(PARSE_STAGE))
+		{
+			protected void process(IngestItem item) throws Exception
+			{
+				if (item.sid == null)
+					item.project = parse(item.file);
+			}
+		});
+		pipeline.addStage(new Pipeline.Stage<IngestItem>(TREE_STAGE, getWorkers(TREE_STAGE))
+		{
+			protected void process(IngestItem item) throws Exception
+			{
+				if (item.sid == null)
+					buildTree(item.project);
+			}
+		});
+		pipeline.addStage(new Pipeline.Stage<IngestItem>(VALIDATE_STAGE, getWorkers(VALIDATE_STAGE))
+		{
+			protected void process(IngestItem item) throws Exception
+			{
+				if (item.sid != null)
+					return;
+				List<ValidationErrorMessage> errors = validate(item.project);
+				if (!errors.isEmpty())
+				{
+					logger.info(errors.size() + " validation errors for: " + item.file.getPath());
+					if (rejectingInvalid)
+						throw new DataServiceException(errors.size() + " validation errors, first: " + errors.get(0).getMessage());
+				}
+			}
+		});
+		pipeline.addStage(new Pipeline.Stage<IngestItem>(STORE_STAGE, getWorkers(STORE_STAGE))
+		{
+			protected void process(IngestItem item) throws Exception
+			{
+				if (item.sid == null)
+				{
+					store(item.project);
+					item.sid = item.project.getSid();
+					// a restart must not store it again when the indexing fails
+					if (indexing)
+						checkpoint(run, item);
+				}
+				else if (indexing)
+				{
+					item.project = retrieve(item.sid);
+				}
+			}
+		});
+		if (indexing)
+		{
+			pipeline.addStage(new Pipeline.Stage<IngestItem>(INDEX_STAGE, getWorkers(INDEX_STAGE))
+			{
+				protected void process(IngestItem item) throws Exception
+				{
+					index(item.project);
+				}
+			});
+		}
+	}
+
+	protected String getKey(File file)
+	{
+		return file.getPath();
+	}
+
+	protected Project parse(File file) throws Exception
+	{
+		InputStream is = new FileInputStream(file);
+		try
+		{
+			Project project = XMLFilesRepositoryService.createDendroProjectFromTridasXML(is, userId);
+			if (project == null)
+				throw new DataServiceException("Could not create project for: " + file.getPath());
+			// store the (original) xml filename
+			project.setFileName(file.getName());
+			return project;
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	protected void buildTree(Project project)
+	{
+		project.entityTree.buildTree(project.getTridas());
+	}
+
+	protected List<ValidationErrorMessage> validate(Project project)
+	{
+		return DccdProjectValidationService.getService().validate(project);
+	}
+
+	protected void store(Project project) throws Exception
+	{
+		DccdDataService.getService().storeProject(project);
+	}
+
+	/**
+	 * Retrieve a project that was stored by a previous run
+	 */
+	protected Project retrieve(String sid) throws Exception
+	{
+		return DccdDataService.getService().retrieveProject(sid);
+	}
+
+	protected void index(Project project) throws Exception
+	{
+		DccdSearchService.getService().updateSearchIndex(project);
+	}
+
+	/**
+	 * Wait for the index updates, they could be sent asynchronously
+	 */
+	protected void flushIndex()
+	{
+		try
+		{
+			DccdSearchService.getService().flushSearchIndex();
+		}
+		catch (SearchServiceException e)
+		{
+			logger.error("Could not flush the search index updates", e);
+		}
+	}
+
+	// the state of one ingest run, shared by the stages
+	private static class Run
+	{
+		final ProgressLog progressLog;
+		final AtomicInteger ingested = new AtomicInteger();
+		final Map<String, String> failures = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+		Run(ProgressLog progressLog)
+		{
+			this.progressLog = progressLog;
+		}
+	}
+
+	private static class IngestItem
+	{
+		final File file;
+		// set when stored
+		String sid;
+		Project project = null;
+
+		IngestItem(File file, String sid)
+		{
+			this.file = file;
+			this.sid = sid;
+		}
+	}
+
+	private void done(Run run, IngestItem item)
+	{
+		logger.info("Ingested " + item.file.getPath() + " as " + item.sid);
+		run.ingested.incrementAndGet();
+		try
+		{
+			run.progressLog.done(getKey(item.file), item.sid);
+		}
+		catch (IOException e)
+		{
+			logger.error("Could not log progress for: " + item.file.getPath(), e);
+		}
+	}
+
+	private void checkpoint(Run run, IngestItem item)
+	{
+		try
+		{
+			run.progressLog.checkpoint(getKey(item.file), item.sid);
+		}
+		catch (IOException e)
+		{
+			logger.error("Could not log progress for: " + item.file.getPath(), e);
+		}
+	}
+
+	private void fail(Run run, IngestItem item, String stage, Exception e)
+	{
+		String message = stage + ": " + e.getMessage();
+		logger.error("Ingest failed for " + item.file.getPath() + " at " + message, e);
+		run.failures.put(item.file.getPath(), message);
+		try
+		{
+			run.progressLog.failed(getKey(item.file), message);
+		}
+		catch (IOException ioe)
+		{
+			logger.error("Could not log progress for: " + item.file.getPath(), ioe);
+		}
+	}
+}
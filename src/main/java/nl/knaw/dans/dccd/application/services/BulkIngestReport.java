@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a BulkIngestEngine run
+ */
+public class BulkIngestReport
+{
+	private final int ingestedCount;
+	private final int skippedCount;
+	private final Map<String, String> failures;
+	private final List<StageMetrics> stageMetrics;
+
+	BulkIngestReport(int ingestedCount, int skippedCount, Map<String, String> failures, List<StageMetrics> stageMetrics)
+	{
+		this.ingestedCount = ingestedCount;
+		this.skippedCount = skippedCount;
+		this.failures = Collections.unmodifiableMap(new LinkedHashMap<String, String>(failures));
+		this.stageMetrics = Collections.unmodifiableList(stageMetrics);
+	}
+
+	public int getIngestedCount()
+	{
+		return ingestedCount;
+	}
+
+	/**
+	 * @return the number of files skipped because the progress log had them as done
+	 */
+	public int getSkippedCount()
+	{
+		return skippedCount;
+	}
+
+	public int getFailedCount()
+	{
+		return failures.size();
+	}
+
+	/**
+	 * @return the message for each failed file, with the stage it failed in
+	 */
+	public Map<String, String> getFailures()
+	{
+		return failures;
+	}
+
+	public List<StageMetrics> getStageMetrics()
+	{
+		return stageMetrics;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("ingested=").append(ingestedCount);
+		sb.append(" skipped=").append(skippedCount);
+		sb.append(" failed=").append(getFailedCount());
+		for (StageMetrics metrics : stageMetrics)
+		{
+			sb.append('\n').append(metrics);
+		}
+		return sb.toString();
+	}
+}
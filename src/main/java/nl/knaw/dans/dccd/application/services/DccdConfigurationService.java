@@ -46,9 +46,26 @@ public class DccdConfigurationService implements ConfigurationService
 		defaultSettings.put("fedora.port","80");
 		defaultSettings.put("fedora.context","fedora");
 		defaultSettings.put("fedora.user","fedoraAdmin");
+		// number of threads for unmarshalling the entities of a project, 
+		// 0 means one per available processor and 1 disables the parallel mode
+		defaultSettings.put("fedora.deserialize.parallelism","0");
+		// when true the tridas of an entity is only unmarshalled when it is used
+		defaultSettings.put("fedora.deserialize.lazy","false");
+		// memory budget in bytes for the cache of retrieved (archived) projects, 0 disables it
+		defaultSettings.put("project.cache.budget","67108864");
+		// the footprint of every n-th cached project is measured, for monitoring and the cache weights; 0 never
+		defaultSettings.put("project.cache.footprintSample","10");
 		// NO defaults for passwords
 		// defaultSettings.put("fedora.password","###Fill-In-fedoraAdmin-Password###");
 
+		// Bulk ingest, number of workers for each stage and the queue between the stages
+		defaultSettings.put("ingest.workers.parse","2");
+		defaultSettings.put("ingest.workers.tree","1");
+		defaultSettings.put("ingest.workers.validate","2");
+		defaultSettings.put("ingest.workers.store","1");
+		defaultSettings.put("ingest.workers.index","1");
+		defaultSettings.put("ingest.queue.capacity","4");
+
 		// Solr
 		defaultSettings.put("solr.url","http://localhost:8983/solr");
 		//? {
@@ -58,6 +75,17 @@ public class DccdConfigurationService implements ConfigurationService
 		// } ?
 		defaultSettings.put("solr.context","solr-example/select");// select!
 		defaultSettings.put("solr.context.update","solr-example/update");
+		// when true the index is updated by a background worker that sends the updates in batches
+		defaultSettings.put("solr.index.async","false");
+		// for the background worker: the beans sent at once, the maximum wait in milliseconds for a batch to fill 
+		// and the maximum number of projects waiting to be sent
+		defaultSettings.put("solr.index.batchSize","500");
+		defaultSettings.put("solr.index.commitInterval","1000");
+		defaultSettings.put("solr.index.queueCapacity","100");
+		// the number of projects for which the digests of the sent beans are kept, so only the changed beans are sent; 
+		// 0 disables it, because the digests are only right when this application is the only one that updates the index
+		// (the webapplication and a bulk ingest or reindex in another process would make them stale and changes would be skipped)
+		defaultSettings.put("solr.index.digestCapacity","0");
 		
 		// LDAP
 		defaultSettings.put("ldap.url","ldap://localhost:10389");
@@ -19,7 +19,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import nl.knaw.dans.common.fedora.Fedora;
 import nl.knaw.dans.common.lang.RepositoryException;
@@ -42,6 +45,7 @@ import nl.knaw.dans.dccd.model.DccdOrganisation;
 import nl.knaw.dans.dccd.model.DccdUser;
 import nl.knaw.dans.dccd.model.Project;
 import nl.knaw.dans.dccd.model.ProjectCreationMetadata;
+import nl.knaw.dans.dccd.model.ProjectFootprint;
 import nl.knaw.dans.dccd.model.entities.Entity;
 import nl.knaw.dans.dccd.repository.DccdRepositoryException;
 import nl.knaw.dans.dccd.repository.DccdRepositoryService;
@@ -66,6 +70,7 @@ public class DccdDataService implements DataService {
 
 	static final String UPDATE_LOG_MSG_LABEL = "update: ";
 	static final String INGEST_LOG_MSG_LABEL = "ingest: ";
+	static final String PURGE_LOG_MSG_LABEL = "purge removed entity: ";
 
 /* ==============Start of NEW impl============== */
 	static Properties settings = DccdConfigurationService.getService().getSettings();
@@ -84,6 +89,34 @@ public class DccdDataService implements DataService {
 	private static final String ARCHIVING_CONFIRMATION_SUBJECT = "DCCD: archive confirmation";
 	
 	private DccdFedoraStore store = null;
+	
+	static final String PROJECT_CACHE_BUDGET_SETTING = "project.cache.budget";
+	private final ProjectCache projectCache = new ProjectCache(
+			Long.parseLong(settings.getProperty(PROJECT_CACHE_BUDGET_SETTING).trim()));
+
+	/**
+	 * @return the cache used by getProject, for monitoring
+	 */
+	public ProjectCache getProjectCache()
+	{
+		return projectCache;
+	}
+
+	// memory used by the projects that are cached, 
+	// the footprint walks the whole project so only every n-th put is measured; 0 is never
+	static final String PROJECT_FOOTPRINT_SAMPLE_SETTING = "project.cache.footprintSample";
+	private final int footprintSample = 
+		Integer.parseInt(settings.getProperty(PROJECT_FOOTPRINT_SAMPLE_SETTING).trim());
+	private final AtomicLong cachePuts = new AtomicLong();
+	private final FootprintMetrics footprintMetrics = new FootprintMetrics();
+
+	/**
+	 * @return the aggregated footprints of a sample of the projects put in the cache, for monitoring
+	 */
+	public FootprintMetrics getFootprintMetrics()
+	{
+		return footprintMetrics;
+	}
 
 	public DccdFedoraStore getStore()
 	{
@@ -100,11 +133,19 @@ public class DccdDataService implements DataService {
 		return store;
 	}
 
+	/**
+	 * Store the changes of the project, 
+	 * the datastreams of the entities that were removed from its tree are purged.
+	 * 
+	 * @param project
+	 * @throws DataServiceException
+	 */
 	public void updateProject(Project project) throws DataServiceException
 	{
 		try
 		{
 			getStore().update(project, UPDATE_LOG_MSG_LABEL + project.getStoreId());
+			purgeRemovedEntities(project);
 		}
 		catch (ObjectExistsException e)
 		{
@@ -114,6 +155,30 @@ public class DccdDataService implements DataService {
 		{
 			throw new DataServiceException(e);
 		}
+		finally
+		{
+			// Note: also drops a cached copy that was retrieved during the update
+			projectCache.invalidate(project.getSid());
+		}
+	}
+
+	// after the update, the stored tree does not reference them anymore
+	private void purgeRemovedEntities(Project project)
+	{
+		List<String> ids = project.getRemovedEntityIds();
+		for (String id : ids)
+		{
+			try
+			{
+				getStore().purgeDatastream(project.getSid(), id, PURGE_LOG_MSG_LABEL + id);
+			}
+			catch (RepositoryException e)
+			{
+				// Note: there is none when it was added and removed before this update
+				logger.warn("Could not purge the datastream of removed entity " + id + " from " + project.getSid(), e);
+			}
+		}
+		project.clearRemovedEntityIds(ids);
 	}
 
 	public void storeProject(Project project) throws DataServiceException
@@ -130,9 +195,61 @@ public class DccdDataService implements DataService {
 		{
 			throw new DataServiceException(e);
 		}
+		finally
+		{
+			// Note: also drops a cached copy that was retrieved during the ingest
+			projectCache.invalidate(project.getSid());
+		}
 	}
 
+	/**
+	 * Note: an archived (published) project can come from the cache 
+	 * and is then the same instance for every caller, it must not be changed; 
+	 * the methods of this service that change a project work on an instance of their own.
+	 * 
+	 * @param projectId
+	 *        the sid of the project
+	 * @return The project
+	 * @throws DataServiceException
+	 */
 	public Project getProject(String projectId) throws DataServiceException
+	{
+		Project project = projectCache.get(projectId);
+		if (project != null)
+			return project;
+
+		long generation = projectCache.getGeneration();
+		project = retrieveProject(projectId);
+		// Note: only archived projects, drafts are being edited 
+		if (project.getAdministrativeMetadata().getAdministrativeState() == DatasetState.PUBLISHED)
+		{
+			// Note: the cache compacts the values, only when it keeps the project
+			if (projectCache.put(project, generation))
+			{
+				// Note: computed once, the cached instance is not changed
+				project.updateStatistics();
+				if (footprintSample > 0 && cachePuts.incrementAndGet() % footprintSample == 0)
+				{
+					ProjectFootprint footprint = project.getFootprint();
+					footprintMetrics.record(footprint);
+					projectCache.calibrate(project, footprint);
+					logger.debug("Cached " + footprint);
+				}
+			}
+		}
+		return project;
+	}
+
+	/**
+	 * Get the project from the store, without using or filling the cache; 
+	 * for processing many projects once, like a reindex
+	 * 
+	 * @param projectId
+	 *        the sid of the project
+	 * @return The project
+	 * @throws DataServiceException
+	 */
+	public Project retrieveProject(String projectId) throws DataServiceException
 	{
 		try
 		{
@@ -207,12 +324,33 @@ public class DccdDataService implements DataService {
 		return project;
 	}
 
-	// Note: unarchiving is available until versioning is implemented! 
-	public void unarchiveProject(Project project, DccdUser user) throws DataServiceException
+	/**
+	 * Removes the project from the cache before it is changed, 
+	 * and gives the instance that can be changed; 
+	 * an archived project could be the cached instance that other requests are reading, 
+	 * so that one is retrieved again instead.
+	 */
+	private Project getProjectToChange(Project project) throws DataServiceException
+	{
+		projectCache.invalidate(project.getSid());
+		if (project.getAdministrativeMetadata().getAdministrativeState() == DatasetState.PUBLISHED)
+			return retrieveProject(project.getSid());
+		else
+			return project; // drafts are not cached
+	}
+
+	/**
+	 * Note: unarchiving is available until versioning is implemented! 
+	 * 
+	 * @return The unarchived project, a new instance when the given one could be shared; 
+	 * the given project if the user is not allowed
+	 */
+	public Project unarchiveProject(Project project, DccdUser user) throws DataServiceException
 	{
 		// check if user is allowed
 		if (project.isManagementAllowed(user))
 		{			
+			project = getProjectToChange(project);
 			// change the status and update the project
 			project.getAdministrativeMetadata().setAdministrativeState(DatasetState.DRAFT);
 			updateProject(project);
@@ -225,14 +363,20 @@ public class DccdDataService implements DataService {
 			logger.debug("Rejected request to unarchive project " + project.getSid() + 
 					" by user " + user.getId());
 		}
+		return project;
 	}
 	
-	// Note: not using a archiving service just for sending the mail
-	public void archiveProject(Project project, DccdUser user) throws DataServiceException
+	/**
+	 * Note: not using a archiving service just for sending the mail
+	 * 
+	 * @return The archived project, a new instance when the given one could be shared
+	 */
+	public Project archiveProject(Project project, DccdUser user) throws DataServiceException
 	{
 		// TODO check if user is allowed, note that license cannot be checked here
 		//project.isManagementAllowed(user);
 		
+		project = getProjectToChange(project);
 		// change the status and update the project
 		project.getAdministrativeMetadata().setAdministrativeState(DatasetState.PUBLISHED);
 		updateProject(project);
@@ -280,6 +424,7 @@ public class DccdDataService implements DataService {
 		{
 			logger.error("Could not send a registration mail to " + user.getEmail() + ": ", e);
 		}	
+		return project;
 	}
 
 	
@@ -301,6 +446,7 @@ public class DccdDataService implements DataService {
 		String logMessage = "Deleting project: " + project.getSid() + " by user: " + user.getId();
 		logger.debug(logMessage);
 		project.registerDeleted();
+		projectCache.invalidate(project.getSid());
 		
 		boolean force = false; // it's not supported, but for a draft we could use it in the future
 		try
@@ -376,6 +522,8 @@ public class DccdDataService implements DataService {
 
 	/** Only loads the first time, keeps the projects and returns those in later requests.
 	 * This means no synchronization with the repository, but it is useful for demonstration!
+	 * Note: the repository can limit the list to the first projects, 
+	 * use getProjectIterator to go through all of them without keeping them in memory
 	 * @throws DataServiceException
 	 */
 	 public Collection< Project > getProjects() throws DataServiceException {
@@ -402,6 +550,19 @@ public class DccdDataService implements DataService {
 		return dendroProjects;
 	}
 
+	/**
+	 * Iterate over all projects in the repository, without keeping them all in memory; 
+	 * like with getProjects the projects only have the id and title set. 
+	 * The iterator throws a RuntimeException when the listing fails
+	 * 
+	 * @return The iterator
+	 * @throws DataServiceException
+	 */
+	public Iterator<Project> getProjectIterator() throws DataServiceException
+	{
+		return getRepository().getDendroProjectIterator();
+	}
+
 	 /**
 	  * force a reload on next call to getDendroProjects
 	  * need to call when the files have changes as a result of an upload
@@ -410,6 +571,8 @@ public class DccdDataService implements DataService {
 	  */
 	static public void reset() {
 		dendroProjects = null;
+		if (service != null)
+			service.projectCache.clear();
 	}
 
 	/**
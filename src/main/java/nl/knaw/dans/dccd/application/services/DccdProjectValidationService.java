@@ -20,7 +20,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
@@ -29,9 +31,12 @@ import nl.knaw.dans.common.lang.ClassUtil;
 import nl.knaw.dans.common.lang.search.SearchHit;
 import nl.knaw.dans.common.lang.search.SearchResult;
 import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.ProjectStatistics;
+import nl.knaw.dans.dccd.model.entities.AbstractEntityVisitor;
 import nl.knaw.dans.dccd.model.entities.DerivedSeriesEntity;
 import nl.knaw.dans.dccd.model.entities.ElementEntity;
 import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.EntityVisitor;
 import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
 import nl.knaw.dans.dccd.model.entities.ObjectEntity;
 import nl.knaw.dans.dccd.model.entities.ProjectEntity;
@@ -40,6 +45,7 @@ import nl.knaw.dans.dccd.model.entities.SampleEntity;
 import nl.knaw.dans.dccd.repository.xml.TridasValidationException;
 import nl.knaw.dans.dccd.repository.xml.XMLFilesRepositoryService;
 import nl.knaw.dans.dccd.search.DccdProjectSB;
+import nl.knaw.dans.dccd.tridas.TridasSchemaCache;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -106,61 +112,143 @@ public class DccdProjectValidationService
 	public List<ValidationErrorMessage> validate(Entity entity, String languageCode)
 	{
 		List<ValidationErrorMessage> entityErrorMessages = new ArrayList<ValidationErrorMessage>();
+		entity.accept(createValidationVisitor(languageCode, entityErrorMessages));
+		return entityErrorMessages;
+	}
+	
+	/**
+	 * Create a visitor that validates each entity it visits (and not it's sub entities) 
+	 * and adds the error messages to the given list. 
+	 * Can be combined with other visitors to validate a tree in the same walk 
+	 * as for instance the search beans are filled.
+	 * 
+	 * @param languageCode
+	 * @param errorMessages
+	 *        list the error messages are added to
+	 * @return The visitor
+	 */
+	public EntityVisitor createValidationVisitor(String languageCode, List<ValidationErrorMessage> errorMessages)
+	{
+		return new ValidationVisitor(languageCode, errorMessages, null);
+	}
+	
+	/**
+	 * Entity specific validation
+	 * Non-TRiDaS validation, extra requirements by DCCD
+	 * Other entities (Values) have nothing specific to be validated...
+	 */
+	private class ValidationVisitor extends AbstractEntityVisitor
+	{
+		private final String languageCode;
+		private final List<ValidationErrorMessage> errorMessages;
+		// the taxa in the vocabulary, null if each has to be looked up
+		private final Set<String> knownTaxa;
 		
-		// start as being valid
-		entity.setValidForArchiving(true);	
-		
-		// TRiDaS validation, test for required fields
-		// Note; always test for required tridas fields, JAXB doesn't check it on upload
-		if (entity.hasTridas())
+		ValidationVisitor(String languageCode, List<ValidationErrorMessage> errorMessages, Set<String> knownTaxa)
 		{
-			// required fields must be available
-			List<ValidationErrorMessage> validateForRequiredTridasFields = validateForRequiredTridasFields(entity.getTridasAsObject());
-			entityErrorMessages.addAll(validateForRequiredTridasFields);
+			this.languageCode = languageCode;
+			this.errorMessages = errorMessages;
+			this.knownTaxa = knownTaxa;
+		}
 
-			if (!validateForRequiredTridasFields.isEmpty()) 
-			{
-				entity.setValidForArchiving(false);
-			}
+		@Override
+		protected void visitEntity(Entity entity)
+		{
+			addAll(entity, validateEntity(entity));
 		}
-		
-		// Entity specific validation
-		// Non-TRiDaS validation, extra requirements by DCCD
-		// Note: maybe delegate this to the entities instead of a switch
-		if (entity instanceof ProjectEntity)
+
+		@Override
+		public void visit(ProjectEntity entity)
 		{
-			entityErrorMessages.addAll(validateProjectEntity((ProjectEntity)entity, languageCode));
+			List<ValidationErrorMessage> entityErrorMessages = validateEntity(entity);
+			entityErrorMessages.addAll(validateProjectEntity(entity, languageCode));
+			addAll(entity, entityErrorMessages);
 		}
-		else if (entity instanceof ObjectEntity)
+
+		@Override
+		public void visit(ObjectEntity entity)
 		{
-			entityErrorMessages.addAll(validateObjectEntity((ObjectEntity)entity, languageCode));
+			List<ValidationErrorMessage> entityErrorMessages = validateEntity(entity);
+			entityErrorMessages.addAll(validateObjectEntity(entity, languageCode));
+			addAll(entity, entityErrorMessages);
 		}
-		else if (entity instanceof ElementEntity)
+
+		@Override
+		public void visit(ElementEntity entity)
 		{
-			entityErrorMessages.addAll(validateElementEntity((ElementEntity)entity, languageCode));
+			List<ValidationErrorMessage> entityErrorMessages = validateEntity(entity);
+			entityErrorMessages.addAll(validateElementEntity(entity, languageCode, knownTaxa));
+			addAll(entity, entityErrorMessages);
 		}
-		else if (entity instanceof SampleEntity)
+
+		@Override
+		public void visit(SampleEntity entity)
 		{
-			entityErrorMessages.addAll(validateSampleEntity((SampleEntity)entity, languageCode));
+			List<ValidationErrorMessage> entityErrorMessages = validateEntity(entity);
+			entityErrorMessages.addAll(validateSampleEntity(entity, languageCode));
+			addAll(entity, entityErrorMessages);
 		}
-		else if (entity instanceof RadiusEntity)
+
+		@Override
+		public void visit(RadiusEntity entity)
 		{
-			entityErrorMessages.addAll(validateRadiusEntity((RadiusEntity)entity, languageCode));
+			List<ValidationErrorMessage> entityErrorMessages = validateEntity(entity);
+			entityErrorMessages.addAll(validateRadiusEntity(entity, languageCode));
+			addAll(entity, entityErrorMessages);
 		}
-		else if (entity instanceof MeasurementSeriesEntity)
+
+		@Override
+		public void visit(MeasurementSeriesEntity entity)
 		{
-			entityErrorMessages.addAll(validateMeasurementSeriesEntity((MeasurementSeriesEntity)entity, languageCode));
+			List<ValidationErrorMessage> entityErrorMessages = validateEntity(entity);
+			entityErrorMessages.addAll(validateMeasurementSeriesEntity(entity, languageCode));
+			addAll(entity, entityErrorMessages);
 		}
-		else if (entity instanceof DerivedSeriesEntity)
+
+		@Override
+		public void visit(DerivedSeriesEntity entity)
 		{
-			entityErrorMessages.addAll(validateDerivedSeriesEntity((DerivedSeriesEntity)entity, languageCode));
+			List<ValidationErrorMessage> entityErrorMessages = validateEntity(entity);
+			entityErrorMessages.addAll(validateDerivedSeriesEntity(entity, languageCode));
+			addAll(entity, entityErrorMessages);
 		}
-		// Other entities have nothing specific to be validated...
 		
-		// set the entity name on all its error messages
-		for(ValidationErrorMessage entityErrorMessage : entityErrorMessages)
+		private void addAll(Entity entity, List<ValidationErrorMessage> entityErrorMessages)
 		{
-			entityErrorMessage.setEntityId(entity.getId());
+			// set the entity name on all its error messages
+			for(ValidationErrorMessage entityErrorMessage : entityErrorMessages)
+			{
+				entityErrorMessage.setEntityId(entity.getId());
+			}
+			errorMessages.addAll(entityErrorMessages);
+		}
+	}
+	
+	/**
+	 * The validation that is the same for all entities
+	 * 
+	 * @param entity
+	 * @return
+	 */
+	private List<ValidationErrorMessage> validateEntity(Entity entity)
+	{
+		List<ValidationErrorMessage> entityErrorMessages = new ArrayList<ValidationErrorMessage>();
+		
+		// start as being valid
+		entity.setValidForArchiving(true);	
+		
+		// TRiDaS validation, test for required fields
+		// Note; always test for required tridas fields, JAXB doesn't check it on upload
+		if (entity.hasTridas())
+		{
+			// required fields must be available
+			List<ValidationErrorMessage> validateForRequiredTridasFields = validateForRequiredTridasFields(entity.getTridasAsObject());
+			entityErrorMessages.addAll(validateForRequiredTridasFields);
+
+			if (!validateForRequiredTridasFields.isEmpty()) 
+			{
+				entity.setValidForArchiving(false);
+			}
 		}
 		
 		return entityErrorMessages;
@@ -208,6 +296,15 @@ public class DccdProjectValidationService
 		//System.out.println("valid = " + isValid);
 		return errorMessages;
 	}
+
+	/**
+	 * The TRiDaS schemas are compiled once and cached, 
+	 * use this when the schema files have been replaced
+	 */
+	public void reloadTridasSchemas()
+	{
+		TridasSchemaCache.reload();
+	}
 	
 	/**
 	 * validate(Project project)
@@ -226,15 +323,17 @@ public class DccdProjectValidationService
 			
 			String languageCode = project.getTridasLanguage().getLanguage();
 			
-			List<Entity> entities = project.entityTree.getEntities();
-			
-			logger.debug("Number of entities to validate: " + entities.size() );
-			for (Entity entity : entities)
+			ProjectStatistics statistics = project.getStatistics();
+			logger.debug("Number of entities to validate: " + statistics.getEntityCount() );
+			// each taxon of the project is looked up once instead of for each element
+			Set<String> knownTaxa = new HashSet<String>();
+			for (String taxon : statistics.getTaxa())
 			{
-				//logger.debug("Entity " + entity.getLabel());
-				// do the validation, and add errors when found
-				errorMessages.addAll(validate(entity, languageCode));
+				if (DccdVocabularyService.getService().hasTerm("element.taxon", taxon, languageCode))
+					knownTaxa.add(taxon);
 			}
+			// do the validation, and add errors when found
+			project.entityTree.accept(new ValidationVisitor(languageCode, errorMessages, knownTaxa));
 			logger.debug("Done validating project: "+ project.getTitle());
 		}
 		
@@ -416,7 +515,8 @@ public class DccdProjectValidationService
 		return errorMessages;
 	}
 
-	private List<ValidationErrorMessage> validateElementEntity(ElementEntity elementEntity, String languageCode)
+	private List<ValidationErrorMessage> validateElementEntity(ElementEntity elementEntity, String languageCode, 
+			Set<String> knownTaxa)
 	{
 		final List<ValidationErrorMessage> errorMessages = new ArrayList<ValidationErrorMessage>(); 
 		logger.debug("validation specific for ElementEntity");
@@ -487,7 +587,9 @@ public class DccdProjectValidationService
 				{
 					// should be in the DCCD vocabulary
 					String term = tridasElement.getTaxon().getValue(); 
-					if (!DccdVocabularyService.getService().hasTerm("element.taxon", term, languageCode))
+					boolean known = (knownTaxa != null) ? knownTaxa.contains(term) : 
+						DccdVocabularyService.getService().hasTerm("element.taxon", term, languageCode);
+					if (!known)
 					{
 						// illegal term!
 						errorMessages.add( new ValidationErrorMessage(INVALID_DCCD_CVOC_MSG, 
@@ -25,6 +25,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
@@ -86,28 +87,141 @@ public class DccdSearchService implements SearchService {
 		return service;
 	}
 
-	private SolrSearchEngine searchEngine = null;
+	// Note: volatile, only the creation is synchronized
+	private volatile SolrSearchEngine searchEngine = null;
 
 	private SolrSearchEngine easySearchEngine = null;
 
+	static final String INDEX_ASYNC_SETTING = "solr.index.async";
+	static final String INDEX_BATCH_SIZE_SETTING = "solr.index.batchSize";
+	static final String INDEX_COMMIT_INTERVAL_SETTING = "solr.index.commitInterval";
+	static final String INDEX_QUEUE_CAPACITY_SETTING = "solr.index.queueCapacity";
+	static final String INDEX_DIGEST_CAPACITY_SETTING = "solr.index.digestCapacity";
+
+	// null when the index is updated synchronously
+	private SearchIndexWriter indexWriter = null;
+	private boolean indexWriterCreated = false;
+
+	// null when all beans are sent on each update
+	private SearchBeanDigests beanDigests = null;
+	private boolean beanDigestsCreated = false;
+
+	// the updates of a project are sent under the lock of its sid, 
+	// otherwise concurrent updates could send their changes in another order than the digests were updated 
+	// and the reindex could overwrite a newer update
+	private final SearchIndexUpdates indexUpdates = new SearchIndexUpdates();
+
+	SearchIndexUpdates getIndexUpdates()
+	{
+		return indexUpdates;
+	}
+
 	//TODO: hide this from the services. This should be part of the
 	// data layer, not the business layer
-	synchronized SearchEngine getSearchEngine()
+	SearchEngine getSearchEngine()
 	{
-		if (searchEngine == null)
+		SolrSearchEngine result = searchEngine;
+		if (result == null)
 		{
-			Properties settings = DccdConfigurationService.getService().getSettings();
-			String solrUrl = settings.getProperty("solr.url");
-			try
+			synchronized (this)
 			{
-				searchEngine  = new SolrSearchEngine(solrUrl, new DccdSearchBeanFactory());
-//				searchEngine  = new SolrSearchEngine(solrUrl, new DccdSearchBeanFactory(), false);
-			} catch (MalformedURLException e)
+				result = searchEngine;
+				if (result == null)
+				{
+					Properties settings = DccdConfigurationService.getService().getSettings();
+					String solrUrl = settings.getProperty("solr.url");
+					try
+					{
+						result = new SolrSearchEngine(solrUrl, new DccdSearchBeanFactory());
+//						result = new SolrSearchEngine(solrUrl, new DccdSearchBeanFactory(), false);
+						searchEngine = result;
+					} catch (MalformedURLException e)
+					{
+						logger.error("Malformed URL for Solr searchengine: " + solrUrl, e);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The writer for asynchronous index updates, 
+	 * only when enabled with the solr.index.async setting
+	 * 
+	 * @return The writer or null if the index is updated synchronously
+	 */
+	synchronized SearchIndexWriter getIndexWriter()
+	{
+		if (!indexWriterCreated)
+		{
+			Properties settings = DccdConfigurationService.getService().getSettings();
+			if (Boolean.parseBoolean(settings.getProperty(INDEX_ASYNC_SETTING).trim()))
 			{
-				logger.error("Malformed URL for Solr searchengine: " + solrUrl, e);
+				SearchEngine engine = getSearchEngine();
+				if (engine != null)
+				{
+					indexWriter = new SearchIndexWriter(engine, 
+							Integer.parseInt(settings.getProperty(INDEX_BATCH_SIZE_SETTING).trim()), 
+							Long.parseLong(settings.getProperty(INDEX_COMMIT_INTERVAL_SETTING).trim()), 
+							Integer.parseInt(settings.getProperty(INDEX_QUEUE_CAPACITY_SETTING).trim()))
+					{
+						@Override
+						protected void sendFailed(List<String> sids)
+						{
+							forgetBeanDigests(sids);
+						}
+					};
+					logger.info("Updating the search index asynchronously");
+					// the worker is a daemon thread, the pending updates would be lost on exit
+					Runtime.getRuntime().addShutdownHook(new Thread("dccd-index-writer-shutdown")
+					{
+						public void run()
+						{
+							try
+							{
+								shutdown();
+							}
+							catch (SearchServiceException e)
+							{
+								logger.error("Could not send the pending search index updates", e);
+							}
+						}
+					});
+				}
 			}
+			indexWriterCreated = true;
+		}
+		return indexWriter;
+	}
+
+	/**
+	 * The digests of the beans sent for each project, 
+	 * only when enabled with the solr.index.digestCapacity setting (bigger than 0)
+	 * 
+	 * @return The digests or null if all beans are sent on each update
+	 */
+	synchronized SearchBeanDigests getBeanDigests()
+	{
+		if (!beanDigestsCreated)
+		{
+			Properties settings = DccdConfigurationService.getService().getSettings();
+			int capacity = Integer.parseInt(settings.getProperty(INDEX_DIGEST_CAPACITY_SETTING).trim());
+			if (capacity > 0)
+				beanDigests = new SearchBeanDigests(capacity);
+			beanDigestsCreated = true;
+		}
+		return beanDigests;
+	}
+
+	void forgetBeanDigests(Collection<String> sids)
+	{
+		SearchBeanDigests digests = getBeanDigests();
+		if (digests != null)
+		{
+			for (String sid : sids)
+				digests.forget(sid);
 		}
-		return searchEngine;
 	}
 
 	synchronized SearchEngine getEasySearchEngine()
@@ -140,40 +254,146 @@ public class DccdSearchService implements SearchService {
 	}
 
 
-	// TODO Don't create the new SolrSearchEngine every time...
 	public void updateSearchIndex(Project project) throws SearchServiceException
 	{
-		// TODO get URL from properties like with the 'OLD' search
 		try
 		{
-			SearchEngine searchEngine = getSearchEngine();
 			// construct the beans and index them
+			// Note: the beans are constructed now, the project could change afterwards
 			Collection<? extends Object> dccdBeans = project.getSearchBeans();
-			searchEngine.indexBeans(dccdBeans);
+			SearchBeanDigests digests = getBeanDigests();
+			indexUpdates.lock(project.getSid());
+			try
+			{
+				if (digests == null)
+				{
+					SearchIndexWriter writer = getIndexWriter();
+					if (writer != null)
+						writer.index(project.getSid(), dccdBeans);
+					else
+						getSearchEngine().indexBeans(dccdBeans);
+					indexUpdates.updated(project.getSid());
+					return;
+				}
+
+				// only send what changed since the last update
+				SearchBeanDigests.Changes changes = digests.update(project.getSid(), dccdBeans);
+				logger.debug("Search index update for " + project.getSid() + ": " + changes);
+				if (changes.isEmpty())
+					return;
+				boolean sent = false;
+				try
+				{
+					SearchIndexWriter writer = getIndexWriter();
+					if (writer != null)
+					{
+						writer.update(project.getSid(), changes.getRemoved(), changes.getChanged());
+					}
+					else
+					{
+						if (!changes.getRemoved().isEmpty())
+							getSearchEngine().deleteBeans(changes.getRemoved());
+						if (!changes.getChanged().isEmpty())
+							getSearchEngine().indexBeans(changes.getChanged());
+					}
+					sent = true;
+				}
+				finally
+				{
+					// the digests would not match the index
+					if (!sent)
+						digests.forget(project.getSid());
+				}
+				indexUpdates.updated(project.getSid());
+			}
+			finally
+			{
+				indexUpdates.unlock(project.getSid());
+			}
 		}
 		catch (SearchEngineException e)
 		{
 			throw new SearchServiceException(e);
 		}
-
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SearchServiceException(e);
+		}
 	}
 
 
 	public void deleteSearchIndex(Project project) throws SearchServiceException
 	{
-		// TODO get URL from properties like with the 'OLD' search
 		try
 		{
-			SearchEngine searchEngine = getSearchEngine();
-			// construct the beans and index them
 			Collection<? extends Object> dccdBeans = project.getSearchBeans();
-			searchEngine.deleteBeans(dccdBeans);
+			indexUpdates.lock(project.getSid());
+			try
+			{
+				forgetBeanDigests(Collections.singletonList(project.getSid()));
+				SearchIndexWriter writer = getIndexWriter();
+				if (writer != null)
+					writer.delete(project.getSid(), dccdBeans);
+				else
+					getSearchEngine().deleteBeans(dccdBeans);
+				indexUpdates.updated(project.getSid());
+			}
+			finally
+			{
+				indexUpdates.unlock(project.getSid());
+			}
 		}
 		catch (SearchEngineException e)
 		{
 			throw new SearchServiceException(e);
 		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SearchServiceException(e);
+		}
+	}
 
+	public void flushSearchIndex() throws SearchServiceException
+	{
+		SearchIndexWriter writer = getIndexWriter();
+		if (writer == null)
+			return; // nothing pending
+
+		try
+		{
+			writer.flush();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SearchServiceException(e);
+		}
+	}
+
+	public void shutdown() throws SearchServiceException
+	{
+		SearchIndexWriter writer;
+		synchronized (this)
+		{
+			writer = indexWriter;
+			// Note: indexWriterCreated stays true, so the writer is not created again
+			indexWriter = null;
+		}
+		if (writer == null)
+			return;
+
+		try
+		{
+			writer.close();
+			logger.info("Search index writer closed: " + writer);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SearchServiceException(e);
+		}
 	}
 
 	/** search through all data, no filtering ! */
@@ -393,8 +613,20 @@ public class DccdSearchService implements SearchService {
 		// transform for indexing
 		Document transformedDoc = transformFoxml(foxmlStr);
 
-		// feed to the indexing beast
-		updateSolr(transformedDoc);
+		indexUpdates.lock(sid);
+		try
+		{
+			// the documents are replaced without the beans
+			forgetBeanDigests(Collections.singletonList(sid));
+
+			// feed to the indexing beast
+			updateSolr(transformedDoc);
+			indexUpdates.updated(sid);
+		}
+		finally
+		{
+			indexUpdates.unlock(sid);
+		}
 	}
 
 	/**	 Get the foxml from the Fedora Repository
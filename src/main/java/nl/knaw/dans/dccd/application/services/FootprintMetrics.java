@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.knaw.dans.dccd.model.ProjectFootprint;
+
+/**
+ * Aggregated memory footprints of the projects that were loaded, 
+ * for sizing the servers; can be read while projects are recorded.
+ */
+public class FootprintMetrics
+{
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong> categories = new ConcurrentHashMap<String, AtomicLong>();
+
+	public void record(ProjectFootprint footprint)
+	{
+		count.incrementAndGet();
+		total.addAndGet(footprint.getTotal());
+		long current = max.get();
+		while (footprint.getTotal() > current && !max.compareAndSet(current, footprint.getTotal()))
+		{
+			current = max.get();
+		}
+		for (Map.Entry<String, Long> entry : footprint.getCategories().entrySet())
+		{
+			AtomicLong categoryTotal = categories.get(entry.getKey());
+			if (categoryTotal == null)
+			{
+				AtomicLong created = new AtomicLong();
+				categoryTotal = categories.putIfAbsent(entry.getKey(), created);
+				if (categoryTotal == null)
+					categoryTotal = created;
+			}
+			categoryTotal.addAndGet(entry.getValue());
+		}
+	}
+
+	/**
+	 * @return the number of recorded projects
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return the summed footprint in bytes
+	 */
+	public long getTotal()
+	{
+		return total.get();
+	}
+
+	/**
+	 * @return the largest footprint in bytes
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	public long getAverage()
+	{
+		long n = getCount();
+		return (n == 0) ? 0 : getTotal() / n;
+	}
+
+	/**
+	 * @return the summed footprint in bytes by category, sorted by category
+	 */
+	public Map<String, Long> getCategoryTotals()
+	{
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : categories.entrySet())
+		{
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FootprintMetrics[count=" + getCount() + ", total=" + getTotal() + ", max=" + getMax() + 
+				", average=" + getAverage() + ", " + getCategoryTotals() + "]";
+	}
+}
@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs items through a sequence of stages, each with its own workers; 
+ * bounded queues connect the stages, so putting blocks when the pipeline is full 
+ * and only a limited number of items are in progress. 
+ * Used by the BulkIngestEngine and the ReindexEngine. 
+ * 
+ * An item that fails in a stage is passed to failed and skips the next stages, the other items continue. 
+ * When a worker dies of anything else (like an OutOfMemoryError) the whole run is stopped: 
+ * the other workers are interrupted and put and finish throw what killed the worker, 
+ * instead of waiting forever for a stage that never ends. 
+ * 
+ * Usage: add the stages, start, put the items, finish, and stop in a finally block.
+ * 
+ * @param <T>
+ *        the item, it carries the results of one stage to the next
+ */
+public abstract class Pipeline<T>
+{
+	private static Logger logger = Logger.getLogger(Pipeline.class);
+
+	// marks the end of the input of a stage, one for each worker
+	private static final Object END = new Object();
+	// how long a blocked put waits before checking if the run was stopped
+	private static final long POLL_MILLIS = 100L;
+
+	private final String threadNamePrefix;
+	private final int queueCapacity;
+	private final List<Stage<T>> stages = new ArrayList<Stage<T>>();
+	// what killed a worker and stopped the run
+	private final AtomicReference<Throwable> fatal = new AtomicReference<Throwable>();
+	private ExecutorService executor = null;
+
+	/**
+	 * @param threadNamePrefix
+	 *        the workers are named with this prefix and a number
+	 * @param queueCapacity
+	 *        the maximum number of items waiting for each stage
+	 */
+	public Pipeline(String threadNamePrefix, int queueCapacity)
+	{
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be 1 or bigger");
+		this.threadNamePrefix = threadNamePrefix;
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void addStage(Stage<T> stage)
+	{
+		if (executor != null)
+			throw new IllegalStateException("Pipeline is started");
+		stage.input = new ArrayBlockingQueue<Object>(queueCapacity);
+		stage.running = new AtomicInteger(stage.workers);
+		if (!stages.isEmpty())
+			stages.get(stages.size() - 1).next = stage;
+		stages.add(stage);
+	}
+
+	/**
+	 * Called by a worker of the last stage when the item went through all stages
+	 */
+	protected void completed(T item)
+	{
+		// nothing to do
+	}
+
+	/**
+	 * Called by a worker when processing the item failed, the item is not passed to the next stages
+	 */
+	protected abstract void failed(T item, Stage<T> stage, Exception e);
+
+	/**
+	 * Start the workers of all stages
+	 */
+	public void start()
+	{
+		if (stages.isEmpty())
+			throw new IllegalStateException("Pipeline has no stages");
+		if (executor != null)
+			throw new IllegalStateException("Pipeline is started");
+
+		int total = 0;
+		for (Stage<T> stage : stages)
+			total += stage.workers;
+		executor = Executors.newFixedThreadPool(total, new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable)
+			{
+				return new Thread(runnable, threadNamePrefix + count.incrementAndGet());
+			}
+		});
+		for (Stage<T> stage : stages)
+		{
+			for (int i = 0; i < stage.workers; i++)
+				executor.execute(new Worker(stage));
+		}
+	}
+
+	/**
+	 * Put the item in the first stage, this blocks when the pipeline is full
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void put(T item) throws InterruptedException
+	{
+		put(stages.get(0), item);
+	}
+
+	/**
+	 * Wait until all items that were put went through the stages
+	 * 
+	 * @return the metrics of each stage
+	 * @throws InterruptedException
+	 */
+	public List<StageMetrics> finish() throws InterruptedException
+	{
+		end(stages.get(0));
+		executor.shutdown();
+		while (!executor.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS))
+		{
+			// wait for the last worker
+		}
+		rethrowFatal();
+
+		List<StageMetrics> metrics = new ArrayList<StageMetrics>();
+		for (Stage<T> stage : stages)
+			metrics.add(stage.metrics);
+		return metrics;
+	}
+
+	/**
+	 * Stop the workers, the items in progress are dropped; 
+	 * does nothing when the pipeline is finished already
+	 */
+	public void stop()
+	{
+		if (executor != null)
+			executor.shutdownNow();
+	}
+
+	private void put(Stage<T> stage, Object element) throws InterruptedException
+	{
+		// the workers taking from the queue could be stopped
+		while (!stage.input.offer(element, POLL_MILLIS, TimeUnit.MILLISECONDS))
+			rethrowFatal();
+		rethrowFatal();
+	}
+
+	private void end(Stage<T> stage) throws InterruptedException
+	{
+		for (int i = 0; i < stage.workers; i++)
+			put(stage, END);
+	}
+
+	private void abort(Stage<T> stage, Throwable t)
+	{
+		if (fatal.compareAndSet(null, t))
+		{
+			logger.fatal("Stopping the run, a worker of the " + stage.name + " stage died", t);
+			executor.shutdownNow();
+		}
+	}
+
+	private void rethrowFatal()
+	{
+		Throwable t = fatal.get();
+		if (t == null)
+			return;
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		throw new IllegalStateException("Pipeline stopped", t);
+	}
+
+	/**
+	 * One step of the work for an item, the same stage is run by all its workers
+	 */
+	public abstract static class Stage<T>
+	{
+		private final String name;
+		private final int workers;
+		private final StageMetrics metrics;
+		// set when added to the pipeline
+		private BlockingQueue<Object> input = null;
+		private AtomicInteger running = null;
+		private Stage<T> next = null;
+
+		public Stage(String name, int workers)
+		{
+			if (workers < 1)
+				throw new IllegalArgumentException("workers must be 1 or bigger");
+			this.name = name;
+			this.workers = workers;
+			this.metrics = new StageMetrics(name, workers);
+		}
+
+		/**
+		 * @throws Exception
+		 *         when the item failed, the pipeline continues with the next item
+		 */
+		protected abstract void process(T item) throws Exception;
+
+		/**
+		 * Called by the last worker when all input is processed, 
+		 * before the next stage is ended
+		 */
+		protected void ended()
+		{
+			// nothing to do
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public int getWorkers()
+		{
+			return workers;
+		}
+
+		public StageMetrics getMetrics()
+		{
+			return metrics;
+		}
+	}
+
+	private class Worker implements Runnable
+	{
+		private final Stage<T> stage;
+
+		Worker(Stage<T> stage)
+		{
+			this.stage = stage;
+		}
+
+		public void run()
+		{
+			try
+			{
+				work();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt(); // the whole run is stopped
+			}
+			catch (Throwable t)
+			{
+				abort(stage, t);
+			}
+			finally
+			{
+				workerEnded();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void work() throws InterruptedException
+		{
+			Object element;
+			while ((element = stage.input.take()) != END)
+			{
+				T item = (T) element;
+				long start = stage.metrics.start();
+				try
+				{
+					stage.process(item);
+					stage.metrics.processed(start);
+				}
+				catch (Exception e)
+				{
+					stage.metrics.failed(start);
+					failed(item, stage, e);
+					continue;
+				}
+
+				if (stage.next != null)
+					put(stage.next, item);
+				else
+					completed(item);
+			}
+		}
+
+		// the last worker of a stage ends the next stage, unless the run is stopped
+		private void workerEnded()
+		{
+			if (stage.running.decrementAndGet() != 0 || fatal.get() != null || Thread.currentThread().isInterrupted())
+				return;
+			try
+			{
+				stage.ended();
+				if (stage.next != null)
+					end(stage.next);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (Throwable t)
+			{
+				abort(stage, t);
+			}
+		}
+	}
+}
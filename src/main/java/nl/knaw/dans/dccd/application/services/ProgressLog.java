@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Log of the items that are done (or failed) in a long running batch, 
+ * used to restart the batch and skip the items that were done already. 
+ * 
+ * Each item is a line appended to the file: the status, the key and a detail, separated by tabs. 
+ * The line is flushed immediately, so the log is complete up to the last item when the process dies.
+ * A key that failed and was done in a later run is done. 
+ * An item that takes several steps can log a checkpoint, like the sid of a stored project that is not indexed yet, 
+ * so a restart resumes from there instead of doing the first steps again.
+ */
+public class ProgressLog
+{
+	private static Logger logger = Logger.getLogger(ProgressLog.class);
+
+	public static final String CHARSET = "UTF-8";
+	static final String DONE = "DONE";
+	static final String FAILED = "FAILED";
+	static final String CHECKPOINT = "CHECKPOINT";
+
+	private final File file;
+	// the detail for the keys that are done
+	private final Map<String, String> done = new HashMap<String, String>();
+	// the detail of the last checkpoint for the keys
+	private final Map<String, String> checkpoints = new HashMap<String, String>();
+	private int failedCount = 0;
+	private Writer writer = null;
+
+	/**
+	 * Read the log if it exists and open it for appending
+	 * 
+	 * @param file
+	 *        the log file, created when it does not exist
+	 * @throws IOException
+	 */
+	public ProgressLog(File file) throws IOException
+	{
+		this.file = file;
+		if (file.exists())
+		{
+			removeIncompleteLine();
+			read();
+		}
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), CHARSET));
+	}
+
+	/**
+	 * The last line has no newline when it was killed while writing; 
+	 * it is removed, otherwise the next item would be appended to it and both would be lost
+	 */
+	private void removeIncompleteLine() throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			long length = raf.length();
+			while (length > 0)
+			{
+				raf.seek(length - 1);
+				if (raf.read() == '\n')
+					break;
+				length--;
+			}
+			if (length != raf.length())
+			{
+				logger.warn("Removing incomplete last line of progress log " + file.getPath());
+				raf.setLength(length);
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private void read() throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+				parse(line);
+		}
+		finally
+		{
+			reader.close();
+		}
+		logger.info("Progress log " + file.getPath() + " has " + done.size() + " items done");
+	}
+
+	private void parse(String line)
+	{
+		String[] fields = line.split("\t", -1);
+		if (fields.length != 3)
+		{
+			logger.warn("Skipping invalid line in progress log " + file.getPath() + ": " + line);
+			return;
+		}
+
+		if (DONE.equals(fields[0]))
+			done.put(fields[1], fields[2]);
+		else if (CHECKPOINT.equals(fields[0]))
+			setCheckpoint(fields[1], fields[2]);
+	}
+
+	// an empty detail is no checkpoint, the item is started from the first step
+	private void setCheckpoint(String key, String detail)
+	{
+		if (detail == null || detail.length() == 0)
+			checkpoints.remove(key);
+		else
+			checkpoints.put(key, detail);
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public synchronized boolean isDone(String key)
+	{
+		return done.containsKey(key);
+	}
+
+	/**
+	 * @return the detail logged when the item was done, or null if it is not done
+	 */
+	public synchronized String getDetail(String key)
+	{
+		return done.get(key);
+	}
+
+	/**
+	 * @return the detail of the last checkpoint of the item, or null if there is none or its detail was empty
+	 */
+	public synchronized String getCheckpoint(String key)
+	{
+		return checkpoints.get(key);
+	}
+
+	public synchronized int getDoneCount()
+	{
+		return done.size();
+	}
+
+	/**
+	 * @return the number of failed items logged since this log was opened
+	 */
+	public synchronized int getFailedCount()
+	{
+		return failedCount;
+	}
+
+	public synchronized void done(String key, String detail) throws IOException
+	{
+		write(DONE, key, detail);
+		done.put(key, detail == null ? "" : detail);
+	}
+
+	/**
+	 * Log that the item got past a step, but is not done yet
+	 */
+	public synchronized void checkpoint(String key, String detail) throws IOException
+	{
+		write(CHECKPOINT, key, detail);
+		setCheckpoint(key, clean(detail));
+	}
+
+	public synchronized void failed(String key, String detail) throws IOException
+	{
+		write(FAILED, key, detail);
+		failedCount++;
+	}
+
+	private void write(String status, String key, String detail) throws IOException
+	{
+		if (writer == null)
+			throw new IllegalStateException("Progress log is closed: " + file.getPath());
+
+		writer.write(status);
+		writer.write('\t');
+		writer.write(clean(key));
+		writer.write('\t');
+		writer.write(clean(detail));
+		writer.write('\n');
+		writer.flush();
+	}
+
+	// the tab and newline are used for the line format
+	private static String clean(String value)
+	{
+		if (value == null)
+			return "";
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	public synchronized void close() throws IOException
+	{
+		if (writer != null)
+		{
+			writer.close();
+			writer = null;
+		}
+	}
+}
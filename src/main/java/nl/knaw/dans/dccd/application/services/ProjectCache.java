@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.ProjectFootprint;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Least recently used cache of retrieved Projects, keyed by sid. 
+ * The cache has a memory budget in bytes instead of a maximum number of projects, 
+ * because the projects differ a lot in size; 
+ * the weight of a project is estimated when it is put in the cache, 
+ * with weights per entity and per value that are calibrated with the footprints of cached projects. 
+ * The values of a cached project are compacted, see Project.compactValues(); 
+ * only when the project is accepted by the cache, just before it is shared. 
+ * 
+ * Note: the cached Project objects are shared, 
+ * any change must be stored via the DataService which invalidates the cached project.
+ */
+public class ProjectCache
+{
+	private static Logger logger = Logger.getLogger(ProjectCache.class);
+
+	// rough estimates of the memory used in bytes, until calibrated
+	static final long PROJECT_WEIGHT = 16 * 1024;
+	static final long ENTITY_WEIGHT = 2 * 1024;
+	static final long COMPACT_VALUE_WEIGHT = 8;
+
+	// the calibration, sums of the footprints
+	private long calibrations = 0;
+	private long projectBytes = 0;
+	private long entities = 0;
+	private long entityBytes = 0;
+	private long values = 0;
+	private long valueBytes = 0;
+
+	private final long budget;
+	private long weight = 0;
+	// Note: invalidation counter, a project retrieved before an invalidation is not cached
+	private long generation = 0;
+	private final LinkedHashMap<String, CachedProject> projects = new LinkedHashMap<String, CachedProject>(16, 0.75f, true);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param budget
+	 *        maximum of the summed (estimated) weights of the cached projects in bytes, 
+	 *        zero (or less) disables the cache
+	 */
+	public ProjectCache(long budget)
+	{
+		this.budget = budget;
+	}
+
+	public boolean isEnabled()
+	{
+		return budget > 0;
+	}
+
+	/**
+	 * @return the cached project or null if it is not in the cache
+	 */
+	public synchronized Project get(String sid)
+	{
+		if (!isEnabled())
+			return null;
+
+		CachedProject cached = projects.get(sid);
+		if (cached == null)
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return cached.project;
+	}
+
+	/**
+	 * Use the returned value with put, 
+	 * so a project retrieved while it was being changed is not cached.
+	 * 
+	 * @return the current generation of the cache
+	 */
+	public synchronized long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Put the project in the cache, unless the cache was invalidated after the given generation 
+	 * or the project does not fit; only then its values are compacted. 
+	 * The least recently used projects are evicted when the budget is exceeded.
+	 * 
+	 * @param project
+	 *        the project to cache
+	 * @param retrievedGeneration
+	 *        the generation of the cache before the project was retrieved
+	 * @return true if the project was cached
+	 */
+	public boolean put(Project project, long retrievedGeneration)
+	{
+		if (!isEnabled())
+			return false;
+
+		// Note: estimate outside the lock, it walks the entity tree
+		long projectWeight = weigh(project);
+		if (projectWeight > budget)
+		{
+			logger.debug("Project too large to cache: " + project.getSid());
+			return false;
+		}
+		synchronized (this)
+		{
+			if (retrievedGeneration != generation)
+				return false; // could be stale
+		}
+
+		// Note: outside the lock, it walks all values; 
+		// if the cache is invalidated meanwhile the compacted project is not cached
+		project.compactValues();
+
+		synchronized (this)
+		{
+			if (retrievedGeneration != generation)
+				return false; // could be stale
+
+			CachedProject previous = projects.put(project.getSid(), new CachedProject(project, projectWeight));
+			if (previous != null)
+				weight -= previous.weight;
+			weight += projectWeight;
+			evict();
+		}
+		return true;
+	}
+
+	private void evict()
+	{
+		Iterator<CachedProject> iterator = projects.values().iterator();
+		while (weight > budget && iterator.hasNext())
+		{
+			CachedProject eldest = iterator.next();
+			iterator.remove();
+			weight -= eldest.weight;
+			evictions.incrementAndGet();
+			logger.debug("Evicted project from cache: " + eldest.project.getSid());
+		}
+	}
+
+	/**
+	 * Remove the project from the cache, 
+	 * must be called when it is changed in the repository
+	 */
+	public synchronized void invalidate(String sid)
+	{
+		generation++;
+		CachedProject removed = projects.remove(sid);
+		if (removed != null)
+			weight -= removed.weight;
+	}
+
+	public synchronized void clear()
+	{
+		generation++;
+		projects.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Estimate of the memory used by the project when it is cached, with its values compacted; 
+	 * only the entities that are loaded have their values counted.
+	 */
+	protected long weigh(Project project)
+	{
+		long projectWeight;
+		long entityWeight;
+		long valueWeight;
+		synchronized (this)
+		{
+			projectWeight = (calibrations == 0) ? PROJECT_WEIGHT : projectBytes / calibrations;
+			entityWeight = (entities == 0) ? ENTITY_WEIGHT : Math.max(1, entityBytes / entities);
+			valueWeight = (values == 0) ? COMPACT_VALUE_WEIGHT : Math.max(1, valueBytes / values);
+		}
+
+		long result = projectWeight;
+		for (Entity entity : project.entityTree.getEntities())
+		{
+			result += entityWeight;
+			if (entity instanceof ValuesEntity && entity.isTridasLoaded())
+				result += valueWeight * ((ValuesEntity) entity).getValueCount();
+		}
+		return result;
+	}
+
+	/**
+	 * Calibrate the weights with the footprint of a cached project, 
+	 * the weights of later projects are estimated with the averages of all calibrations; 
+	 * the footprint walks all objects of the project so this is done for a sample only.
+	 * 
+	 * @param project
+	 *        the cached project, with its values compacted
+	 * @param footprint
+	 *        its footprint
+	 */
+	public void calibrate(Project project, ProjectFootprint footprint)
+	{
+		int entityCount = 0;
+		long valueCount = 0;
+		for (Entity entity : project.entityTree.getEntities())
+		{
+			entityCount++;
+			if (entity instanceof ValuesEntity && entity.isTridasLoaded())
+				valueCount += ((ValuesEntity) entity).getValueCount();
+		}
+		// Note: the values category includes the ValuesEntity objects, counted as part of the values
+		long valuesTotal = footprint.get(ProjectFootprint.VALUES);
+		long projectTotal = footprint.get(ProjectFootprint.PROJECT) + footprint.get(ProjectFootprint.VOCABULARY) 
+				+ footprint.get(ProjectFootprint.FILE_UNITS);
+		long entitiesTotal = Math.max(0, footprint.getTotal() - valuesTotal - projectTotal);
+
+		synchronized (this)
+		{
+			calibrations++;
+			projectBytes += projectTotal;
+			entities += entityCount;
+			entityBytes += entitiesTotal;
+			if (valueCount > 0)
+			{
+				values += valueCount;
+				valueBytes += valuesTotal;
+			}
+		}
+	}
+
+	public synchronized int size()
+	{
+		return projects.size();
+	}
+
+	/**
+	 * @return the summed (estimated) weight of the cached projects in bytes
+	 */
+	public synchronized long getWeight()
+	{
+		return weight;
+	}
+
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return evictions.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ProjectCache[size=" + size() + ", weight=" + getWeight() + ", budget=" + budget + 
+				", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+
+	private static class CachedProject
+	{
+		final Project project;
+		final long weight;
+
+		CachedProject(Project project, long weight)
+		{
+			this.project = project;
+			this.weight = weight;
+		}
+	}
+}
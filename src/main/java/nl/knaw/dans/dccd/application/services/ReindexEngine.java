@@ -0,0 +1,546 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.knaw.dans.dccd.model.Project;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Rebuilds the search index for all projects in the repository. 
+ * 
+ * Like the BulkIngestEngine the work is done in stages with their own workers: 
+ * load the project, generate the search beans and send them to the search engine. 
+ * Generating the beans is the cpu intensive part and runs on several workers, 
+ * the beans of several projects are sent in one batch because each call to the search engine commits. 
+ * The projects are listed while reindexing and bounded queues connect the stages, 
+ * so only a limited number of projects are in memory; 
+ * the rate at which projects are loaded can be limited to spare the repository. 
+ * 
+ * The beans of a batch are sent under the locks of the search service for its projects, 
+ * a project that was updated after it was loaded is not sent again, so the newer update is not overwritten by older beans. 
+ * The digests of the reindexed projects are forgotten because their beans are replaced. 
+ * The progress is logged after the beans have been sent; 
+ * when a reindex is restarted with the same log the projects that were done are skipped. 
+ * 
+ * Note: the beans of objects that were removed from a project are not deleted from the index.
+ */
+public class ReindexEngine
+{
+	private static Logger logger = Logger.getLogger(ReindexEngine.class);
+
+	public static final String LOAD_STAGE = "load";
+	public static final String BEANS_STAGE = "beans";
+	public static final String INDEX_STAGE = "index";
+
+	static final String WORKERS_SETTING_PREFIX = "reindex.workers.";
+	static final String QUEUE_CAPACITY_SETTING = "reindex.queue.capacity";
+	static final String BATCH_SIZE_SETTING = "reindex.batchSize";
+	static final String MAX_RATE_SETTING = "reindex.maxProjectsPerSecond";
+
+	private final Map<String, Integer> workers = new LinkedHashMap<String, Integer>();
+	private int queueCapacity;
+	private int batchSize;
+	private double maxRate;
+
+	public ReindexEngine()
+	{
+		Properties settings = DccdConfigurationService.getService().getSettings();
+		String processors = Integer.toString(Runtime.getRuntime().availableProcessors());
+		workers.put(LOAD_STAGE, Integer.parseInt(settings.getProperty(WORKERS_SETTING_PREFIX + LOAD_STAGE, "2").trim()));
+		workers.put(BEANS_STAGE, Integer.parseInt(settings.getProperty(WORKERS_SETTING_PREFIX + BEANS_STAGE, processors).trim()));
+		workers.put(INDEX_STAGE, Integer.parseInt(settings.getProperty(WORKERS_SETTING_PREFIX + INDEX_STAGE, "1").trim()));
+		queueCapacity = Integer.parseInt(settings.getProperty(QUEUE_CAPACITY_SETTING, "8").trim());
+		batchSize = Integer.parseInt(settings.getProperty(BATCH_SIZE_SETTING, "1000").trim());
+		maxRate = Double.parseDouble(settings.getProperty(MAX_RATE_SETTING, "0").trim());
+	}
+
+	public void setWorkers(String stage, int count)
+	{
+		if (!workers.containsKey(stage))
+			throw new IllegalArgumentException("No such stage: " + stage);
+		if (count < 1)
+			throw new IllegalArgumentException("count must be 1 or bigger");
+		workers.put(stage, count);
+	}
+
+	public int getWorkers(String stage)
+	{
+		return workers.get(stage);
+	}
+
+	/**
+	 * @param queueCapacity
+	 *        the maximum number of projects waiting for each stage
+	 */
+	public void setQueueCapacity(int queueCapacity)
+	{
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be 1 or bigger");
+		this.queueCapacity = queueCapacity;
+	}
+
+	public int getQueueCapacity()
+	{
+		return queueCapacity;
+	}
+
+	/**
+	 * The beans of a project are never split over batches, 
+	 * so a batch can be larger when a project has many objects
+	 * 
+	 * @param batchSize
+	 *        the number of beans that are sent to the search engine at once
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be 1 or bigger");
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	/**
+	 * @param maxRate
+	 *        the maximum number of projects loaded per second, 0 for no limit
+	 */
+	public void setMaxRate(double maxRate)
+	{
+		if (maxRate < 0)
+			throw new IllegalArgumentException("maxRate must not be negative");
+		this.maxRate = maxRate;
+	}
+
+	public double getMaxRate()
+	{
+		return maxRate;
+	}
+
+	/**
+	 * Reindex all projects in the repository
+	 * 
+	 * @see #reindex(Iterator, ProgressLog)
+	 */
+	public ReindexReport reindex(ProgressLog progressLog) throws InterruptedException, DataServiceException
+	{
+		return reindex(listSids(), progressLog);
+	}
+
+	/**
+	 * Reindex the projects, the ones that are done according to the log are skipped. 
+	 * A project that fails is logged and the others are reindexed.
+	 * 
+	 * @param sids
+	 *        the sids of the projects, read while reindexing
+	 * @param progressLog
+	 *        the log of a previous run or a new one
+	 * @return The report with the counts and the metrics of each stage
+	 * @throws InterruptedException
+	 *         when interrupted, the workers are stopped
+	 */
+	public ReindexReport reindex(Iterator<String> sids, ProgressLog progressLog) throws InterruptedException
+	{
+		final Run run = new Run(progressLog, getIndexWriter(), getIndexUpdates());
+		Pipeline<ReindexItem> pipeline = new Pipeline<ReindexItem>("dccd-reindex-", queueCapacity)
+		{
+			protected void failed(ReindexItem item, Stage<ReindexItem> stage, Exception e)
+			{
+				fail(run, item, stage.getName(), e);
+			}
+		};
+		addStages(pipeline, run);
+
+		long startNanos = System.nanoTime();
+		try
+		{
+			pipeline.start();
+			int skipped = 0;
+			long fed = 0;
+			while (sids.hasNext())
+			{
+				String sid = sids.next();
+				if (progressLog.isDone(sid))
+				{
+					logger.debug("Skipping, already reindexed: " + sid);
+					skipped++;
+				}
+				else
+				{
+					throttle(startNanos, fed++);
+					pipeline.put(new ReindexItem(sid));
+				}
+			}
+			List<StageMetrics> metrics = pipeline.finish();
+
+			long elapsedMillis = (System.nanoTime() - startNanos) / 1000000L;
+			ReindexReport report = new ReindexReport(run.reindexed.get(), skipped, run.beans.get(), run.batches.get(), 
+					elapsedMillis, run.failures, metrics);
+			logger.info("Reindex done: " + report);
+			return report;
+		}
+		finally
+		{
+			// stops the workers when interrupted
+			pipeline.stop();
+		}
+	}
+
+	// wait until the next project is allowed to be loaded
+	private void throttle(long startNanos, long count) throws InterruptedException
+	{
+		if (maxRate <= 0)
+			return;
+		long dueNanos = startNanos + (long) (count * 1000000000L / maxRate);
+		long waitNanos = dueNanos - System.nanoTime();
+		if (waitNanos > 0)
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+	}
+
+	private void addStages(Pipeline<ReindexItem> pipeline, final Run run)
+	{
+		pipeline.addStage(new Pipeline.Stage<ReindexItem>(LOAD_STAGE, getWorkers(LOAD_STAGE))
+		{
+			protected void process(ReindexItem item) throws Exception
+			{
+				item.loadSequence = run.indexUpdates.getSequence();
+				item.project = load(item.sid);
+			}
+		});
+		pipeline.addStage(new Pipeline.Stage<ReindexItem>(BEANS_STAGE, getWorkers(BEANS_STAGE))
+		{
+			protected void process(ReindexItem item) throws Exception
+			{
+				item.beans = createBeans(item.project);
+				item.beanCount = item.beans.size();
+				// only the beans are needed from now on
+				item.project = null;
+			}
+		});
+		pipeline.addStage(new Pipeline.Stage<ReindexItem>(INDEX_STAGE, getWorkers(INDEX_STAGE))
+		{
+			private final Batch batch = new Batch(run);
+
+			protected void process(ReindexItem item) throws Exception
+			{
+				batch.add(item);
+			}
+
+			protected void ended()
+			{
+				batch.sendRemaining();
+			}
+		});
+	}
+
+	/**
+	 * @return The sids of all projects in the repository, they are listed while iterating
+	 * @throws DataServiceException
+	 */
+	protected Iterator<String> listSids() throws DataServiceException
+	{
+		final Iterator<Project> projects = DccdDataService.getService().getProjectIterator();
+		return new Iterator<String>()
+		{
+			public boolean hasNext()
+			{
+				return projects.hasNext();
+			}
+
+			public String next()
+			{
+				return projects.next().getSid();
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Note: the cache is bypassed, every project is needed only once
+	 */
+	protected Project load(String sid) throws Exception
+	{
+		return DccdDataService.getService().retrieveProject(sid);
+	}
+
+	protected Collection<? extends Object> createBeans(Project project)
+	{
+		return project.getSearchBeans();
+	}
+
+	/**
+	 * Send the beans to the search engine, only used when the index is updated synchronously
+	 */
+	protected void send(List<Object> beans) throws Exception
+	{
+		((DccdSearchService) DccdSearchService.getService()).getSearchEngine().indexBeans(beans);
+	}
+
+	/**
+	 * The beans are sent by the writer of the search service when enabled; 
+	 * a pending update that was queued before the project was loaded is replaced by the reindex.
+	 * 
+	 * @return The writer of the search service, or null if the index is updated synchronously
+	 */
+	protected SearchIndexWriter getIndexWriter()
+	{
+		return ((DccdSearchService) DccdSearchService.getService()).getIndexWriter();
+	}
+
+	/**
+	 * @return The locks and the sequence of the updates of the search service
+	 */
+	protected SearchIndexUpdates getIndexUpdates()
+	{
+		return ((DccdSearchService) DccdSearchService.getService()).getIndexUpdates();
+	}
+
+	/**
+	 * Forget the digests of the projects, their beans are replaced by the reindex
+	 */
+	protected void forgetBeanDigests(Collection<String> sids)
+	{
+		((DccdSearchService) DccdSearchService.getService()).forgetBeanDigests(sids);
+	}
+
+	// the state of one reindex run, shared by the stages
+	private static class Run
+	{
+		final ProgressLog progressLog;
+		final SearchIndexWriter indexWriter;
+		final SearchIndexUpdates indexUpdates;
+		final AtomicInteger reindexed = new AtomicInteger();
+		final AtomicLong beans = new AtomicLong();
+		final AtomicInteger batches = new AtomicInteger();
+		final Map<String, String> failures = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+		Run(ProgressLog progressLog, SearchIndexWriter indexWriter, SearchIndexUpdates indexUpdates)
+		{
+			this.progressLog = progressLog;
+			this.indexWriter = indexWriter;
+			this.indexUpdates = indexUpdates;
+		}
+	}
+
+	private static class ReindexItem
+	{
+		final String sid;
+		// the sequence of the search index updates when the project was loaded
+		long loadSequence = 0;
+		Project project = null;
+		Collection<? extends Object> beans = null;
+		int beanCount = 0;
+
+		ReindexItem(String sid)
+		{
+			this.sid = sid;
+		}
+	}
+
+	/**
+	 * Collects the projects until there are enough beans for a batch, 
+	 * shared by the workers of the index stage; the sending is done outside the lock
+	 */
+	private class Batch
+	{
+		private final Run run;
+		private List<ReindexItem> items = new ArrayList<ReindexItem>();
+		private int beanCount = 0;
+
+		Batch(Run run)
+		{
+			this.run = run;
+		}
+
+		void add(ReindexItem item)
+		{
+			List<ReindexItem> fullItems = null;
+			synchronized (this)
+			{
+				items.add(item);
+				beanCount += item.beanCount;
+				if (beanCount >= batchSize)
+				{
+					fullItems = items;
+					items = new ArrayList<ReindexItem>();
+					beanCount = 0;
+				}
+			}
+			if (fullItems != null)
+				sendBatch(fullItems);
+		}
+
+		void sendRemaining()
+		{
+			List<ReindexItem> lastItems;
+			synchronized (this)
+			{
+				lastItems = items;
+				items = new ArrayList<ReindexItem>();
+				beanCount = 0;
+			}
+			if (!lastItems.isEmpty())
+				sendBatch(lastItems);
+		}
+
+		private void sendBatch(List<ReindexItem> batchItems)
+		{
+			List<String> sids = new ArrayList<String>(batchItems.size());
+			for (ReindexItem item : batchItems)
+				sids.add(item.sid);
+
+			List<ReindexItem> sentItems = new ArrayList<ReindexItem>(batchItems.size());
+			List<ReindexItem> updatedItems = new ArrayList<ReindexItem>();
+			int sentCount = 0;
+			long failedBefore = run.indexWriter == null ? 0 : run.indexWriter.getFailedCount();
+			try
+			{
+				// the projects can not be updated while their beans are sent
+				run.indexUpdates.lockAll(sids);
+				try
+				{
+					List<String> sentSids = new ArrayList<String>(batchItems.size());
+					for (ReindexItem item : batchItems)
+					{
+						if (run.indexUpdates.isUpdatedSince(item.sid, item.loadSequence))
+						{
+							updatedItems.add(item);
+						}
+						else
+						{
+							sentItems.add(item);
+							sentSids.add(item.sid);
+						}
+					}
+					forgetBeanDigests(sentSids);
+					if (run.indexWriter == null)
+						sentCount = sendDirect(sentItems);
+					else
+						sentCount = queueToWriter(sentItems);
+				}
+				finally
+				{
+					run.indexUpdates.unlockAll(sids);
+				}
+				// the progress is logged when the beans are sent
+				if (run.indexWriter != null && !sentItems.isEmpty())
+					flushWriter(run.indexWriter, failedBefore);
+			}
+			catch (Exception e)
+			{
+				if (e instanceof InterruptedException)
+					Thread.currentThread().interrupt();
+				for (ReindexItem item : sentItems)
+					fail(run, item, INDEX_STAGE, e);
+				for (ReindexItem item : updatedItems)
+					done(run, item, "updated while reindexing");
+				return;
+			}
+			if (!sentItems.isEmpty())
+			{
+				logger.debug("Sent " + sentCount + " beans of " + sentItems.size() + " projects");
+				run.batches.incrementAndGet();
+				run.beans.addAndGet(sentCount);
+			}
+			for (ReindexItem item : sentItems)
+				done(run, item, item.beanCount + " beans");
+			for (ReindexItem item : updatedItems)
+				done(run, item, "updated while reindexing");
+		}
+
+		private int sendDirect(List<ReindexItem> batchItems) throws Exception
+		{
+			List<Object> beans = new ArrayList<Object>();
+			for (ReindexItem item : batchItems)
+			{
+				beans.addAll(item.beans);
+				item.beans = null;
+			}
+			if (!beans.isEmpty())
+				send(beans);
+			return beans.size();
+		}
+
+		private int queueToWriter(List<ReindexItem> batchItems) throws Exception
+		{
+			int count = 0;
+			for (ReindexItem item : batchItems)
+			{
+				run.indexWriter.index(item.sid, item.beans);
+				count += item.beans.size();
+				item.beans = null;
+			}
+			return count;
+		}
+
+		// Note: the writer counts the failures of all its callers, so a batch could fail because of another update
+		private void flushWriter(SearchIndexWriter writer, long failedBefore) throws Exception
+		{
+			writer.flush();
+			if (writer.getFailedCount() != failedBefore)
+				throw new SearchServiceException("The index writer could not send all updates");
+		}
+	}
+
+	private void done(Run run, ReindexItem item, String detail)
+	{
+		logger.debug("Reindexed " + item.sid + ": " + detail);
+		run.reindexed.incrementAndGet();
+		try
+		{
+			run.progressLog.done(item.sid, detail);
+		}
+		catch (IOException e)
+		{
+			logger.error("Could not log progress for: " + item.sid, e);
+		}
+	}
+
+	private void fail(Run run, ReindexItem item, String stage, Exception e)
+	{
+		String message = stage + ": " + e.getMessage();
+		logger.error("Reindex failed for " + item.sid + " at " + message, e);
+		run.failures.put(item.sid, message);
+		try
+		{
+			run.progressLog.failed(item.sid, message);
+		}
+		catch (IOException ioe)
+		{
+			logger.error("Could not log progress for: " + item.sid, ioe);
+		}
+	}
+}
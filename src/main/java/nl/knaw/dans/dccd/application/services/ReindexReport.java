@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a ReindexEngine run
+ */
+public class ReindexReport
+{
+	private final int reindexedCount;
+	private final int skippedCount;
+	private final long beanCount;
+	private final int batchCount;
+	private final long elapsedMillis;
+	private final Map<String, String> failures;
+	private final List<StageMetrics> stageMetrics;
+
+	ReindexReport(int reindexedCount, int skippedCount, long beanCount, int batchCount, long elapsedMillis,
+			Map<String, String> failures, List<StageMetrics> stageMetrics)
+	{
+		this.reindexedCount = reindexedCount;
+		this.skippedCount = skippedCount;
+		this.beanCount = beanCount;
+		this.batchCount = batchCount;
+		this.elapsedMillis = elapsedMillis;
+		this.failures = Collections.unmodifiableMap(new LinkedHashMap<String, String>(failures));
+		this.stageMetrics = Collections.unmodifiableList(stageMetrics);
+	}
+
+	public int getReindexedCount()
+	{
+		return reindexedCount;
+	}
+
+	/**
+	 * @return the number of projects skipped because the progress log had them as done
+	 */
+	public int getSkippedCount()
+	{
+		return skippedCount;
+	}
+
+	public int getFailedCount()
+	{
+		return failures.size();
+	}
+
+	/**
+	 * @return the message for each failed project (sid), with the stage it failed in
+	 */
+	public Map<String, String> getFailures()
+	{
+		return failures;
+	}
+
+	/**
+	 * @return the number of beans sent to the search engine
+	 */
+	public long getBeanCount()
+	{
+		return beanCount;
+	}
+
+	/**
+	 * @return the number of calls to the search engine
+	 */
+	public int getBatchCount()
+	{
+		return batchCount;
+	}
+
+	public long getElapsedMillis()
+	{
+		return elapsedMillis;
+	}
+
+	/**
+	 * @return reindexed projects per second over the whole run
+	 */
+	public double getThroughput()
+	{
+		if (elapsedMillis == 0)
+			return 0;
+		return reindexedCount * 1000.0 / elapsedMillis;
+	}
+
+	public List<StageMetrics> getStageMetrics()
+	{
+		return stageMetrics;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("reindexed=").append(reindexedCount);
+		sb.append(" skipped=").append(skippedCount);
+		sb.append(" failed=").append(getFailedCount());
+		sb.append(" beans=").append(beanCount);
+		sb.append(" batches=").append(batchCount);
+		sb.append(" elapsed=").append(elapsedMillis).append("ms");
+		sb.append(String.format(" throughput=%.2f/s", getThroughput()));
+		for (StageMetrics metrics : stageMetrics)
+		{
+			sb.append('\n').append(metrics);
+		}
+		return sb.toString();
+	}
+}
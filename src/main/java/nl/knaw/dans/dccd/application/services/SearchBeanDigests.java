@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.dccd.search.DccdObjectSB;
+import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBDigest;
+
+/**
+ * Remembers the digests of the search beans last sent to the index for each project, 
+ * so an update only needs to send the beans that changed and delete the ones that are gone. 
+ * 
+ * The digests are kept in memory for a limited number of projects, the least recently updated are dropped; 
+ * without digests all beans of the project are sent, as without this class. 
+ * When sending fails the digests of the project must be forgotten, 
+ * otherwise the next update could skip beans that never reached the index.
+ */
+public class SearchBeanDigests
+{
+	private final int capacity;
+	// bean id to digest for each project sid, guarded by this
+	private final LinkedHashMap<String, Map<String, byte[]>> projects;
+
+	/**
+	 * @param capacity
+	 *        the maximum number of projects to remember the digests for
+	 */
+	public SearchBeanDigests(int capacity)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be 1 or bigger");
+		this.capacity = capacity;
+		this.projects = new LinkedHashMap<String, Map<String, byte[]>>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest)
+			{
+				return size() > SearchBeanDigests.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Compare the beans with the ones sent before for the project, 
+	 * and remember them as the ones sent now
+	 * 
+	 * @param sid
+	 *        the project
+	 * @param beans
+	 *        all beans of the project
+	 * @return The beans to send and the ones to delete
+	 */
+	public Changes update(String sid, Collection<? extends Object> beans)
+	{
+		// the digesting is done before locking
+		Map<String, byte[]> digests = new HashMap<String, byte[]>();
+		List<DccdSB> digested = new ArrayList<DccdSB>();
+		List<Object> changed = new ArrayList<Object>();
+		for (Object bean : beans)
+		{
+			if (bean instanceof DccdSB && ((DccdSB) bean).getId() != null)
+			{
+				digests.put(((DccdSB) bean).getId(), DccdSBDigest.digest((DccdSB) bean));
+				digested.add((DccdSB) bean);
+			}
+			else
+			{
+				changed.add(bean); // can't tell, always send it
+			}
+		}
+
+		Map<String, byte[]> previous;
+		synchronized (this)
+		{
+			previous = projects.put(sid, digests);
+		}
+
+		List<Object> removed = new ArrayList<Object>();
+		int unchangedCount = 0;
+		for (DccdSB bean : digested)
+		{
+			byte[] previousDigest = (previous == null) ? null : previous.get(bean.getId());
+			if (previousDigest != null && Arrays.equals(previousDigest, digests.get(bean.getId())))
+				unchangedCount++;
+			else
+				changed.add(bean);
+		}
+		if (previous != null)
+		{
+			for (String id : previous.keySet())
+			{
+				if (!digests.containsKey(id))
+					removed.add(createRemovedBean(id));
+			}
+		}
+		return new Changes(changed, removed, unchangedCount);
+	}
+
+	/**
+	 * The next update of the project will send all beans
+	 * 
+	 * @param sid
+	 *        the project
+	 */
+	public synchronized void forget(String sid)
+	{
+		projects.remove(sid);
+	}
+
+	public synchronized void forgetAll()
+	{
+		projects.clear();
+	}
+
+	public synchronized boolean isKnown(String sid)
+	{
+		return projects.containsKey(sid);
+	}
+
+	public synchronized int size()
+	{
+		return projects.size();
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	// only the id is needed for deleting, the project bean is never removed on its own
+	private static DccdSB createRemovedBean(String id)
+	{
+		DccdSB bean = new DccdObjectSB();
+		bean.setId(id);
+		bean.decomposeId();
+		return bean;
+	}
+
+	/**
+	 * The result of comparing the beans of a project
+	 */
+	public static class Changes
+	{
+		private final List<Object> changed;
+		private final List<Object> removed;
+		private final int unchangedCount;
+
+		Changes(List<Object> changed, List<Object> removed, int unchangedCount)
+		{
+			this.changed = Collections.unmodifiableList(changed);
+			this.removed = Collections.unmodifiableList(removed);
+			this.unchangedCount = unchangedCount;
+		}
+
+		/**
+		 * @return the new and changed beans, to be indexed
+		 */
+		public List<Object> getChanged()
+		{
+			return changed;
+		}
+
+		/**
+		 * @return beans with only the id set, for the beans sent before that are gone
+		 */
+		public List<Object> getRemoved()
+		{
+			return removed;
+		}
+
+		public int getUnchangedCount()
+		{
+			return unchangedCount;
+		}
+
+		public boolean isEmpty()
+		{
+			return changed.isEmpty() && removed.isEmpty();
+		}
+
+		@Override
+		public String toString()
+		{
+			return "changed=" + changed.size() + " removed=" + removed.size() + " unchanged=" + unchangedCount;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders the updates of the search index per project. 
+ * An update of a project is sent under the lock of its sid, 
+ * the locks are striped so a fixed number of locks is used for all projects. 
+ * Each update is numbered, so the reindex can skip a project that was updated after it was loaded; 
+ * the reindex sends the beans of several projects at once and locks all of them.
+ */
+public class SearchIndexUpdates
+{
+	private static final int LOCK_COUNT = 64;
+
+	private final ReentrantLock[] locks = new ReentrantLock[LOCK_COUNT];
+	private final AtomicLong sequence = new AtomicLong();
+	// the sequence number of the last update of each project
+	private final ConcurrentMap<String, Long> lastUpdates = new ConcurrentHashMap<String, Long>();
+
+	public SearchIndexUpdates()
+	{
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new ReentrantLock();
+	}
+
+	private int getLockIndex(String sid)
+	{
+		return (sid.hashCode() & Integer.MAX_VALUE) % locks.length;
+	}
+
+	public void lock(String sid)
+	{
+		locks[getLockIndex(sid)].lock();
+	}
+
+	public void unlock(String sid)
+	{
+		locks[getLockIndex(sid)].unlock();
+	}
+
+	/**
+	 * Lock all the projects, always in the same order so it can not deadlock
+	 * 
+	 * @param sids
+	 */
+	public void lockAll(Collection<String> sids)
+	{
+		for (Integer index : getLockIndices(sids))
+			locks[index].lock();
+	}
+
+	public void unlockAll(Collection<String> sids)
+	{
+		for (Integer index : getLockIndices(sids))
+			locks[index].unlock();
+	}
+
+	private SortedSet<Integer> getLockIndices(Collection<String> sids)
+	{
+		SortedSet<Integer> indices = new TreeSet<Integer>();
+		for (String sid : sids)
+			indices.add(getLockIndex(sid));
+		return indices;
+	}
+
+	/**
+	 * @return The sequence number of the last update
+	 */
+	public long getSequence()
+	{
+		return sequence.get();
+	}
+
+	/**
+	 * Number an update of the project, call it while the project is locked
+	 * 
+	 * @param sid
+	 */
+	public void updated(String sid)
+	{
+		lastUpdates.put(sid, sequence.incrementAndGet());
+	}
+
+	/**
+	 * @param sid
+	 * @param sequence
+	 *        a sequence number from getSequence()
+	 * @return true if the project was updated after the sequence number was taken
+	 */
+	public boolean isUpdatedSince(String sid, long sequence)
+	{
+		Long last = lastUpdates.get(sid);
+		return last != null && last > sequence;
+	}
+}
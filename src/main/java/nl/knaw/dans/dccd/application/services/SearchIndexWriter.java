@@ -0,0 +1,550 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import nl.knaw.dans.common.lang.search.SearchEngine;
+import nl.knaw.dans.common.lang.search.exceptions.SearchEngineException;
+import nl.knaw.dans.dccd.search.DccdSB;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Updates the search index asynchronously; the callers only queue the beans of a project 
+ * and a background worker sends them to the search engine in batches. 
+ * 
+ * The pending operations are kept per project sid, a newer operation for a project replaces 
+ * the pending one (the beans of a pending delete are still deleted before the new ones are indexed); 
+ * a partial update (only the changed beans) is merged with the pending one instead. 
+ * A batch is sent when it has batchSize beans, when the oldest operation waited 
+ * for the commit interval or when a flush waits for it; 
+ * each batch is one index and/or one delete call, which the (Solr) engine commits. 
+ * When the maximum number of pending projects is reached the callers wait (back-pressure).
+ */
+public class SearchIndexWriter
+{
+	private static Logger logger = Logger.getLogger(SearchIndexWriter.class);
+
+	private final SearchEngine searchEngine;
+	private final int batchSize;
+	private final long commitIntervalNanos;
+	private final int capacity;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// signalled when there is room for another project
+	private final Condition notFull = lock.newCondition();
+	// signalled when an operation is added, or a flush or close is requested
+	private final Condition changed = lock.newCondition();
+	// signalled when a batch was sent
+	private final Condition sent = lock.newCondition();
+
+	// guarded by lock
+	private final LinkedHashMap<String, Operation> pending = new LinkedHashMap<String, Operation>();
+	private int pendingBeanCount = 0;
+	// the number of operations submitted, each operation keeps the number of its first submit
+	private long submitted = 0;
+	// the first submit of the oldest operation that is being sent, Long.MAX_VALUE when nothing is sent
+	private long inFlightFirst = Long.MAX_VALUE;
+	// the operations up to this submit are sent without waiting for the commit interval
+	private long flushThrough = 0;
+	private boolean closed = false;
+	// the worker stopped because it was interrupted
+	private boolean stopped = false;
+
+	private final AtomicLong indexedCount = new AtomicLong();
+	private final AtomicLong deletedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private final Thread worker;
+
+	/**
+	 * @param searchEngine
+	 *        the engine the beans are sent to
+	 * @param batchSize
+	 *        the number of beans that are sent at once
+	 * @param commitIntervalMillis
+	 *        the maximum time an operation waits for a batch to fill
+	 * @param capacity
+	 *        the maximum number of projects waiting to be sent
+	 */
+	public SearchIndexWriter(SearchEngine searchEngine, int batchSize, long commitIntervalMillis, int capacity)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be 1 or bigger");
+		if (commitIntervalMillis < 0)
+			throw new IllegalArgumentException("commitIntervalMillis must not be negative");
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be 1 or bigger");
+		this.searchEngine = searchEngine;
+		this.batchSize = batchSize;
+		this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+		this.capacity = capacity;
+
+		worker = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				work();
+			}
+		}, "dccd-index-writer");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Queue the beans of the project for indexing, 
+	 * waits when there are too many projects pending.
+	 * 
+	 * @param sid
+	 * @param beans
+	 * @throws InterruptedException
+	 */
+	public void index(String sid, Collection<? extends Object> beans) throws InterruptedException
+	{
+		submit(sid, Collections.<Object>emptyList(), beans, true);
+	}
+
+	/**
+	 * Queue the beans of the project for removal from the index, 
+	 * waits when there are too many projects pending.
+	 * 
+	 * @param sid
+	 * @param beans
+	 * @throws InterruptedException
+	 */
+	public void delete(String sid, Collection<? extends Object> beans) throws InterruptedException
+	{
+		submit(sid, beans, null, true);
+	}
+
+	/**
+	 * Queue a partial update of the project: only the given beans are indexed or deleted, 
+	 * a pending operation for the project is kept and the newer beans replace the pending ones with the same id
+	 * 
+	 * @param sid
+	 * @param deletes
+	 *        the beans to remove from the index
+	 * @param indexes
+	 *        the beans to index
+	 * @throws InterruptedException
+	 */
+	public void update(String sid, Collection<? extends Object> deletes, Collection<? extends Object> indexes) throws InterruptedException
+	{
+		submit(sid, deletes, indexes, false);
+	}
+
+	private void submit(String sid, Collection<? extends Object> deletes, Collection<? extends Object> indexes, boolean replacing) 
+		throws InterruptedException
+	{
+		if (sid == null)
+			throw new IllegalArgumentException("sid must be specified");
+
+		lock.lockInterruptibly();
+		try
+		{
+			if (closed || stopped)
+				throw new IllegalStateException("The index writer is closed");
+
+			// Note: a project that is pending already takes no extra room
+			while (!pending.containsKey(sid) && pending.size() >= capacity)
+			{
+				notFull.await();
+				if (closed || stopped)
+					throw new IllegalStateException("The index writer is closed");
+			}
+
+			submitted++;
+			Operation operation = pending.get(sid);
+			if (operation == null)
+			{
+				operation = new Operation(sid, submitted);
+				pending.put(sid, operation);
+			}
+			else
+			{
+				coalescedCount.incrementAndGet();
+			}
+			pendingBeanCount -= operation.size();
+			if (!replacing)
+			{
+				merge(operation, deletes, indexes);
+			}
+			else
+			{
+				operation.deletes.addAll(deletes);
+				operation.indexes = (indexes == null) ? null : new ArrayList<Object>(indexes);
+			}
+			pendingBeanCount += operation.size();
+			changed.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	// a pending bean is dropped when a newer one with the same id is indexed or deleted
+	private void merge(Operation operation, Collection<? extends Object> deletes, Collection<? extends Object> indexes)
+	{
+		Set<Object> ids = new HashSet<Object>();
+		for (Object bean : deletes)
+			ids.add(getDocumentId(bean));
+		for (Object bean : indexes)
+			ids.add(getDocumentId(bean));
+
+		if (operation.indexes == null)
+		{
+			operation.indexes = new ArrayList<Object>();
+		}
+		else
+		{
+			Iterator<Object> iterator = operation.indexes.iterator();
+			while (iterator.hasNext())
+			{
+				if (ids.contains(getDocumentId(iterator.next())))
+					iterator.remove();
+			}
+		}
+		operation.deletes.addAll(deletes);
+		operation.indexes.addAll(indexes);
+	}
+
+	/**
+	 * @param bean
+	 * @return The id of the document in the index
+	 */
+	protected Object getDocumentId(Object bean)
+	{
+		if (bean instanceof DccdSB)
+			return ((DccdSB) bean).getId();
+		else
+			return bean;
+	}
+
+	/**
+	 * Send everything that is pending now and wait until it is sent; 
+	 * the operations submitted after the call are not waited for
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if all was sent, false when the timeout elapsed or the worker stopped
+	 * @throws InterruptedException
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long remaining = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try
+		{
+			long target = submitted;
+			if (target > flushThrough)
+			{
+				flushThrough = target;
+				changed.signal();
+			}
+			while (getPendingFirst() <= target || inFlightFirst <= target)
+			{
+				if (stopped || remaining <= 0)
+					return false;
+				remaining = sent.awaitNanos(remaining);
+			}
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public void flush() throws InterruptedException
+	{
+		flush(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Send what is pending and stop the worker, no operations can be added anymore
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException
+	{
+		lock.lock();
+		try
+		{
+			closed = true;
+			changed.signal();
+			notFull.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		worker.join();
+	}
+
+	private void work()
+	{
+		while (true)
+		{
+			List<Operation> batch;
+			lock.lock();
+			try
+			{
+				long waitNanos;
+				while ((waitNanos = getWaitNanos()) > 0)
+				{
+					changed.awaitNanos(waitNanos);
+				}
+				if (pending.isEmpty())
+					return; // closed and nothing left
+				batch = takeBatch();
+				// the oldest operations are taken first
+				inFlightFirst = batch.get(0).firstSubmit;
+				notFull.signalAll();
+			}
+			catch (InterruptedException e)
+			{
+				logger.warn("Index writer interrupted, pending operations are not sent: " + pending.size());
+				stopped = true;
+				notFull.signalAll();
+				sent.signalAll();
+				return;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+
+			try
+			{
+				send(batch);
+			}
+			finally
+			{
+				lock.lock();
+				try
+				{
+					inFlightFirst = Long.MAX_VALUE;
+					sent.signalAll();
+				}
+				finally
+				{
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	// the first submit of the oldest pending operation, Long.MAX_VALUE when nothing is pending
+	private long getPendingFirst()
+	{
+		if (pending.isEmpty())
+			return Long.MAX_VALUE;
+		return pending.values().iterator().next().firstSubmit;
+	}
+
+	// the time to wait before a batch can be sent, 0 if it can be sent now or the worker must stop
+	private long getWaitNanos()
+	{
+		if (pending.isEmpty())
+			return closed ? 0 : Long.MAX_VALUE;
+		Operation oldest = pending.values().iterator().next();
+		if (closed || oldest.firstSubmit <= flushThrough || pendingBeanCount >= batchSize)
+			return 0;
+		return Math.max(0, oldest.queuedNanos + commitIntervalNanos - System.nanoTime());
+	}
+
+	// the oldest operations, at least one
+	private List<Operation> takeBatch()
+	{
+		List<Operation> batch = new ArrayList<Operation>();
+		int beanCount = 0;
+		Iterator<Operation> iterator = pending.values().iterator();
+		while (iterator.hasNext() && (batch.isEmpty() || beanCount < batchSize))
+		{
+			Operation operation = iterator.next();
+			iterator.remove();
+			batch.add(operation);
+			beanCount += operation.size();
+		}
+		pendingBeanCount -= beanCount;
+		return batch;
+	}
+
+	private void send(List<Operation> batch)
+	{
+		List<Object> deletes = new ArrayList<Object>();
+		List<Object> indexes = new ArrayList<Object>();
+		for (Operation operation : batch)
+		{
+			deletes.addAll(operation.deletes);
+			if (operation.indexes != null)
+				indexes.addAll(operation.indexes);
+		}
+
+		try
+		{
+			send(deletes, indexes);
+			deletedCount.addAndGet(deletes.size());
+			indexedCount.addAndGet(indexes.size());
+			logger.debug("Sent batch of " + batch.size() + " projects to the search index");
+		}
+		catch (Throwable t)
+		{
+			// Note: the worker goes on with the next batch, the index is repaired by a reindex
+			failedCount.addAndGet(batch.size());
+			List<String> sids = new ArrayList<String>();
+			for (Operation operation : batch)
+				sids.add(operation.sid);
+			logger.error("Could not update the search index for: " + sids, t);
+			try
+			{
+				sendFailed(sids);
+			}
+			catch (Throwable ft)
+			{
+				logger.error("Failure handling failed for: " + sids, ft);
+			}
+		}
+		batchCount.incrementAndGet();
+	}
+
+	/**
+	 * Called by the worker when a batch could not be sent, 
+	 * an exception is logged and the worker goes on
+	 * 
+	 * @param sids
+	 *        the projects in the batch
+	 */
+	protected void sendFailed(List<String> sids)
+	{
+		// nothing to do
+	}
+
+	/**
+	 * Send a batch to the search engine, deletes first
+	 * 
+	 * @param deletes
+	 * @param indexes
+	 * @throws SearchEngineException
+	 */
+	protected void send(List<Object> deletes, List<Object> indexes) throws SearchEngineException
+	{
+		if (!deletes.isEmpty())
+			searchEngine.deleteBeans(deletes);
+		if (!indexes.isEmpty())
+			searchEngine.indexBeans(indexes);
+	}
+
+	/**
+	 * @return the number of projects waiting to be sent
+	 */
+	public int getPendingCount()
+	{
+		lock.lock();
+		try
+		{
+			return pending.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public long getIndexedCount()
+	{
+		return indexedCount.get();
+	}
+
+	public long getDeletedCount()
+	{
+		return deletedCount.get();
+	}
+
+	/**
+	 * @return the number of operations that replaced a pending one for the same project
+	 */
+	public long getCoalescedCount()
+	{
+		return coalescedCount.get();
+	}
+
+	public long getBatchCount()
+	{
+		return batchCount.get();
+	}
+
+	/**
+	 * @return the number of project operations that could not be sent
+	 */
+	public long getFailedCount()
+	{
+		return failedCount.get();
+	}
+
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SearchIndexWriter[pending=" + getPendingCount() + ", indexed=" + getIndexedCount() + ", deleted=" + getDeletedCount() + 
+				", coalesced=" + getCoalescedCount() + ", batches=" + getBatchCount() + ", failed=" + getFailedCount() + "]";
+	}
+
+	// the beans to delete and to index for one project
+	private static class Operation
+	{
+		final String sid;
+		final long firstSubmit;
+		final long queuedNanos = System.nanoTime();
+		final List<Object> deletes = new ArrayList<Object>();
+		List<Object> indexes = null;
+
+		Operation(String sid, long firstSubmit)
+		{
+			this.sid = sid;
+			this.firstSubmit = firstSubmit;
+		}
+
+		int size()
+		{
+			return deletes.size() + ((indexes == null) ? 0 : indexes.size());
+		}
+	}
+}
@@ -47,6 +47,22 @@ public interface SearchService
 	 */
 	public void deleteSearchIndex(Project project) throws SearchServiceException;
 
+	/**
+	 * Wait until the updates of the index are sent, 
+	 * only needed when the index is updated asynchronously
+	 *
+	 * @throws SearchServiceException
+	 */
+	public void flushSearchIndex() throws SearchServiceException;
+
+	/**
+	 * Send the pending updates of the index and stop the background worker, 
+	 * later updates are sent synchronously
+	 *
+	 * @throws SearchServiceException
+	 */
+	public void shutdown() throws SearchServiceException;
+
 	/**
 	 *
 	 * @param request
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and timing of one stage of a (pipelined) batch, 
+ * can be read while the batch is running.
+ */
+public class StageMetrics
+{
+	private final String name;
+	private final int workers;
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong busyNanos = new AtomicLong();
+	// start of the first and end of the last item
+	private final AtomicLong firstNanos = new AtomicLong();
+	private final AtomicLong lastNanos = new AtomicLong();
+
+	public StageMetrics(String name, int workers)
+	{
+		this.name = name;
+		this.workers = workers;
+	}
+
+	/**
+	 * @return the start time to pass to processed or failed
+	 */
+	public long start()
+	{
+		long now = System.nanoTime();
+		firstNanos.compareAndSet(0, now);
+		return now;
+	}
+
+	public void processed(long startNanos)
+	{
+		processed.incrementAndGet();
+		end(startNanos);
+	}
+
+	public void failed(long startNanos)
+	{
+		failed.incrementAndGet();
+		end(startNanos);
+	}
+
+	private void end(long startNanos)
+	{
+		long now = System.nanoTime();
+		busyNanos.addAndGet(now - startNanos);
+		lastNanos.set(now);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public int getWorkers()
+	{
+		return workers;
+	}
+
+	public long getProcessedCount()
+	{
+		return processed.get();
+	}
+
+	public long getFailedCount()
+	{
+		return failed.get();
+	}
+
+	/**
+	 * @return the summed time the workers were busy
+	 */
+	public long getBusyMillis()
+	{
+		return busyNanos.get() / 1000000L;
+	}
+
+	/**
+	 * @return the time from the start of the first to the end of the last item
+	 */
+	public long getElapsedMillis()
+	{
+		long first = firstNanos.get();
+		if (first == 0)
+			return 0;
+		return (lastNanos.get() - first) / 1000000L;
+	}
+
+	/**
+	 * @return processed items per second over the elapsed time
+	 */
+	public double getThroughput()
+	{
+		long elapsed = getElapsedMillis();
+		if (elapsed == 0)
+			return 0;
+		return getProcessedCount() * 1000.0 / elapsed;
+	}
+
+	/**
+	 * @return the fraction of the elapsed time the workers were busy, 
+	 * close to 1 means this stage is the bottleneck
+	 */
+	public double getUtilization()
+	{
+		long elapsed = getElapsedMillis();
+		if (elapsed == 0)
+			return 0;
+		return (double) getBusyMillis() / (elapsed * workers);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s: workers=%d processed=%d failed=%d elapsed=%dms throughput=%.2f/s utilization=%.0f%%", 
+				name, workers, getProcessedCount(), getFailedCount(), getElapsedMillis(), getThroughput(), getUtilization() * 100);
+	}
+}
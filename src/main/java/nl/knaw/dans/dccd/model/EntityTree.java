@@ -25,15 +25,18 @@ import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.transform.Source;
 
 import nl.knaw.dans.common.lang.repo.MetadataUnit;
 import nl.knaw.dans.common.lang.xml.XMLSerializationException;
 import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.EntityVisitor;
 import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.model.entities.MultiEntityVisitor;
 import nl.knaw.dans.dccd.model.entities.ProjectEntity;
 
 import org.apache.log4j.Logger;
@@ -59,6 +62,10 @@ public class EntityTree implements MetadataUnit, Serializable
 	private static final long serialVersionUID = -6437490278611107505L;
 	private static Logger logger = Logger.getLogger(EntityTree.class);
 	ProjectEntity projectEntity = null; // the root is always a Project
+	// flat index of the entities, built when needed after a structural change
+	private transient volatile EntityTreeIndex index = null;
+	// the number of the last entity id given out, new entities get higher numbers
+	private int lastEntityId = 0;
 
 
 	public final static String ENTITY_ID_PREFIX = "TF"; // used to prepend to number to get id string
@@ -76,6 +83,28 @@ public class EntityTree implements MetadataUnit, Serializable
 	 */
 	public void setProjectEntity(ProjectEntity projectEntity) {
 		this.projectEntity = projectEntity;
+		invalidateIndex();
+		lastEntityId = getHighestEntityIdNumber();
+	}
+
+	/**
+	 * @return The index of the entities in the current tree
+	 */
+	public EntityTreeIndex getIndex() {
+		EntityTreeIndex result = index;
+		if (result == null) {
+			result = EntityTreeIndex.build(projectEntity);
+			index = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Must be called when entities are added to or removed from the tree, 
+	 * or when their id's are changed
+	 */
+	public void invalidateIndex() {
+		index = null;
 	}
 
 	// --- tree creation stuff ---
@@ -88,6 +117,7 @@ public class EntityTree implements MetadataUnit, Serializable
 	public void buildTree(TridasProject projectTridas) {
 		projectEntity = new ProjectEntity(projectTridas);
 		projectEntity.buildEntitySubTree();
+		invalidateIndex();
 		assignEntityIds();
 	}
 
@@ -104,66 +134,162 @@ public class EntityTree implements MetadataUnit, Serializable
 	 */
 	private void assignEntityIds() {
 		List<Entity> entities = getEntities();
-		int entityCount = 0;
+		lastEntityId = 0;
 		// Process all the entities
 		for (Entity entity : entities) {
-			++entityCount;
-			// Note: stream ID cannot be only a number, therfore we prepend "TF" for TRiDaS Fragment
-			String id = ENTITY_ID_PREFIX + Integer.toString(entityCount); // should be unique within Map of object
-			entity.setId(id);
+			entity.setId(nextEntityId());
 		}
 	}
 
-	/** Get all the entities in the tree as a (flat) list
+	/**
+	 * @return A new id, never given out before in this tree
+	 */
+	private String nextEntityId() {
+		// Note: stream ID cannot be only a number, therfore we prepend "TF" for TRiDaS Fragment
+		return ENTITY_ID_PREFIX + Integer.toString(++lastEntityId); // should be unique within Map of object
+	}
+
+	private int getHighestEntityIdNumber() {
+		int highest = 0;
+		for (Entity entity : getEntities()) {
+			String id = entity.getId();
+			if (id != null && id.startsWith(ENTITY_ID_PREFIX)) {
+				try {
+					highest = Math.max(highest, Integer.parseInt(id.substring(ENTITY_ID_PREFIX.length())));
+				} catch (NumberFormatException e) {
+					// not one of ours
+				}
+			}
+		}
+		return highest;
+	}
+
+	/**
+	 * @return The number of the last entity id given out
+	 */
+	public int getLastEntityId() {
+		return lastEntityId;
+	}
+
+	/**
+	 * Set the number of the last entity id given out, as stored with the tree structure; 
+	 * the id's of removed entities are then not used again. 
+	 * It is never lowered below the highest id in the tree.
 	 *
-	 * @return The list of entities, empty list if there is no project
+	 * @param lastEntityId
 	 */
-	public List<Entity> getEntities() {
-		//List<AbstractEntity> entities = new ArrayList<AbstractEntity>();
-		List<Entity> entities = new ArrayList<Entity>();
+	public void setLastEntityId(int lastEntityId) {
+		this.lastEntityId = Math.max(lastEntityId, getHighestEntityIdNumber());
+	}
+
+	/**
+	 * Bring the sub entities of the given entity in line with its tridas, 
+	 * after tridas sub objects were added to or removed from it. 
+	 * Only the changed sub trees are affected; 
+	 * sub entities for the tridas objects that are still there are kept with their id's, 
+	 * new sub entities get new id's that were never used in this tree and are dirty. 
+	 * Call it for the entity whose tridas lists changed; 
+	 * only the entities for the new tridas sub objects are build.
+	 * 
+	 * Note: the tridas must be connected (Project.getTridas()), 
+	 * otherwise the entity has no tridas sub objects to compare with.
+	 *
+	 * @param parent
+	 *        the entity whose tridas was changed
+	 * @return The added and removed entities
+	 */
+	public EntityTreeChange reconcile(Entity parent) {
+		if (getEntity(parent.getId()) != parent) {
+			throw new IllegalArgumentException("Entity is not in this tree: " + parent.getId());
+		}
+		if (parent.getTridasAsObject() == null) {
+			throw new IllegalStateException("Entity has no tridas: " + parent.getId());
+		}
+
+		// the current sub entities, by their tridas objects
+		List<Entity> previous = new ArrayList<Entity>(parent.getDendroEntities());
+		Map<Object, Entity> current = new IdentityHashMap<Object, Entity>();
+		for (Entity subEntity : previous) {
+			if (!subEntity.isTridasLoaded()) {
+				throw new IllegalStateException("Tridas not connected, sub entity not loaded: " + subEntity.getId());
+			}
+			current.put(subEntity.getTridasAsObject(), subEntity);
+		}
 
-		// don't add anything if there is no project
-		if (getProjectEntity()!=null) {
-			entities.add(getProjectEntity()); // The root of the tree
-			entities.addAll(getSubTreeAsList(getProjectEntity()));
+		// keep the sub entities we had, only build the new sub trees
+		List<Entity> subEntities = parent.getDendroEntities();
+		subEntities.clear();
+		List<Entity> added = new ArrayList<Entity>();
+		for (Object subTridas : parent.getTridasSubObjects()) {
+			Entity subEntity = current.remove(subTridas);
+			if (subEntity == null) {
+				subEntity = parent.createSubEntity(subTridas);
+				subEntity.buildEntitySubTree();
+				added.add(subEntity);
+				added.addAll(subEntity.getSubTreeAsList());
+			}
+			subEntities.add(subEntity);
+		}
+		List<Entity> removed = new ArrayList<Entity>();
+		for (Entity subEntity : previous) {
+			if (current.containsValue(subEntity)) {
+				removed.add(subEntity);
+				removed.addAll(subEntity.getSubTreeAsList());
+			}
 		}
 
-		return entities;
+		for (Entity entity : added) {
+			entity.setId(nextEntityId());
+			entity.setDirty(true);
+		}
+		if (!added.isEmpty() || !removed.isEmpty()) {
+			invalidateIndex();
+			setDirty(true); // the structure changed
+			logger.debug("Entity tree changed below " + parent.getId() + ", added: " + added.size() + ", removed: " + removed.size());
+		}
+		return new EntityTreeChange(added, removed);
 	}
 
-	/** Recursive function to get all sub entities in a tree
-	 * @see getEntities
-	 *
-	 * Note: could be member of the abstract DendroEntity
-	 * Note: Probably more efficient if we pass a 'stack like' container
-	 * to avoid the recursive creation and appending of arraylists
+	/** Get all the entities in the tree as a (flat) list
 	 *
-	 * @param entity
-	 * @return The list of entities
+	 * @return The list of entities in pre-order, empty list if there is no project. 
+	 * The list can't be modified
 	 */
-    private List<Entity> getSubTreeAsList(Entity entity) {
-    	if(entity == null) {
-    		logger.debug("getSubTreeAsList called with null as entity argument");
-    		return null;
-    	}
-    	logger.debug("getting subtree of Entity : " + entity.getClass().getSimpleName());
-    	List<Entity> list = new ArrayList<Entity>();
+	public List<Entity> getEntities() {
+		return getIndex().getEntities();
+	}
 
-    	List<Entity> subEntities = entity.getDendroEntities();
-    	// maybe assert that subEntities not is null??
-    	if(subEntities == null) {
-    		logger.error("getDendroEntities returned null, while getting subtree of Entity : " + entity.getClass().getSimpleName());
-    	}
+	/**
+	 * @param type
+	 *        the class of the entities
+	 * @return The entities of that class, empty list if there are none
+	 */
+	public <T extends Entity> List<T> getEntities(Class<T> type) {
+		return getIndex().getEntities(type);
+	}
 
-		Iterator<Entity> i = subEntities.iterator();
-		while (i.hasNext()) {
-			Entity subEntity = i.next();
-			list.add(subEntity);
-			list.addAll(getSubTreeAsList(subEntity)); // recursion
+	/**
+	 * Visit all entities in the tree, parents before their children. 
+	 * When more than one visitor is given they all get each entity 
+	 * before the next one is visited, so the tree is walked only once.
+	 *
+	 * @param visitors
+	 */
+	public void accept(EntityVisitor... visitors) {
+		EntityVisitor visitor = (visitors.length == 1) ? visitors[0] : new MultiEntityVisitor(visitors);
+		for (Entity entity : getIndex().getEntities()) {
+			entity.accept(visitor);
 		}
+	}
 
-    	return list;
-    }
+	/**
+	 * @param id
+	 *        the id of the entity, which is also used for its datastream
+	 * @return The entity or null if not found
+	 */
+	public Entity getEntity(String id) {
+		return getIndex().getEntity(id);
+	}
 
 	// --- structmap stuff ---
 
@@ -191,6 +317,7 @@ public class EntityTree implements MetadataUnit, Serializable
     	Document document = DocumentHelper.createDocument();
         Element structmap = document.addElement(ENTITYTREESTRUCT_NS_PREFIX+ENTITYTREESTRUCT_NS);//("structmap"); // root
         structmap.addAttribute("version", ENTITYTREESTRUCT_VERSION );
+        structmap.addAttribute(EntityTreeBuilder.LAST_ID_ATTRIBUTENAME, Integer.toString(lastEntityId));
         structmap.addNamespace(ENTITYTREESTRUCT_NS, ENTITYTREESTRUCT_NS_URL);
         buildTreeStructElementTree(structmap, getProjectEntity());
 
@@ -225,21 +352,10 @@ public class EntityTree implements MetadataUnit, Serializable
 
 	/** get all MeasurementSeriesEntity of the Project
 	 *
-	 * note: Maybe we could make it more general if we specify a class;
-	 * and then only return the specified type of entities
-	 *
-	 * @return The list of MeasurementSeriesEntity's
+	 * @return The list of MeasurementSeriesEntity's, can't be modified
 	 */
 	public List<MeasurementSeriesEntity> getMeasurementSeriesEntities() {
-		List<MeasurementSeriesEntity> resultList = new ArrayList<MeasurementSeriesEntity>();
-
-		List<Entity> entityList = getEntities();
-		for(Entity entity : entityList) {
-			if (entity instanceof MeasurementSeriesEntity)
-				resultList.add((MeasurementSeriesEntity)entity);
-		}
-
-		return resultList;
+		return getEntities(MeasurementSeriesEntity.class);
 	}
 
 
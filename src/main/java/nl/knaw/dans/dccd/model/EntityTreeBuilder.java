@@ -15,11 +15,22 @@
  ******************************************************************************/
 package nl.knaw.dans.dccd.model;
 
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 
 import nl.knaw.dans.dccd.model.entities.DerivedSeriesEntity;
 import nl.knaw.dans.dccd.model.entities.ElementEntity;
@@ -68,8 +79,60 @@ public class EntityTreeBuilder {
 	   put(DerivedSeriesEntity.class		, "derivedseries");
 	   put(ValuesEntity.class				, "values");
 	}};
+	/** The possible sub entity classes for each entity class, 
+	 * in the order the build methods below add them
+	 */
+	@SuppressWarnings("unchecked")
+	private static final Map<Class, List<Class>> subEntityClassesMap = new HashMap<Class, List<Class>>() {
+		private static final long serialVersionUID = 1L;
+	{
+	   put(ProjectEntity.class			, Arrays.<Class>asList(ObjectEntity.class, DerivedSeriesEntity.class));
+	   put(ObjectEntity.class				, Arrays.<Class>asList(ObjectEntity.class, ElementEntity.class));
+	   put(ElementEntity.class			, Arrays.<Class>asList(SampleEntity.class));
+	   put(SampleEntity.class				, Arrays.<Class>asList(RadiusEntity.class));
+	   put(RadiusEntity.class				, Arrays.<Class>asList(MeasurementSeriesEntity.class));
+	   put(MeasurementSeriesEntity.class	, Arrays.<Class>asList(ValuesEntity.class));
+	   put(DerivedSeriesEntity.class		, Arrays.<Class>asList(ValuesEntity.class));
+	   put(ValuesEntity.class				, Collections.<Class>emptyList());
+	}};
+
+	/** Mapping from the tagname to the class, the reverse of entityTagsMap
+	 */
+	@SuppressWarnings("unchecked")
+	private static final Map<String, Class> entityClassesMap = new HashMap<String, Class>();
+	static {
+		for (Map.Entry<Class, String> entry : entityTagsMap.entrySet()) {
+			entityClassesMap.put(entry.getValue(), entry.getKey());
+		}
+	}
+
+	private static final XMLInputFactory inputFactory = createInputFactory();
+
 	public final static String ID_ATTRIBUTENAME = "datastreamId";
 	public final static String TITLE_ATTRIBUTENAME = "title";
+	// on the root, the number of the last datastream id given out
+	public final static String LAST_ID_ATTRIBUTENAME = "lastDatastreamId";
+
+	/** The number of the last entity (datastream) id given out, 
+	 * as stored on the tree structure
+	 *
+	 * @param treestructElement
+	 * @return The number, 0 if it is not stored (older trees)
+	 */
+	public static int getLastEntityId(Element treestructElement) {
+		return parseLastEntityId(treestructElement.attributeValue(LAST_ID_ATTRIBUTENAME));
+	}
+
+	private static int parseLastEntityId(String value) {
+		if (value == null)
+			return 0;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid " + LAST_ID_ATTRIBUTENAME + ": " + value);
+			return 0;
+		}
+	}
 
 	/** build entity tree from given tree structure (dom4j element)
      * there will be entities but they don't have data
@@ -96,6 +159,145 @@ public class EntityTreeBuilder {
     	return projectEntity;
     }
 
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		return factory;
+	}
+
+	/** Build the entity tree from the tree structure xml (the ETS datastream) in a single pass, 
+	 * without having the whole document in memory as a dom4j tree. 
+	 * The result is the same as with buildTree(Element): 
+	 * unknown elements are skipped and the sub entities are in the same order. 
+	 * The project entity and the last entity id are set on the given tree.
+	 *
+	 * @param treestructStream The xml, not closed
+	 * @param entityTree The tree to fill
+	 * @throws XMLStreamException when the xml could not be parsed
+	 */
+	@SuppressWarnings("unchecked")
+	public static void buildTree(InputStream treestructStream, EntityTree entityTree) throws XMLStreamException {
+		XMLStreamReader reader = inputFactory.createXMLStreamReader(treestructStream);
+		try {
+			// the root
+			while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+				// skip the prolog
+			}
+			if (!reader.isStartElement()) {
+				throw new IllegalArgumentException("No Element given");
+			}
+			int lastEntityId = parseLastEntityId(reader.getAttributeValue(null, LAST_ID_ATTRIBUTENAME));
+
+			ProjectEntity projectEntity = null;
+			Deque<OpenEntity> openEntities = new ArrayDeque<OpenEntity>();
+			int skipDepth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (skipDepth > 0) {
+						skipDepth++;
+						continue;
+					}
+					Class entityClass = entityClassesMap.get(reader.getLocalName());
+					OpenEntity parent = openEntities.peek();
+					int rank;
+					if (parent == null) {
+						// must have a single project, like buildTree(Element) the first
+						rank = (projectEntity == null && entityClass == ProjectEntity.class) ? 0 : -1;
+					} else {
+						rank = parent.subEntityClasses.indexOf(entityClass);
+					}
+					if (rank < 0) {
+						skipDepth = 1; // not an entity here
+						continue;
+					}
+
+					Entity entity = newEntity(entityClass);
+					entity.setId(reader.getAttributeValue(null, ID_ATTRIBUTENAME));
+					entity.setTitle(reader.getAttributeValue(null, TITLE_ATTRIBUTENAME));
+					if (parent == null) {
+						projectEntity = (ProjectEntity) entity;
+					} else {
+						parent.addSubEntity(entity, rank);
+					}
+					openEntities.push(new OpenEntity(entity));
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (skipDepth > 0) {
+						skipDepth--;
+					} else if (openEntities.isEmpty()) {
+						break; // end of the root
+					} else {
+						openEntities.pop().close();
+					}
+				}
+			}
+
+			if (projectEntity == null) {
+				logger.warn("Element has no project, not creating tree");
+				throw new IllegalArgumentException("Element has no project");
+			}
+			entityTree.setProjectEntity(projectEntity);
+			entityTree.setLastEntityId(lastEntityId);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @param tagName
+	 * @return A new entity for the tagname, null if the tagname is unknown
+	 */
+	@SuppressWarnings("unchecked")
+	static Entity newEntity(String tagName) {
+		Class entityClass = entityClassesMap.get(tagName);
+		return (entityClass == null) ? null : newEntity(entityClass);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Entity newEntity(Class entityClass) {
+		try {
+			return (Entity) entityClass.newInstance();
+		} catch (InstantiationException e) {
+			throw new InternalErrorException(e);
+		} catch (IllegalAccessException e) {
+			throw new InternalErrorException(e);
+		}
+	}
+
+	/** An entity of which the element is not ended yet; 
+	 * when its sub entities were not in the order of buildTree(Element) they are sorted at the end
+	 */
+	private static class OpenEntity {
+		final Entity entity;
+		@SuppressWarnings("unchecked")
+		final List<Class> subEntityClasses;
+		int lastRank = 0;
+		boolean unordered = false;
+
+		OpenEntity(Entity entity) {
+			this.entity = entity;
+			this.subEntityClasses = subEntityClassesMap.get(entity.getClass());
+		}
+
+		void addSubEntity(Entity subEntity, int rank) {
+			entity.getDendroEntities().add(subEntity);
+			if (rank < lastRank)
+				unordered = true;
+			lastRank = Math.max(lastRank, rank);
+		}
+
+		void close() {
+			if (unordered) {
+				// stable, so within a class the document order remains
+				Collections.sort(entity.getDendroEntities(), new Comparator<Entity>() {
+					public int compare(Entity e1, Entity e2) {
+						return subEntityClasses.indexOf(e1.getClass()) - subEntityClasses.indexOf(e2.getClass());
+					}
+				});
+			}
+		}
+	}
+
 	//TODO: LB20090923: return a DendroProjectEntity instead of getting one
 	// via the parameters and filling it
 	// suggestion: choose between build, create, marshal and unmarshal, but then stick
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import java.util.Collections;
+import java.util.List;
+
+import nl.knaw.dans.dccd.model.entities.Entity;
+
+/**
+ * The result of an incremental change of the EntityTree structure; 
+ * the entities that were added (with new ids) and those that were removed, 
+ * the other entities kept their id's and datastreams.
+ * 
+ * @see nl.knaw.dans.dccd.model.EntityTree#reconcile(Entity)
+ */
+public class EntityTreeChange
+{
+	private final List<Entity> addedEntities;
+	private final List<Entity> removedEntities;
+
+	public EntityTreeChange(List<Entity> addedEntities, List<Entity> removedEntities)
+	{
+		this.addedEntities = Collections.unmodifiableList(addedEntities);
+		this.removedEntities = Collections.unmodifiableList(removedEntities);
+	}
+
+	/**
+	 * @return The new entities in pre-order, they have new id's and are dirty
+	 */
+	public List<Entity> getAddedEntities()
+	{
+		return addedEntities;
+	}
+
+	/**
+	 * Note: their datastreams are not removed from the repository by the tree, 
+	 * the project keeps their ids until DccdDataService.updateProject purges them
+	 * 
+	 * @return The entities that are no longer in the tree
+	 */
+	public List<Entity> getRemovedEntities()
+	{
+		return removedEntities;
+	}
+
+	public boolean isEmpty()
+	{
+		return addedEntities.isEmpty() && removedEntities.isEmpty();
+	}
+}
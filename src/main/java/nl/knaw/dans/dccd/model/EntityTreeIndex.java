@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.dccd.model.entities.Entity;
+
+/**
+ * Flat index of the entities in a tree, computed once and used until the structure changes. 
+ * The entities are in pre-order (parent before its children, like the tree is read), 
+ * with lookups by datastream id and by entity class. 
+ * 
+ * The index itself is not changed after it is built; the EntityTree creates a new one 
+ * when the structure has changed. 
+ * Note: the entity ids are indexed on the first lookup by id, because the ids are 
+ * assigned after the tree has been built.
+ */
+public class EntityTreeIndex
+{
+	/**
+	 * Called for each entity in pre-order
+	 */
+	public interface Visitor
+	{
+		/**
+		 * @param entity
+		 * @param depth
+		 *        the depth in the tree, zero for the root
+		 * @return false to stop the traversal
+		 */
+		boolean visit(Entity entity, int depth);
+	}
+
+	private static final EntityTreeIndex EMPTY = new EntityTreeIndex(new Entity[0], new int[0]);
+
+	private final Entity[] entities;
+	private final int[] depths;
+	private final List<Entity> entityList;
+	private final Map<Class<?>, List<Entity>> entitiesByType;
+	private volatile Map<String, Entity> entitiesById = null;
+
+	private EntityTreeIndex(Entity[] entities, int[] depths)
+	{
+		this.entities = entities;
+		this.depths = depths;
+		this.entityList = Collections.unmodifiableList(Arrays.asList(entities));
+
+		Map<Class<?>, List<Entity>> byType = new HashMap<Class<?>, List<Entity>>();
+		for (Entity entity : entities)
+		{
+			List<Entity> list = byType.get(entity.getClass());
+			if (list == null)
+			{
+				list = new ArrayList<Entity>();
+				byType.put(entity.getClass(), list);
+			}
+			list.add(entity);
+		}
+		for (Map.Entry<Class<?>, List<Entity>> entry : byType.entrySet())
+		{
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		this.entitiesByType = byType;
+	}
+
+	/**
+	 * Walk the tree without recursion
+	 * 
+	 * @param root
+	 *        the root entity or null for an empty index
+	 * @return The index
+	 */
+	public static EntityTreeIndex build(Entity root)
+	{
+		if (root == null)
+			return EMPTY;
+
+		List<Entity> found = new ArrayList<Entity>();
+		List<Integer> foundDepths = new ArrayList<Integer>();
+		Deque<Entity> stack = new ArrayDeque<Entity>();
+		Deque<Integer> depthStack = new ArrayDeque<Integer>();
+		stack.push(root);
+		depthStack.push(0);
+		while (!stack.isEmpty())
+		{
+			Entity entity = stack.pop();
+			int depth = depthStack.pop();
+			found.add(entity);
+			foundDepths.add(depth);
+
+			List<Entity> subEntities = entity.getDendroEntities();
+			// push in reverse, so the first child is visited first
+			for (int i = subEntities.size() - 1; i >= 0; i--)
+			{
+				stack.push(subEntities.get(i));
+				depthStack.push(depth + 1);
+			}
+		}
+
+		int[] depths = new int[foundDepths.size()];
+		for (int i = 0; i < depths.length; i++)
+			depths[i] = foundDepths.get(i);
+		return new EntityTreeIndex(found.toArray(new Entity[found.size()]), depths);
+	}
+
+	/**
+	 * @return all entities in pre-order, the root first; the list can't be modified
+	 */
+	public List<Entity> getEntities()
+	{
+		return entityList;
+	}
+
+	/**
+	 * @param type
+	 *        the class of the entities, subclasses are not included
+	 * @return the entities of the given class in pre-order, an empty list if there are none
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Entity> List<T> getEntities(Class<T> type)
+	{
+		List<Entity> list = entitiesByType.get(type);
+		if (list == null)
+			return Collections.emptyList();
+		return (List<T>) list;
+	}
+
+	/**
+	 * @param id
+	 *        the (datastream) id of the entity
+	 * @return the entity or null if there is no entity with that id
+	 */
+	public Entity getEntity(String id)
+	{
+		Map<String, Entity> byId = entitiesById;
+		if (byId == null)
+		{
+			byId = new HashMap<String, Entity>(entities.length * 2);
+			for (Entity entity : entities)
+			{
+				if (entity.getId() != null)
+					byId.put(entity.getId(), entity);
+			}
+			entitiesById = byId;
+		}
+		return byId.get(id);
+	}
+
+	/**
+	 * @return the depth of the entity at the given position in the pre-order list
+	 */
+	public int getDepth(int position)
+	{
+		return depths[position];
+	}
+
+	public int size()
+	{
+		return entities.length;
+	}
+
+	/**
+	 * Visit the entities in pre-order, without recursion or allocation
+	 * 
+	 * @param visitor
+	 * @return false if the visitor stopped the traversal
+	 */
+	public boolean accept(Visitor visitor)
+	{
+		for (int i = 0; i < entities.length; i++)
+		{
+			if (!visitor.visit(entities[i], depths[i]))
+				return false;
+		}
+		return true;
+	}
+}
@@ -18,8 +18,10 @@ package nl.knaw.dans.dccd.model;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
@@ -36,17 +38,22 @@ import nl.knaw.dans.common.lang.repo.bean.DublinCoreMetadata;
 import nl.knaw.dans.common.lang.reposearch.HasSearchBeans;
 import nl.knaw.dans.common.lang.search.IndexDocument;
 import nl.knaw.dans.dccd.model.DccdUser.Role;
+import nl.knaw.dans.dccd.model.entities.AbstractEntityVisitor;
 import nl.knaw.dans.dccd.model.entities.DerivedSeriesEntity;
 import nl.knaw.dans.dccd.model.entities.Entity;
 import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
 import nl.knaw.dans.dccd.model.entities.ObjectEntity;
 import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
 import nl.knaw.dans.dccd.search.DccdProjectSB;
 import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
 import nl.knaw.dans.dccd.tridas.EmptyObjectFactory;
 
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
+import org.tridas.schema.TridasDerivedSeries;
+import org.tridas.schema.TridasMeasurementSeries;
 import org.tridas.schema.TridasObject;
 import org.tridas.schema.TridasProject;
 import org.tridas.schema.TridasTridas;
@@ -88,6 +95,14 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 	public EntityTree entityTree = new EntityTree(); // just an empty one
 	// tridas tree, as generated with JAXB
 	private TridasProject tridas = null; // note: could use transient and make classes not serializable
+	// when lazy loaded, the tridas tree is only connected when it is requested
+	private boolean tridasConnectDeferred = false;
+	// when the values are compact, getTridas connects a copy
+	private boolean valuesCompact = false;
+	// that copy, kept as long as there is memory for it
+	private transient SoftReference<TridasProject> connectedCopy = null;
+	// the ids of the entities removed from the tree, their datastreams are purged when the project is updated
+	private final List<String> removedEntityIds = new ArrayList<String>();
 	// The filename, if this project was read from a file (TRiDaS), we need to store this name
 	private String fileName = "";
 	// The selection for the language used in the TRiDaS is not part of TRiDaS
@@ -98,6 +113,11 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 	// used as short descriptive name for this project when displaying
 	private String title = "";
 
+	// summary of the tree, computed when the project is loaded or its tree changed
+	private ProjectStatistics statistics = null;
+	// the index of the tree the statistics were computed for
+	private transient EntityTreeIndex statisticsIndex = null;
+
 	/**
      * Default Constructor
      */
@@ -230,19 +250,185 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 
 	//TODO: LB20090923: throw exceptions when values have not been received yet for following properties .
 
+	/**
+	 * Note: when the values are compact (see compactValues) a connected copy is returned, 
+	 * with the values materialized in the copy only; changing it does not change the project. 
+	 * The copy is connected once and returned again as long as there is memory for it, 
+	 * it is only connected again after the garbage collector cleared it. 
+	 * A project with compact values is shared (cached) and should not be changed anyway.
+	 * 
+	 * @return The tridas tree of the project
+	 */
 	public TridasProject getTridas()
 	{
+		synchronized (this)
+		{
+			if (valuesCompact)
+			{
+				TridasProject copy = (connectedCopy == null) ? null : connectedCopy.get();
+				if (copy == null)
+				{
+					copy = (TridasProject) entityTree.getProjectEntity().createConnectedTridas();
+					connectedCopy = new SoftReference<TridasProject>(copy);
+				}
+				return copy;
+			}
+		}
+		connectDeferredTridas();
 		return tridas;
 	}
 
 	public void setTridas(TridasProject tridas)
 	{
-		this.tridas = tridas;
+		synchronized (this)
+		{
+			this.tridas = tridas;
+			tridasConnectDeferred = false;
+			valuesCompact = false;
+			connectedCopy = null;
+		}
+		invalidateStatistics();
 	}
 
 	public boolean hasTridas()
 	{
-		return (this.tridas != null);
+		return (this.tridas != null || tridasConnectDeferred || valuesCompact);
+	}
+
+	/**
+	 * Used for lazy loading; the entities have their tridas loaders, 
+	 * but the complete tridas tree is loaded and connected 
+	 * only when it is requested with getTridas()
+	 */
+	public synchronized void setTridasConnectDeferred()
+	{
+		this.tridas = null;
+		tridasConnectDeferred = true;
+		valuesCompact = false;
+		connectedCopy = null;
+	}
+
+	public boolean isTridasConnectDeferred()
+	{
+		return tridasConnectDeferred;
+	}
+
+	/**
+	 * Keep the values of the loaded ValuesEntities in compact form, 
+	 * to save memory when the project is kept around (cached). 
+	 * The values are removed from the series of a connected tridas tree, 
+	 * from then on getTridas connects a copy and the serialization materializes the values of each entity. 
+	 * 
+	 * @return the number of entities that were compacted
+	 */
+	public synchronized int compactValues()
+	{
+		if (entityTree == null || entityTree.getProjectEntity() == null)
+			return 0;
+
+		int count = 0;
+		for (ValuesEntity entity : entityTree.getEntities(ValuesEntity.class))
+		{
+			if (entity.compactTridas())
+				count++;
+		}
+		if (count > 0)
+		{
+			removeCompactValuesFromSeries();
+			tridas = null;
+			tridasConnectDeferred = false;
+			valuesCompact = true;
+			connectedCopy = null;
+		}
+		return count;
+	}
+
+	public synchronized boolean isValuesCompact()
+	{
+		return valuesCompact;
+	}
+
+	// the series of a connected tree still reference the values that were compacted
+	private void removeCompactValuesFromSeries()
+	{
+		for (Entity entity : entityTree.getEntities())
+		{
+			if (!entity.isTridasLoaded() || !hasOnlyCompactValues(entity))
+				continue;
+
+			if (entity instanceof MeasurementSeriesEntity)
+				((TridasMeasurementSeries) entity.getTridasAsObject()).getValues().clear();
+			else if (entity instanceof DerivedSeriesEntity)
+				((TridasDerivedSeries) entity.getTridasAsObject()).getValues().clear();
+		}
+	}
+
+	private static boolean hasOnlyCompactValues(Entity seriesEntity)
+	{
+		for (Entity subEntity : seriesEntity.getDendroEntities())
+		{
+			if (!(subEntity instanceof ValuesEntity) || !((ValuesEntity) subEntity).isCompact())
+				return false;
+		}
+		return true;
+	}
+
+	private synchronized void connectDeferredTridas()
+	{
+		if (tridasConnectDeferred)
+		{
+			logger.debug("Connecting deferred tridas for project: " + getSid());
+			// loads all entities
+			ProjectEntity projectEntity = entityTree.getProjectEntity();
+			projectEntity.connectTridasObjectTree();
+			tridas = (TridasProject) projectEntity.getTridasAsObject();
+			tridasConnectDeferred = false;
+		}
+	}
+
+	/**
+	 * The statistics are computed in one pass over the entity tree by updateStatistics, 
+	 * when the project is loaded and when the tree is updated; 
+	 * if they are not up to date (the structure of the tree has changed or after invalidateStatistics) 
+	 * they are computed here.
+	 * 
+	 * @return The statistics of the project
+	 */
+	public synchronized ProjectStatistics getStatistics()
+	{
+		if (statistics == null || statisticsIndex != entityTree.getIndex())
+			updateStatistics();
+		return statistics;
+	}
+
+	/**
+	 * Compute the statistics, loads the tridas of all entities
+	 */
+	public synchronized void updateStatistics()
+	{
+		EntityTreeIndex index = entityTree.getIndex();
+		statistics = ProjectStatistics.compute(entityTree);
+		statisticsIndex = index;
+	}
+
+	/**
+	 * Must be called when the tridas has changed without changing the structure of the tree, 
+	 * the update methods of the tree do this.
+	 */
+	public synchronized void invalidateStatistics()
+	{
+		statistics = null;
+	}
+
+	/**
+	 * Estimate of the memory used by this project, what is loaded; 
+	 * walks all objects of the project so don't call it often.
+	 * 
+	 * @return The footprint
+	 */
+	public ProjectFootprint getFootprint()
+	{
+		return ProjectFootprint.estimate(this);
 	}
 
 	public ProjectVocabulary getVocabulary()
@@ -420,6 +606,36 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 	 * @return
 	 */
 	private DccdProjectSB getCompleteProjectSearchBean()
+	{
+		DccdProjectSB searchBean = createProjectSearchBean();
+		
+		if (entityTree != null && entityTree.getProjectEntity() != null)
+		{
+			ProjectEntity projectEntity = entityTree.getProjectEntity();
+			List<Entity> entities = entityTree.getEntities();
+			DccdSBBuilder builder = new DccdSBBuilder(searchBean, getStatistics().getEntityCounts());
+			projectEntity.fillSearchBean(builder);
+
+			// Note: the first is the project entity
+			for (Entity subentity : entities.subList(1, entities.size()))
+			{
+				subentity.fillSearchBean(builder);
+			}
+			builder.build();
+		}
+		else
+		{
+			logger.debug("No project entity found!");
+		}
+
+		return searchBean;
+	}
+
+	/**
+	 * @return A project bean with the ids and administrative fields, 
+	 * but without the information of the entities
+	 */
+	private DccdProjectSB createProjectSearchBean()
 	{
 		DccdProjectSB searchBean = new DccdProjectSB();
 		//searchBean.setOwnerId(getOwnerId()); // should become managerId !
@@ -435,22 +651,6 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 		
 		String permissionDefaultLevelString = getPermissionMetadata().getDefaultLevel().toString();
 		searchBean.setPermissionDefaultLevel(permissionDefaultLevelString);
-		
-		if (entityTree != null && entityTree.getProjectEntity() != null)
-		{
-			ProjectEntity projectEntity = entityTree.getProjectEntity();
-			searchBean = (DccdProjectSB) projectEntity.fillSearchBean(searchBean);
-
-			List<Entity> subentities = projectEntity.getSubTreeAsList();
-			for (Entity subentity : subentities)
-			{
-				searchBean = (DccdProjectSB) subentity.fillSearchBean(searchBean);
-			}
-		}
-		else
-		{
-			logger.debug("No project entity found!");
-		}
 
 		return searchBean;
 	}
@@ -468,14 +668,18 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 
 			String permissionDefaultLevelString = getPermissionMetadata().getDefaultLevel().toString();
 			
+			// The Project bean and the Object beans in one pass over the tree
+			ProjectSearchBeans beans = ProjectSearchBeans.generate(projectEntity, createProjectSearchBean(),
+					getPermissionMetadata().getDefaultLevel(), getStatistics().getEntityCounts());
+
 			// Add the Project bean
 			//searchBeans.add(getPermittedProjectSearchBean());
 			// Note: just return the complete Project bean, Only used for "My Projects", 
 			// which is shown to the project manager who should be allowed to search and see every detail
-			searchBeans.add(getCompleteProjectSearchBean());
+			searchBeans.add(beans.getProjectBean());
 			
 			// Add all the Object beans
-			List<DccdSB> newBeans = projectEntity.getSearchBeans(getPermissionMetadata().getDefaultLevel());
+			List<DccdSB> newBeans = beans.getObjectBeans();
 			
 			// set the id and state for all beans
 			for (DccdSB newBean : newBeans)
@@ -530,31 +734,11 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 		
 		if (entityTree != null && entityTree.getProjectEntity() != null)
 		{
-			ProjectEntity projectEntity = entityTree.getProjectEntity();
-			//searchBean = (DccdProjectSB) projectEntity.fillSearchBean(searchBean);
-			// Always fill with minimal (open acces) information 
-			searchBean = (DccdProjectSB) projectEntity.minimalFillSearchBean(searchBean);
-			// Only add all info when allowed.
-			if (projectEntity.isPermittedBy(getPermissionMetadata().getDefaultLevel()))
-			{
-				searchBean = (DccdProjectSB) projectEntity.fillSearchBean(searchBean);
-			}
-			
-			List<Entity> subentities = projectEntity.getSubTreeAsList();
-			for (Entity subentity : subentities)
-			{
-				//searchBean = (DccdProjectSB) subentity.fillSearchBean(searchBean);
-				// For ObjectEntity's also always fill with minimal (open acces) information 
-				if (subentity instanceof ObjectEntity)
-				{
-					((ObjectEntity)subentity).minimalFillSearchBean(searchBean);
-				}
-				// futher filling respects the permissionlevel
-				if (subentity.isPermittedBy(getPermissionMetadata().getDefaultLevel()))
-				{
-					searchBean = (DccdProjectSB) subentity.fillSearchBean(searchBean);
-				}
-			}
+			DccdSBBuilder builder = new DccdSBBuilder(searchBean, getStatistics().getEntityCounts());
+			PermittedSearchBeanVisitor visitor = 
+				new PermittedSearchBeanVisitor(builder, getPermissionMetadata().getDefaultLevel());
+			entityTree.accept(visitor);
+			builder.build();
 		}
 		else
 		{
@@ -564,6 +748,46 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 		return searchBean;
 	}
 	
+	/**
+	 * Fills one search bean with the information of all entities; 
+	 * Project and Object entities always give the minimal (open access) information, 
+	 * further filling respects the permission level.
+	 */
+	private static class PermittedSearchBeanVisitor extends AbstractEntityVisitor
+	{
+		private final ProjectPermissionLevel level;
+		private final DccdSBBuilder builder;
+
+		PermittedSearchBeanVisitor(DccdSBBuilder builder, ProjectPermissionLevel level)
+		{
+			this.builder = builder;
+			this.level = level;
+		}
+
+		@Override
+		protected void visitEntity(Entity entity)
+		{
+			if (entity.isPermittedBy(level))
+			{
+				entity.fillSearchBean(builder);
+			}
+		}
+
+		@Override
+		public void visit(ProjectEntity entity)
+		{
+			entity.minimalFillSearchBean(builder);
+			visitEntity(entity);
+		}
+
+		@Override
+		public void visit(ObjectEntity entity)
+		{
+			entity.minimalFillSearchBean(builder);
+			visitEntity(entity);
+		}
+	}
+
 	@Override
 	public Set<String> getContentModels()
 	{
@@ -578,6 +802,8 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 		dc.addLanguage(getTridasLanguage().getLanguage());
 		if (hasTridas())
 		{
+			// Note: when not connected yet, only the project and object entities are needed
+			TridasProject tridas = getDublinCoreTridas();
 			dc.addTitle(tridas.getTitle());
 			dc.addCreator(tridas.getInvestigator());
 
@@ -595,14 +821,33 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 			}
 
 			// the subject of the TRiDaS are the objects
-			for (TridasObject object : tridas.getObjects())
+			if (tridasConnectDeferred || valuesCompact)
 			{
-				dc.addSubject(object.getTitle());
+				for (Entity entity : entityTree.getProjectEntity().getDendroEntities())
+				{
+					if (entity instanceof ObjectEntity)
+						dc.addSubject(entity.getTridasTitle());
+				}
+			}
+			else
+			{
+				for (TridasObject object : tridas.getObjects())
+				{
+					dc.addSubject(object.getTitle());
+				}
 			}
 		}
 		return dc;
 	}
 
+	private TridasProject getDublinCoreTridas()
+	{
+		if (tridasConnectDeferred || valuesCompact)
+			return (TridasProject) entityTree.getProjectEntity().getTridasAsObject();
+		else
+			return getTridas();
+	}
+
 	@Override
 	public List<MetadataUnit> getMetadataUnits()
 	{
@@ -626,10 +871,8 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 //			entityTree.buildTree(getTridas());
 
 			units.add(entityTree);
-			// get the units from the Entities
-			ProjectEntity projectEntity = entityTree.getProjectEntity();
-			units.add(projectEntity);
-			units.addAll(projectEntity.getSubTreeAsList());
+			// get the units from the Entities, the project entity is the first
+			units.addAll(entityTree.getEntities());
 		}
 
 		// vocabulary
@@ -725,44 +968,20 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 	/**
 	 * get all MeasurementSeriesEntity of the Tridas Project
 	 *
-	 * TODO: use getMeasurementSeriesEntities() from the entityTree
-	 *
-	 * @return The list of MeasurementSeriesEntity's
+	 * @return The list of MeasurementSeriesEntity's, can't be modified
 	 */
 	public List<MeasurementSeriesEntity> getMeasurementSeriesEntities() {
-		List<MeasurementSeriesEntity> resultList = new ArrayList<MeasurementSeriesEntity>();
-
-		if (hasTridas())
-		{
-			// note: it would be more efficient if we could specify a class;
-			// EntityTree would then only return the specified type of entities
-			List<Entity> entityList = entityTree.getEntities();
-			for(Entity entity : entityList)
-			{
-				if (entity instanceof MeasurementSeriesEntity)
-					resultList.add((MeasurementSeriesEntity)entity);
-			}
-		}
-
-		return resultList;
+		if (!hasTridas() || getStatistics().getEntityCount(MeasurementSeriesEntity.class) == 0)
+			return Collections.emptyList();
+		
+		return entityTree.getEntities(MeasurementSeriesEntity.class);
 	}
 	
 	public List<DerivedSeriesEntity> getDerivedSeriesEntities() {
-		List<DerivedSeriesEntity> resultList = new ArrayList<DerivedSeriesEntity>();
-
-		if (hasTridas())
-		{
-			// note: it would be more efficient if we could specify a class;
-			// EntityTree would then only return the specified type of entities
-			List<Entity> entityList = entityTree.getEntities();
-			for(Entity entity : entityList)
-			{
-				if (entity instanceof DerivedSeriesEntity)
-					resultList.add((DerivedSeriesEntity)entity);
-			}
-		}
+		if (!hasTridas() || getStatistics().getEntityCount(DerivedSeriesEntity.class) == 0)
+			return Collections.emptyList();
 
-		return resultList;
+		return entityTree.getEntities(DerivedSeriesEntity.class);
 	}
 
 	/**
@@ -779,15 +998,76 @@ public class Project extends AbstractDataModelObject implements HasSearchBeans,
 			List<Entity> entityList = entityTree.getEntities();
 			for(Entity entity : entityList)
 			{
-				updateEntityTree(entity);
+				updateEntityTitle(entity);
+			}
+			updateStatistics();
+		}
+		else
+		{
+			invalidateStatistics();
+		}
+	}
+	
+	/**
+	 * Update the tree after tridas sub objects were added to or removed from the tridas of the given entity; 
+	 * only that part of the tree changes, the other entities keep their id's (datastreams).
+	 * 
+	 * @see nl.knaw.dans.dccd.model.EntityTree#reconcile(Entity)
+	 * @param entity
+	 *        the entity whose tridas was changed
+	 * @return The added and removed entities
+	 */
+	public EntityTreeChange updateEntityTree(Entity entity)
+	{
+		// the tree can only be compared with connected tridas
+		getTridas();
+		EntityTreeChange change = entityTree.reconcile(entity);
+		for (Entity added : change.getAddedEntities())
+		{
+			updateEntityTitle(added);
+		}
+		synchronized (removedEntityIds)
+		{
+			for (Entity removed : change.getRemovedEntities())
+			{
+				removedEntityIds.add(removed.getId());
 			}
 		}
+		updateStatistics();
+		return change;
+	}
+
+	/**
+	 * Note: an entity that was added and removed before the project was updated has no datastream
+	 * 
+	 * @return The ids of the entities that were removed from the tree since the last update, 
+	 * their datastreams are still in the repository
+	 */
+	public List<String> getRemovedEntityIds()
+	{
+		synchronized (removedEntityIds)
+		{
+			return new ArrayList<String>(removedEntityIds);
+		}
+	}
+
+	/**
+	 * @param ids
+	 *        the ids of the removed entities whose datastreams were purged
+	 */
+	public void clearRemovedEntityIds(Collection<String> ids)
+	{
+		synchronized (removedEntityIds)
+		{
+			removedEntityIds.removeAll(ids);
+		}
 	}
 	
 	// update the tree and entity for a specific Entity
-	private void updateEntityTree(Entity entity)
+	private void updateEntityTitle(Entity entity)
 	{
-		if (entity.hasTridas())
+		// Note: when not (lazy) loaded, the title can't have changed
+		if (entity.isTridasLoaded() && entity.hasTridas())
 		{
 			String title = entity.getTridasTitle();
 			
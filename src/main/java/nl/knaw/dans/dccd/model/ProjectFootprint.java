@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.common.lang.repo.BinaryUnit;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.EntityTridasLoader;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+import nl.knaw.dans.dccd.util.ObjectSizeEstimator;
+
+/**
+ * Estimate of the memory (heap) retained by a Project, broken down in categories: 
+ * the entities by type (each with its own part of the tridas), 
+ * the values (ValuesEntity), the vocabulary, the file units and the rest of the project. 
+ * What is not loaded yet (lazy loading) is not counted.
+ * 
+ * @see nl.knaw.dans.dccd.util.ObjectSizeEstimator
+ */
+public class ProjectFootprint
+{
+	public static final String VALUES = "values";
+	public static final String VOCABULARY = "vocabulary";
+	public static final String FILE_UNITS = "fileUnits";
+	/** The project itself, its metadata and the entity tree structure */
+	public static final String PROJECT = "project";
+
+	private final String sid;
+	private final Map<String, Long> categories;
+	private final long total;
+
+	private ProjectFootprint(String sid, Map<String, Long> categories)
+	{
+		this.sid = sid;
+		this.categories = Collections.unmodifiableMap(categories);
+		long sum = 0;
+		for (Long bytes : categories.values())
+		{
+			sum += bytes;
+		}
+		this.total = sum;
+	}
+
+	/**
+	 * Walks the objects of the project, but does not load anything
+	 * 
+	 * @param project
+	 * @return The footprint
+	 */
+	public static ProjectFootprint estimate(Project project)
+	{
+		ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+		// the loaders refer to the repository, not part of the project
+		estimator.excludeType(EntityTridasLoader.class);
+
+		Map<String, Long> categories = new LinkedHashMap<String, Long>();
+		// reversed pre-order; the sub entities are counted before the entity that refers to them
+		List<Entity> entities = project.entityTree.getEntities();
+		for (int i = entities.size() - 1; i >= 0; i--)
+		{
+			Entity entity = entities.get(i);
+			add(categories, getEntityCategory(entity.getClass()), estimator.add(entity));
+		}
+		add(categories, VOCABULARY, estimator.add(project.getVocabulary()));
+		long fileUnits = 0;
+		for (BinaryUnit unit : project.getBinaryUnits())
+		{
+			fileUnits += estimator.add(unit);
+		}
+		add(categories, FILE_UNITS, fileUnits);
+		add(categories, PROJECT, estimator.add(project));
+
+		return new ProjectFootprint(project.getSid(), categories);
+	}
+
+	private static void add(Map<String, Long> categories, String category, long bytes)
+	{
+		Long previous = categories.get(category);
+		categories.put(category, (previous == null) ? bytes : previous + bytes);
+	}
+
+	/**
+	 * @param entityClass
+	 * @return The category name for the entities of the class
+	 */
+	public static String getEntityCategory(Class<? extends Entity> entityClass)
+	{
+		if (ValuesEntity.class.equals(entityClass))
+			return VALUES;
+		return entityClass.getSimpleName();
+	}
+
+	public String getSid()
+	{
+		return sid;
+	}
+
+	/**
+	 * @return The estimated size in bytes
+	 */
+	public long getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * @param category
+	 * @return The estimated size in bytes of the category, zero if there is nothing in it
+	 */
+	public long get(String category)
+	{
+		Long bytes = categories.get(category);
+		return (bytes == null) ? 0 : bytes;
+	}
+
+	/**
+	 * @param entityClass
+	 * @return The estimated size in bytes of the entities of the class
+	 */
+	public long getEntities(Class<? extends Entity> entityClass)
+	{
+		return get(getEntityCategory(entityClass));
+	}
+
+	/**
+	 * @return The estimated sizes in bytes by category
+	 */
+	public Map<String, Long> getCategories()
+	{
+		return categories;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ProjectFootprint[" + sid + ", total=" + total + ", " + categories + "]";
+	}
+}
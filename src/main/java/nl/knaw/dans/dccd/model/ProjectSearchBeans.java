@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.ObjectEntity;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.search.DccdObjectSB;
+import nl.knaw.dans.dccd.search.DccdProjectSB;
+import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
+
+/**
+ * The search beans of a project, generated in one pass over the entity tree; 
+ * the project bean with all information and a bean for each object 
+ * with the information allowed by the permission level. 
+ * 
+ * Each entity is visited once and fills the project bean 
+ * and the beans of all objects it is part of. 
+ * The project information for the object beans is filled only once and copied into each of them. 
+ * The result is the same as filling the project bean (with all subentities) 
+ * and then ProjectEntity.getSearchBeans(level), which walks the tree again for each object. 
+ * 
+ * Only the information of the entities is filled, 
+ * the ids and administrative fields of the beans are left to the caller.
+ * 
+ * @see nl.knaw.dans.dccd.model.entities.ProjectEntity#getSearchBeans(ProjectPermissionLevel)
+ */
+public class ProjectSearchBeans
+{
+	private final DccdProjectSB projectBean;
+	private final List<DccdSB> objectBeans;
+
+	private ProjectSearchBeans(DccdProjectSB projectBean, List<DccdSB> objectBeans)
+	{
+		this.projectBean = projectBean;
+		this.objectBeans = Collections.unmodifiableList(objectBeans);
+	}
+
+	/**
+	 * Generate the beans, loads the tridas of all entities
+	 * 
+	 * @param projectEntity
+	 *        the root of the tree
+	 * @param projectBean
+	 *        the bean to fill with all information of the project
+	 * @param level
+	 *        the permission level for the object beans
+	 * @param expectedEntities
+	 *        the number of entities in the tree per class, for sizing the project bean lists; 
+	 *        see ProjectStatistics.getEntityCounts()
+	 * @return The beans
+	 */
+	public static ProjectSearchBeans generate(ProjectEntity projectEntity, DccdProjectSB projectBean,
+			ProjectPermissionLevel level, Map<Class<? extends Entity>, Integer> expectedEntities)
+	{
+		DccdSBBuilder projectBuilder = new DccdSBBuilder(projectBean, expectedEntities);
+		projectEntity.fillSearchBean(projectBuilder);
+
+		// the project information that goes into every object bean
+		DccdSB projectTemplate = null;
+		if (projectEntity.hasTridas())
+		{
+			projectTemplate = new DccdObjectSB();
+			// always the minimal (open access) information and only when allowed; the rest
+			projectEntity.minimalFillSearchBean(projectTemplate);
+			if (projectEntity.isPermittedBy(level))
+				projectEntity.fillSearchBean(projectTemplate);
+		}
+
+		List<DccdSBBuilder> objectBuilders = new ArrayList<DccdSBBuilder>();
+		// the builders of the objects that contain the current entity, innermost first
+		Deque<DccdSBBuilder> openObjects = new ArrayDeque<DccdSBBuilder>();
+
+		// Note: no recursion, pre-order with a stack of the child iterators
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(projectEntity, false));
+		while (!stack.isEmpty())
+		{
+			Frame frame = stack.peek();
+			if (!frame.children.hasNext())
+			{
+				stack.pop();
+				if (frame.object)
+					openObjects.pop();
+				continue;
+			}
+
+			Entity entity = frame.children.next();
+			entity.fillSearchBean(projectBuilder);
+
+			// the objects it is part of
+			if (entity.isPermittedBy(level))
+			{
+				for (DccdSBBuilder builder : openObjects)
+				{
+					entity.fillSearchBean(builder);
+				}
+			}
+
+			// objects (note: derived series are excluded from search)
+			boolean object = projectTemplate != null && entity instanceof ObjectEntity;
+			if (object)
+			{
+				ObjectEntity objectEntity = (ObjectEntity) entity;
+				DccdSBBuilder builder = new DccdSBBuilder(new DccdObjectSB());
+				builder.addAll(projectTemplate);
+				objectEntity.minimalFillSearchBean(builder);
+				if (objectEntity.isPermittedBy(level))
+					objectEntity.fillSearchBean(builder);
+				// Note: id should be the (system) identifier in the repository (sid)
+				builder.getSearchBean().setDatastreamId(entity.getId());
+
+				objectBuilders.add(builder);
+				openObjects.push(builder);
+			}
+			stack.push(new Frame(entity, object));
+		}
+
+		projectBuilder.build();
+		List<DccdSB> objectBeans = new ArrayList<DccdSB>(objectBuilders.size());
+		for (DccdSBBuilder builder : objectBuilders)
+		{
+			objectBeans.add(builder.build());
+		}
+		return new ProjectSearchBeans(projectBean, objectBeans);
+	}
+
+	/**
+	 * @return The bean with all information of the project
+	 */
+	public DccdProjectSB getProjectBean()
+	{
+		return projectBean;
+	}
+
+	/**
+	 * @return The beans of the objects in pre-order, each with the datastream id of its object
+	 */
+	public List<DccdSB> getObjectBeans()
+	{
+		return objectBeans;
+	}
+
+	private static class Frame
+	{
+		final Iterator<Entity> children;
+		final boolean object;
+
+		Frame(Entity entity, boolean object)
+		{
+			this.children = entity.getDendroEntities().iterator();
+			this.object = object;
+		}
+	}
+}
@@ -0,0 +1,415 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+import nl.knaw.dans.common.jibx.JiBXObjectFactory;
+import nl.knaw.dans.common.lang.xml.XMLDeserializationException;
+import nl.knaw.dans.common.lang.xml.XMLSerializationException;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+import nl.knaw.dans.dccd.tridas.CompactTridasValues;
+import nl.knaw.dans.dccd.tridas.TridasDom4jBridge;
+import nl.knaw.dans.dccd.tridas.TridasJAXBProvider;
+
+import org.apache.log4j.Logger;
+import org.tridas.schema.TridasProject;
+import org.tridas.schema.TridasValues;
+import org.tridas.schema.TridasVocabulary;
+
+/**
+ * Binary snapshot of a (fully loaded) Project, for a local disk cache or session replication; 
+ * much smaller and faster than java serialization or the repository xml.
+ * 
+ * After a small uncompressed header with the format version everything is deflated: 
+ * the project properties, the metadata (JiBX xml), the binary unit names, 
+ * the vocabulary and the entity tree in pre-order. 
+ * Each entity has its own (pruned) tridas xml, 
+ * except for the values which are written as primitive numbers (see CompactTridasValues). 
+ * 
+ * Note: only what the project holds itself; of the repository properties only the sid is kept, 
+ * and binary units are kept by name and id, not the file content.
+ */
+public final class ProjectSnapshotCodec
+{
+	private static Logger logger = Logger.getLogger(ProjectSnapshotCodec.class);
+
+	/** Start (and end) of each snapshot, "DCCD" */
+	public static final int MAGIC = 0x44434344;
+	/** Format version, increment when the layout changes */
+	public static final int VERSION = 1;
+	// the largest byte array that is allocated before its content is read
+	private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+	// what is stored for the tridas of an entity
+	private static final byte CONTENT_NONE = 0;
+	private static final byte CONTENT_XML = 1;
+	private static final byte CONTENT_VALUES = 2;
+
+	private ProjectSnapshotCodec()
+	{
+		// only static methods
+	}
+
+	/**
+	 * Write the snapshot; the stream is not closed
+	 * 
+	 * @param project
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(Project project, OutputStream out) throws IOException
+	{
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.flush();
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try
+		{
+			DeflaterOutputStream deflaterStream = new DeflaterOutputStream(out, deflater);
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(deflaterStream));
+			writeProject(project, data);
+			data.writeInt(MAGIC);
+			data.flush();
+			deflaterStream.finish();
+		}
+		catch (XMLSerializationException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Read a snapshot written with write; the returned project has its tridas connected and is not dirty. 
+	 * Note: the stream is read beyond the end of the snapshot when it has more data
+	 * 
+	 * @param in
+	 * @return The project
+	 * @throws IOException
+	 *         when not a snapshot, of an unsupported version or incomplete
+	 */
+	public static Project read(InputStream in) throws IOException
+	{
+		DataInputStream header = new DataInputStream(in);
+		if (header.readInt() != MAGIC)
+			throw new IOException("Not a project snapshot");
+		int version = header.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported project snapshot version: " + version + ", expected: " + VERSION);
+
+		Inflater inflater = new Inflater();
+		try
+		{
+			DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in, inflater)));
+			Project project = readProject(data);
+			if (data.readInt() != MAGIC)
+				throw new IOException("Incomplete project snapshot");
+			return project;
+		}
+		catch (XMLDeserializationException e)
+		{
+			throw new IOException(e);
+		}
+		catch (JAXBException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	public static byte[] toBytes(Project project) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(project, out);
+		return out.toByteArray();
+	}
+
+	public static Project fromBytes(byte[] snapshot) throws IOException
+	{
+		return read(new ByteArrayInputStream(snapshot));
+	}
+
+	// --- writing ---
+
+	private static void writeProject(Project project, DataOutput out) throws IOException, XMLSerializationException
+	{
+		writeString(out, project.getSid());
+		writeString(out, project.getTitle());
+		writeString(out, project.getFileName());
+		Locale language = project.getTridasLanguage();
+		writeString(out, language.getLanguage());
+		writeString(out, language.getCountry());
+		writeString(out, language.getVariant());
+
+		writeBytes(out, project.getCreationMetadata().asObjectXML());
+		writeBytes(out, project.getPermissionMetadata().asObjectXML());
+		writeBytes(out, project.getAdministrativeMetadata().asObjectXML());
+
+		List<DccdOriginalFileBinaryUnit> originalUnits = project.getOriginalFileBinaryUnits();
+		out.writeInt(originalUnits.size());
+		for (DccdOriginalFileBinaryUnit unit : originalUnits)
+		{
+			writeString(out, unit.getFileName());
+			writeString(out, unit.getUnitId());
+		}
+		List<DccdAssociatedFileBinaryUnit> associatedUnits = project.getAssociatedFileBinaryUnits();
+		out.writeInt(associatedUnits.size());
+		for (DccdAssociatedFileBinaryUnit unit : associatedUnits)
+		{
+			writeString(out, unit.getFileName());
+			writeString(out, unit.getUnitId());
+		}
+
+		boolean hasVocabulary = project.hasTridasVocabulary();
+		out.writeBoolean(hasVocabulary);
+		if (hasVocabulary)
+			writeBytes(out, project.getVocabulary().asObjectXML());
+
+		out.writeInt(project.entityTree.getLastEntityId());
+		ProjectEntity projectEntity = project.entityTree.getProjectEntity();
+		out.writeBoolean(projectEntity != null);
+		if (projectEntity != null)
+			writeEntity(projectEntity, out);
+	}
+
+	private static void writeEntity(Entity entity, DataOutput out) throws IOException, XMLSerializationException
+	{
+		writeString(out, EntityTreeBuilder.entityTagsMap.get(entity.getClass()));
+		writeString(out, entity.getId());
+		writeString(out, entity.getTitle());
+
+		if (entity instanceof ValuesEntity)
+		{
+			// numbers instead of an xml element for each value
+			CompactTridasValues values = ((ValuesEntity) entity).getCompactValues();
+			if (values == null)
+			{
+				out.writeByte(CONTENT_NONE);
+			}
+			else
+			{
+				out.writeByte(CONTENT_VALUES);
+				writeBytes(out, new ValuesEntity(values.getIrregularValues()).asObjectXML());
+				values.writeNumbers(out);
+			}
+		}
+		else if (entity.hasTridas())
+		{
+			out.writeByte(CONTENT_XML);
+			writeBytes(out, entity.asObjectXML()); // pruned, without the sub entities
+		}
+		else
+		{
+			out.writeByte(CONTENT_NONE);
+		}
+
+		List<Entity> subEntities = entity.getDendroEntities();
+		out.writeInt(subEntities.size());
+		for (Entity subEntity : subEntities)
+		{
+			writeEntity(subEntity, out);
+		}
+	}
+
+	// --- reading ---
+
+	private static Project readProject(DataInput in) throws IOException, XMLDeserializationException, JAXBException
+	{
+		String sid = readString(in);
+		Project project = (sid == null) ? new Project() : new Project(sid);
+		project.setTitle(readString(in));
+		project.setFileName(readString(in));
+		project.setTridasLanguage(new Locale(readString(in), readString(in), readString(in)));
+
+		project.setCreationMetadata((ProjectCreationMetadata) JiBXObjectFactory.unmarshal(ProjectCreationMetadata.class, readBytes(in)));
+		project.setPermissionMetadata((ProjectPermissionMetadata) JiBXObjectFactory.unmarshal(ProjectPermissionMetadata.class, readBytes(in)));
+		project.setAdministrativeMetadata((ProjectAdministrativeMetadata) JiBXObjectFactory.unmarshal(ProjectAdministrativeMetadata.class,
+				readBytes(in)));
+
+		int originalCount = in.readInt();
+		for (int i = 0; i < originalCount; i++)
+		{
+			project.addOriginalFileBinaryUnit(readString(in), readString(in));
+		}
+		int associatedCount = in.readInt();
+		for (int i = 0; i < associatedCount; i++)
+		{
+			project.addAssociatedFileBinaryUnit(readString(in), readString(in));
+		}
+
+		if (in.readBoolean())
+		{
+			project.setTridasVocabulary((TridasVocabulary) unmarshalTridas(readBytes(in)));
+			project.getVocabulary().setDirty(false);
+		}
+
+		int lastEntityId = in.readInt();
+		if (in.readBoolean())
+		{
+			Entity entity = readEntity(in);
+			if (!(entity instanceof ProjectEntity))
+				throw new IOException("Project snapshot has no project entity but: " + entity.getClass().getSimpleName());
+			ProjectEntity projectEntity = (ProjectEntity) entity;
+			project.entityTree.setProjectEntity(projectEntity);
+
+			// the tridas of the entities form the tridas of the project again
+			projectEntity.connectTridasObjectTree();
+			project.setTridas((TridasProject) projectEntity.getTridasAsObject());
+			for (Entity treeEntity : project.entityTree.getEntities())
+			{
+				treeEntity.setDirty(false);
+			}
+		}
+		project.entityTree.setLastEntityId(lastEntityId);
+		logger.debug("Read snapshot of project: " + project.getSid());
+
+		return project;
+	}
+
+	private static Entity readEntity(DataInput in) throws IOException, JAXBException
+	{
+		String tagName = readString(in);
+		Entity entity = EntityTreeBuilder.newEntity(tagName);
+		if (entity == null)
+			throw new IOException("Unknown entity in project snapshot: " + tagName);
+		entity.setId(readString(in));
+		entity.setTitle(readString(in));
+
+		byte content = in.readByte();
+		if (content == CONTENT_XML)
+		{
+			entity.setTridasObject(unmarshalTridas(readBytes(in)));
+		}
+		else if (content == CONTENT_VALUES)
+		{
+			TridasValues irregularValues = (TridasValues) unmarshalTridas(readBytes(in));
+			entity.setTridasObject(CompactTridasValues.readNumbers(in, irregularValues).materialize());
+		}
+		else if (content != CONTENT_NONE)
+		{
+			throw new IOException("Invalid entity content in project snapshot: " + content);
+		}
+
+		int subEntityCount = in.readInt();
+		List<Entity> subEntities = entity.getDendroEntities();
+		for (int i = 0; i < subEntityCount; i++)
+		{
+			subEntities.add(readEntity(in));
+		}
+		return entity;
+	}
+
+	private static Object unmarshalTridas(byte[] xmlBytes) throws JAXBException
+	{
+		Unmarshaller unmarshaller = null;
+		try
+		{
+			unmarshaller = TridasJAXBProvider.borrowUnmarshaller();
+			return TridasDom4jBridge.unmarshal(unmarshaller, xmlBytes);
+		}
+		finally
+		{
+			TridasJAXBProvider.returnUnmarshaller(unmarshaller);
+		}
+	}
+
+	// --- primitives ---
+
+	// length prefixed, -1 for null
+	private static void writeBytes(DataOutput out, byte[] bytes) throws IOException
+	{
+		if (bytes == null)
+		{
+			out.writeInt(-1);
+		}
+		else
+		{
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	// the (deflated) input has no known size; a corrupt length must not allocate more than the input has, 
+	// so large lengths are read in chunks and fail at the end of the input
+	private static byte[] readBytes(DataInput in) throws IOException
+	{
+		int length = in.readInt();
+		if (length == -1)
+			return null;
+		if (length < 0)
+			throw new IOException("Invalid length in project snapshot: " + length);
+		if (length <= READ_CHUNK_SIZE)
+		{
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return bytes;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(READ_CHUNK_SIZE);
+		byte[] chunk = new byte[READ_CHUNK_SIZE];
+		int remaining = length;
+		while (remaining > 0)
+		{
+			int count = Math.min(remaining, chunk.length);
+			in.readFully(chunk, 0, count);
+			bytes.write(chunk, 0, count);
+			remaining -= count;
+		}
+		return bytes.toByteArray();
+	}
+
+	// UTF-8, not writeUTF which is limited to 64K
+	private static void writeString(DataOutput out, String value) throws IOException
+	{
+		writeBytes(out, (value == null) ? null : value.getBytes("UTF-8"));
+	}
+
+	private static String readString(DataInput in) throws IOException
+	{
+		byte[] bytes = readBytes(in);
+		return (bytes == null) ? null : new String(bytes, "UTF-8");
+	}
+}
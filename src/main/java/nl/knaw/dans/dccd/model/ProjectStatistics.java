@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import nl.knaw.dans.dccd.model.entities.AbstractEntityVisitor;
+import nl.knaw.dans.dccd.model.entities.ElementEntity;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.model.entities.ObjectEntity;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+import nl.knaw.dans.dccd.tridas.TridasYearConvertor;
+
+import org.tridas.schema.DatingSuffix;
+import org.tridas.schema.TridasElement;
+import org.tridas.schema.TridasInterpretation;
+import org.tridas.schema.TridasMeasurementSeries;
+import org.tridas.schema.TridasObject;
+import org.tridas.schema.Year;
+
+/**
+ * Summary of a project, computed in one pass over the entity tree 
+ * when the project is loaded or its tree is updated; 
+ * it is served without touching the TRiDaS objects again. 
+ * 
+ * The years are (non-relative) astronomical years as in the search index, 
+ * see TridasYearConvertor.
+ * 
+ * @see nl.knaw.dans.dccd.model.Project#getStatistics()
+ */
+public class ProjectStatistics implements Serializable
+{
+	private static final long serialVersionUID = 4137402395630858374L;
+
+	private final Map<Class<? extends Entity>, Integer> entityCounts;
+	private final int entityCount;
+	private final long ringCount;
+	private final Integer firstYear;
+	private final Integer lastYear;
+	private final SortedSet<String> taxa;
+	private final List<ObjectLocation> objectLocations;
+
+	private ProjectStatistics(StatisticsVisitor visitor)
+	{
+		this.entityCounts = Collections.unmodifiableMap(visitor.entityCounts);
+		this.entityCount = visitor.entityCount;
+		this.ringCount = visitor.ringCount;
+		this.firstYear = visitor.firstYear;
+		this.lastYear = visitor.lastYear;
+		this.taxa = Collections.unmodifiableSortedSet(visitor.taxa);
+		this.objectLocations = Collections.unmodifiableList(visitor.objectLocations);
+	}
+
+	/**
+	 * Compute the statistics, loads the tridas of all entities
+	 * 
+	 * @param entityTree
+	 * @return The statistics
+	 */
+	public static ProjectStatistics compute(EntityTree entityTree)
+	{
+		StatisticsVisitor visitor = new StatisticsVisitor();
+		entityTree.accept(visitor);
+		return new ProjectStatistics(visitor);
+	}
+
+	/**
+	 * @return The number of entities in the tree
+	 */
+	public int getEntityCount()
+	{
+		return entityCount;
+	}
+
+	/**
+	 * @return The number of entities per class, for sizing per entity level
+	 */
+	public Map<Class<? extends Entity>, Integer> getEntityCounts()
+	{
+		return entityCounts;
+	}
+
+	/**
+	 * @param entityClass
+	 *        The class of the entities, like ObjectEntity.class
+	 * @return The number of entities of the class (not of its subclasses)
+	 */
+	public int getEntityCount(Class<? extends Entity> entityClass)
+	{
+		Integer count = entityCounts.get(entityClass);
+		return (count == null) ? 0 : count;
+	}
+
+	/**
+	 * @return The number of values of all series
+	 */
+	public long getRingCount()
+	{
+		return ringCount;
+	}
+
+	/**
+	 * @return The earliest first year of the measurement series, null if none
+	 */
+	public Integer getFirstYear()
+	{
+		return firstYear;
+	}
+
+	/**
+	 * @return The latest last year of the measurement series, null if none
+	 */
+	public Integer getLastYear()
+	{
+		return lastYear;
+	}
+
+	/**
+	 * @return The taxa of the elements, sorted
+	 */
+	public SortedSet<String> getTaxa()
+	{
+		return taxa;
+	}
+
+	/**
+	 * @return The objects with coordinates (WGS84), in tree order
+	 */
+	public List<ObjectLocation> getObjectLocations()
+	{
+		return objectLocations;
+	}
+
+	/**
+	 * The location of an object entity
+	 */
+	public static class ObjectLocation implements Serializable
+	{
+		private static final long serialVersionUID = -3198463013839713806L;
+
+		private final String entityId;
+		private final String title;
+		private final Double latitude;
+		private final Double longitude;
+
+		public ObjectLocation(String entityId, String title, Double latitude, Double longitude)
+		{
+			this.entityId = entityId;
+			this.title = title;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+
+		public String getEntityId()
+		{
+			return entityId;
+		}
+
+		public String getTitle()
+		{
+			return title;
+		}
+
+		public Double getLatitude()
+		{
+			return latitude;
+		}
+
+		public Double getLongitude()
+		{
+			return longitude;
+		}
+	}
+
+	private static class StatisticsVisitor extends AbstractEntityVisitor
+	{
+		private final Map<Class<? extends Entity>, Integer> entityCounts = new HashMap<Class<? extends Entity>, Integer>();
+		private int entityCount = 0;
+		private long ringCount = 0;
+		private Integer firstYear = null;
+		private Integer lastYear = null;
+		private final SortedSet<String> taxa = new TreeSet<String>();
+		private final List<ObjectLocation> objectLocations = new ArrayList<ObjectLocation>();
+
+		@Override
+		protected void visitEntity(Entity entity)
+		{
+			Integer count = entityCounts.get(entity.getClass());
+			entityCounts.put(entity.getClass(), (count == null) ? 1 : count + 1);
+			entityCount++;
+		}
+
+		@Override
+		public void visit(ObjectEntity entity)
+		{
+			visitEntity(entity);
+			TridasObject tridasObject = (TridasObject) entity.getTridasAsObject();
+			if (tridasObject != null && tridasObject.isSetLocation())
+			{
+				Double[] coordinates = ObjectEntity.getWGS84Coordinates(tridasObject.getLocation());
+				if (coordinates != null)
+					objectLocations.add(new ObjectLocation(entity.getId(), entity.getTitle(), coordinates[0], coordinates[1]));
+			}
+		}
+
+		@Override
+		public void visit(ElementEntity entity)
+		{
+			visitEntity(entity);
+			TridasElement tridasElement = (TridasElement) entity.getTridasAsObject();
+			if (tridasElement != null && tridasElement.isSetTaxon() && tridasElement.getTaxon().getValue() != null)
+				taxa.add(tridasElement.getTaxon().getValue());
+		}
+
+		@Override
+		public void visit(MeasurementSeriesEntity entity)
+		{
+			visitEntity(entity);
+			TridasMeasurementSeries series = (TridasMeasurementSeries) entity.getTridasAsObject();
+			if (series == null || !series.isSetInterpretation())
+				return;
+
+			TridasInterpretation interpretation = series.getInterpretation();
+			Integer first = toYear(interpretation.getFirstYear());
+			if (first != null && (firstYear == null || first < firstYear))
+				firstYear = first;
+			Integer last = toYear(interpretation.getLastYear());
+			if (last != null && (lastYear == null || last > lastYear))
+				lastYear = last;
+		}
+
+		@Override
+		public void visit(ValuesEntity entity)
+		{
+			visitEntity(entity);
+			// Note: does not expand compact values
+			ringCount += entity.getValueCount();
+		}
+
+		// only non-relative years, like the search bean
+		private static Integer toYear(Year year)
+		{
+			if (year == null || !year.isSetValue())
+				return null;
+			if (year.isSetSuffix() && year.getSuffix() == DatingSuffix.RELATIVE)
+				return null;
+			return TridasYearConvertor.tridasYearToInteger(year);
+		}
+	}
+}
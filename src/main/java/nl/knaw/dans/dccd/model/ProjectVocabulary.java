@@ -25,24 +25,23 @@ import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URI;
+import java.util.Arrays;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.util.JAXBSource;
 import javax.xml.transform.Source;
 
 import nl.knaw.dans.common.lang.repo.MetadataUnit;
 import nl.knaw.dans.common.lang.xml.XMLSerializationException;
 import nl.knaw.dans.dccd.model.InternalErrorException;
 import nl.knaw.dans.dccd.search.DccdSB;
-import nl.knaw.dans.dccd.tridas.TridasNamespacePrefixMapper;
+import nl.knaw.dans.dccd.tridas.TridasCopier;
+import nl.knaw.dans.dccd.tridas.TridasDigest;
+import nl.knaw.dans.dccd.tridas.TridasDom4jBridge;
+import nl.knaw.dans.dccd.tridas.TridasJAXBProvider;
 
 import org.apache.log4j.Logger;
 import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
@@ -67,10 +66,6 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 	private TridasVocabulary vocabulary = null;
 	public final static String VOCABULARY_ID = "VOCTF";
 	
-	/* JAXB related */
-	private static JAXBContext jaxbContext = null;
-	private static Marshaller marshaller = null;
-
 	// keeps the result of the (archiving) validation
 	private boolean validForArchiving = true;
 
@@ -84,29 +79,6 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 		this.validForArchiving = valid;
 	}
 
-	/**
-	 * For producing TRiDaS xml fragments
-	 * 
-	 * @return The Marshaller
-	 * @throws JAXBException
-	 */
-	private static Marshaller getJAXBmarshaller() throws JAXBException
-	{
-		if (marshaller == null)
-		{
-			jaxbContext = JAXBContext.newInstance("org.tridas.schema");
-			marshaller = jaxbContext.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);// improve readability
-			// change the namespace mapping
-			// changed with Java6 ? "com.sun.xml.internal.bind.marshaller.NamespacePrefixMapper"
-			marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", new TridasNamespacePrefixMapper());
-		}
-		
-		return marshaller;
-	}
-	
 	/**
 	 * default implementation adds nothing to the bean
 	 */
@@ -141,31 +113,18 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 	}
 
 	/**
-	 * Create a clone of the given tridas object Useful when creating pruned versions of a tridas object Note: using JAXB to clone is a trick that might be
-	 * suboptimal! Note: could also implement a version that uses a given instantiated JAXBContext or use a static JAXBContext?
+	 * Create a (deep) clone of the given tridas object Useful when creating pruned versions of a tridas object 
+	 * Note: copies the fields directly, no JAXB round trip anymore
 	 * 
-	 * @see nl.knaw.dans.dccd.model.entities.AbstractEntity#pruneTridas(Object)
+	 * @see nl.knaw.dans.dccd.model.entities.AbstractEntity#createPrunedTridas(Object)
+	 * @see nl.knaw.dans.dccd.tridas.TridasCopier
 	 * @param o
 	 *        The tridas object to clone
 	 * @return The clone
 	 */
 	protected Object cloneTridas(Object o)
 	{
-		JAXBContext jaxbContext = null;
-		Object result = null;
-		try
-		{
-			jaxbContext = JAXBContext.newInstance("org.tridas.schema");
-			Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-			result = unmarshaller.unmarshal(new JAXBSource(jaxbContext, o));
-		}
-		catch (JAXBException e)
-		{
-			// e.printStackTrace();
-			// coding error?
-			throw new InternalErrorException(e);
-		}
-		return result;
+		return TridasCopier.deepCopy(o);
 	}
 
 	public String getXMLString()
@@ -188,7 +147,8 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 	String			UNIT_FORMAT		= "http://dans.knaw.nl/dccd/tridasvocabulary";
 	URI				UNIT_FORMAT_URI	= URI.create(UNIT_FORMAT);
 	private boolean	dirty;//=true;
-	private int     originalHash;
+	// digest of the xml when it was not dirty, null when not known
+	private byte[]  originalDigest;
 
 	public String getUnitFormat()
 	{
@@ -223,38 +183,30 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 
 	public Document asDocument() throws XMLSerializationException
 	{
-		String xmlString = asXMLString();
-		Document xmlDocument;
+		Object tridasObject = getTridasAsObject();
+		if (tridasObject == null)
+			throw new XMLSerializationException(new IllegalStateException("No tridas to serialize for: " + getUnitId()));
+
+		Marshaller marshaller = null;
 		try
 		{
-			xmlDocument = DocumentHelper.parseText(xmlString);
+			// marshal directly into dom4j, no xml String to parse
+			marshaller = TridasJAXBProvider.borrowMarshaller();
+			return TridasDom4jBridge.marshal(marshaller, tridasObject);
 		}
-		catch (DocumentException e)
+		catch (JAXBException e)
 		{
 			throw new XMLSerializationException(e);
 		}
-
-		return xmlDocument;
+		finally
+		{
+			TridasJAXBProvider.returnMarshaller(marshaller);
+		}
 	}
 
-	// Would be nice if we can go from JAXB to dom4j using the JAXB marshaller
-	//
 	public Element asElement() throws XMLSerializationException
 	{
-		String xmlString = asXMLString();
-		Document xmlDocument;
-		Element xmlElement;
-		try
-		{
-			xmlDocument = DocumentHelper.parseText(xmlString);
-			xmlElement = xmlDocument.getRootElement();
-		}
-		catch (DocumentException e)
-		{
-			throw new XMLSerializationException(e);
-		}
-
-		return xmlElement;
+		return asDocument().getRootElement();
 	}
 
 	public byte[] asObjectXML() throws XMLSerializationException
@@ -298,10 +250,12 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 		if (tridasObject == null)
 			return result; // nothing to do, warn?
 
+		Marshaller marshaller = null;
 		try
 		{
 			java.io.StringWriter sw = new StringWriter();
-			getJAXBmarshaller().marshal(tridasObject, sw);
+			marshaller = TridasJAXBProvider.borrowMarshaller();
+			marshaller.marshal(tridasObject, sw);
 
 			// System.out.print(sw.toString());
 			result = sw.toString();
@@ -310,6 +264,10 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 		{
 			throw new XMLSerializationException(e);
 		}
+		finally
+		{
+			TridasJAXBProvider.returnMarshaller(marshaller);
+		}
 		return result;
 	}
 
@@ -386,11 +344,16 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 	// Note: just return the value , don't set the member value
 	public int computeOriginalHash()
 	{		
-		int hash = 0;
-		if (this.hasTridas()) {
-			hash = getTridasAsObject().hashCode();
-		}
-		return hash;
+		return Arrays.hashCode(computeDigest());
+	}
+
+	// Note: just return the value , don't set the member value
+	private byte[] computeDigest()
+	{
+		if (!this.hasTridas())
+			return null;
+		
+		return TridasDigest.digest(getTridasAsObject());
 	}
 
 	public DateTime getTimestamp()
@@ -408,9 +371,8 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 		}
 		else
 		{
-			logger.debug("Original hash=" + originalHash + ", current hash=" + computeOriginalHash());	
 		   // check if it was made dirty
-	       return (originalHash != computeOriginalHash());
+	       return !Arrays.equals(originalDigest, computeDigest());
 		}
 	}
 
@@ -427,7 +389,7 @@ public class ProjectVocabulary implements MetadataUnit, Serializable
 		this.dirty = dirty;
         if (!dirty)
         {
-        	originalHash = computeOriginalHash();
+        	originalDigest = computeDigest();
         }		
 	}
 
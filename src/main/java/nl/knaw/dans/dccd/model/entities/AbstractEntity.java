@@ -25,27 +25,29 @@ import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.util.JAXBSource;
 import javax.xml.transform.Source;
 
 import nl.knaw.dans.common.lang.xml.XMLSerializationException;
 import nl.knaw.dans.dccd.model.InternalErrorException;
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
 import nl.knaw.dans.dccd.search.DccdSB;
-import nl.knaw.dans.dccd.tridas.TridasNamespacePrefixMapper;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
+import nl.knaw.dans.dccd.tridas.TridasCopier;
+import nl.knaw.dans.dccd.tridas.TridasDigest;
+import nl.knaw.dans.dccd.tridas.TridasDom4jBridge;
+import nl.knaw.dans.dccd.tridas.TridasJAXBProvider;
 
 import org.apache.log4j.Logger;
 import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
@@ -68,12 +70,13 @@ public abstract class AbstractEntity implements Serializable, Entity
 	private String				id;											// identification must be unique within an entity tree
 	private List<Entity>		entities			= null;					// sub-entities, or children
 
-	private static JAXBContext jaxbContext = null;
-	private static Marshaller marshaller = null;
-
 	// keeps the result of the (archiving) validation
 	private boolean validForArchiving = true;
 
+	// for lazy loading, when not null the tridas still needs to be loaded
+	private volatile EntityTridasLoader tridasLoader = null;
+	private boolean loadingTridas = false;
+
 	@Override
 	public boolean isValidForArchiving()
 	{
@@ -87,34 +90,22 @@ public abstract class AbstractEntity implements Serializable, Entity
 	}
 
 	/**
-	 * For producing TRiDaS xml fragments
-	 * 
-	 * @return The Marshaller
-	 * @throws JAXBException
+	 * Fills the bean with a builder of its own, 
+	 * use fillSearchBean(DccdSBBuilder) when filling with several entities
 	 */
-	private static Marshaller getJAXBmarshaller() throws JAXBException
+	public DccdSB fillSearchBean(DccdSB searchBean)
 	{
-		if (marshaller == null)
-		{
-			jaxbContext = JAXBContext.newInstance("org.tridas.schema");
-			marshaller = jaxbContext.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);// testing
-			// change the namespace mapping
-			// changed with Java6 ? "com.sun.xml.internal.bind.marshaller.NamespacePrefixMapper"
-			marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", new TridasNamespacePrefixMapper());
-		}
-		
-		return marshaller;
+		DccdSBBuilder builder = new DccdSBBuilder(searchBean);
+		fillSearchBean(builder);
+		return builder.build();
 	}
-	
+
 	/**
 	 * default implementation adds nothing to the bean
 	 */
-	public DccdSB fillSearchBean(DccdSB searchBean)
+	public void fillSearchBean(DccdSBBuilder builder)
 	{
-		return searchBean;
+		// nothing to add
 	}
 
 	public void setTitle(String title)
@@ -162,6 +153,71 @@ public abstract class AbstractEntity implements Serializable, Entity
 		return (null != getTridasAsObject());
 	}
 
+	public void setTridasLoader(EntityTridasLoader loader)
+	{
+		this.tridasLoader = loader;
+	}
+
+	public boolean isTridasLoaded()
+	{
+		return tridasLoader == null;
+	}
+
+	/**
+	 * The subclasses call this when their tridas object is set explicitly; 
+	 * stops a pending lazy load and counts as a modification
+	 */
+	protected void tridasObjectReplaced()
+	{
+		if (!loadingTridas)
+			tridasLoader = null;
+		modificationCount++;
+	}
+
+	public void markModified()
+	{
+		modificationCount++;
+	}
+
+	public void trackChanges()
+	{
+		trackingChanges = true;
+		if (!dirty && originalDigest == null && isTridasLoaded())
+			originalDigest = computeDigest();
+	}
+
+	/**
+	 * Make sure the tridas is there when it is loaded lazily, 
+	 * the subclasses call this before using their tridas object.
+	 * The loaded tridas is the 'original', so the entity is not dirty.
+	 */
+	protected void loadTridas()
+	{
+		if (tridasLoader == null)
+			return; // nothing to load, the normal case
+
+		synchronized (this)
+		{
+			EntityTridasLoader loader = tridasLoader;
+			// Note: setTridasObject and setDirty need the tridas while loading, 
+			// they get what is there
+			if (loader != null && !loadingTridas)
+			{
+				loadingTridas = true;
+				try
+				{
+					setTridasObject(loader.loadTridas(this));
+					tridasLoader = null;
+					setDirty(false);
+				}
+				finally
+				{
+					loadingTridas = false;
+				}
+			}
+		}
+	}
+
 	public boolean isPermittedBy(ProjectPermissionLevel level)
 	{
 		// System.out.println("Level: " + getPermissionLevel() + " was asked with permission: " + level);
@@ -170,7 +226,29 @@ public abstract class AbstractEntity implements Serializable, Entity
 
 	public abstract ProjectPermissionLevel getPermissionLevel();
 
-	public abstract void buildEntitySubTree();
+	public void buildEntitySubTree()
+	{
+		// clear the list of subentities first
+		List<Entity> subEntities = getDendroEntities();
+		subEntities.clear();
+
+		for (Object subTridas : getTridasSubObjects())
+		{
+			Entity subEntity = createSubEntity(subTridas);
+			subEntities.add(subEntity);
+			subEntity.buildEntitySubTree();// go deeper
+		}
+	}
+
+	public List<Object> getTridasSubObjects()
+	{
+		return new ArrayList<Object>(); // no sub entities
+	}
+
+	public Entity createSubEntity(Object subTridas)
+	{
+		throw new UnsupportedOperationException(getUnitLabel() + " has no sub entities");
+	}
 
 	public abstract Object getTridasAsObject();
 
@@ -184,49 +262,99 @@ public abstract class AbstractEntity implements Serializable, Entity
 	public abstract String getTridasTitle();
 
 	/**
-	 * Remove all sub-trees from the given tridas object, disconnecting it Only specific Entities know how to prune their Tridas Implementations should support
-	 * the unprune to reverse (undo) the pruning Note: be carefull with what you prune, using a clone is safest! Note: maybe using generics possible?
+	 * Create a view of the given tridas object without the sub-trees of the other entity levels. 
+	 * Only specific Entities know how to prune their Tridas; 
+	 * they return a shallow copy with the sub entity lists emptied, so the given object is never changed. 
+	 * This makes serializing thread-safe, concurrent reads of a (cached) project can't corrupt each other. 
+	 * Entities without sub-trees can return the object itself.
 	 * 
-	 * @param o
-	 *        The tridas object to prune
+	 * @param tridas
+	 *        The tridas object to prune, not null
+	 * @return The pruned view
 	 */
-	protected abstract void pruneTridas();//Object o);
+	protected Object createPrunedTridas(Object tridas)
+	{
+		return tridas;
+	}
 
 	/**
-	 * Undo the pruning
-	 * @see pruneTridas()
+	 * Add the tridas of a sub entity to the given tridas of this entity, in the list for its type; 
+	 * only for entities with sub entities
 	 * 
-	 * @param o
-	 *        The tridas object to unprune
+	 * @param tridas
+	 *        The tridas object of this entity, or a copy of it
+	 * @param subTridas
+	 *        The tridas object of the sub entity
 	 */
-	protected abstract void unpruneTridas();//Object o);
+	protected void addSubTridas(Object tridas, Object subTridas)
+	{
+		throw new UnsupportedOperationException(getUnitLabel() + " has no sub entities");
+	}
 
 	/**
-	 * Create a clone of the given tridas object Useful when creating pruned versions of a tridas object Note: using JAXB to clone is a trick that might be
-	 * suboptimal! Note: could also implement a version that uses a given instantiated JAXBContext or use a static JAXBContext?
+	 * Create a connected copy of the tridas of this entity and its sub entities, 
+	 * like connectTridasObjectTree does, but the tridas objects of the entities are not changed. 
+	 * Compact values are materialized in the copy only. 
+	 * Note: the copy shares the other sub objects (like the identifier) with the entities.
 	 * 
-	 * @see nl.knaw.dans.dccd.model.entities.AbstractEntity#pruneTridas(Object)
+	 * @return The copy, null if there is no tridas
+	 */
+	public Object createConnectedTridas()
+	{
+		Object tridas = getTridasForSerialization();
+		if (tridas == null)
+			return null;
+
+		// the pruned view has empty (unmodifiable) lists for the sub entities
+		Object copy = shallowCopyTridas(createPrunedTridas(tridas));
+		for (Entity subEntity : getDendroEntities())
+		{
+			Object subTridas = ((AbstractEntity) subEntity).createConnectedTridas();
+			if (subTridas != null)
+				addSubTridas(copy, subTridas);
+		}
+		return copy;
+	}
+
+	/**
+	 * The tridas object to serialize, normally the one from getTridasAsObject. 
+	 * Entities that keep their tridas in another form can create it here 
+	 * without changing what they keep.
+	 * 
+	 * @return The tridas object, null if there is none
+	 */
+	protected Object getTridasForSerialization()
+	{
+		return getTridasAsObject();
+	}
+
+	/**
+	 * Create a (deep) clone of the given tridas object Useful when creating pruned versions of a tridas object 
+	 * Note: copies the fields directly, no JAXB round trip anymore
+	 * 
+	 * @see nl.knaw.dans.dccd.model.entities.AbstractEntity#createPrunedTridas(Object)
+	 * @see nl.knaw.dans.dccd.tridas.TridasCopier
 	 * @param o
 	 *        The tridas object to clone
 	 * @return The clone
 	 */
 	protected Object cloneTridas(Object o)
 	{
-		JAXBContext jaxbContext = null;
-		Object result = null;
-		try
-		{
-			jaxbContext = JAXBContext.newInstance("org.tridas.schema");
-			Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-			result = unmarshaller.unmarshal(new JAXBSource(jaxbContext, o));
-		}
-		catch (JAXBException e)
-		{
-			// e.printStackTrace();
-			// coding error?
-			throw new InternalErrorException(e);
-		}
-		return result;
+		return TridasCopier.deepCopy(o);
+	}
+
+	/**
+	 * Create a shallow copy of the given tridas object, sharing the sub objects; 
+	 * enough for a pruned view, the lists of the copy can be emptied 
+	 * without changing the original
+	 * 
+	 * @param o
+	 *        The tridas object to copy
+	 * @return The copy
+	 */
+	protected Object shallowCopyTridas(Object o)
+	{
+		return TridasCopier.shallowCopy(o);
 	}
 
 	/**
@@ -289,19 +417,26 @@ public abstract class AbstractEntity implements Serializable, Entity
 	{
 		List<Entity> list = new ArrayList<Entity>();
 
-		List<Entity> subEntities = getDendroEntities();
-		// maybe assert that subEntities not is null??
-
-		Iterator<Entity> i = subEntities.iterator();
-		while (i.hasNext())
+		// Note: no recursion, the stack has the entities still to visit in pre-order
+		Deque<Entity> stack = new ArrayDeque<Entity>();
+		pushReversed(stack, getDendroEntities());
+		while (!stack.isEmpty())
 		{
-			Entity subEntity = i.next();
+			Entity subEntity = stack.pop();
 			list.add(subEntity);
-			list.addAll(subEntity.getSubTreeAsList()); // recursion
+			pushReversed(stack, subEntity.getDendroEntities());
 		}
 
 		return list;
 	}
+
+	private static void pushReversed(Deque<Entity> stack, List<Entity> entities)
+	{
+		for (int i = entities.size() - 1; i >= 0; i--)
+		{
+			stack.push(entities.get(i));
+		}
+	}
 	
 	/* === MetadataUnit implementation code below === */
 
@@ -312,7 +447,13 @@ public abstract class AbstractEntity implements Serializable, Entity
 	String			UNIT_FORMAT		= "http://dans.knaw.nl/dccd/tridasentity";
 	URI				UNIT_FORMAT_URI	= URI.create(UNIT_FORMAT);
 	private boolean	dirty;//=true;
-	private int     originalHash;
+	// counts the modifications made through the entity, compared with the count when it was not dirty
+	private int     modificationCount = 0;
+	private int     cleanModificationCount = 0;
+	// only for finding changes made directly to the tridas objects, see trackChanges()
+	private boolean trackingChanges = false;
+	// digest of the xml when it was not dirty, null when not known
+	private byte[]  originalDigest;
 
 	public String getUnitFormat()
 	{
@@ -347,38 +488,30 @@ public abstract class AbstractEntity implements Serializable, Entity
 
 	public Document asDocument() throws XMLSerializationException
 	{
-		String xmlString = asXMLString();
-		Document xmlDocument;
+		Object tridasObject = getTridasForSerialization();
+		if (tridasObject == null)
+			throw new XMLSerializationException(new IllegalStateException("No tridas to serialize for: " + getId()));
+
+		Marshaller marshaller = null;
 		try
 		{
-			xmlDocument = DocumentHelper.parseText(xmlString);
+			// marshal directly into dom4j, no xml String to parse
+			marshaller = TridasJAXBProvider.borrowMarshaller();
+			return TridasDom4jBridge.marshal(marshaller, createPrunedTridas(tridasObject));
 		}
-		catch (DocumentException e)
+		catch (JAXBException e)
 		{
 			throw new XMLSerializationException(e);
 		}
-
-		return xmlDocument;
+		finally
+		{
+			TridasJAXBProvider.returnMarshaller(marshaller);
+		}
 	}
 
-	// Would be nice if we can go from JAXB to dom4j using the JAXB marshaller
-	//
 	public Element asElement() throws XMLSerializationException
 	{
-		String xmlString = asXMLString();
-		Document xmlDocument;
-		Element xmlElement;
-		try
-		{
-			xmlDocument = DocumentHelper.parseText(xmlString);
-			xmlElement = xmlDocument.getRootElement();
-		}
-		catch (DocumentException e)
-		{
-			throw new XMLSerializationException(e);
-		}
-
-		return xmlElement;
+		return asDocument().getRootElement();
 	}
 
 	public byte[] asObjectXML() throws XMLSerializationException
@@ -424,32 +557,27 @@ public abstract class AbstractEntity implements Serializable, Entity
 	// C) Move object children to another list before marshalling
 	// and place back afterwards, do this inside synchronised block
 	//
-	// Now using method C !
-	// 1) prune
-	// 2) marshall
-	// 3) unprune
-	//
-	// When using B the process would be divided into the following steps:
-	// 1) clone
-	// 2) prune the clone (this is done by the subclass)
-	// 3) marshall it to an xml fragment
+	// Was using method C, but that changes the shared tridas while marshalling 
+	// and concurrent readers of a cached project could see a pruned tree. 
+	// Now using A, with a shallow copy that shares everything but the sub entity lists:
+	// 1) create the pruned view (this is done by the subclass)
+	// 2) marshall it to an xml fragment
 	//
 	public String asXMLString() throws XMLSerializationException
 	{
 		String result = "";
-		Object tridasObject = getTridasAsObject();
+		Object tridasObject = getTridasForSerialization();
 		if (tridasObject == null)
 			return result; // nothing to do, warn?
 
+		Marshaller marshaller = null;
 		try
 		{
-			Object objectPruned = tridasObject;
-			pruneTridas();
+			Object objectPruned = createPrunedTridas(tridasObject);
 			
 			java.io.StringWriter sw = new StringWriter();
-			getJAXBmarshaller().marshal(objectPruned, sw);
-			
-			unpruneTridas();
+			marshaller = TridasJAXBProvider.borrowMarshaller();
+			marshaller.marshal(objectPruned, sw);
 
 			// System.out.print(sw.toString());
 			result = sw.toString();
@@ -458,6 +586,10 @@ public abstract class AbstractEntity implements Serializable, Entity
 		{
 			throw new XMLSerializationException(e);
 		}
+		finally
+		{
+			TridasJAXBProvider.returnMarshaller(marshaller);
+		}
 		return result;
 	}
 
@@ -534,15 +666,22 @@ public abstract class AbstractEntity implements Serializable, Entity
 	// Note: just return the value , don't set the member value
 	public int computeOriginalHash()
 	{		
-		int hash = 0;
-		if (this.hasTridas()) {
-			// prune before calculation and unprune aftewards
-			// we don't want to use tridas from the other entitylevels
-			this.pruneTridas();
-			hash = getTridasAsObject().hashCode();
-			this.unpruneTridas();
-		}
-		return hash;
+		return Arrays.hashCode(computeDigest());
+	}
+
+	/**
+	 * Digest of the xml of this entity, without the tridas of the other entity levels. 
+	 * Note: just return the value , don't set the member value
+	 * 
+	 * @return the digest or null if there is no tridas
+	 */
+	protected byte[] computeDigest()
+	{
+		if (!this.hasTridas())
+			return null;
+
+		// we don't want to use tridas from the other entitylevels
+		return TridasDigest.digest(createPrunedTridas(getTridasForSerialization()));
 	}
 
 	public DateTime getTimestamp()
@@ -558,11 +697,19 @@ public abstract class AbstractEntity implements Serializable, Entity
 			logger.debug("Dirty");	
 			return dirty; // it was set to dirty
 		}
+		else if (modificationCount != cleanModificationCount)
+		{
+			return true; // modified through the entity
+		}
+		else if (originalDigest == null || !isTridasLoaded())
+		{
+			return false; // changes are not tracked, or not loaded so could not have changed
+		}
 		else
 		{
-			//logger.debug("Original hash=" + originalHash + ", current hash=" + computeOriginalHash());	
-			// check if it was made dirty
-			return (originalHash != computeOriginalHash());
+			// Note: the fallback, marshals the tridas; 
+			// check if the tridas objects were changed directly
+			return !Arrays.equals(originalDigest, computeDigest());
 		}
 	}
 
@@ -579,7 +726,9 @@ public abstract class AbstractEntity implements Serializable, Entity
 		this.dirty = dirty;
         if (!dirty)
         {
-        	originalHash = computeOriginalHash();
+        	cleanModificationCount = modificationCount;
+        	// only marshal when changes made directly to the tridas must be found
+        	originalDigest = (trackingChanges && isTridasLoaded()) ? computeDigest() : null;
         }		
 	}
 
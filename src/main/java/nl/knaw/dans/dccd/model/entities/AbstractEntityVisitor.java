@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model.entities;
+
+/**
+ * Convenience base class for visitors; 
+ * every visit method calls visitEntity, which does nothing. 
+ * Override visitEntity for what all entities have in common 
+ * and the visit methods for the classes that need something specific.
+ */
+public abstract class AbstractEntityVisitor implements EntityVisitor
+{
+	/**
+	 * Called by the visit methods that are not overridden
+	 * 
+	 * @param entity
+	 */
+	protected void visitEntity(Entity entity)
+	{
+		// nothing to do
+	}
+
+	public void visit(ProjectEntity entity)
+	{
+		visitEntity(entity);
+	}
+
+	public void visit(ObjectEntity entity)
+	{
+		visitEntity(entity);
+	}
+
+	public void visit(ElementEntity entity)
+	{
+		visitEntity(entity);
+	}
+
+	public void visit(SampleEntity entity)
+	{
+		visitEntity(entity);
+	}
+
+	public void visit(RadiusEntity entity)
+	{
+		visitEntity(entity);
+	}
+
+	public void visit(MeasurementSeriesEntity entity)
+	{
+		visitEntity(entity);
+	}
+
+	public void visit(DerivedSeriesEntity entity)
+	{
+		visitEntity(entity);
+	}
+
+	public void visit(ValuesEntity entity)
+	{
+		visitEntity(entity);
+	}
+}
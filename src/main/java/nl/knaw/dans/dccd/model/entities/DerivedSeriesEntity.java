@@ -17,7 +17,6 @@ package nl.knaw.dans.dccd.model.entities;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
@@ -29,7 +28,6 @@ public class DerivedSeriesEntity extends AbstractEntity
 {
 	private static final long	serialVersionUID	= -630707665897017532L;
 	private TridasDerivedSeries	tridasDerivedSeries	= null;
-	private List<TridasValues>	valuesPruned		= null;
 
 	public DerivedSeriesEntity()
 	{
@@ -61,39 +59,33 @@ public class DerivedSeriesEntity extends AbstractEntity
 	}
 	
 	@Override
-	public void buildEntitySubTree()
+	public List<Object> getTridasSubObjects()
 	{
-		// clear the list of subentities first
-		List<Entity> subEntities = getDendroEntities();
-		subEntities.clear();
-
-		// use the tridas entity, to find sub-entity tridas data
+		List<Object> subTridas = new ArrayList<Object>();
 		if (tridasDerivedSeries == null)
-			return; // nothing to do
-
-		// values
-		Iterator<TridasValues> iVals = tridasDerivedSeries.getValues().iterator();
-		while (iVals.hasNext())
-		{
-			TridasValues values = iVals.next();
-			ValuesEntity valuesEntity = new ValuesEntity(values);
-			subEntities.add(valuesEntity);
-			valuesEntity.buildEntitySubTree();// go deeper
-		}
+			return subTridas;
+		subTridas.addAll(tridasDerivedSeries.getValues());
+		return subTridas;
+	}
 
-		// Note: instead of depth first,
-		// we could call the createTree of all sub-entities here }
+	@Override
+	public Entity createSubEntity(Object subTridas)
+	{
+		// all subentities are values
+		return new ValuesEntity((TridasValues) subTridas);
 	}
 
 	@Override
 	public Object getTridasAsObject()
 	{
+		loadTridas();
 		return tridasDerivedSeries;
 	}
 
 	@Override
 	public void setTridasObject(Object tridas)
 	{
+		tridasObjectReplaced();
 		tridasDerivedSeries = (TridasDerivedSeries) tridas;
 	}
 
@@ -108,43 +100,32 @@ public class DerivedSeriesEntity extends AbstractEntity
 	@Override
 	public void connectTridasObjectTree()
 	{
+		loadTridas();
 		if (tridasDerivedSeries == null)
 			return; // nothing to do
 		
 		List<Entity> subEntities = getDendroEntities();
 		for (Entity subEntity : subEntities)
 		{
-			// all subentities are values
-			TridasValues valuesTridas = (TridasValues) subEntity.getTridasAsObject();
-			tridasDerivedSeries.getValues().add(valuesTridas);
+			addSubTridas(tridasDerivedSeries, subEntity.getTridasAsObject());
 			subEntity.connectTridasObjectTree();
 		}
 	}
 
 	@Override
-	protected void pruneTridas()
+	protected void addSubTridas(Object tridas, Object subTridas)
 	{
-		TridasDerivedSeries objectToPrune = tridasDerivedSeries;
-
-		if (objectToPrune != null)
-		{
-			valuesPruned = objectToPrune.getValues();
-			List<TridasValues> empty = Collections.emptyList();
-			objectToPrune.setValues(empty);
-		}
+		// all subentities are values
+		((TridasDerivedSeries) tridas).getValues().add((TridasValues) subTridas);
 	}
 
 	@Override
-	protected void unpruneTridas()
+	protected Object createPrunedTridas(Object tridas)
 	{
-		TridasDerivedSeries objectToUnprune = tridasDerivedSeries;
-
-		if (objectToUnprune != null && 
-			valuesPruned != null)
-		{
-			objectToUnprune.setValues(valuesPruned);
-			valuesPruned = null;
-		}
+		TridasDerivedSeries pruned = (TridasDerivedSeries) shallowCopyTridas(tridas);
+		List<TridasValues> emptyValues = Collections.emptyList();
+		pruned.setValues(emptyValues);
+		return pruned;
 	}
 	
 	public List<String> getAssociatedFileNames()
@@ -153,4 +134,9 @@ public class DerivedSeriesEntity extends AbstractEntity
 		// empty
 		return resultList;
 	}
+
+	public void accept(EntityVisitor visitor)
+	{
+		visitor.visit(this);
+	}
 }
@@ -17,11 +17,11 @@ package nl.knaw.dans.dccd.model.entities;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
-import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
+import nl.knaw.dans.dccd.search.DccdSBField;
 
 import org.tridas.schema.ControlledVoc;
 import org.tridas.schema.TridasElement;
@@ -34,7 +34,6 @@ public class ElementEntity extends AbstractEntity
 {
 	private static final long	serialVersionUID	= -507226161706482578L;
 	private TridasElement		tridasElement		= null;
-	private List<TridasSample>	samplesPruned		= null;
 
 	public ElementEntity()
 	{
@@ -59,147 +58,95 @@ public class ElementEntity extends AbstractEntity
 	}
 
 	@Override
-	public DccdSB fillSearchBean(DccdSB searchBean)
+	public void fillSearchBean(DccdSBBuilder builder)
 	{
 		if (hasTridas())
 		{
+			// the fields get an empty list when there are no values
+			builder.include(ElementEntity.class);
+
 			// tridas.element.title
-			List<String> tridasElementTitle = searchBean.getTridasElementTitle();
-			if (tridasElementTitle == null)
-				tridasElementTitle = new ArrayList<String>();
 			if (tridasElement.isSetTitle())
 			{
-				tridasElementTitle.add(tridasElement.getTitle());
+				builder.add(DccdSBField.TRIDAS_ELEMENT_TITLE, tridasElement.getTitle());
 			}
-			searchBean.setTridasElementTitle(tridasElementTitle);
 
 			// tridas.element.identifier
-			List<String> tridasElementIdentifier = searchBean.getTridasElementIdentifier();
-			if (tridasElementIdentifier == null)
-				tridasElementIdentifier = new ArrayList<String>();
 			if (tridasElement.isSetIdentifier() && tridasElement.getIdentifier().isSetValue())
 			{
 				// Note: ignore domain
-				tridasElementIdentifier.add(tridasElement.getIdentifier().getValue());
+				builder.add(DccdSBField.TRIDAS_ELEMENT_IDENTIFIER, tridasElement.getIdentifier().getValue());
 			}
-			// BUG! searchBean.setTridasObjectIdentifier(tridasElementIdentifier);
-			searchBean.setTridasElementIdentifier(tridasElementIdentifier);
 
 			// tridas.element.type
 			// tridas.element.type.normal
-			List<String> tridasElementType = searchBean.getTridasElementType();
-			if (tridasElementType == null)
-				tridasElementType = new ArrayList<String>();
-			List<String> tridasElementTypeNormal = searchBean.getTridasElementTypeNormal();
-			if (tridasElementTypeNormal == null)
-				tridasElementTypeNormal = new ArrayList<String>();
 			if (tridasElement.isSetType())
 			{
 				ControlledVoc type = tridasElement.getType();
 
 				if (type.isSetValue())
-					tridasElementType.add(type.getValue());
+					builder.add(DccdSBField.TRIDAS_ELEMENT_TYPE, type.getValue());
 				else
-					tridasElementType.add("");
+					builder.add(DccdSBField.TRIDAS_ELEMENT_TYPE, "");
 
 				if (type.isSetNormal())
-					tridasElementTypeNormal.add(type.getNormal());
+					builder.add(DccdSBField.TRIDAS_ELEMENT_TYPE_NORMAL, type.getNormal());
 				else
-					tridasElementTypeNormal.add("");
+					builder.add(DccdSBField.TRIDAS_ELEMENT_TYPE_NORMAL, "");
 			}
-			searchBean.setTridasElementType(tridasElementType);
-			searchBean.setTridasElementTypeNormal(tridasElementTypeNormal);
 
 			// tridas.element.description
-			List<String> tridasElementDescription = searchBean.getTridasElementDescription();
-			if (tridasElementDescription == null)
-				tridasElementDescription = new ArrayList<String>();
 			if (tridasElement.isSetDescription())
 			{
-				tridasElementDescription.add(tridasElement.getDescription());
+				builder.add(DccdSBField.TRIDAS_ELEMENT_DESCRIPTION, tridasElement.getDescription());
 			}
-			searchBean.setTridasElementDescription(tridasElementDescription);
 
 			// tridas.element.taxon
-			List<String> tridasElementTaxon = searchBean.getTridasElementTaxon();
-			if (tridasElementTaxon == null)
-				tridasElementTaxon = new ArrayList<String>();
 			if (tridasElement.isSetTaxon())
 			{
-				tridasElementTaxon.add(tridasElement.getTaxon().getValue());
+				builder.add(DccdSBField.TRIDAS_ELEMENT_TAXON, tridasElement.getTaxon().getValue());
 			}
-			searchBean.setTridasElementTaxon(tridasElementTaxon);
 
 			// tridas.element.shape
-			List<String> tridasElementShape = searchBean.getTridasElementShape();
-			if (tridasElementShape == null)
-				tridasElementShape = new ArrayList<String>();
 			if (tridasElement.isSetShape() && tridasElement.getShape().isSetValue())
 			{
-				tridasElementShape.add(tridasElement.getShape().getValue());
+				builder.add(DccdSBField.TRIDAS_ELEMENT_SHAPE, tridasElement.getShape().getValue());
 			}
-			searchBean.setTridasElementShape(tridasElementShape);
 
 			// tridas.element.altitude
-			List<Double> tridasElementAltitude = searchBean.getTridasElementAltitude();
-			if (tridasElementAltitude == null)
-				tridasElementAltitude = new ArrayList<Double>();
 			if (tridasElement.isSetAltitude())
 			{
-				tridasElementAltitude.add(tridasElement.getAltitude());
+				builder.add(DccdSBField.TRIDAS_ELEMENT_ALTITUDE, tridasElement.getAltitude());
 			}
-			searchBean.setTridasElementAltitude(tridasElementAltitude);
 
 			// tridas.element.slope.angle
 			// tridas.element.slope.azimuth
-			List<Integer> tridasElementSlopeAngle = searchBean.getTridasElementSlopeAngle();
-			if (tridasElementSlopeAngle == null)
-				tridasElementSlopeAngle = new ArrayList<Integer>();
-			List<Integer> tridasElementSlopeAzimuth = searchBean.getTridasElementSlopeAzimuth();
-			if (tridasElementSlopeAzimuth == null)
-				tridasElementSlopeAzimuth = new ArrayList<Integer>();
 			if (tridasElement.isSetSlope())
 			{
 				TridasSlope slope = tridasElement.getSlope();
 				if (slope.isSetAngle())
-					tridasElementSlopeAngle.add(slope.getAngle().intValue());
+					builder.add(DccdSBField.TRIDAS_ELEMENT_SLOPE_ANGLE, slope.getAngle().intValue());
 				if (slope.isSetAzimuth())
-					tridasElementSlopeAzimuth.add(slope.getAzimuth().intValue());
+					builder.add(DccdSBField.TRIDAS_ELEMENT_SLOPE_AZIMUTH, slope.getAzimuth().intValue());
 			}
-			searchBean.setTridasElementSlopeAngle(tridasElementSlopeAngle);
-			searchBean.setTridasElementSlopeAzimuth(tridasElementSlopeAzimuth);
 
 			// tridas.element.soil.description
 			// tridas.element.soil.depth
-			List<String> tridasElementSoilDescription = searchBean.getTridasElementSoilDescription();
-			if (tridasElementSoilDescription == null)
-				tridasElementSoilDescription = new ArrayList<String>();
-			List<Double> tridasElementSoilDepth = searchBean.getTridasElementSoilDepth();
-			if (tridasElementSoilDepth == null)
-				tridasElementSoilDepth = new ArrayList<Double>();
 			if (tridasElement.isSetSoil())
 			{
 				TridasSoil soil = tridasElement.getSoil();
 				if (soil.isSetDescription())
-					tridasElementSoilDescription.add(soil.getDescription());
+					builder.add(DccdSBField.TRIDAS_ELEMENT_SOIL_DESCRIPTION, soil.getDescription());
 				if (soil.isSetDepth())
-					tridasElementSoilDepth.add(soil.getDepth());
+					builder.add(DccdSBField.TRIDAS_ELEMENT_SOIL_DEPTH, soil.getDepth());
 			}
-			searchBean.setTridasElementSoilDescription(tridasElementSoilDescription);
-			searchBean.setTridasElementSoilDepth(tridasElementSoilDepth);
 
 			// tridas.element.bedrock.description
-			List<String> tridasElementBedrockDescription = searchBean.getTridasElementBedrockDescription();
-			if (tridasElementBedrockDescription == null)
-				tridasElementBedrockDescription = new ArrayList<String>();
 			if (tridasElement.isSetBedrock() && tridasElement.getBedrock().isSetDescription())
 			{
-				tridasElementBedrockDescription.add(tridasElement.getBedrock().getDescription());
+				builder.add(DccdSBField.TRIDAS_ELEMENT_BEDROCK_DESCRIPTION, tridasElement.getBedrock().getDescription());
 			}
-			searchBean.setTridasElementBedrockDescription(tridasElementBedrockDescription);
-
 		}
-		return searchBean;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -210,39 +157,33 @@ public class ElementEntity extends AbstractEntity
 	}
 
 	@Override
-	public void buildEntitySubTree()
+	public List<Object> getTridasSubObjects()
 	{
-		// clear the list of subentities first
-		List<Entity> subEntities = getDendroEntities();
-		subEntities.clear();
-
-		// use the tridas entity, to find sub-entity tridas data
+		List<Object> subTridas = new ArrayList<Object>();
 		if (tridasElement == null)
-			return; // nothing to do
-
-		// samples
-		Iterator<TridasSample> iSamp = tridasElement.getSamples().iterator();
-		while (iSamp.hasNext())
-		{
-			TridasSample sample = iSamp.next();
-			SampleEntity sampleEntity = new SampleEntity(sample);
-			subEntities.add(sampleEntity);
-			sampleEntity.buildEntitySubTree();// go deeper
-		}
+			return subTridas;
+		subTridas.addAll(tridasElement.getSamples());
+		return subTridas;
+	}
 
-		// Note: instead of depth first,
-		// we could call the createTree of all sub-entities here
+	@Override
+	public Entity createSubEntity(Object subTridas)
+	{
+		// all subentities are samples
+		return new SampleEntity((TridasSample) subTridas);
 	}
 
 	@Override
 	public Object getTridasAsObject()
 	{
+		loadTridas();
 		return tridasElement;
 	}
 
 	@Override
 	public void setTridasObject(Object tridas)
 	{
+		tridasObjectReplaced();
 		tridasElement = (TridasElement) tridas;
 	}
 
@@ -257,44 +198,32 @@ public class ElementEntity extends AbstractEntity
 	@Override
 	public void connectTridasObjectTree()
 	{
+		loadTridas();
 		if (tridasElement == null)
 			return; // nothing to do
 		
 		List<Entity> subEntities = getDendroEntities();
 		for (Entity subEntity : subEntities)
 		{
-			// all subentities are samples
-			TridasSample sampleTridas = (TridasSample) subEntity.getTridasAsObject();
-			tridasElement.getSamples().add(sampleTridas);
+			addSubTridas(tridasElement, subEntity.getTridasAsObject());
 			subEntity.connectTridasObjectTree();
 		}
 	}
 
 	@Override
-	protected void pruneTridas()
+	protected void addSubTridas(Object tridas, Object subTridas)
 	{
-		TridasElement objectToPrune = tridasElement;
-
-		if (objectToPrune != null &&
-			samplesPruned == null)
-		{
-			samplesPruned = objectToPrune.getSamples();
-			List<TridasSample> empty = Collections.emptyList();
-			objectToPrune.setSamples(empty);
-		}
+		// all subentities are samples
+		((TridasElement) tridas).getSamples().add((TridasSample) subTridas);
 	}
 
 	@Override
-	protected void unpruneTridas()
+	protected Object createPrunedTridas(Object tridas)
 	{
-		TridasElement objectToUnprune = tridasElement;
-
-		if (objectToUnprune != null && 
-			samplesPruned != null)
-		{
-			objectToUnprune.setSamples(samplesPruned);
-			samplesPruned = null;
-		}
+		TridasElement pruned = (TridasElement) shallowCopyTridas(tridas);
+		List<TridasSample> emptySample = Collections.emptyList();
+		pruned.setSamples(emptySample);
+		return pruned;
 	}
 	
 	public List<String> getAssociatedFileNames()
@@ -314,5 +243,10 @@ public class ElementEntity extends AbstractEntity
 		//logger.debug("Found Associated Files: " + resultList.size());
 		
 		return resultList;		
-	}	
+	}
+
+	public void accept(EntityVisitor visitor)
+	{
+		visitor.visit(this);
+	}
 }
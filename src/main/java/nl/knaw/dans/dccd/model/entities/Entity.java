@@ -20,6 +20,7 @@ import java.util.List;
 import nl.knaw.dans.common.lang.repo.MetadataUnit;
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
 import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
 
 /**
  * The DCCD information (metadata) which is also stored in TRiDaS xml files, but split into (entity)levels. Supports facilities needed for storage and retrieval
@@ -39,6 +40,14 @@ public interface Entity extends MetadataUnit
 	 */
 	DccdSB fillSearchBean(DccdSB searchBean);
 
+	/**
+	 * Add info for this entity alone, and don't recurse; 
+	 * the multi-valued fields are set on the bean when the builder is built
+	 * 
+	 * @param builder
+	 */
+	void fillSearchBean(DccdSBBuilder builder);
+
 	/**
 	 * @param title
 	 *        the title to set
@@ -85,6 +94,21 @@ public interface Entity extends MetadataUnit
 	 */
 	void buildEntitySubTree();
 
+	/**
+	 * @return The tridas objects for the sub entities, in the order of the sub entities 
+	 * as build by buildEntitySubTree; empty if there is no tridas or no sub entities
+	 */
+	List<Object> getTridasSubObjects();
+
+	/**
+	 * Create the entity for one of the tridas sub objects, without its sub entities
+	 * 
+	 * @param subTridas
+	 *        one of the getTridasSubObjects
+	 * @return The new entity
+	 */
+	Entity createSubEntity(Object subTridas);
+
 	/**
 	 * Note: maybe use the word Data instead of Tridas for public member names?
 	 * 
@@ -149,4 +173,39 @@ public interface Entity extends MetadataUnit
 	
 	// return the names of the associated files for this entity (and not subentities)
 	public List<String> getAssociatedFileNames();
+
+	/**
+	 * For lazy loading; the tridas is not set now but loaded by the loader 
+	 * the first time it is needed
+	 * 
+	 * @param loader
+	 */
+	public void setTridasLoader(EntityTridasLoader loader);
+
+	/**
+	 * @return false if the tridas still has to be loaded
+	 */
+	public boolean isTridasLoaded();
+
+	/**
+	 * Tell the entity that its tridas objects were changed, 
+	 * so it is dirty without comparing the xml; 
+	 * call this after editing the objects from getTridasAsObject()
+	 */
+	public void markModified();
+
+	/**
+	 * Also find changes made directly to the tridas objects without markModified(), 
+	 * by comparing a digest of the xml with the one taken when the entity was not dirty. 
+	 * Only for entities that can be edited, it marshals the tridas when loaded and when checked.
+	 */
+	public void trackChanges();
+
+	/**
+	 * Calls the visit method of the visitor for the class of this entity, 
+	 * not for the sub entities
+	 * 
+	 * @param visitor
+	 */
+	public void accept(EntityVisitor visitor);
 }
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model.entities;
+
+import java.io.Serializable;
+
+/**
+ * Provides the tridas object of an Entity when it is first needed, used for lazy loading. 
+ * The loader is kept with the entity until then, so it must be serializable.
+ * 
+ * @see nl.knaw.dans.dccd.model.entities.AbstractEntity#setTridasLoader(EntityTridasLoader)
+ */
+public interface EntityTridasLoader extends Serializable
+{
+	/**
+	 * Load the tridas for the given entity, don't set it on the entity, that is done by the caller
+	 * 
+	 * @param entity
+	 *        the entity that needs its tridas
+	 * @return The (pruned) tridas object
+	 */
+	Object loadTridas(Entity entity);
+}
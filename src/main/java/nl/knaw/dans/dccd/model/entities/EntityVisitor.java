@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model.entities;
+
+/**
+ * Visitor for the entities, each entity class has its own visit method 
+ * and the entity calls the right one in Entity.accept(). 
+ * Use this instead of a chain of instanceof checks.
+ * 
+ * @see nl.knaw.dans.dccd.model.entities.AbstractEntityVisitor
+ * @see nl.knaw.dans.dccd.model.entities.MultiEntityVisitor
+ */
+public interface EntityVisitor
+{
+	void visit(ProjectEntity entity);
+
+	void visit(ObjectEntity entity);
+
+	void visit(ElementEntity entity);
+
+	void visit(SampleEntity entity);
+
+	void visit(RadiusEntity entity);
+
+	void visit(MeasurementSeriesEntity entity);
+
+	void visit(DerivedSeriesEntity entity);
+
+	void visit(ValuesEntity entity);
+}
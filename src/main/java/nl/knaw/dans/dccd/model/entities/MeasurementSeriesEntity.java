@@ -17,13 +17,13 @@ package nl.knaw.dans.dccd.model.entities;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
-import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
+import nl.knaw.dans.dccd.search.DccdSBField;
 import nl.knaw.dans.dccd.tridas.TridasYearConvertor;
 
 import org.joda.time.DateTime;
@@ -42,7 +42,6 @@ public class MeasurementSeriesEntity extends AbstractEntity
 
 	private static final long		serialVersionUID		= -3893997234665008778L;
 	private TridasMeasurementSeries	tridasMeasurementSeries	= null;
-	private List<TridasValues>		valuesPruned			= null;
 
 	public MeasurementSeriesEntity()
 	{
@@ -67,51 +66,37 @@ public class MeasurementSeriesEntity extends AbstractEntity
 	}
 
 	@Override
-	public DccdSB fillSearchBean(DccdSB searchBean)
+	public void fillSearchBean(DccdSBBuilder builder)
 	{
 		if (hasTridas())
 		{
+			// the fields get an empty list when there are no values
+			builder.include(MeasurementSeriesEntity.class);
+
 			// tridas.measurementSeries.title
-			List<String> tridasMeasurementseriesTitle = searchBean.getTridasMeasurementseriesTitle();
-			if (tridasMeasurementseriesTitle == null)
-				tridasMeasurementseriesTitle = new ArrayList<String>();
 			if (tridasMeasurementSeries.isSetTitle())
 			{
-				tridasMeasurementseriesTitle.add(tridasMeasurementSeries.getTitle());
+				builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_TITLE, tridasMeasurementSeries.getTitle());
 			}
-			searchBean.setTridasMeasurementseriesTitle(tridasMeasurementseriesTitle);
 
 			// tridas.measurementSeries.identifier
-			List<String> tridasMeasurementseriesIdentifier = searchBean.getTridasMeasurementseriesIdentifier();
-			if (tridasMeasurementseriesIdentifier == null)
-				tridasMeasurementseriesIdentifier = new ArrayList<String>();
 			if (tridasMeasurementSeries.isSetIdentifier() && tridasMeasurementSeries.getIdentifier().isSetValue())
 			{
 				// Note: ignore domain
-				tridasMeasurementseriesIdentifier.add(tridasMeasurementSeries.getIdentifier().getValue());
+				builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_IDENTIFIER, tridasMeasurementSeries.getIdentifier().getValue());
 			}
-			// BUG! searchBean.setTridasRadiusIdentifier(tridasMeasurementseriesIdentifier);
-			searchBean.setTridasMeasurementseriesIdentifier(tridasMeasurementseriesIdentifier);
 
 			// tridas.measurementSeries.analyst
-			List<String> tridasMeasurementseriesAnalyst = searchBean.getTridasMeasurementseriesAnalyst();
-			if (tridasMeasurementseriesAnalyst == null)
-				tridasMeasurementseriesAnalyst = new ArrayList<String>();
 			if (tridasMeasurementSeries.isSetAnalyst())
 			{
-				tridasMeasurementseriesAnalyst.add(tridasMeasurementSeries.getAnalyst());
+				builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_ANALYST, tridasMeasurementSeries.getAnalyst());
 			}
-			searchBean.setTridasMeasurementseriesAnalyst(tridasMeasurementseriesAnalyst);
 
 			// tridas.measurementSeries.dendrochronologist
-			List<String> tridasMeasurementseriesDendrochronologist = searchBean.getTridasMeasurementseriesDendrochronologist();
-			if (tridasMeasurementseriesDendrochronologist == null)
-				tridasMeasurementseriesDendrochronologist = new ArrayList<String>();
 			if (tridasMeasurementSeries.isSetDendrochronologist())
 			{
-				tridasMeasurementseriesDendrochronologist.add(tridasMeasurementSeries.getDendrochronologist());
+				builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_DENDROCHRONOLOGIST, tridasMeasurementSeries.getDendrochronologist());
 			}
-			searchBean.setTridasMeasurementseriesDendrochronologist(tridasMeasurementseriesDendrochronologist);
 
 			// tridas.measurementSeries.measuringDate
 			if (tridasMeasurementSeries.isSetMeasuringDate() && tridasMeasurementSeries.getMeasuringDate().isSetValue())
@@ -119,220 +104,103 @@ public class MeasurementSeriesEntity extends AbstractEntity
 				XMLGregorianCalendar xmlDate = tridasMeasurementSeries.getMeasuringDate().getValue();
 				DateTime dateTime = new DateTime(xmlDate.toGregorianCalendar());
 
-				// add to the list
-				List<DateTime> measuringDate = searchBean.getTridasMeasurementseriesMeasuringdate();
-				if (measuringDate == null)
-					measuringDate = new ArrayList<DateTime>();
-				measuringDate.add(dateTime);
-				searchBean.setTridasMeasurementseriesMeasuringdate(measuringDate);
+				builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_MEASURINGDATE, dateTime);
 			}
 
 			// tridas.measurementSeries.measuringMethod
 			// tridas.measurementSeries.measuringMethod.normal
-			List<String> tridasMeasurementseriesMeasuringmethod = searchBean.getTridasMeasurementseriesMeasuringmethod();
-			if (tridasMeasurementseriesMeasuringmethod == null)
-				tridasMeasurementseriesMeasuringmethod = new ArrayList<String>();
-			List<String> tridasMeasurementseriesMeasuringmethodNormal = searchBean.getTridasMeasurementseriesMeasuringmethodNormal();
-			if (tridasMeasurementseriesMeasuringmethodNormal == null)
-				tridasMeasurementseriesMeasuringmethodNormal = new ArrayList<String>();
 			if (tridasMeasurementSeries.isSetMeasuringMethod())
 			{
 				TridasMeasuringMethod method = tridasMeasurementSeries.getMeasuringMethod();
 
 				if (method.isSetValue())
-					tridasMeasurementseriesMeasuringmethod.add(method.getValue());
+					builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_MEASURINGMETHOD, method.getValue());
 				else
-					tridasMeasurementseriesMeasuringmethod.add("");
+					builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_MEASURINGMETHOD, "");
 
 				if (method.isSetNormal())
-					tridasMeasurementseriesMeasuringmethodNormal.add(method.getNormal());
+					builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_MEASURINGMETHOD_NORMAL, method.getNormal());
 				else
-					tridasMeasurementseriesMeasuringmethodNormal.add("");
+					builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_MEASURINGMETHOD_NORMAL, "");
 			}
-			searchBean.setTridasMeasurementseriesMeasuringmethod(tridasMeasurementseriesMeasuringmethod);
-			searchBean.setTridasMeasurementseriesMeasuringmethodNormal(tridasMeasurementseriesMeasuringmethodNormal);
 
 			// tridas.measurementSeries.interpretationUnsolved
-			List<String> tridasMeasurementseriesInterpretationunsolved = searchBean.getTridasMeasurementseriesInterpretationunsolved();
-			if (tridasMeasurementseriesInterpretationunsolved == null)
-				tridasMeasurementseriesInterpretationunsolved = new ArrayList<String>();
 			if (tridasMeasurementSeries.isSetInterpretationUnsolved())
 			{
-				// tridasMeasurementseriesInterpretationunsolved.add(tridasMeasurementSeries.getInterpretationUnsolved());
 				// Note: in TRiDaSv1.2.1 it changed from String to a Class with no information
 				// Therefore I add an empty string here
-				tridasMeasurementseriesInterpretationunsolved.add("");
+				builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATIONUNSOLVED, "");
 			}
-			searchBean.setTridasMeasurementseriesInterpretationunsolved(tridasMeasurementseriesInterpretationunsolved);
 
 			if (tridasMeasurementSeries.isSetInterpretation())
 			{
 				TridasInterpretation interpretation = tridasMeasurementSeries.getInterpretation();
 
 				// tridas.measurementSeries.interpretation.provenance
-				List<String> tridasMeasurementseriesInterpretationProvenance = searchBean.getTridasMeasurementseriesInterpretationProvenance();
-				if (tridasMeasurementseriesInterpretationProvenance == null)
-					tridasMeasurementseriesInterpretationProvenance = new ArrayList<String>();
 				if (interpretation.isSetProvenance())
-					tridasMeasurementseriesInterpretationProvenance.add(interpretation.getProvenance());
+					builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_PROVENANCE, interpretation.getProvenance());
 				else
-					tridasMeasurementseriesInterpretationProvenance.add("");
-				searchBean.setTridasMeasurementseriesInterpretationProvenance(tridasMeasurementseriesInterpretationProvenance);
-
-				// Note: removed in TRiDaSv1.2.1
-				/*
-				 * //tridas.measurementSeries.interpretation.usedSoftware List<String> tridasMeasurementseriesInterpretationUsedsoftware =
-				 * searchBean.getTridasMeasurementseriesInterpretationUsedsoftware(); if (tridasMeasurementseriesInterpretationUsedsoftware == null)
-				 * tridasMeasurementseriesInterpretationUsedsoftware = new ArrayList<String>(); if (interpretation.isSetUsedSoftware())
-				 * tridasMeasurementseriesInterpretationUsedsoftware.add(interpretation.getUsedSoftware()); else
-				 * tridasMeasurementseriesInterpretationUsedsoftware.add("");
-				 * searchBean.setTridasMeasurementseriesInterpretationUsedsoftware(tridasMeasurementseriesInterpretationUsedsoftware);
-				 */
+					builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_PROVENANCE, "");
+
+				// Note: tridas.measurementSeries.interpretation.usedSoftware was removed in TRiDaSv1.2.1
 
 				// tridas.measurementSeries.interpretation.deathYear
 				if (interpretation.isSetDeathYear() && interpretation.getDeathYear().isSetValue())
-				{
-					Year year = tridasMeasurementSeries.getInterpretation().getDeathYear();
-					
-					// only index non-relative years
-					if (!year.isSetSuffix() || year.getSuffix() != DatingSuffix.RELATIVE) 
-					{
-						Integer yearInteger = TridasYearConvertor.tridasYearToInteger(year);
-	
-						// add to the list
-						List<Integer> interpretationDeathYear = searchBean.getTridasMeasurementseriesInterpretationDeathyear();
-						if (interpretationDeathYear == null)
-							interpretationDeathYear = new ArrayList<Integer>();
-						interpretationDeathYear.add(yearInteger);
-						searchBean.setTridasMeasurementseriesInterpretationDeathyear(interpretationDeathYear);
-					}
-				}
+					addYear(builder, DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_DEATHYEAR, interpretation.getDeathYear());
 
 				// tridas.measurementSeries.interpretation.firstYear
 				if (interpretation.isSetFirstYear() && interpretation.getFirstYear().isSetValue())
-				{
-					Year year = tridasMeasurementSeries.getInterpretation().getFirstYear();
-					// only index non-relative years
-					if (!year.isSetSuffix() || year.getSuffix() != DatingSuffix.RELATIVE) 
-					{
-						Integer yearInteger = TridasYearConvertor.tridasYearToInteger(year);
-	
-						// add to the list
-						List<Integer> interpretationFirstYear = searchBean.getTridasMeasurementseriesInterpretationFirstyear();
-						if (interpretationFirstYear == null)
-							interpretationFirstYear = new ArrayList<Integer>();
-						interpretationFirstYear.add(yearInteger);
-						searchBean.setTridasMeasurementseriesInterpretationFirstyear(interpretationFirstYear);
-					}
-				}
+					addYear(builder, DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_FIRSTYEAR, interpretation.getFirstYear());
 
 				// tridas.measurementSeries.interpretation.lastYear
 				if (interpretation.isSetLastYear() && interpretation.getLastYear().isSetValue())
-				{
-					Year year = tridasMeasurementSeries.getInterpretation().getLastYear();
-					// only index non-relative years
-					if (!year.isSetSuffix() || year.getSuffix() != DatingSuffix.RELATIVE) 
-					{
-						Integer yearInteger = TridasYearConvertor.tridasYearToInteger(year);
-	
-						// add to the list
-						List<Integer> interpretationLastYear = searchBean.getTridasMeasurementseriesInterpretationLastyear();
-						if (interpretationLastYear == null)
-							interpretationLastYear = new ArrayList<Integer>();
-						interpretationLastYear.add(yearInteger);
-						searchBean.setTridasMeasurementseriesInterpretationLastyear(interpretationLastYear);
-					}
-				}
-				
+					addYear(builder, DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_LASTYEAR, interpretation.getLastYear());
+
 				// tridas.measurementSeries.interpretation.pithYear
 				// was tridas.measurementSeries.interpretation.sproutYear
 				if (interpretation.isSetPithYear() && interpretation.getPithYear().isSetValue())
-				{
-					Year year = tridasMeasurementSeries.getInterpretation().getPithYear();
-					// only index non-relative years
-					if (!year.isSetSuffix() || year.getSuffix() != DatingSuffix.RELATIVE) 
-					{
-						Integer yearInteger = TridasYearConvertor.tridasYearToInteger(year);
-	
-						// add to the list
-						List<Integer> interpretationPithYear = searchBean.getTridasMeasurementseriesInterpretationPithyear();
-						if (interpretationPithYear == null)
-							interpretationPithYear = new ArrayList<Integer>();
-						interpretationPithYear.add(yearInteger);
-						searchBean.setTridasMeasurementseriesInterpretationPithyear(interpretationPithYear);
-					}
-				}
+					addYear(builder, DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_PITHYEAR, interpretation.getPithYear());
 
 				// tridas.measurementSeries.interpretation.statFoundation.statValue
-				// <field name="tridas.measurementSeries.interpretation.statFoundation.usedSoftware" type="text" indexed="true" stored="true" multiValued="true"
-				// />
-				// <field name="tridas.measurementSeries.interpretation.statFoundation.type" type="text" indexed="true" stored="true" multiValued="true" />
-				// <field name="tridas.measurementSeries.interpretation.statFoundation.type.normal" type="text" indexed="true" stored="true" multiValued="true"
-				// />
-				// <!-- xs:double -->
-				// <field name="tridas.measurementSeries.interpretation.statFoundation.significanceLevel" type="double" indexed="true" stored="true"
-				// multiValued="true" />
+				// tridas.measurementSeries.interpretation.statFoundation.usedSoftware
+				// tridas.measurementSeries.interpretation.statFoundation.type
+				// tridas.measurementSeries.interpretation.statFoundation.type.normal
+				// Note: the significanceLevel is not filled
 				if (interpretation.isSetStatFoundations())
 				{
-					List<TridasStatFoundation> statFoundations = tridasMeasurementSeries.getInterpretation().getStatFoundations();
-
-					List<Double> interpretationStatFoundationStatValue = searchBean.getTridasMeasurementseriesInterpretationStatfoundationStatvalue();
-					if (interpretationStatFoundationStatValue == null)
-						interpretationStatFoundationStatValue = new ArrayList<Double>();
-					List<String> tridasMeasurementseriesInterpretationStatfoundationUsedsoftware = searchBean
-							.getTridasMeasurementseriesInterpretationStatfoundationUsedsoftware();
-					if (tridasMeasurementseriesInterpretationStatfoundationUsedsoftware == null)
-						tridasMeasurementseriesInterpretationStatfoundationUsedsoftware = new ArrayList<String>();
-					List<String> tridasMeasurementseriesInterpretationStatfoundationType = searchBean
-							.getTridasMeasurementseriesInterpretationStatfoundationType();
-					if (tridasMeasurementseriesInterpretationStatfoundationType == null)
-						tridasMeasurementseriesInterpretationStatfoundationType = new ArrayList<String>();
-					List<String> tridasMeasurementseriesInterpretationStatfoundationTypeNormal = searchBean
-							.getTridasMeasurementseriesInterpretationStatfoundationTypeNormal();
-					if (tridasMeasurementseriesInterpretationStatfoundationTypeNormal == null)
-						tridasMeasurementseriesInterpretationStatfoundationTypeNormal = new ArrayList<String>();
-					List<Double> tridasMeasurementseriesInterpretationStatfoundationSignificancelevel = searchBean
-							.getTridasMeasurementseriesInterpretationStatfoundationSignificancelevel();
-					if (tridasMeasurementseriesInterpretationStatfoundationSignificancelevel == null)
-						tridasMeasurementseriesInterpretationStatfoundationSignificancelevel = new ArrayList<Double>();
-
-					for (TridasStatFoundation statFoundation : statFoundations)
+					for (TridasStatFoundation statFoundation : interpretation.getStatFoundations())
 					{
 						if (statFoundation.isSetStatValue())
 						{
 							Double statValue = statFoundation.getStatValue().doubleValue();
 							// Note: could (in theory) have rounding errors
-							interpretationStatFoundationStatValue.add(statValue);
+							builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_STATVALUE, statValue);
 						}
 
 						if (statFoundation.isSetUsedSoftware())
-							tridasMeasurementseriesInterpretationStatfoundationUsedsoftware.add(statFoundation.getUsedSoftware());
+							builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_USEDSOFTWARE, statFoundation.getUsedSoftware());
 
 						if (statFoundation.isSetType())
 						{
 							ControlledVoc type = statFoundation.getType();
 
 							if (type.isSetValue())
-								tridasMeasurementseriesInterpretationStatfoundationType.add(type.getValue());
+								builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_TYPE, type.getValue());
 
 							if (type.isSetNormal())
-								tridasMeasurementseriesInterpretationStatfoundationTypeNormal.add(type.getNormal());
+								builder.add(DccdSBField.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_TYPE_NORMAL, type.getNormal());
 						}
 					}
-					searchBean.setTridasMeasurementseriesInterpretationStatfoundationStatvalue(interpretationStatFoundationStatValue);
-					searchBean
-							.setTridasMeasurementseriesInterpretationStatfoundationUsedsoftware(tridasMeasurementseriesInterpretationStatfoundationUsedsoftware);
-					searchBean.setTridasMeasurementseriesInterpretationStatfoundationType(tridasMeasurementseriesInterpretationStatfoundationType);
-					searchBean.setTridasMeasurementseriesInterpretationStatfoundationTypeNormal(tridasMeasurementseriesInterpretationStatfoundationTypeNormal);
-					searchBean
-							.setTridasMeasurementseriesInterpretationStatfoundationSignificancelevel(tridasMeasurementseriesInterpretationStatfoundationSignificancelevel);
 				}
-
 			}
-
 		}
+	}
 
-		return searchBean;
+	// only index non-relative years
+	private static void addYear(DccdSBBuilder builder, DccdSBField field, Year year)
+	{
+		if (!year.isSetSuffix() || year.getSuffix() != DatingSuffix.RELATIVE)
+			builder.add(field, TridasYearConvertor.tridasYearToInteger(year));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -343,39 +211,33 @@ public class MeasurementSeriesEntity extends AbstractEntity
 	}
 
 	@Override
-	public void buildEntitySubTree()
+	public List<Object> getTridasSubObjects()
 	{
-		// clear the list of subentities first
-		List<Entity> subEntities = getDendroEntities();
-		subEntities.clear();
-
-		// use the tridas entity, to find sub-entity tridas data
+		List<Object> subTridas = new ArrayList<Object>();
 		if (tridasMeasurementSeries == null)
-			return; // nothing to do
-
-		// values
-		Iterator<TridasValues> iVals = tridasMeasurementSeries.getValues().iterator();
-		while (iVals.hasNext())
-		{
-			TridasValues values = iVals.next();
-			ValuesEntity valuesEntity = new ValuesEntity(values);
-			subEntities.add(valuesEntity);
-			valuesEntity.buildEntitySubTree();// go deeper
-		}
+			return subTridas;
+		subTridas.addAll(tridasMeasurementSeries.getValues());
+		return subTridas;
+	}
 
-		// Note: instead of depth first,
-		// we could call the createTree of all sub-entities here
+	@Override
+	public Entity createSubEntity(Object subTridas)
+	{
+		// all subentities are values
+		return new ValuesEntity((TridasValues) subTridas);
 	}
 
 	@Override
 	public Object getTridasAsObject()
 	{
+		loadTridas();
 		return tridasMeasurementSeries;
 	}
 
 	@Override
 	public void setTridasObject(Object tridas)
 	{
+		tridasObjectReplaced();
 		tridasMeasurementSeries = (TridasMeasurementSeries) tridas;
 	}
 
@@ -390,44 +252,32 @@ public class MeasurementSeriesEntity extends AbstractEntity
 	@Override
 	public void connectTridasObjectTree()
 	{
+		loadTridas();
 		if (tridasMeasurementSeries == null)
 			return; // nothing to do
 		
 		List<Entity> subEntities = getDendroEntities();
 		for (Entity subEntity : subEntities)
 		{
-			// all subentities are values
-			TridasValues valuesTridas = (TridasValues) subEntity.getTridasAsObject();
-			tridasMeasurementSeries.getValues().add(valuesTridas);
+			addSubTridas(tridasMeasurementSeries, subEntity.getTridasAsObject());
 			subEntity.connectTridasObjectTree();
 		}
 	}
 
 	@Override
-	protected void pruneTridas()
+	protected void addSubTridas(Object tridas, Object subTridas)
 	{
-		TridasMeasurementSeries objectToPrune = tridasMeasurementSeries;
-
-		if (objectToPrune != null && 
-			valuesPruned == null)
-		{
-			valuesPruned = objectToPrune.getValues();
-			List<TridasValues> empty = Collections.emptyList();
-			objectToPrune.setValues(empty);
-		}
+		// all subentities are values
+		((TridasMeasurementSeries) tridas).getValues().add((TridasValues) subTridas);
 	}
 
 	@Override
-	protected void unpruneTridas()
+	protected Object createPrunedTridas(Object tridas)
 	{
-		TridasMeasurementSeries objectToUnprune = tridasMeasurementSeries;
-
-		if (objectToUnprune != null && 
-			valuesPruned != null)
-		{
-			objectToUnprune.setValues(valuesPruned);
-			valuesPruned = null;
-		}
+		TridasMeasurementSeries pruned = (TridasMeasurementSeries) shallowCopyTridas(tridas);
+		List<TridasValues> emptyValues = Collections.emptyList();
+		pruned.setValues(emptyValues);
+		return pruned;
 	}
 	
 	public List<String> getAssociatedFileNames()
@@ -436,4 +286,9 @@ public class MeasurementSeriesEntity extends AbstractEntity
 		// empty
 		return resultList;
 	}
+
+	public void accept(EntityVisitor visitor)
+	{
+		visitor.visit(this);
+	}
 }
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Passes each visit on to several visitors, in the order they were given. 
+ * This way the validation, search bean filling and statistics can be done 
+ * in one walk over the tree, for example with EntityTree.accept().
+ */
+public class MultiEntityVisitor implements EntityVisitor
+{
+	private final EntityVisitor[] visitors;
+
+	public MultiEntityVisitor(EntityVisitor... visitors)
+	{
+		this.visitors = visitors.clone();
+	}
+
+	public MultiEntityVisitor(List<EntityVisitor> visitors)
+	{
+		this.visitors = visitors.toArray(new EntityVisitor[visitors.size()]);
+	}
+
+	public List<EntityVisitor> getVisitors()
+	{
+		return new ArrayList<EntityVisitor>(Arrays.asList(visitors));
+	}
+
+	public void visit(ProjectEntity entity)
+	{
+		for (EntityVisitor visitor : visitors)
+			visitor.visit(entity);
+	}
+
+	public void visit(ObjectEntity entity)
+	{
+		for (EntityVisitor visitor : visitors)
+			visitor.visit(entity);
+	}
+
+	public void visit(ElementEntity entity)
+	{
+		for (EntityVisitor visitor : visitors)
+			visitor.visit(entity);
+	}
+
+	public void visit(SampleEntity entity)
+	{
+		for (EntityVisitor visitor : visitors)
+			visitor.visit(entity);
+	}
+
+	public void visit(RadiusEntity entity)
+	{
+		for (EntityVisitor visitor : visitors)
+			visitor.visit(entity);
+	}
+
+	public void visit(MeasurementSeriesEntity entity)
+	{
+		for (EntityVisitor visitor : visitors)
+			visitor.visit(entity);
+	}
+
+	public void visit(DerivedSeriesEntity entity)
+	{
+		for (EntityVisitor visitor : visitors)
+			visitor.visit(entity);
+	}
+
+	public void visit(ValuesEntity entity)
+	{
+		for (EntityVisitor visitor : visitors)
+			visitor.visit(entity);
+	}
+}
@@ -17,13 +17,14 @@ package nl.knaw.dans.dccd.model.entities;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import net.opengis.gml.schema.PointType;
 import net.opengis.gml.schema.Pos;
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
 import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
+import nl.knaw.dans.dccd.search.DccdSBField;
 
 import org.apache.log4j.Logger;
 import org.tridas.schema.ControlledVoc;
@@ -48,8 +49,6 @@ public class ObjectEntity extends AbstractEntity
 	private static Logger					logger	= Logger.getLogger(ObjectEntity.class);
 	private static final long	serialVersionUID	= 1247433031777899223L;
 	private TridasObject		tridasObject		= null;
-	private List<TridasElement>	elementsPruned		= null;
-	private List<TridasObject>	objectsPruned		= null;
 
 	public ObjectEntity()
 	{
@@ -74,187 +73,102 @@ public class ObjectEntity extends AbstractEntity
 	}
 
 	@Override
-	public DccdSB fillSearchBean(DccdSB searchBean)
+	public void fillSearchBean(DccdSBBuilder builder)
 	{
 		if (hasTridas())
 		{
+			// the fields get an empty list when there are no values
+			builder.include(ObjectEntity.class);
+
 			// child-objects, or parent-objects info might already be there
 			// just add our own information
 
 			// tridas.object.title
-			List<String> tridasObjectTitle = searchBean.getTridasObjectTitle();
-			if (tridasObjectTitle == null)
-				tridasObjectTitle = new ArrayList<String>();
 			if (tridasObject.isSetTitle())
 			{
-				tridasObjectTitle.add(tridasObject.getTitle());
+				builder.add(DccdSBField.TRIDAS_OBJECT_TITLE, tridasObject.getTitle());
 			}
-			searchBean.setTridasObjectTitle(tridasObjectTitle);
 
 			// tridas.object.identifier
-			List<String> tridasObjectIdentifier = searchBean.getTridasObjectIdentifier();
-			if (tridasObjectIdentifier == null)
-				tridasObjectIdentifier = new ArrayList<String>();
 			if (tridasObject.isSetIdentifier() && tridasObject.getIdentifier().isSetValue())
 			{
 				// Note: ignore domain
-				tridasObjectIdentifier.add(tridasObject.getIdentifier().getValue());
+				builder.add(DccdSBField.TRIDAS_OBJECT_IDENTIFIER, tridasObject.getIdentifier().getValue());
 			}
-			searchBean.setTridasObjectIdentifier(tridasObjectIdentifier);
 
 			// tridas.object.type
 			// tridas.object.type.normal
-			List<String> tridasObjectType = searchBean.getTridasObjectType();
-			if (tridasObjectType == null)
-				tridasObjectType = new ArrayList<String>();
-			List<String> tridasObjectTypeNormal = searchBean.getTridasObjectTypeNormal();
-			if (tridasObjectTypeNormal == null)
-				tridasObjectTypeNormal = new ArrayList<String>();
-			if (tridasObject.isSetType())
-			{
-				ControlledVoc type = tridasObject.getType();
-
-				if (type.isSetValue())
-					tridasObjectType.add(type.getValue());
-				else
-					tridasObjectType.add("");
-
-				if (type.isSetNormal())
-					tridasObjectTypeNormal.add(type.getNormal());
-				else
-					tridasObjectTypeNormal.add("");
-			}
-			searchBean.setTridasObjectType(tridasObjectType);
-			searchBean.setTridasObjectTypeNormal(tridasObjectTypeNormal);
+			addType(builder);
 
 			// tridas.object.creator
-			List<String> tridasObjectCreator = searchBean.getTridasObjectCreator();
-			if (tridasObjectCreator == null)
-				tridasObjectCreator = new ArrayList<String>();
 			if (tridasObject.isSetCreator())
 			{
-				tridasObjectCreator.add(tridasObject.getCreator());
+				builder.add(DccdSBField.TRIDAS_OBJECT_CREATOR, tridasObject.getCreator());
 			}
-			searchBean.setTridasObjectCreator(tridasObjectCreator);
 
 			// tridas.object.coverage.coverageTemporalFoundation
-			List<String> tridasObjectCoverageCoveragetemporalfoundation = searchBean.getTridasObjectCoverageCoveragetemporalfoundation();
-			if (tridasObjectCoverageCoveragetemporalfoundation == null)
-				tridasObjectCoverageCoveragetemporalfoundation = new ArrayList<String>();
 			if (tridasObject.isSetCoverage() && tridasObject.getCoverage().isSetCoverageTemporalFoundation())
 			{
-				tridasObjectCoverageCoveragetemporalfoundation.add(tridasObject.getCoverage().getCoverageTemporalFoundation());
+				builder.add(DccdSBField.TRIDAS_OBJECT_COVERAGE_COVERAGETEMPORALFOUNDATION, tridasObject.getCoverage().getCoverageTemporalFoundation());
 			}
-			searchBean.setTridasObjectCoverageCoveragetemporalfoundation(tridasObjectCoverageCoveragetemporalfoundation);
 
 			// tridas.object.location.locationType
 			// tridas.object.location.locationComment
-			List<String> tridasObjectLocationLocationcomment = searchBean.getTridasObjectLocationLocationcomment();
-			if (tridasObjectLocationLocationcomment == null)
-				tridasObjectLocationLocationcomment = new ArrayList<String>();
-			List<String> tridasObjectLocationLocationtype = searchBean.getTridasObjectLocationLocationtype();
-			if (tridasObjectLocationLocationtype == null)
-				tridasObjectLocationLocationtype = new ArrayList<String>();
 			if (tridasObject.isSetLocation())
 			{
 				TridasLocation location = tridasObject.getLocation();
 				if (location.isSetLocationComment())
-					tridasObjectLocationLocationcomment.add(location.getLocationComment());
+					builder.add(DccdSBField.TRIDAS_OBJECT_LOCATION_LOCATIONCOMMENT, location.getLocationComment());
 				if (location.isSetLocationType())
-					tridasObjectLocationLocationtype.add(location.getLocationType().value());
+					builder.add(DccdSBField.TRIDAS_OBJECT_LOCATION_LOCATIONTYPE, location.getLocationType().value());
 				
 				// Handle geo location; lng, lat
-				if (location.isSetLocationGeometry())
+				Double[] coordinates = getWGS84Coordinates(location);
+				if (coordinates != null)
 				{
-					TridasLocationGeometry locationGeometry = location.getLocationGeometry();
-					// for now only use Points 
-					if (locationGeometry.isSetPoint() && locationGeometry.getPoint().isSetPos()) 
-					{
-						PointType point = locationGeometry.getPoint();
-						Pos pos = point.getPos();
-						// we need the two first coordinates
-						if (pos.isSetValues() && pos.getValues().size() > 1)
-						{
-							// Use DendroFileIO to detect the CRS and convert coordinates to WGS84 when needed
-							try 
-							{
-								GMLPointSRSHandler handler = new GMLPointSRSHandler(point);
-								Double latitude = handler.getWGS84LatCoord();
-								Double longitude = handler.getWGS84LongCoord();
-								searchBean.setLat(latitude);
-								searchBean.setLng(longitude);
-								logger.debug("Indexing WGS84 coordinates: " + 
-										"[" + latitude + ", " + longitude + "] from: " +
-										point.getSrsName());
-
-							}
-							catch(ProjectionException e)
-							{
-								logger.info("Could not convert coordinates to WGS84: " + 
-										point.getSrsName() + 
-										"[" + pos.getValues().get(0) + ", " + pos.getValues().get(1) + "]", e);
-							}
-							/* Without DendroFileIO
-							//
-							// The order of the coordinates is a source of confusion and discussion, 
-							// it is not specified by the GML, but by the Coordinate Reference System in the srsName
-							// Officially WGS84 should be lat/long and have an "urn:ogc:def:crs:EPSG:6.6:4326"
-							// But most users expect long/lat if "WGS84" or "EPSG:4326" is used and only lat/long 
-							// if the 'official' urn is used.
-							//
-							// TRiDABASE now uses "WGS 84" long/lat
-							// and TRiCYCLE uses "urn:ogc:def:crs:EPSG:6.6:4326" with lat/long
-							// A quick fix to let DCCD work with both is to check for the "urn:ogc:def:crs"
-
-							// determine order
-							boolean isLonLat = true;
-							if (point.isSetSrsName())
-							{
-								String srsName = point.getSrsName().trim().toLowerCase();
-								if (srsName.startsWith("urn:ogc:def:crs"))
-									isLonLat = false; // lat/lon
-							}
-
-							// set the coordinates in the bean
-							if (isLonLat)
-							{
-								// lon/lat
-								searchBean.setLng(pos.getValues().get(0));
-								searchBean.setLat(pos.getValues().get(1));
-							}
-							else
-							{
-								// lat/lon
-								searchBean.setLat(pos.getValues().get(0));
-								searchBean.setLng(pos.getValues().get(1));
-							}
-							*/
-						}
-					}
+					builder.getSearchBean().setLat(coordinates[0]);
+					builder.getSearchBean().setLng(coordinates[1]);
 				}
-				
 			}
-			searchBean.setTridasObjectLocationLocationcomment(tridasObjectLocationLocationcomment);
-			searchBean.setTridasObjectLocationLocationtype(tridasObjectLocationLocationtype);
 
 			// tridas.object.genericField
-			List<String> tridasObjectGenericfield = searchBean.getTridasObjectGenericfield();
-			if (tridasObjectGenericfield == null)
-				tridasObjectGenericfield = new ArrayList<String>();
-
 			if (tridasObject.isSetGenericFields())
 			{
 				for (TridasGenericField genericfield : tridasObject.getGenericFields())
 				{
 					if (genericfield.isSetValue())
-						tridasObjectGenericfield.add(genericfield.getValue());
+						builder.add(DccdSBField.TRIDAS_OBJECT_GENERICFIELD, genericfield.getValue());
 				}
 			}
-			searchBean.setTridasObjectGenericfield(tridasObjectGenericfield);
 		}
+	}
 
-		// logger.debug("After filling:\n" + searchBean.toString());
-		return searchBean;
+	private void addType(DccdSBBuilder builder)
+	{
+		if (tridasObject.isSetType())
+		{
+			ControlledVoc type = tridasObject.getType();
+
+			if (type.isSetValue())
+				builder.add(DccdSBField.TRIDAS_OBJECT_TYPE, type.getValue());
+			else
+				builder.add(DccdSBField.TRIDAS_OBJECT_TYPE, "");
+
+			if (type.isSetNormal())
+				builder.add(DccdSBField.TRIDAS_OBJECT_TYPE_NORMAL, type.getNormal());
+			else
+				builder.add(DccdSBField.TRIDAS_OBJECT_TYPE_NORMAL, "");
+		}
+	}
+
+	/**
+	 * @see #minimalFillSearchBean(DccdSBBuilder)
+	 */
+	public DccdSB minimalFillSearchBean(DccdSB searchBean)
+	{
+		DccdSBBuilder builder = new DccdSBBuilder(searchBean);
+		minimalFillSearchBean(builder);
+		return builder.build();
 	}
 
 	// only fill with the'open access' information
@@ -262,49 +176,26 @@ public class ObjectEntity extends AbstractEntity
 	// Open access information:
 	// - Object title
 	// SHOULD also have Type!!!!
-	public DccdSB minimalFillSearchBean(DccdSB searchBean)
+	public void minimalFillSearchBean(DccdSBBuilder builder)
 	{
 		if (hasTridas())
 		{
+			// the fields get an empty list when there are no values
+			builder.include(ObjectEntity.class);
+
 			// child-objects, or parent-objects info might already be there
 			// just add our own information
 
 			// tridas.object.title
-			List<String> tridasObjectTitle = searchBean.getTridasObjectTitle();
-			if (tridasObjectTitle == null)
-				tridasObjectTitle = new ArrayList<String>();
 			if (tridasObject.isSetTitle())
 			{
-				tridasObjectTitle.add(tridasObject.getTitle());
+				builder.add(DccdSBField.TRIDAS_OBJECT_TITLE, tridasObject.getTitle());
 			}
-			searchBean.setTridasObjectTitle(tridasObjectTitle);
 			
 			// tridas.object.type
 			// tridas.object.type.normal
-			List<String> tridasObjectType = searchBean.getTridasObjectType();
-			if (tridasObjectType == null)
-				tridasObjectType = new ArrayList<String>();
-			List<String> tridasObjectTypeNormal = searchBean.getTridasObjectTypeNormal();
-			if (tridasObjectTypeNormal == null)
-				tridasObjectTypeNormal = new ArrayList<String>();
-			if (tridasObject.isSetType())
-			{
-				ControlledVoc type = tridasObject.getType();
-
-				if (type.isSetValue())
-					tridasObjectType.add(type.getValue());
-				else
-					tridasObjectType.add("");
-
-				if (type.isSetNormal())
-					tridasObjectTypeNormal.add(type.getNormal());
-				else
-					tridasObjectTypeNormal.add("");
-			}
-			searchBean.setTridasObjectType(tridasObjectType);
-			searchBean.setTridasObjectTypeNormal(tridasObjectTypeNormal);			
+			addType(builder);
 		}
-		return searchBean;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -315,49 +206,37 @@ public class ObjectEntity extends AbstractEntity
 	}
 
 	@Override
-	public void buildEntitySubTree()
+	public List<Object> getTridasSubObjects()
 	{
-		// clear the list of subentities first
-		List<Entity> subEntities = getDendroEntities();
-		subEntities.clear();
-
-		// use the tridas entity, to find sub-entity tridas data
+		List<Object> subTridas = new ArrayList<Object>();
 		if (tridasObject == null)
-			return; // nothing to do
-
-		// add sub-objects..
-		Iterator<TridasObject> i = tridasObject.getObjects().iterator();
-		while (i.hasNext())
-		{
-			TridasObject subObject = i.next();
-			ObjectEntity subObjectEntity = new ObjectEntity(subObject);
-			subEntities.add(subObjectEntity);
-			subObjectEntity.buildEntitySubTree();// go deeper
-		}
-
-		// add elements
-		Iterator<TridasElement> iElem = tridasObject.getElements().iterator();
-		while (iElem.hasNext())
-		{
-			TridasElement element = iElem.next();
-			ElementEntity elementEntity = new ElementEntity(element);
-			subEntities.add(elementEntity);
-			elementEntity.buildEntitySubTree();// go deeper
-		}
+			return subTridas;
+		subTridas.addAll(tridasObject.getObjects());
+		subTridas.addAll(tridasObject.getElements());
+		return subTridas;
+	}
 
-		// Note: instead of depth first,
-		// we could call the createTree of all sub-entities here
+	@Override
+	public Entity createSubEntity(Object subTridas)
+	{
+		// subentities are object or element
+		if (subTridas.getClass().equals(TridasObject.class) || subTridas.getClass().equals(TridasObjectEx.class))
+			return new ObjectEntity((TridasObject) subTridas);
+		else
+			return new ElementEntity((TridasElement) subTridas);
 	}
 
 	@Override
 	public Object getTridasAsObject()
 	{
+		loadTridas();
 		return tridasObject;
 	}
 
 	@Override
 	public void setTridasObject(Object tridas)
 	{
+		tridasObjectReplaced();
 		tridasObject = (TridasObject) tridas;
 	}
 
@@ -372,62 +251,42 @@ public class ObjectEntity extends AbstractEntity
 	@Override
 	public void connectTridasObjectTree()
 	{
+		loadTridas();
 		if (tridasObject == null)
 			return; // nothing to do
 		List<Entity> subEntities = getDendroEntities();
 		for (Entity subEntity : subEntities)
 		{
-			// subentities are object or element
-			Object tridas = subEntity.getTridasAsObject();
-
-			if (tridas.getClass().equals(TridasObject.class) || tridas.getClass().equals(TridasObjectEx.class))
-			{// .getName().contentEquals("org.tridas.schema.TridasObject")) {
-				// object
-				tridasObject.getObjects().add((TridasObject) tridas);
-			}
-			else
-			{
-				// element
-				tridasObject.getElements().add((TridasElement) tridas);
-			}
+			addSubTridas(tridasObject, subEntity.getTridasAsObject());
 			subEntity.connectTridasObjectTree();
 		}
 	}
 
 	@Override
-	protected void pruneTridas()
+	protected void addSubTridas(Object tridas, Object subTridas)
 	{
-		TridasObject objectToPrune = tridasObject;
-
-		if (objectToPrune != null && 
-			elementsPruned == null &&
-			objectsPruned == null) 
+		// subentities are object or element
+		if (subTridas.getClass().equals(TridasObject.class) || subTridas.getClass().equals(TridasObjectEx.class))
+		{// .getName().contentEquals("org.tridas.schema.TridasObject")) {
+			// object
+			((TridasObject) tridas).getObjects().add((TridasObject) subTridas);
+		}
+		else
 		{
-			elementsPruned = objectToPrune.getElements();
-			List<TridasElement> emptyElm = Collections.emptyList();
-			objectToPrune.setElements(emptyElm);
-	
-			objectsPruned = objectToPrune.getObjects();
-			List<TridasObject> emptyObj = Collections.emptyList();
-			objectToPrune.setObjects(emptyObj);
+			// element
+			((TridasObject) tridas).getElements().add((TridasElement) subTridas);
 		}
 	}
 
 	@Override
-	protected void unpruneTridas()
+	protected Object createPrunedTridas(Object tridas)
 	{
-		TridasObject objectToUnprune = tridasObject;
-
-		if (objectToUnprune != null && 
-			elementsPruned != null && 
-			objectsPruned != null) 
-		{
-			objectToUnprune.setElements(elementsPruned);
-			elementsPruned = null;
-
-			objectToUnprune.setObjects(objectsPruned);
-			objectsPruned = null;
-		}
+		TridasObject pruned = (TridasObject) shallowCopyTridas(tridas);
+		List<TridasElement> emptyElement = Collections.emptyList();
+		pruned.setElements(emptyElement);
+		List<TridasObject> emptyObject = Collections.emptyList();
+		pruned.setObjects(emptyObject);
+		return pruned;
 	}
 	
 	public List<String> getAssociatedFileNames()
@@ -447,5 +306,88 @@ public class ObjectEntity extends AbstractEntity
 		//logger.debug("Found Associated Files: " + resultList.size());
 		
 		return resultList;		
-	}			
+	}
+
+	/**
+	 * The coordinates of the location (point) converted to WGS84, 
+	 * as used for the search bean
+	 * 
+	 * @param location
+	 * @return The latitude and longitude, null if the location has no (usable) point
+	 */
+	public static Double[] getWGS84Coordinates(TridasLocation location)
+	{
+		if (location.isSetLocationGeometry())
+		{
+			TridasLocationGeometry locationGeometry = location.getLocationGeometry();
+			// for now only use Points 
+			if (locationGeometry.isSetPoint() && locationGeometry.getPoint().isSetPos()) 
+			{
+				PointType point = locationGeometry.getPoint();
+				Pos pos = point.getPos();
+				// we need the two first coordinates
+				if (pos.isSetValues() && pos.getValues().size() > 1)
+				{
+					// Use DendroFileIO to detect the CRS and convert coordinates to WGS84 when needed
+					try 
+					{
+						GMLPointSRSHandler handler = new GMLPointSRSHandler(point);
+						Double latitude = handler.getWGS84LatCoord();
+						Double longitude = handler.getWGS84LongCoord();
+						logger.debug("Indexing WGS84 coordinates: " + 
+								"[" + latitude + ", " + longitude + "] from: " +
+								point.getSrsName());
+						return new Double[] {latitude, longitude};
+					}
+					catch(ProjectionException e)
+					{
+						logger.info("Could not convert coordinates to WGS84: " + 
+								point.getSrsName() + 
+								"[" + pos.getValues().get(0) + ", " + pos.getValues().get(1) + "]", e);
+					}
+					/* Without DendroFileIO
+					//
+					// The order of the coordinates is a source of confusion and discussion, 
+					// it is not specified by the GML, but by the Coordinate Reference System in the srsName
+					// Officially WGS84 should be lat/long and have an "urn:ogc:def:crs:EPSG:6.6:4326"
+					// But most users expect long/lat if "WGS84" or "EPSG:4326" is used and only lat/long 
+					// if the 'official' urn is used.
+					//
+					// TRiDABASE now uses "WGS 84" long/lat
+					// and TRiCYCLE uses "urn:ogc:def:crs:EPSG:6.6:4326" with lat/long
+					// A quick fix to let DCCD work with both is to check for the "urn:ogc:def:crs"
+
+					// determine order
+					boolean isLonLat = true;
+					if (point.isSetSrsName())
+					{
+						String srsName = point.getSrsName().trim().toLowerCase();
+						if (srsName.startsWith("urn:ogc:def:crs"))
+							isLonLat = false; // lat/lon
+					}
+
+					// set the coordinates in the bean
+					if (isLonLat)
+					{
+						// lon/lat
+						searchBean.setLng(pos.getValues().get(0));
+						searchBean.setLat(pos.getValues().get(1));
+					}
+					else
+					{
+						// lat/lon
+						searchBean.setLat(pos.getValues().get(0));
+						searchBean.setLng(pos.getValues().get(1));
+					}
+					*/
+				}
+			}
+		}
+		return null;
+	}
+
+	public void accept(EntityVisitor visitor)
+	{
+		visitor.visit(this);
+	}
 }
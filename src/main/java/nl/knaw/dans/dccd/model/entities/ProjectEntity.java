@@ -17,7 +17,6 @@ package nl.knaw.dans.dccd.model.entities;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import nl.knaw.dans.common.lang.search.bean.StringListCollapserConverter;
@@ -26,6 +25,7 @@ import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
 import nl.knaw.dans.dccd.search.DccdObjectSB;
 import nl.knaw.dans.dccd.search.DccdProjectSB;
 import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
 
 import org.apache.log4j.Logger;
 import org.tridas.schema.ControlledVoc;
@@ -51,8 +51,6 @@ public class ProjectEntity extends AbstractEntity
 	private static Logger				logger				= Logger.getLogger(ProjectEntity.class);
 	private static final long			serialVersionUID	= 7889287410535003498L;
 	private TridasProject				tridasProject		= null;
-	private List<TridasDerivedSeries>	derivedSeriesPruned	= null;
-	private List<TridasObject>			objectsPruned		= null;
 
 	/**
 	 *
@@ -83,6 +81,16 @@ public class ProjectEntity extends AbstractEntity
 		return "ProjectEntity";
 	}
 
+	/**
+	 * The project fields are single valued or set as a whole, 
+	 * so they go directly into the bean of the builder
+	 */
+	@Override
+	public void fillSearchBean(DccdSBBuilder builder)
+	{
+		fillSearchBean(builder.getSearchBean());
+	}
+
 	@Override
 	public DccdSB fillSearchBean(DccdSB searchBean)
 	{
@@ -324,6 +332,11 @@ public class ProjectEntity extends AbstractEntity
 	// - Period of research
 	// - Type of material that was studied (archaeology, ship's archaeology, furniture et cetera)
 	// - Laboratory
+	public void minimalFillSearchBean(DccdSBBuilder builder)
+	{
+		minimalFillSearchBean(builder.getSearchBean());
+	}
+
 	public DccdSB minimalFillSearchBean(DccdSB searchBean)
 	{
 		if (!hasTridas())
@@ -528,22 +541,23 @@ public class ProjectEntity extends AbstractEntity
 			// only objects, exclude derived series
 			if (entity instanceof ObjectEntity)
 			{
+				// all the ObjectEntities subentities must fill this bean as well
+				// but not Objects?
+				List<Entity> subentities = entity.getSubTreeAsList();
+
 				// create a bean
-				DccdSB searchBean = new DccdObjectSB();
+				DccdSBBuilder builder = new DccdSBBuilder(new DccdObjectSB(), subentities.size() + 1);
 				// fill it
 				// first with the project info, maybe this can be done more efficiently
 				// because same conversions are done for every Object again
-				searchBean = fillSearchBean(searchBean);
+				fillSearchBean(builder);
 				// then the object info
-				searchBean = entity.fillSearchBean(searchBean);
-
-				// all the ObjectEntities subentities must fill this bean as well
-				// but not Objects?
-				List<Entity> subentities = entity.getSubTreeAsList();
+				entity.fillSearchBean(builder);
 				for (Entity subentity : subentities)
 				{
-					searchBean = subentity.fillSearchBean(searchBean);
+					subentity.fillSearchBean(builder);
 				}
+				DccdSB searchBean = builder.build();
 
 				// Note id should be the (system) identifier in the repository (sid)
 				// just hoping that is is set correctly when read from the repository!!!
@@ -560,6 +574,7 @@ public class ProjectEntity extends AbstractEntity
 	/**
 	 * Only fill beans with information allowed by the given permissionlevel
 	 * 
+	 * @see nl.knaw.dans.dccd.model.ProjectSearchBeans, which also fills the project bean in the same pass
 	 * @param permissionLevel
 	 * @return
 	 */
@@ -576,36 +591,38 @@ public class ProjectEntity extends AbstractEntity
 			// only objects (note: derived series are excluded from search)
 			if (entity instanceof ObjectEntity)
 			{
+				List<Entity> subentities = entity.getSubTreeAsList();
+
 				// create a bean
-				DccdSB searchBean = new DccdObjectSB();
+				DccdSBBuilder builder = new DccdSBBuilder(new DccdObjectSB(), subentities.size() + 1);
 				// fill it
 				// first with the project info, maybe this can be done more efficiently
 				// because same conversions are done for every Object again
 
 				// handle minimal access, always fill with minimal and only when allowed; the rest
-				searchBean = (DccdObjectSB) minimalFillSearchBean(searchBean);
+				minimalFillSearchBean(builder);
 				if (isPermittedBy(permissionLevel))
 				{
-					searchBean = (DccdObjectSB) fillSearchBean(searchBean);
+					fillSearchBean(builder);
 				}
 				
 				// then the object info
 				ObjectEntity objectEntity = (ObjectEntity)entity; // cast for readability
-				searchBean = (DccdObjectSB) objectEntity.minimalFillSearchBean(searchBean);
+				objectEntity.minimalFillSearchBean(builder);
 				if (objectEntity.isPermittedBy(permissionLevel))
 				{
-					searchBean = (DccdObjectSB) objectEntity.fillSearchBean(searchBean);
+					objectEntity.fillSearchBean(builder);
 				}
 				
 				// the ObjectEntities subentities which are allowed to fill this bean
-				List<Entity> subentities = entity.getSubTreeAsList();
 				for (Entity subentity : subentities)
 				{
 					if (subentity.isPermittedBy(permissionLevel))
 					{
-						searchBean = subentity.fillSearchBean(searchBean);
+						subentity.fillSearchBean(builder);
 					}
 				}
+				DccdSB searchBean = builder.build();
 
 				// Note: id should be the (system) identifier in the repository (sid)
 				searchBean.setDatastreamId(entity.getId());
@@ -632,48 +649,38 @@ public class ProjectEntity extends AbstractEntity
 	/**
 	 * Builds the tree of entities which corresponds to the structure of the tridas data Delegates building by having each sub-entity build it's own sub-tree
 	 */
-	public void buildEntitySubTree()
+	@Override
+	public List<Object> getTridasSubObjects()
 	{
-		// clear the list of subentities first
-		List<Entity> subEntities = getDendroEntities();
-		subEntities.clear();
-
-		// use the tridas entity, to find sub-entity tridas data
+		List<Object> subTridas = new ArrayList<Object>();
 		if (tridasProject == null)
-			return; // nothing to do
-
-		// add nodes for TridasObjects for this Project
-		Iterator<TridasObject> i = tridasProject.getObjects().iterator();
-		while (i.hasNext())
-		{
-			TridasObject object = i.next();
-			ObjectEntity objectEntity = new ObjectEntity(object);
-			subEntities.add(objectEntity);
-			objectEntity.buildEntitySubTree();// go deeper
-		}
-		// add derivedseries
-		Iterator<TridasDerivedSeries> iDerived = tridasProject.getDerivedSeries().iterator();
-		while (iDerived.hasNext())
-		{
-			TridasDerivedSeries derivedSeries = iDerived.next();
-			DerivedSeriesEntity derivedSeriesEntity = new DerivedSeriesEntity(derivedSeries);
-			subEntities.add(derivedSeriesEntity);
-			derivedSeriesEntity.buildEntitySubTree();// go deeper
-		}
+			return subTridas;
+		subTridas.addAll(tridasProject.getObjects());
+		subTridas.addAll(tridasProject.getDerivedSeries());
+		return subTridas;
+	}
 
-		// Note: instead of depth first,
-		// we could call the buildTree of all sub-entities here
+	@Override
+	public Entity createSubEntity(Object subTridas)
+	{
+		// subentities are object or derived series
+		if (subTridas.getClass().equals(TridasObject.class) || subTridas.getClass().equals(TridasObjectEx.class))
+			return new ObjectEntity((TridasObject) subTridas);
+		else
+			return new DerivedSeriesEntity((TridasDerivedSeries) subTridas);
 	}
 
 	@Override
 	public Object getTridasAsObject()
 	{
+		loadTridas();
 		return tridasProject;
 	}
 
 	@Override
 	public void setTridasObject(Object tridas)
 	{
+		tridasObjectReplaced();
 		tridasProject = (TridasProject) tridas;
 	}
 
@@ -688,63 +695,43 @@ public class ProjectEntity extends AbstractEntity
 	@Override
 	public void connectTridasObjectTree()
 	{
+		loadTridas();
 		if (tridasProject == null)
 			return; // nothing to do
 		
 		List<Entity> subEntities = getDendroEntities();
 		for (Entity subEntity : subEntities)
 		{
-			// subentities are object or element
-			Object tridas = subEntity.getTridasAsObject();
-
-			if (tridas.getClass().equals(TridasObject.class) || tridas.getClass().equals(TridasObjectEx.class))
-			{// .getName().contentEquals("org.tridas.schema.TridasObject")) {
-				// object
-				tridasProject.getObjects().add((TridasObject) tridas);
-			}
-			else
-			{
-				// derivedseries
-				tridasProject.getDerivedSeries().add((TridasDerivedSeries) tridas);
-			}
+			addSubTridas(tridasProject, subEntity.getTridasAsObject());
 			subEntity.connectTridasObjectTree();
 		}
 	}
 
 	@Override
-	protected void pruneTridas()
+	protected void addSubTridas(Object tridas, Object subTridas)
 	{
-		TridasProject objectToPrune = tridasProject;
-
-		if (objectToPrune != null && 
-			derivedSeriesPruned == null &&
-			objectsPruned == null)
+		// subentities are object or derived series
+		if (subTridas.getClass().equals(TridasObject.class) || subTridas.getClass().equals(TridasObjectEx.class))
+		{// .getName().contentEquals("org.tridas.schema.TridasObject")) {
+			// object
+			((TridasProject) tridas).getObjects().add((TridasObject) subTridas);
+		}
+		else
 		{
-			derivedSeriesPruned = objectToPrune.getDerivedSeries();
-			List<TridasDerivedSeries> emptyDS = Collections.emptyList();
-			objectToPrune.setDerivedSeries(emptyDS);
-	
-			objectsPruned = objectToPrune.getObjects();
-			List<TridasObject> emptyObj = Collections.emptyList();
-			objectToPrune.setObjects(emptyObj);
+			// derivedseries
+			((TridasProject) tridas).getDerivedSeries().add((TridasDerivedSeries) subTridas);
 		}
 	}
 
 	@Override
-	protected void unpruneTridas()
+	protected Object createPrunedTridas(Object tridas)
 	{
-		TridasProject objectToUnprune = tridasProject;
-
-		if (objectToUnprune != null && 
-			derivedSeriesPruned != null && 
-			objectsPruned != null) 
-		{
-			objectToUnprune.setDerivedSeries(derivedSeriesPruned);
-			derivedSeriesPruned = null;
-
-			objectToUnprune.setObjects(objectsPruned);
-			objectsPruned = null;
-		}
+		TridasProject pruned = (TridasProject) shallowCopyTridas(tridas);
+		List<TridasDerivedSeries> emptyDerivedSeries = Collections.emptyList();
+		pruned.setDerivedSeries(emptyDerivedSeries);
+		List<TridasObject> emptyObject = Collections.emptyList();
+		pruned.setObjects(emptyObject);
+		return pruned;
 	}
 
 	public List<String> getAssociatedFileNames()
@@ -765,4 +752,9 @@ public class ProjectEntity extends AbstractEntity
 		
 		return resultList;		
 	}
+
+	public void accept(EntityVisitor visitor)
+	{
+		visitor.visit(this);
+	}
 }
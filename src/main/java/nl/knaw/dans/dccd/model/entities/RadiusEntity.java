@@ -17,11 +17,11 @@ package nl.knaw.dans.dccd.model.entities;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
-import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
+import nl.knaw.dans.dccd.search.DccdSBField;
 
 import org.tridas.schema.TridasHeartwood;
 import org.tridas.schema.TridasMeasurementSeries;
@@ -36,7 +36,6 @@ public class RadiusEntity extends AbstractEntity
 {
 	private static final long				serialVersionUID		= -8747798588495461308L;
 	private TridasRadius					tridasRadius			= null;
-	private List<TridasMeasurementSeries>	measurementSeriesPruned	= null;
 
 	public RadiusEntity()
 	{
@@ -61,30 +60,25 @@ public class RadiusEntity extends AbstractEntity
 	}
 
 	@Override
-	public DccdSB fillSearchBean(DccdSB searchBean)
+	public void fillSearchBean(DccdSBBuilder builder)
 	{
 		if (hasTridas())
 		{
+			// the fields get an empty list when there are no values
+			builder.include(RadiusEntity.class);
+
 			// tridas.radius.title
-			List<String> tridasRadiusTitle = searchBean.getTridasRadiusTitle();
-			if (tridasRadiusTitle == null)
-				tridasRadiusTitle = new ArrayList<String>();
 			if (tridasRadius.isSetTitle())
 			{
-				tridasRadiusTitle.add(tridasRadius.getTitle());
+				builder.add(DccdSBField.TRIDAS_RADIUS_TITLE, tridasRadius.getTitle());
 			}
-			searchBean.setTridasRadiusTitle(tridasRadiusTitle);
 
 			// tridas.radius.identifier
-			List<String> tridasRadiusIdentifier = searchBean.getTridasRadiusIdentifier();
-			if (tridasRadiusIdentifier == null)
-				tridasRadiusIdentifier = new ArrayList<String>();
 			if (tridasRadius.isSetIdentifier() && tridasRadius.getIdentifier().isSetValue())
 			{
 				// Note: ignore domain
-				tridasRadiusIdentifier.add(tridasRadius.getIdentifier().getValue());
+				builder.add(DccdSBField.TRIDAS_RADIUS_IDENTIFIER, tridasRadius.getIdentifier().getValue());
 			}
-			searchBean.setTridasRadiusIdentifier(tridasRadiusIdentifier);
 
 			/* Woodcompleteness */
 
@@ -98,56 +92,21 @@ public class RadiusEntity extends AbstractEntity
 			// tridas.radius.woodCompleteness.sapwood.missingSapwoodRingsToBarkFoundation
 			// tridas.radius.woodCompleteness.sapwood.lastRingUnderBark
 			// tridas.radius.woodCompleteness.bark
-			List<String> tridasRadiusWoodcompletenessBark = searchBean.getTridasRadiusWoodcompletenessBark();
-			if (tridasRadiusWoodcompletenessBark == null)
-				tridasRadiusWoodcompletenessBark = new ArrayList<String>();
-			List<String> tridasRadiusWoodcompletenessHeartwood = searchBean.getTridasRadiusWoodcompletenessHeartwood();
-			if (tridasRadiusWoodcompletenessHeartwood == null)
-				tridasRadiusWoodcompletenessHeartwood = new ArrayList<String>();
-			List<Integer> tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith = searchBean
-					.getTridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith();
-			if (tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith == null)
-				tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith = new ArrayList<Integer>();
-			List<String> tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation = searchBean
-					.getTridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation();
-			if (tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation == null)
-				tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation = new ArrayList<String>();
-			List<String> tridasRadiusWoodcompletenessPith = searchBean.getTridasRadiusWoodcompletenessPith();
-			if (tridasRadiusWoodcompletenessPith == null)
-				tridasRadiusWoodcompletenessPith = new ArrayList<String>();
-			List<String> tridasRadiusWoodcompletenessSapwood = searchBean.getTridasRadiusWoodcompletenessSapwood();
-			if (tridasRadiusWoodcompletenessSapwood == null)
-				tridasRadiusWoodcompletenessSapwood = new ArrayList<String>();
-			List<String> tridasRadiusWoodcompletenessSapwoodLastringunderbark = searchBean.getTridasRadiusWoodcompletenessSapwoodLastringunderbark();
-			if (tridasRadiusWoodcompletenessSapwoodLastringunderbark == null)
-				tridasRadiusWoodcompletenessSapwoodLastringunderbark = new ArrayList<String>();
-			List<Integer> tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark = searchBean
-					.getTridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark();
-			if (tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark == null)
-				tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark = new ArrayList<Integer>();
-			List<String> tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation = searchBean
-					.getTridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation();
-			if (tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation == null)
-				tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation = new ArrayList<String>();
-			List<Integer> tridasRadiusWoodcompletenessSapwoodNrofsapwoodrings = searchBean.getTridasRadiusWoodcompletenessSapwoodNrofsapwoodrings();
-			if (tridasRadiusWoodcompletenessSapwoodNrofsapwoodrings == null)
-				tridasRadiusWoodcompletenessSapwoodNrofsapwoodrings = new ArrayList<Integer>();
-
 			if (tridasRadius.isSetWoodCompleteness())
 			{
 				TridasWoodCompleteness woodCompleteness = tridasRadius.getWoodCompleteness();
 
 				// bark
 				if (woodCompleteness.isSetBark() && woodCompleteness.getBark().isSetPresence())
-					tridasRadiusWoodcompletenessBark.add(woodCompleteness.getBark().getPresence().value());
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_BARK, woodCompleteness.getBark().getPresence().value());
 				else
-					tridasRadiusWoodcompletenessBark.add("");
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_BARK, "");
 
 				// pith
 				if (woodCompleteness.isSetPith() && woodCompleteness.getPith().isSetPresence())
-					tridasRadiusWoodcompletenessPith.add(woodCompleteness.getPith().getPresence().value());
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_PITH, woodCompleteness.getPith().getPresence().value());
 				else
-					tridasRadiusWoodcompletenessPith.add("");
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_PITH, "");
 
 				// Heartwood
 				if (woodCompleteness.isSetHeartwood())
@@ -155,25 +114,26 @@ public class RadiusEntity extends AbstractEntity
 					TridasHeartwood heartwood = woodCompleteness.getHeartwood();
 
 					if (heartwood.isSetPresence())
-						tridasRadiusWoodcompletenessHeartwood.add(heartwood.getPresence().value());
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD, heartwood.getPresence().value());
 					else
-						tridasRadiusWoodcompletenessHeartwood.add("");
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD, "");
 
 					if (heartwood.isSetMissingHeartwoodRingsToPith())
-						tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith.add(heartwood.getMissingHeartwoodRingsToPith());
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITH, heartwood.getMissingHeartwoodRingsToPith());
 					else
-						tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith.add(0);
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITH, 0);
 
 					if (heartwood.isSetMissingHeartwoodRingsToPithFoundation())
-						tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation.add(heartwood.getMissingHeartwoodRingsToPithFoundation());
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITHFOUNDATION, 
+								heartwood.getMissingHeartwoodRingsToPithFoundation());
 					else
-						tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation.add("");
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITHFOUNDATION, "");
 				}
 				else
 				{
-					tridasRadiusWoodcompletenessHeartwood.add("");
-					tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith.add(0);
-					tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation.add("");
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD, "");
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITH, 0);
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITHFOUNDATION, "");
 				}
 
 				// Sapwood
@@ -182,53 +142,41 @@ public class RadiusEntity extends AbstractEntity
 					TridasSapwood sapwood = woodCompleteness.getSapwood();
 
 					if (sapwood.isSetPresence())
-						tridasRadiusWoodcompletenessSapwood.add(sapwood.getPresence().value());
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD, sapwood.getPresence().value());
 					else
-						tridasRadiusWoodcompletenessSapwood.add("");
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD, "");
 
 					if (sapwood.isSetLastRingUnderBark() && sapwood.getLastRingUnderBark().isSetPresence())
-						tridasRadiusWoodcompletenessSapwoodLastringunderbark.add(sapwood.getLastRingUnderBark().getPresence().value());
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_LASTRINGUNDERBARK, sapwood.getLastRingUnderBark().getPresence().value());
 					else
-						tridasRadiusWoodcompletenessSapwoodLastringunderbark.add("");
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_LASTRINGUNDERBARK, "");
 
 					if (sapwood.isSetMissingSapwoodRingsToBark())
-						tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark.add(sapwood.getMissingSapwoodRingsToBark());
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARK, sapwood.getMissingSapwoodRingsToBark());
 					else
-						tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark.add(0);
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARK, 0);
 
 					if (sapwood.isSetMissingSapwoodRingsToBarkFoundation())
-						tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation.add(sapwood.getMissingSapwoodRingsToBarkFoundation());
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARKFOUNDATION, 
+								sapwood.getMissingSapwoodRingsToBarkFoundation());
 					else
-						tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation.add("");
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARKFOUNDATION, "");
 
 					if (sapwood.isSetNrOfSapwoodRings())
-						tridasRadiusWoodcompletenessSapwoodNrofsapwoodrings.add(sapwood.getNrOfSapwoodRings());
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_NROFSAPWOODRINGS, sapwood.getNrOfSapwoodRings());
 					else
-						tridasRadiusWoodcompletenessSapwoodNrofsapwoodrings.add(0);
+						builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_NROFSAPWOODRINGS, 0);
 				}
 				else
 				{
-					tridasRadiusWoodcompletenessSapwood.add("");
-					tridasRadiusWoodcompletenessSapwoodLastringunderbark.add("");
-					tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark.add(0);
-					tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation.add("");
-					tridasRadiusWoodcompletenessSapwoodNrofsapwoodrings.add(0);
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD, "");
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_LASTRINGUNDERBARK, "");
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARK, 0);
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARKFOUNDATION, "");
+					builder.add(DccdSBField.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_NROFSAPWOODRINGS, 0);
 				}
 			}
-			searchBean.setTridasRadiusWoodcompletenessBark(tridasRadiusWoodcompletenessBark);
-			searchBean.setTridasRadiusWoodcompletenessHeartwood(tridasRadiusWoodcompletenessHeartwood);
-			searchBean.setTridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith(tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith);
-			searchBean
-					.setTridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation(tridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation);
-			searchBean.setTridasRadiusWoodcompletenessPith(tridasRadiusWoodcompletenessPith);
-			searchBean.setTridasRadiusWoodcompletenessSapwood(tridasRadiusWoodcompletenessSapwood);
-			searchBean.setTridasRadiusWoodcompletenessSapwoodLastringunderbark(tridasRadiusWoodcompletenessSapwoodLastringunderbark);
-			searchBean.setTridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark(tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark);
-			searchBean
-					.setTridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation(tridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation);
-			searchBean.setTridasRadiusWoodcompletenessSapwoodNrofsapwoodrings(tridasRadiusWoodcompletenessSapwoodNrofsapwoodrings);
 		}
-		return searchBean;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -239,39 +187,33 @@ public class RadiusEntity extends AbstractEntity
 	}
 
 	@Override
-	public void buildEntitySubTree()
+	public List<Object> getTridasSubObjects()
 	{
-		// clear the list of subentities first
-		List<Entity> subEntities = getDendroEntities();
-		subEntities.clear();
-
-		// use the tridas entity, to find sub-entity tridas data
+		List<Object> subTridas = new ArrayList<Object>();
 		if (tridasRadius == null)
-			return; // nothing to do
-
-		// sub nodes
-		Iterator<TridasMeasurementSeries> i = tridasRadius.getMeasurementSeries().iterator();
-		while (i.hasNext())
-		{
-			TridasMeasurementSeries measurementSeries = i.next();
-			MeasurementSeriesEntity seriesEntity = new MeasurementSeriesEntity(measurementSeries);
-			subEntities.add(seriesEntity);
-			seriesEntity.buildEntitySubTree();// go deeper
-		}
+			return subTridas;
+		subTridas.addAll(tridasRadius.getMeasurementSeries());
+		return subTridas;
+	}
 
-		// Note: instead of depth first,
-		// we could call the createTree of all sub-entities here
+	@Override
+	public Entity createSubEntity(Object subTridas)
+	{
+		// all subentities are MeasurementSeries
+		return new MeasurementSeriesEntity((TridasMeasurementSeries) subTridas);
 	}
 
 	@Override
 	public Object getTridasAsObject()
 	{
+		loadTridas();
 		return tridasRadius;
 	}
 
 	@Override
 	public void setTridasObject(Object tridas)
 	{
+		tridasObjectReplaced();
 		tridasRadius = (TridasRadius) tridas;
 	}
 
@@ -286,44 +228,32 @@ public class RadiusEntity extends AbstractEntity
 	@Override
 	public void connectTridasObjectTree()
 	{
+		loadTridas();
 		if (tridasRadius == null)
 			return; // nothing to do
 		
 		List<Entity> subEntities = getDendroEntities();
 		for (Entity subEntity : subEntities)
 		{
-			// all subentities are MeasurementSeries
-			TridasMeasurementSeries seriesTridas = (TridasMeasurementSeries) subEntity.getTridasAsObject();
-			tridasRadius.getMeasurementSeries().add(seriesTridas);
+			addSubTridas(tridasRadius, subEntity.getTridasAsObject());
 			subEntity.connectTridasObjectTree();
 		}
 	}
 
 	@Override
-	protected void pruneTridas()
+	protected void addSubTridas(Object tridas, Object subTridas)
 	{
-		TridasRadius objectToPrune = tridasRadius;
-
-		if (objectToPrune != null && 
-			measurementSeriesPruned == null)
-		{
-			measurementSeriesPruned = objectToPrune.getMeasurementSeries();
-			List<TridasMeasurementSeries> empty = Collections.emptyList();
-			objectToPrune.setMeasurementSeries(empty);
-		}
+		// all subentities are MeasurementSeries
+		((TridasRadius) tridas).getMeasurementSeries().add((TridasMeasurementSeries) subTridas);
 	}
 
 	@Override
-	protected void unpruneTridas()
+	protected Object createPrunedTridas(Object tridas)
 	{
-		TridasRadius objectToUnprune = tridasRadius;
-
-		if (objectToUnprune != null && 
-			measurementSeriesPruned != null)
-		{
-			objectToUnprune.setMeasurementSeries(measurementSeriesPruned);
-			measurementSeriesPruned = null;
-		}
+		TridasRadius pruned = (TridasRadius) shallowCopyTridas(tridas);
+		List<TridasMeasurementSeries> emptyMeasurementSeries = Collections.emptyList();
+		pruned.setMeasurementSeries(emptyMeasurementSeries);
+		return pruned;
 	}
 	
 	public List<String> getAssociatedFileNames()
@@ -332,4 +262,9 @@ public class RadiusEntity extends AbstractEntity
 		// empty
 		return resultList;
 	}
+
+	public void accept(EntityVisitor visitor)
+	{
+		visitor.visit(this);
+	}
 }
@@ -17,13 +17,13 @@ package nl.knaw.dans.dccd.model.entities;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
-import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
+import nl.knaw.dans.dccd.search.DccdSBField;
 
 import org.joda.time.DateTime;
 import org.tridas.schema.ControlledVoc;
@@ -38,7 +38,6 @@ public class SampleEntity extends AbstractEntity
 {
 	private static final long	serialVersionUID	= -7608981465899768501L;
 	private TridasSample		tridasSample		= null;
-	List<TridasRadius>			radiusesPruned		= null;
 
 	public SampleEntity()
 	{
@@ -63,71 +62,52 @@ public class SampleEntity extends AbstractEntity
 	}
 
 	@Override
-	public DccdSB fillSearchBean(DccdSB searchBean)
+	public void fillSearchBean(DccdSBBuilder builder)
 	{
 		if (hasTridas())
 		{
+			// the fields get an empty list when there are no values
+			builder.include(SampleEntity.class);
+
 			// tridas.sample.title
-			List<String> tridasSampleTitle = searchBean.getTridasSampleTitle();
-			if (tridasSampleTitle == null)
-				tridasSampleTitle = new ArrayList<String>();
 			if (tridasSample.isSetTitle())
 			{
-				tridasSampleTitle.add(tridasSample.getTitle());
+				builder.add(DccdSBField.TRIDAS_SAMPLE_TITLE, tridasSample.getTitle());
 			}
-			searchBean.setTridasSampleTitle(tridasSampleTitle);
 
 			// tridas.sample.identifier
-			List<String> tridasSampleIdentifier = searchBean.getTridasSampleIdentifier();
-			if (tridasSampleIdentifier == null)
-				tridasSampleIdentifier = new ArrayList<String>();
 			if (tridasSample.isSetIdentifier() && tridasSample.getIdentifier().isSetValue())
 			{
 				// Note: ignore domain
-				tridasSampleIdentifier.add(tridasSample.getIdentifier().getValue());
+				builder.add(DccdSBField.TRIDAS_SAMPLE_IDENTIFIER, tridasSample.getIdentifier().getValue());
 			}
-			searchBean.setTridasSampleIdentifier(tridasSampleIdentifier);
 
 			// tridas.sample.type
 			// tridas.sample.type.normal
-			List<String> tridasSampleType = searchBean.getTridasSampleType();
-			if (tridasSampleType == null)
-				tridasSampleType = new ArrayList<String>();
-			List<String> tridasSampleTypeNormal = searchBean.getTridasSampleTypeNormal();
-			if (tridasSampleTypeNormal == null)
-				tridasSampleTypeNormal = new ArrayList<String>();
 			if (tridasSample.isSetType())
 			{
 				ControlledVoc type = tridasSample.getType();
 
 				if (type.isSetValue())
-					tridasSampleType.add(type.getValue());
+					builder.add(DccdSBField.TRIDAS_SAMPLE_TYPE, type.getValue());
 				else
-					tridasSampleType.add("");
+					builder.add(DccdSBField.TRIDAS_SAMPLE_TYPE, "");
 
 				if (type.isSetNormal())
-					tridasSampleTypeNormal.add(type.getNormal());
+					builder.add(DccdSBField.TRIDAS_SAMPLE_TYPE_NORMAL, type.getNormal());
 				else
-					tridasSampleTypeNormal.add("");
+					builder.add(DccdSBField.TRIDAS_SAMPLE_TYPE_NORMAL, "");
 			}
-			searchBean.setTridasSampleType(tridasSampleType);
-			searchBean.setTridasSampleTypeNormal(tridasSampleTypeNormal);
 
 			// tridas.sample.samplingDate
-			List<DateTime> tridasSampleSamplingdate = searchBean.getTridasSampleSamplingdate();
-			if (tridasSampleSamplingdate == null)
-				tridasSampleSamplingdate = new ArrayList<DateTime>();
 			if (tridasSample.isSetSamplingDate())
 			{
 				XMLGregorianCalendar xmlDate = tridasSample.getSamplingDate().getValue();
 				DateTime dateTime = new DateTime(xmlDate.toGregorianCalendar());
 
-				tridasSampleSamplingdate.add(dateTime);
+				builder.add(DccdSBField.TRIDAS_SAMPLE_SAMPLINGDATE, dateTime);
 			}
-			searchBean.setTridasSampleSamplingdate(tridasSampleSamplingdate);
-
 		}
-		return searchBean;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -138,39 +118,33 @@ public class SampleEntity extends AbstractEntity
 	}
 
 	@Override
-	public void buildEntitySubTree()
+	public List<Object> getTridasSubObjects()
 	{
-		// clear the list of subentities first
-		List<Entity> subEntities = getDendroEntities();
-		subEntities.clear();
-
-		// use the tridas entity, to find sub-entity tridas data
+		List<Object> subTridas = new ArrayList<Object>();
 		if (tridasSample == null)
-			return; // nothing to do
-
-		// radius
-		Iterator<TridasRadius> i = tridasSample.getRadiuses().iterator();
-		while (i.hasNext())
-		{
-			TridasRadius radius = i.next();
-			RadiusEntity radiusEntity = new RadiusEntity(radius);
-			subEntities.add(radiusEntity);
-			radiusEntity.buildEntitySubTree();// go deeper
-		}
+			return subTridas;
+		subTridas.addAll(tridasSample.getRadiuses());
+		return subTridas;
+	}
 
-		// Note: instead of depth first,
-		// we could call the createTree of all sub-entities here
+	@Override
+	public Entity createSubEntity(Object subTridas)
+	{
+		// all subentities are radius
+		return new RadiusEntity((TridasRadius) subTridas);
 	}
 
 	@Override
 	public Object getTridasAsObject()
 	{
+		loadTridas();
 		return tridasSample;
 	}
 
 	@Override
 	public void setTridasObject(Object tridas)
 	{
+		tridasObjectReplaced();
 		tridasSample = (TridasSample) tridas;
 	}
 
@@ -185,44 +159,32 @@ public class SampleEntity extends AbstractEntity
 	@Override
 	public void connectTridasObjectTree()
 	{
+		loadTridas();
 		if (tridasSample == null)
 			return; // nothing to do
 		
 		List<Entity> subEntities = getDendroEntities();
 		for (Entity subEntity : subEntities)
 		{
-			// all subentities are radius
-			TridasRadius radiusTridas = (TridasRadius) subEntity.getTridasAsObject();
-			tridasSample.getRadiuses().add(radiusTridas);
+			addSubTridas(tridasSample, subEntity.getTridasAsObject());
 			subEntity.connectTridasObjectTree();
 		}
 	}
 
 	@Override
-	protected void pruneTridas()
+	protected void addSubTridas(Object tridas, Object subTridas)
 	{
-		TridasSample objectToPrune = tridasSample;
-
-		if (objectToPrune != null && 
-			radiusesPruned == null)
-		{
-			radiusesPruned = objectToPrune.getRadiuses();
-			List<TridasRadius> empty = Collections.emptyList();
-			objectToPrune.setRadiuses(empty);
-		}
+		// all subentities are radius
+		((TridasSample) tridas).getRadiuses().add((TridasRadius) subTridas);
 	}
 
 	@Override
-	protected void unpruneTridas()
+	protected Object createPrunedTridas(Object tridas)
 	{
-		TridasSample objectToUnprune = tridasSample;
-
-		if (objectToUnprune != null && 
-			radiusesPruned != null)
-		{
-			objectToUnprune.setRadiuses(radiusesPruned);
-			radiusesPruned = null;
-		}
+		TridasSample pruned = (TridasSample) shallowCopyTridas(tridas);
+		List<TridasRadius> emptyRadius = Collections.emptyList();
+		pruned.setRadiuses(emptyRadius);
+		return pruned;
 	}
 
 	public List<String> getAssociatedFileNames()
@@ -242,5 +204,10 @@ public class SampleEntity extends AbstractEntity
 		//logger.debug("Found Associated Files: " + resultList.size());
 		
 		return resultList;		
-	}		
+	}
+
+	public void accept(EntityVisitor visitor)
+	{
+		visitor.visit(this);
+	}
 }
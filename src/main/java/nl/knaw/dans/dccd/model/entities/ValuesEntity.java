@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import nl.knaw.dans.dccd.model.ProjectPermissionLevel;
+import nl.knaw.dans.dccd.tridas.CompactTridasValues;
 
 import org.tridas.schema.TridasValues;
 
@@ -31,6 +32,8 @@ public class ValuesEntity extends AbstractEntity
 {
 	private static final long	serialVersionUID	= -5474928479154006698L;
 	private TridasValues		tridasValues		= null;
+	// when compacted the values are kept here instead of in tridasValues
+	private volatile CompactTridasValues	compactValues	= null;
 
 	public ValuesEntity()
 	{
@@ -67,39 +70,104 @@ public class ValuesEntity extends AbstractEntity
 		// leave node
 	}
 
+	/**
+	 * When the values are compact a temporary copy is returned and they stay compact; 
+	 * changing that copy does not change the entity, use setTridasObject for that.
+	 */
 	@Override
 	public Object getTridasAsObject()
 	{
-		return tridasValues;
+		loadTridas();
+		CompactTridasValues compact;
+		synchronized (this)
+		{
+			if (compactValues == null)
+				return tridasValues;
+			compact = compactValues;
+		}
+		return compact.materialize();
 	}
 
 	@Override
 	public void setTridasObject(Object tridas)
 	{
-		tridasValues = (TridasValues) tridas;
+		tridasObjectReplaced();
+		synchronized (this)
+		{
+			compactValues = null;
+			tridasValues = (TridasValues) tridas;
+		}
 	}
 
-	public String getTridasTitle()
+	@Override
+	public boolean hasTridas()
 	{
-		return null;
+		// don't expand just for checking
+		return compactValues != null || super.hasTridas();
 	}
-	
-	@Override
-	public void connectTridasObjectTree()
+
+	/**
+	 * Keep the (loaded) values in compact form, getTridasAsObject and the serialization 
+	 * materialize a temporary copy. 
+	 * Note: only saves memory when the values are not referenced anymore, 
+	 * the TridasMeasurementSeries or TridasDerivedSeries of a connected tree still has them; 
+	 * Project.compactValues takes care of that.
+	 * 
+	 * @return true if compacted
+	 */
+	public synchronized boolean compactTridas()
 	{
-		// empty, nothing to connect
+		if (!isTridasLoaded() || tridasValues == null)
+			return false;
+
+		compactValues = CompactTridasValues.compact(tridasValues);
+		tridasValues = null;
+		return true;
 	}
 
-	@Override
-	protected void pruneTridas()//Object o)
+	public boolean isCompact()
+	{
+		return compactValues != null;
+	}
+
+	/**
+	 * The values in compact form, for analysis; 
+	 * when not compacted a compact copy is created.
+	 * 
+	 * @return The compact values, null if there is no tridas
+	 */
+	public CompactTridasValues getCompactValues()
+	{
+		CompactTridasValues compact = compactValues;
+		if (compact != null)
+			return compact;
+
+		TridasValues values = (TridasValues) getTridasAsObject();
+		return (values == null) ? null : CompactTridasValues.compact(values);
+	}
+
+	/**
+	 * @return The number of values, without expanding compact values
+	 */
+	public int getValueCount()
 	{
-		// nothing to prune
+		CompactTridasValues compact = compactValues;
+		if (compact != null)
+			return compact.size();
+
+		TridasValues values = (TridasValues) getTridasAsObject();
+		return (values == null) ? 0 : values.getValues().size();
 	}
 
+	public String getTridasTitle()
+	{
+		return null;
+	}
+	
 	@Override
-	protected void unpruneTridas()//Object o)
+	public void connectTridasObjectTree()
 	{
-		// nothing to unprune
+		// empty, nothing to connect
 	}
 	
 	public List<String> getAssociatedFileNames()
@@ -108,4 +176,9 @@ public class ValuesEntity extends AbstractEntity
 		// empty
 		return resultList;
 	}
+
+	public void accept(EntityVisitor visitor)
+	{
+		visitor.visit(this);
+	}
 }
@@ -16,6 +16,7 @@
 package nl.knaw.dans.dccd.repository;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 import nl.knaw.dans.dccd.model.Project;
 import nl.knaw.dans.dccd.model.entities.Entity;
@@ -32,9 +33,16 @@ public interface DccdRepositoryService {
 
 	/** Get projects from repository
 	 * note: only id and title, no other data
+	 * The list can be limited to the first projects, 
+	 * use getDendroProjectIterator to go through all of them
 	 */
 	public Collection< Project > getDendroProjects() throws DccdRepositoryException;
 
+	/** Iterate over the projects in the repository, without getting them all at once
+	 * note: only id and title, no other data
+	 */
+	public Iterator< Project > getDendroProjectIterator();
+
 	 //TODO: LB20090923: I would expect this method to return a project id
 
 	/** ingest a whole project
@@ -20,6 +20,7 @@ import java.net.URL;
 
 import nl.knaw.dans.common.fedora.Fedora;
 import nl.knaw.dans.common.fedora.store.FedoraDmoStore;
+import nl.knaw.dans.common.lang.RepositoryException;
 import nl.knaw.dans.common.lang.repo.AbstractDmoFactory;
 import nl.knaw.dans.common.lang.search.SearchEngine;
 import nl.knaw.dans.dccd.repository.DccdRepoSearchListener;
@@ -73,6 +74,22 @@ public class DccdFedoraStore extends FedoraDmoStore
         }
     }
     
+    /**
+     * Remove a datastream and all its versions from the object, 
+     * like the one of an entity that was removed from the entity tree
+     * 
+     * @param sid
+     *        the sid of the object
+     * @param streamId
+     *        the id of the datastream
+     * @param logMessage
+     * @throws RepositoryException
+     */
+    public void purgeDatastream(String sid, String streamId, String logMessage) throws RepositoryException
+    {
+        getFedora().getDatastreamManager().purgeDatastream(sid, streamId, null, null, logMessage, false);
+    }
+
     public URL getFileURL(String sid, String unitId) 
     {
         URL url = null;
@@ -15,13 +15,19 @@
  ******************************************************************************/
 package nl.knaw.dans.dccd.repository.fedora;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
@@ -29,20 +35,26 @@ import nl.knaw.dans.common.fedora.fox.DatastreamVersion;
 import nl.knaw.dans.common.fedora.fox.DigitalObject;
 import nl.knaw.dans.common.fedora.store.AbstractDobConverter;
 import nl.knaw.dans.common.jibx.JiBXObjectFactory;
+import nl.knaw.dans.common.lang.dataset.DatasetState;
 import nl.knaw.dans.common.lang.repo.bean.DublinCoreMetadata;
 import nl.knaw.dans.common.lang.repo.exception.ObjectDeserializationException;
 import nl.knaw.dans.common.lang.xml.XMLDeserializationException;
+import nl.knaw.dans.dccd.application.services.DccdConfigurationService;
 import nl.knaw.dans.dccd.model.DccdAssociatedFileBinaryUnit;
 import nl.knaw.dans.dccd.model.DccdOriginalFileBinaryUnit;
 import nl.knaw.dans.dccd.model.EntityTree;
 import nl.knaw.dans.dccd.model.EntityTreeBuilder;
+import nl.knaw.dans.dccd.model.InternalErrorException;
 import nl.knaw.dans.dccd.model.Project;
 import nl.knaw.dans.dccd.model.ProjectAdministrativeMetadata;
 import nl.knaw.dans.dccd.model.ProjectCreationMetadata;
 import nl.knaw.dans.dccd.model.ProjectPermissionMetadata;
 import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.EntityTridasLoader;
 import nl.knaw.dans.dccd.model.entities.ProjectEntity;
 import nl.knaw.dans.dccd.model.ProjectVocabulary;
+import nl.knaw.dans.dccd.tridas.TridasDom4jBridge;
+import nl.knaw.dans.dccd.tridas.TridasJAXBProvider;
 
 import org.apache.log4j.Logger;
 import org.dom4j.Element;
@@ -52,9 +64,14 @@ import org.tridas.schema.TridasVocabulary;
 public class DccdProjectConverter extends AbstractDobConverter<Project>
 {
 	private static Logger	logger					= Logger.getLogger(DccdProjectConverter.class);
-	// reuse the JAXB context, improves performance
-	// especially for retrieveEntity() which can be called for each entity in a project
-	private JAXBContext		jaxbContextForTridas	= null;
+
+	public static final String PARALLELISM_SETTING = "fedora.deserialize.parallelism";
+	public static final String LAZY_SETTING = "fedora.deserialize.lazy";
+	
+	// bounded pool for unmarshalling the entities in parallel, created on first use
+	private ExecutorService	entityExecutor			= null;
+	private int				parallelism				= -1;
+	private Boolean			lazy					= null;
 
 	public DccdProjectConverter()
 	{
@@ -62,13 +79,75 @@ public class DccdProjectConverter extends AbstractDobConverter<Project>
 		super(Project.NAMESPACE);
 	}
 
-	private JAXBContext getJaxbContextForTridas() throws JAXBException
+	/**
+	 * The number of threads used for unmarshalling the entities, 
+	 * from the "fedora.deserialize.parallelism" setting. 
+	 * A value of 0 (or less) means one thread per available processor. 
+	 * 
+	 * @return the parallelism, 1 means the entities are unmarshalled sequentially
+	 */
+	public synchronized int getParallelism()
+	{
+		if (parallelism < 0)
+		{
+			int value = 0;
+			String setting = DccdConfigurationService.getService().getSettings().getProperty(PARALLELISM_SETTING);
+			if (setting != null)
+			{
+				try
+				{
+					value = Integer.parseInt(setting.trim());
+				}
+				catch (NumberFormatException e)
+				{
+					logger.warn("Invalid value for " + PARALLELISM_SETTING + ": '" + setting + "', using the number of processors");
+				}
+			}
+			if (value <= 0)
+			{
+				value = Runtime.getRuntime().availableProcessors();
+			}
+			parallelism = value;
+			logger.info("Entity deserialization parallelism: " + parallelism);
+		}
+		return parallelism;
+	}
+
+	/**
+	 * When lazy, the entities get their tridas (unmarshalled) when it is first used, 
+	 * from the "fedora.deserialize.lazy" setting.
+	 * 
+	 * @return true if lazy loading
+	 */
+	public synchronized boolean isLazy()
+	{
+		if (lazy == null)
+		{
+			String setting = DccdConfigurationService.getService().getSettings().getProperty(LAZY_SETTING, "false");
+			lazy = Boolean.valueOf(setting.trim());
+			logger.info("Entity deserialization lazy: " + lazy);
+		}
+		return lazy.booleanValue();
+	}
+
+	private synchronized ExecutorService getEntityExecutor()
 	{
-		if (jaxbContextForTridas == null)
+		if (entityExecutor == null)
 		{
-			jaxbContextForTridas = JAXBContext.newInstance("org.tridas.schema");
+			entityExecutor = Executors.newFixedThreadPool(getParallelism(), new ThreadFactory()
+			{
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "dccd-deserializer-" + count.incrementAndGet());
+					// don't keep the application alive because of idle workers
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
-		return jaxbContextForTridas;
+		return entityExecutor;
 	}
 
 	@Override
@@ -94,13 +173,7 @@ public class DccdProjectConverter extends AbstractDobConverter<Project>
 		{
 			try
 			{
-				// String entityXMLString = entityVersion.asXMLString();
-				String vocXMLString = vocVersion.getXmlContent().getElement().asXML();
-				Unmarshaller unmarshaller = getJaxbContextForTridas().createUnmarshaller();
-	
-				// Need UTF-8 because the JAXB want's it for unmarshalling the tridas
-				ByteArrayInputStream input = new ByteArrayInputStream(vocXMLString.getBytes("UTF-8"));
-				Object tridas = unmarshaller.unmarshal(input);
+				Object tridas = unmarshalTridas(vocVersion.getXmlContent().getElement());
 				
 				project.setTridasVocabulary((TridasVocabulary)tridas);
 				project.getVocabulary().setDirty(false); 
@@ -109,10 +182,6 @@ public class DccdProjectConverter extends AbstractDobConverter<Project>
 			{
 				throw new ObjectDeserializationException(e);
 			}
-			catch (UnsupportedEncodingException e)
-			{
-				throw new ObjectDeserializationException(e);
-			}
 		}
 	}
 	
@@ -215,39 +284,43 @@ public class DccdProjectConverter extends AbstractDobConverter<Project>
 		EntityTree entityTree = project.entityTree;
 		ProjectEntity projectEntity = EntityTreeBuilder.buildTree(treeElement);
 		entityTree.setProjectEntity(projectEntity);
+		entityTree.setLastEntityId(EntityTreeBuilder.getLastEntityId(treeElement));
 		projectEntity.setDirty(false); 
 		
 		// Note: could show tree using entityTree.asXMLString(1)
 
 		// retrieve all entity's found in the tree
 		List<Entity> entities = entityTree.getEntities();
-		for (Entity entity : entities)
+		if (isLazy())
 		{
-			logger.debug("Retrieving entity from id: " + entity.getId());
-			DatastreamVersion entityVersion = digitalObject.getLatestVersion(entity.getId());
-			try
+			// only the tree now, the tridas of the entities when they are used
+			// Note: keep the bytes of each datastream, not the elements; 
+			// they would keep the whole document of the digital object alive
+			for (Entity entity : entities)
 			{
-				// String entityXMLString = entityVersion.asXMLString();
-				String entityXMLString = entityVersion.getXmlContent().getElement().asXML();
-				Unmarshaller unmarshaller = getJaxbContextForTridas().createUnmarshaller();
-
-				// Need UTF-8 because the JAXB want's it for unmarshalling the tridas
-				ByteArrayInputStream input = new ByteArrayInputStream(entityXMLString.getBytes("UTF-8"));
-				Object tridas = unmarshaller.unmarshal(input);
-				entity.setTridasObject(tridas);
-				entity.setDirty(false); 
-				
-				// Note: could show entity with entity.asXMLString(1)
+				entity.setTridasLoader(new DatastreamTridasLoader(getEntityBytes(digitalObject, entity)));
 			}
-			catch (JAXBException e)
-			{
-				throw new ObjectDeserializationException(e);
-			}
-			catch (UnsupportedEncodingException e)
+			trackChangesWhenEditable(project, entities);
+			project.setTridasConnectDeferred();
+			project.setTitle(projectEntity.getTitle());
+			return;
+		}
+		
+		if (entities.size() > 1 && getParallelism() > 1)
+		{
+			deserializeEntitiesInParallel(digitalObject, entities);
+		}
+		else
+		{
+			for (Entity entity : entities)
 			{
-				throw new ObjectDeserializationException(e);
+				deserializeEntity(digitalObject, entity);
 			}
 		}
+		trackChangesWhenEditable(project, entities);
+		
+		// Note: only connect when all entities are loaded, 
+		// the parents tridas lists are filled in the order of the tree
 		// connect all (internal) tridas objects, according to the tree structure
 		projectEntity.connectTridasObjectTree();
 		
@@ -259,6 +332,211 @@ public class DccdProjectConverter extends AbstractDobConverter<Project>
 		project.setTitle(projectEntity.getTitle());
 	}
 
+	/**
+	 * The tridas objects of a draft can be edited directly (not only through the entities), 
+	 * so those entities also compare a digest of their xml to find the changes; 
+	 * archived projects are not edited and don't need the marshalling for that
+	 */
+	private static void trackChangesWhenEditable(Project project, List<Entity> entities)
+	{
+		if (project.getAdministrativeMetadata().getAdministrativeState() == DatasetState.PUBLISHED)
+			return;
+
+		for (Entity entity : entities)
+		{
+			entity.trackChanges();
+		}
+	}
+
+	/**
+	 * Unmarshal the entities with the bounded executor; 
+	 * each entity has its own datastream and tridas object, 
+	 * so they can be done independently until they are connected. 
+	 * The entities are split in a chunk per thread, which the calling thread and the workers claim; 
+	 * so a project adds only a few tasks to the shared executor 
+	 * and when the workers are busy with other projects the calling thread does the chunks itself.
+	 */
+	private void deserializeEntitiesInParallel(final DigitalObject digitalObject, final List<Entity> entities) throws ObjectDeserializationException
+	{
+		final int chunkCount = Math.min(getParallelism(), entities.size());
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final CountDownLatch chunksDone = new CountDownLatch(chunkCount);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Runnable worker = new Runnable()
+		{
+			public void run()
+			{
+				deserializeChunks(digitalObject, entities, chunkCount, nextChunk, chunksDone, failure);
+			}
+		};
+
+		ExecutorService executor = getEntityExecutor();
+		List<Future<?>> results = new ArrayList<Future<?>>(chunkCount - 1);
+		for (int i = 1; i < chunkCount; i++)
+		{
+			results.add(executor.submit(worker));
+		}
+
+		deserializeChunks(digitalObject, entities, chunkCount, nextChunk, chunksDone, failure);
+		try
+		{
+			// Note: not waiting for the tasks, the ones that did not start have nothing left to do
+			chunksDone.await();
+		}
+		catch (InterruptedException e)
+		{
+			nextChunk.set(chunkCount);
+			cancel(results);
+			Thread.currentThread().interrupt();
+			throw new ObjectDeserializationException(e);
+		}
+
+		Throwable cause = failure.get();
+		if (cause == null)
+			return;
+		cancel(results);
+		if (cause instanceof ObjectDeserializationException)
+			throw (ObjectDeserializationException) cause;
+		else if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		else if (cause instanceof Error)
+			throw (Error) cause;
+		else
+			throw new ObjectDeserializationException((Exception) cause);
+	}
+
+	/**
+	 * Unmarshal the chunks that are not claimed yet; 
+	 * a chunk has every chunkCount-th entity, so the big and small entities are spread over the chunks. 
+	 * The first failure is kept and the chunks that are not claimed then are skipped.
+	 */
+	private void deserializeChunks(DigitalObject digitalObject, List<Entity> entities, int chunkCount, 
+			AtomicInteger nextChunk, CountDownLatch chunksDone, AtomicReference<Throwable> failure)
+	{
+		int chunk;
+		while ((chunk = nextChunk.getAndIncrement()) < chunkCount)
+		{
+			try
+			{
+				for (int i = chunk; i < entities.size() && failure.get() == null; i += chunkCount)
+				{
+					deserializeEntity(digitalObject, entities.get(i));
+				}
+			}
+			catch (Throwable t)
+			{
+				failure.compareAndSet(null, t);
+				nextChunk.set(chunkCount);
+				// the caller does not wait for the other chunks
+				while (chunksDone.getCount() > 0)
+				{
+					chunksDone.countDown();
+				}
+				return;
+			}
+			chunksDone.countDown();
+		}
+	}
+
+	private static void cancel(List<Future<?>> results)
+	{
+		for (Future<?> result : results)
+		{
+			result.cancel(true);
+		}
+	}
+
+	private Element getEntityElement(DigitalObject digitalObject, Entity entity) throws ObjectDeserializationException
+	{
+		logger.debug("Retrieving entity from id: " + entity.getId());
+		DatastreamVersion entityVersion = digitalObject.getLatestVersion(entity.getId());
+		if (entityVersion == null)
+		{
+			throw new ObjectDeserializationException("No datastream found for entity: " + entity.getId() + " on retrieved digital object. sid=" + digitalObject.getSid());
+		}
+		return entityVersion.getXmlContent().getElement();
+	}
+
+	private byte[] getEntityBytes(DigitalObject digitalObject, Entity entity) throws ObjectDeserializationException
+	{
+		// the namespaces are declared on the entity element, so it can stand on its own
+		String xml = getEntityElement(digitalObject, entity).asXML();
+		try
+		{
+			return xml.getBytes(TridasJAXBProvider.TRIDAS_XML_CHARSET);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new ObjectDeserializationException(e);
+		}
+	}
+
+	private void deserializeEntity(DigitalObject digitalObject, Entity entity) throws ObjectDeserializationException
+	{
+		Element entityElement = getEntityElement(digitalObject, entity);
+		try
+		{
+			entity.setTridasObject(unmarshalTridas(entityElement));
+			entity.setDirty(false); 
+			
+			// Note: could show entity with entity.asXMLString(1)
+		}
+		catch (JAXBException e)
+		{
+			throw new ObjectDeserializationException(e);
+		}
+	}
+
+	private static Object unmarshalTridas(Element element) throws JAXBException
+	{
+		Unmarshaller unmarshaller = null;
+		try
+		{
+			// unmarshal directly from the dom4j element, no XML String in between
+			// Note: an Unmarshaller is not thread-safe, each (worker) thread borrows its own
+			unmarshaller = TridasJAXBProvider.borrowUnmarshaller();
+			return TridasDom4jBridge.unmarshal(unmarshaller, element);
+		}
+		finally
+		{
+			TridasJAXBProvider.returnUnmarshaller(unmarshaller);
+		}
+	}
+
+	/**
+	 * Unmarshals the xml content of the entity datastream when the entity needs it; 
+	 * only the (UTF-8) bytes of the datastream are kept until then
+	 */
+	private static class DatastreamTridasLoader implements EntityTridasLoader
+	{
+		private static final long serialVersionUID = -1468735372716325013L;
+		private final byte[] xmlBytes;
+
+		DatastreamTridasLoader(byte[] xmlBytes)
+		{
+			this.xmlBytes = xmlBytes;
+		}
+
+		public Object loadTridas(Entity entity)
+		{
+			logger.debug("Lazy loading entity: " + entity.getId());
+			Unmarshaller unmarshaller = null;
+			try
+			{
+				unmarshaller = TridasJAXBProvider.borrowUnmarshaller();
+				return TridasDom4jBridge.unmarshal(unmarshaller, xmlBytes);
+			}
+			catch (JAXBException e)
+			{
+				throw new InternalErrorException(e);
+			}
+			finally
+			{
+				TridasJAXBProvider.returnUnmarshaller(unmarshaller);
+			}
+		}
+	}
+
 	private void deserializeFileUnits(DigitalObject digitalObject, Project project) throws ObjectDeserializationException
 	{
 		deserializeOriginalFileUnits(digitalObject, project);
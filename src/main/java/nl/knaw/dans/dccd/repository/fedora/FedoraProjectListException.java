@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.repository.fedora;
+
+/**
+ * Thrown by the FedoraProjectListIterator when the listing fails while iterating, 
+ * the Iterator interface does not allow for checked exceptions.
+ */
+public class FedoraProjectListException extends RuntimeException
+{
+	private static final long serialVersionUID = 2731436517906247183L;
+
+	public FedoraProjectListException(String message)
+	{
+		super(message);
+	}
+
+	public FedoraProjectListException(Throwable cause)
+	{
+		super(cause);
+	}
+
+	public FedoraProjectListException(String message, Throwable cause)
+	{
+		super(message, cause);
+	}
+}
@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.repository.fedora;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import nl.knaw.dans.dccd.model.Project;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Lists the dccd projects in the Fedora repository, 
+ * using the (basic) search of Fedora one page at a time. 
+ * The next page is requested with the session token of the previous page 
+ * and the result is parsed (StAX) while it is being read, 
+ * so only the current project is kept in memory. 
+ * 
+ * The projects are stubs; only the id and title are set.
+ * Call close() when not iterating to the end, the open connection is released then.
+ */
+public class FedoraProjectListIterator implements Iterator<Project>
+{
+	private static Logger logger = Logger.getLogger(FedoraProjectListIterator.class);
+
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	private static final XMLInputFactory inputFactory = createInputFactory();
+
+	private final String baseURLString;
+	private final int pageSize;
+
+	private InputStream in = null;
+	private XMLStreamReader reader = null;
+	// token of the current page, null for the first and when there are no more pages
+	private String sessionToken = null;
+	private boolean firstPage = true;
+	private boolean finished = false;
+	private Project next = null;
+	private int pageCount = 0;
+
+	/**
+	 * @param baseURLString
+	 *        the base url of Fedora, like http://localhost:8080/fedora
+	 * @param pageSize
+	 *        the maximum number of projects requested per page
+	 */
+	public FedoraProjectListIterator(String baseURLString, int pageSize)
+	{
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize must be 1 or bigger");
+		this.baseURLString = baseURLString;
+		this.pageSize = pageSize;
+	}
+
+	private static XMLInputFactory createInputFactory()
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		return factory;
+	}
+
+	public boolean hasNext()
+	{
+		if (next == null && !finished)
+		{
+			try
+			{
+				next = readNext();
+			}
+			catch (XMLStreamException e)
+			{
+				close();
+				throw new FedoraProjectListException("Could not parse the search result from: " + baseURLString, e);
+			}
+			catch (IOException e)
+			{
+				close();
+				throw new FedoraProjectListException("Could not get the search result from: " + baseURLString, e);
+			}
+		}
+		return next != null;
+	}
+
+	public Project next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Project result = next;
+		next = null;
+		return result;
+	}
+
+	public void remove()
+	{
+		throw new UnsupportedOperationException("The project listing is read only");
+	}
+
+	/**
+	 * @return the number of pages requested so far
+	 */
+	public int getPageCount()
+	{
+		return pageCount;
+	}
+
+	/**
+	 * Stop iterating, releases the connection of the current page
+	 */
+	public void close()
+	{
+		finished = true;
+		closePage();
+	}
+
+	private Project readNext() throws XMLStreamException, IOException
+	{
+		while (!finished)
+		{
+			if (reader == null)
+			{
+				if (!firstPage && sessionToken == null)
+				{
+					finished = true; // it was the last page
+					break;
+				}
+				openPage();
+			}
+
+			while (reader.hasNext())
+			{
+				if (reader.next() == XMLStreamConstants.START_ELEMENT)
+				{
+					String name = reader.getLocalName();
+					if ("token".equals(name))
+						sessionToken = reader.getElementText().trim();
+					else if ("objectFields".equals(name))
+						return readObjectFields();
+				}
+			}
+			// end of this page
+			closePage();
+		}
+		return null;
+	}
+
+	// reads the fields until the end of the objectFields element
+	private Project readObjectFields() throws XMLStreamException
+	{
+		String id = null;
+		String title = null;
+		int depth = 1;
+		while (depth > 0)
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				String name = reader.getLocalName();
+				if (depth == 1 && "pid".equals(name))
+					id = reader.getElementText();
+				else if (depth == 1 && "title".equals(name) && title == null)
+					title = reader.getElementText();
+				else
+					depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+		}
+		logger.debug("Found Id: " + id + " Title: " + title);
+		return new Project(id, title);
+	}
+
+	private void openPage() throws IOException, XMLStreamException
+	{
+		String token = sessionToken;
+		// Note: the token is only valid for the next page, a page without one is the last
+		sessionToken = null;
+		firstPage = false;
+		pageCount++;
+		in = openPage(token);
+		reader = inputFactory.createXMLStreamReader(in);
+	}
+
+	/**
+	 * Open the search result page
+	 * 
+	 * @param token
+	 *        the session token from the previous page or null for the first page
+	 * @return the stream with the (xml) search result
+	 */
+	protected InputStream openPage(String token) throws IOException
+	{
+		String requestUrlString;
+		if (token == null)
+			requestUrlString = baseURLString + "/search?query=pid~dccd:*&maxResults=" + pageSize + "&xml=true&pid=true&title=true";
+		else
+			requestUrlString = baseURLString + "/search?sessionToken=" + encode(token) + "&xml=true";
+
+		logger.info("request: " + requestUrlString);
+		return new URL(requestUrlString).openConnection().getInputStream();
+	}
+
+	private static String encode(String token)
+	{
+		try
+		{
+			return URLEncoder.encode(token, "UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// this really should not happen, the encoding must be UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void closePage()
+	{
+		if (reader != null)
+		{
+			try
+			{
+				reader.close();
+			}
+			catch (XMLStreamException e)
+			{
+				logger.warn("Could not close search result reader", e);
+			}
+			reader = null;
+		}
+		if (in != null)
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException e)
+			{
+				logger.warn("Could not close search result stream", e);
+			}
+			in = null;
+		}
+	}
+}
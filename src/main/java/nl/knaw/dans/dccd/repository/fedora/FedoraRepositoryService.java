@@ -16,22 +16,16 @@
 package nl.knaw.dans.dccd.repository.fedora;
 
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Scanner;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
 
 import nl.knaw.dans.common.fedora.DatastreamAccessor;
 import nl.knaw.dans.common.fedora.ObjectManager;
@@ -56,11 +50,10 @@ import nl.knaw.dans.dccd.model.entities.Entity;
 import nl.knaw.dans.dccd.model.entities.ProjectEntity;
 import nl.knaw.dans.dccd.repository.DccdRepositoryException;
 import nl.knaw.dans.dccd.repository.DccdRepositoryService;
+import nl.knaw.dans.dccd.tridas.TridasDom4jBridge;
+import nl.knaw.dans.dccd.tridas.TridasJAXBProvider;
 
 import org.apache.log4j.Logger;
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.tridas.schema.TridasProject;
 
@@ -79,14 +72,14 @@ import fedora.server.types.gen.MIMETypedStream;
 public class FedoraRepositoryService implements DccdRepositoryService 
 { 
 	private static Logger logger = Logger.getLogger(FedoraRepositoryService.class);
+
+	/** The maximum number of projects in the list of getDendroProjects() */
+	public static final int DEFAULT_LIST_LIMIT = 100;
+
     //private FedoraStore store = null;
 	final static String DO_ID_NS = "dccd"; // used for the Fedora digital object PID
 	final static String FORMAT_FOXML_1_1 = "info:fedora/fedora-system:FOXML-1.1"; // foxml format
 
-	// reuse the JAXB context, improves performance
-	// especially for retrieveEntity() which can be called for each entity in a project
-	private JAXBContext jaxbContextForTridas = null;
-
 	// Note maybe reuse these objects; construct once use many!
 	private ObjectManager objectManager = null;
 	private DatastreamAccessor datastreamAccessor = null;
@@ -94,13 +87,6 @@ public class FedoraRepositoryService implements DccdRepositoryService
 
 	private String baseURLString = "";
 
-	private JAXBContext getJaxbContextForTridas() throws JAXBException {
-		if (jaxbContextForTridas == null) {
-			jaxbContextForTridas = JAXBContext.newInstance("org.tridas.schema");
-		}
-		return jaxbContextForTridas;
-	}
-
 	/** Initialize by connecting to the store
 	 *
 	 * @param protocol
@@ -154,21 +140,15 @@ public class FedoraRepositoryService implements DccdRepositoryService
 		return xmlStr;
     }
 
-	/** Retrieve all projects but without the data in repository,
-	 * only the id's and title's set to get the data when needed
+	/** Retrieve the first projects but without the data in repository,
+	 * only the id's and title's set to get the data when needed.
+	 * Note: at most DEFAULT_LIST_LIMIT projects, 
+	 * use getDendroProjectIterator to go through all of them
 	 *
 	 * @return The dendro projects from the repository
 	 */
     public Collection< Project > getDendroProjects() throws DccdRepositoryException{
-    	final int maxResults = 100; // was 10
-    	Collection< Project > result = null;
-
-    	try {
-    		result = getDendroProjects(maxResults);
-    	} catch (DccdRepositoryException e) {
-    		throw e;
-    	}
-    	return result;
+    	return getDendroProjects(DEFAULT_LIST_LIMIT);
     }
 
     /** same as getDendroProjects,
@@ -184,111 +164,30 @@ public class FedoraRepositoryService implements DccdRepositoryService
        	// max results should be bigger than 0
        	if (limit < 1) throw new IllegalArgumentException("limit must be 1 or bigger");
 
-       	// First get the id's and titles for our dccd projects/data
-    	String xmlResultString = "";
-    	Collection<Project> dendroProjects = null;
+    	Collection<Project> dendroProjects = new ArrayList<Project>();
+    	FedoraProjectListIterator projects = 
+    		new FedoraProjectListIterator(baseURLString, Math.min(limit, FedoraProjectListIterator.DEFAULT_PAGE_SIZE));
 		try {
-	    	// get the xml result
-			xmlResultString = getSearchResultAsXMLString(limit);
-	    	// create project list
-			dendroProjects = createProjectListFromXMLResultString(xmlResultString);
-		} catch (IOException e) {
-			throw new DccdRepositoryException(e);
-		} catch (DocumentException e) {
+			while (dendroProjects.size() < limit && projects.hasNext()) {
+				dendroProjects.add(projects.next());
+			}
+		} catch (FedoraProjectListException e) {
 			throw new DccdRepositoryException(e);
+		} finally {
+			projects.close();
 		}
 		return dendroProjects;
 	}
 
-    /**
-	 * Use the Fedora http request to get a xml with the data PID's
-	 * With those we can retrieve the data
-    *
-    * @param limit
-    * @return The xml string with the search result from Fedora
-    * @throws IOException If communication with the server fails
-    */
-   private String getSearchResultAsXMLString(int limit) throws IOException
-   {
-	   	// max results should be bigger than 0
-	   	if (limit < 1) throw new IllegalArgumentException("limit must be 1 or bigger");
-
-	   	String result = "";
-
-		URL fedoraSearch;
-		//BufferedReader in = null;
-		Scanner in = null;
-		StringBuilder response = new StringBuilder();
-		try {
-			//String requestUrlString = "http://dendro01.dans.knaw.nl/fedora/search?query=pid~dccd:*&maxResults=50&xml=true&pid=true&title=true";
-			//String requestUrlString = "http://localhost:8082/fedora/search?query=pid~dccd:*&maxResults=50&xml=true&pid=true&title=true";
-			String requestUrlString = baseURLString + "/search?query=pid~dccd:*&maxResults="+limit+"&xml=true&pid=true&title=true";
-
-			logger.info("request: " + requestUrlString);
-			fedoraSearch = new URL(requestUrlString);
-	        URLConnection fs = fedoraSearch.openConnection();
-	        in = new Scanner(fs.getInputStream());
-	        while (in.hasNextLine()) {
-		        response.append(in.nextLine());
-		        response.append("\n");
-	        }
-		} catch (MalformedURLException e) {
-			// this really should not happen, the url is coded
-			throw new RuntimeException(e);
-		} catch (IOException e) {
-			throw e;
-		}
-		if (in != null) in.close();
-
-		// show response
-		//logger.info("Response: \n" + response.toString());
-		result = response.toString();
-
-   		return result;
-   }
-
-   /** Creates the list with projects specified by the given xml string
-    * The project only have the id and title set and no further data
-    * Create empty list if nothing found
-    *
-    * @param xmlResultString
-    * @return
-    * @throws DocumentException If the input string is incorrect parsing fails
-    */
-   @SuppressWarnings("unchecked")
-private Collection< Project > createProjectListFromXMLResultString(String xmlResultString)
-   	throws DocumentException
-   {
-      	if (xmlResultString == null || xmlResultString.length() == 0) throw new IllegalArgumentException("string must be specified");
-
-		// should be xml from fedora, parse it with dom4j
-   		// and fill the list with projects
-		Collection< Project > dendroProjects = new ArrayList< Project >();
-		Document domDoc;
-		try {
-			domDoc = DocumentHelper.parseText(xmlResultString);//response.toString());
-			Element xmlResult = domDoc.getRootElement();
-			Element xmlResultList = xmlResult.element("resultList");
-
-			// logger.info("root: " + xmlResultList.asXML());
-
-			// get all objectFields
-			for ( Iterator i = xmlResultList.elementIterator( "objectFields" ); i.hasNext(); ) {
-	            Element objectFields = (Element) i.next();
-	            // get id
-	            String id = objectFields.elementText("pid");
-	            // get titel
-	            String title = objectFields.elementText("title");
-	            logger.info("Found Id: " + id + " Title: " + title);
-	            Project dendroProject = new Project( id, title);
-	            dendroProjects.add(dendroProject);
-	        }
-		} catch (DocumentException e) {
-			throw e;
-		}
-
-		return dendroProjects;
-   }
+    /** Iterate over all projects, a page at a time; 
+     * the projects only have the id and title set, like with getDendroProjects. 
+     * Use this for listing a large number of projects
+     * 
+     * @return The iterator, throws FedoraProjectListException when the listing fails
+     */
+    public FedoraProjectListIterator getDendroProjectIterator() {
+    	return new FedoraProjectListIterator(baseURLString, FedoraProjectListIterator.DEFAULT_PAGE_SIZE);
+    }
 
 	/** Get the entityTree for the project, other datastreams are ignored
 	 *
@@ -312,33 +211,17 @@ private Collection< Project > createProjectListFromXMLResultString(String xmlRes
 			throw new DccdRepositoryException(e);
 		}
 
-		String xmlStr = "";
-		try {
-			xmlStr = new String(stream.getStream(), "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new DccdRepositoryException(e);
-		}
-
-		Document documentDom = null;
-		try {
-			documentDom = DocumentHelper.parseText( xmlStr );
-		} catch (DocumentException e) {
-			logger.error("dom4j exception");
-			throw new DccdRepositoryException(e);
-		}
-    	Element treeElement = documentDom.getRootElement();
-
-		// show tree
-		System.out.println("\n--- Begin tree struct ---");
-		System.out.print(treeElement.asXML());
-		System.out.println("\n--- End tree struct ---");
-
 		// create the entity tree
 		// use the tree from the project
 		EntityTree entityTree = project.entityTree;
 
-		//entityTree.buildTree(treeElement);
-		entityTree.setProjectEntity(EntityTreeBuilder.buildTree(treeElement));
+		// Note: build it directly from the bytes, the xml can be megabytes for large projects
+		try {
+			EntityTreeBuilder.buildTree(new ByteArrayInputStream(stream.getStream()), entityTree);
+		} catch (XMLStreamException e) {
+			logger.error("Could not parse the entity tree of: " + id);
+			throw new DccdRepositoryException(e);
+		}
 	}
 
 	/** Get the entity (tridas data from the datastream)
@@ -363,21 +246,17 @@ private Collection< Project > createProjectListFromXMLResultString(String xmlRes
 		}
 		//note should be xml, but we will find out if it's ok
 
-		ByteArrayInputStream input = new ByteArrayInputStream (stream.getStream());
-		// Need UTF-8 because the JAXB want's it for unmarshalling the tridas
-		// note: can I just give a StingInputStream?
-
-		// use JAXB to get the Tridas object
-		JAXBContext jaxbContext = null;
+		// use JAXB to get the Tridas object, directly from the raw bytes
 		Object tridas = null;
+		Unmarshaller unmarshaller = null;
 		try {
-			jaxbContext = getJaxbContextForTridas();//JAXBContext.newInstance("org.tridas.schema");
-			Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-
-			tridas = unmarshaller.unmarshal(input);
+			unmarshaller = TridasJAXBProvider.borrowUnmarshaller();
+			tridas = TridasDom4jBridge.unmarshal(unmarshaller, stream.getStream());
 			entity.setTridasObject(tridas);
 		} catch (JAXBException e) {
 			throw new DccdRepositoryException(e);
+		} finally {
+			TridasJAXBProvider.returnUnmarshaller(unmarshaller);
 		}
 
 	}
@@ -435,6 +314,7 @@ private Collection< Project > createProjectListFromXMLResultString(String xmlRes
 		//ProjectEntity projectEntity = entityTree.getProjectEntity();
 		ProjectEntity projectEntity = EntityTreeBuilder.buildTree(treeElement);
 		entityTree.setProjectEntity(projectEntity);
+		entityTree.setLastEntityId(EntityTreeBuilder.getLastEntityId(treeElement));
 
     	// get all entity streams
 		List<Entity> entities =  entityTree.getEntities();
@@ -445,28 +325,19 @@ private Collection< Project > createProjectListFromXMLResultString(String xmlRes
     		DatastreamVersion entityDatastreamVersion = entityDatastream.getLatestVersion();
     		//byte[] xmlData = entityDatastreamVersion.getBinaryContent();
     		XMLContent xmlEntityContent = entityDatastreamVersion.getXmlContent();
-    		String xmlStr = xmlEntityContent.getElement().asXML();
 
     		// use JAXB to get the Tridas object
-    		JAXBContext jaxbContext = null;
     		Object tridas = null;
+    		Unmarshaller unmarshaller = null;
     		try {
-    			jaxbContext = getJaxbContextForTridas();//JAXBContext.newInstance("org.tridas.schema");
-    			Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-
-    			// This gives UTF-16 probably!
-    			//ByteArrayInputStream input = new ByteArrayInputStream (xmlStr.getBytes());
-
-    			ByteArrayInputStream input = new ByteArrayInputStream (xmlStr.getBytes("UTF-8"));
-    			// Need UTF-8 because the JAXB want's it for unmarshalling the tridas
-    			// note: can I just give a StingInputStream?
-
-    			tridas = unmarshaller.unmarshal(input);
+    			unmarshaller = TridasJAXBProvider.borrowUnmarshaller();
+    			// unmarshal directly from the dom4j element, no XML String in between
+    			tridas = TridasDom4jBridge.unmarshal(unmarshaller, xmlEntityContent.getElement());
     			entity.setTridasObject(tridas);
     		} catch (JAXBException e) {
     			throw new DccdRepositoryException(e);
-    		} catch (UnsupportedEncodingException e) {
-    			throw new DccdRepositoryException(e);
+    		} finally {
+    			TridasJAXBProvider.returnUnmarshaller(unmarshaller);
 			}
      	}
 
@@ -564,11 +435,8 @@ private Collection< Project > createProjectListFromXMLResultString(String xmlRes
 
 			// add entity to the datastreamversion
 			try {
-				String xmlString = entity.getXMLString();
-				// Note: maybe there is to much conversion going on here,
-				// at the end there must be an xml string?
-				Document domDoc = DocumentHelper.parseText(xmlString);
-				Element xmlContent = domDoc.getRootElement();
+				// Note: marshalled directly into dom4j, no xml string to parse
+				Element xmlContent = entity.asElement();
 
 // only for the Project, add a xml:lang attribute
 //if (entity instanceof ProjectEntity) {
@@ -576,8 +444,8 @@ private Collection< Project > createProjectListFromXMLResultString(String xmlRes
 //}
 				//logger.info("dom4j XML: \n"+ xmlContent.asXML());
 				version.setXmlContent(xmlContent);
-			} catch (DocumentException e) {
-				logger.info("Could not parse XML");
+			} catch (XMLSerializationException e) {
+				logger.info("Could not serialize XML");
 				throw new DccdRepositoryException(e);
 			}
 		} // end, for all entities
@@ -21,31 +21,29 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
 import java.util.List;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.ValidationEvent;
 import javax.xml.bind.ValidationEventHandler;
 import javax.xml.bind.ValidationEventLocator;
+import javax.xml.bind.util.JAXBSource;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 
 import nl.knaw.dans.dccd.application.services.DataServiceException;
 import nl.knaw.dans.dccd.application.services.DccdDataService;
 import nl.knaw.dans.dccd.model.InternalErrorException;
 import nl.knaw.dans.dccd.model.Project;
-import nl.knaw.dans.dccd.tridas.TridasNamespacePrefixMapper;
+import nl.knaw.dans.dccd.tridas.TridasJAXBProvider;
+import nl.knaw.dans.dccd.tridas.TridasSchemaCache;
 
 import org.apache.log4j.Logger;
 import org.tridas.schema.TridasProject;
 import org.tridas.schema.TridasTridas;
 import org.tridas.schema.TridasVocabulary;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * TriDaS XML is an external file format that we need to convert to and from the DCCD Project.
@@ -56,58 +54,38 @@ public class XMLFilesRepositoryService //implements DccdRepositoryService
 	public static final String TRIDAS_XML_CHARSET = "UTF-8";// maybe even on a global level?
 	private static Logger logger = Logger.getLogger(XMLFilesRepositoryService.class);
 
+	/**
+	 * Validate the TRiDaS of the project against the (cached) tridas.xsd schema. 
+	 * The project is streamed into the validator by JAXB, no xml output is produced.
+	 * 
+	 * @param project
+	 * @throws TridasValidationException
+	 *         when not valid, the cause has the (first) validation error
+	 */
 	public static void validateAgainstTridasSchema(final Project project) throws TridasValidationException
 	{
-		// initialize validation, Schema validation in JAXB 2.0 is performed using JAXP 1.3
-		Schema schema = null;
-		try 
-		{
-			SchemaFactory sf = SchemaFactory.newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			// Note: couldn't get ClassLoader.getSystemResource working on the server
-			// resource loading probably has to do with the classpath...
-			URL schemaUrl = Thread.currentThread().getContextClassLoader().getResource("tridas.xsd");
-			schema = sf.newSchema(schemaUrl);
-		} 
-		catch (IllegalArgumentException e) 
-		{
-			// this is an internal error, the schema should be available!
-			logger.error("Could not initialize schema validation");
-			throw (new InternalErrorException(e));
-		} 
-		catch (SAXException e) 
-		{
-			// this is an internal error, the schema should be available!
-			logger.error("Could not initialize schema validation");
-			throw (new InternalErrorException(e));
-		}
-
 		try
 		{
-    		JAXBContext jaxbContext = JAXBContext.newInstance("org.tridas.schema");
-            Marshaller marshaller = jaxbContext.createMarshaller();
-            marshaller.setSchema(schema);
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, TRIDAS_XML_CHARSET);
-			// improve readability
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			
-			// change the namespace mapping
-			// changed with Java6 ? "com.sun.xml.internal.bind.marshaller.NamespacePrefixMapper"
-			marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", new TridasNamespacePrefixMapper());
-            
-			marshaller.marshal(project.getTridasTridas(), new DefaultHandler()); // no output!
+			JAXBSource source = new JAXBSource(TridasJAXBProvider.getContext(), project.getTridasTridas());
+			TridasSchemaCache.validate(TridasSchemaCache.TRIDAS_SCHEMA, source);
 		}
 		catch (JAXBException e)
 		{
-			//logger.error("JAXB could not marshal the project, Not conform the TRiDaS Standard");//, e);
-			//
-			//e.printStackTrace();
 			Throwable linkedException = e.getLinkedException();
-			
+			throw new TridasValidationException("Not conform the TRiDaS Standard", 
+					linkedException!=null?linkedException:e);
+		}
+		catch (SAXException e)
+		{
 			// Note: throwing an exception here is not 'good practice', 
 			// because when validating we can expect invalidness. 
 			// But this was the simples way to handle it.
-			throw new TridasValidationException("Not conform the TRiDaS Standard", 
-					linkedException!=null?linkedException:e);
+			throw new TridasValidationException("Not conform the TRiDaS Standard", e);
+		}
+		catch (IOException e)
+		{
+			// nothing is read from a file or network, so this should not happen
+			throw new InternalErrorException(e);
 		}
 	}
 	
@@ -126,16 +104,7 @@ public class XMLFilesRepositoryService //implements DccdRepositoryService
 		{
 			fos = new FileOutputStream(file);
 
-			JAXBContext jaxbContext = null;
-			jaxbContext = JAXBContext.newInstance("org.tridas.schema");
-			Marshaller marshaller = jaxbContext.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, TRIDAS_XML_CHARSET);
-			// improve readability
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			
-			// change the namespace mapping
-			// changed with Java6 ? "com.sun.xml.internal.bind.marshaller.NamespacePrefixMapper"
-			marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", new TridasNamespacePrefixMapper());
+			Marshaller marshaller = TridasJAXBProvider.createMarshaller(false);
 
 			//marshaller.marshal(project.getTridas(), fos);
 			marshaller.marshal(project.getTridasTridas(), fos); // always the Tridas as root element
@@ -173,37 +142,12 @@ public class XMLFilesRepositoryService //implements DccdRepositoryService
 	public static Project getDendroProjectFromTridasXML(InputStream is) throws TridasLoadException {
 		Project project = null;
 
-		// initialize validation, Schema validation in JAXB 2.0 is performed using JAXP 1.3
-		Schema schema = null;
-		try {
-			SchemaFactory sf = SchemaFactory.newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			//schema = sf.newSchema(ClassLoader.getSystemResource("tridas.xsd"));
-			// Note: couldn't get this working on the server
-			// resource loading probably has to do with the classpath...
-			//
-			// ? http://www.tridas.org/1.2/tridas.xsd
-			//URL schemaUrl = new URL("http://www.tridas.org/1.2/tridas.xsd");
-			// however, now our code fails if the tridas server is down ;-)
-			//URL schemaUrl = ClassLoader.getSystemResource("tridas.xsd");
-			//URL schemaUrl = XMLFilesRepositoryService.class.getClassLoader().getResource("tridas.xsd");
-			URL schemaUrl = Thread.currentThread().getContextClassLoader().getResource("tridas.xsd");
-
-			schema = sf.newSchema(schemaUrl);
-		} catch (IllegalArgumentException e) {
-			logger.error("Could not initialize schema validation");//, e);
-			throw (new InternalErrorException(e));
-		} catch (SAXException e) {
-			// this is an internal error, the schema should be available!
-			logger.error("Could not initialize schema validation");//, e);
-			throw (new InternalErrorException(e));
-//		} catch (MalformedURLException e) {
-//			logger.error("Could not initialize schema validation");//, e);
-//			throw (new DccdInternalErrorException(e));
-		}
+		// compiled only once
+		Schema schema = TridasSchemaCache.getSchema(TridasSchemaCache.TRIDAS_SCHEMA);
 
 		try {
-			JAXBContext jaxbContext = JAXBContext.newInstance("org.tridas.schema");
-			Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+			// Note: not borrowed from the pool, it gets a schema and event handler
+			Unmarshaller unmarshaller = TridasJAXBProvider.getContext().createUnmarshaller();
 			unmarshaller.setSchema(schema);
 			// Note: with our own event handler we could give more detailed information!
 			unmarshaller.setEventHandler(new ValidationEventHandler() {
@@ -322,39 +266,14 @@ public class XMLFilesRepositoryService //implements DccdRepositoryService
 	{
 		Object object = null;
 		
-		// initialize validation, Schema validation in JAXB 2.0 is performed using JAXP 1.3
-		Schema schema = null;
-		try
-		{
-			SchemaFactory sf = SchemaFactory.newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			//schema = sf.newSchema(ClassLoader.getSystemResource("tridas.xsd"));
-			// Note: couldn't get this working on the server
-			// resource loading probably has to do with the classpath...
-		    //
-			//Changed to version 1.2.1
-			//URL schemaUrl = Thread.currentThread().getContextClassLoader().getResource("tridas.xsd");
-			//URL schemaUrl = Thread.currentThread().getContextClassLoader().getResource("tridas-1.2.1.xsd");
-			//Changed to version 1.2.2
-			URL schemaUrl = Thread.currentThread().getContextClassLoader().getResource("tridas-1.2.2.xsd");
-
-			schema = sf.newSchema(schemaUrl);
-		}
-		catch (IllegalArgumentException e)
-		{
-			logger.error("Could not initialize schema validation");//, e);
-			throw (new InternalErrorException(e));
-		}
-		catch (SAXException e)
-		{
-			// this is an internal error, the schema should be available!
-			logger.error("Could not initialize schema validation");//, e);
-			throw (new InternalErrorException(e));
-		}
+		// compiled only once
+		//Changed to version 1.2.2
+		Schema schema = TridasSchemaCache.getSchema(TridasSchemaCache.TRIDAS_1_2_2_SCHEMA);
 
 		try
 		{
-			JAXBContext jaxbContext = JAXBContext.newInstance("org.tridas.schema");
-			Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+			// Note: not borrowed from the pool, it gets a schema and event handler
+			Unmarshaller unmarshaller = TridasJAXBProvider.getContext().createUnmarshaller();
 			unmarshaller.setSchema(schema);
 			// Note: with our own event handler we could give more detailed information!
 			unmarshaller.setEventHandler(new ValidationEventHandler()
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.search;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nl.knaw.dans.common.lang.search.bean.annotation.SearchField;
+import nl.knaw.dans.dccd.model.entities.Entity;
+
+import org.joda.time.DateTime;
+
+/**
+ * Accumulates the values of the multi-valued fields of a DccdSB, 
+ * for filling one bean with the information of many entities. 
+ * 
+ * The values are appended to a list per field that is created (with the expected size) 
+ * on the first value, and the lists are set on the bean once with build(); 
+ * so there is no get, null-check and set for each field of each entity. 
+ * The fields are the constants of DccdSBField, like DccdSBField.TRIDAS_ELEMENT_TITLE, 
+ * and the values are added with the add method of their type. 
+ * Like the fillers that set the lists on the bean themselves, 
+ * the fields of an included entity class get an empty list when no values are added, see include(). 
+ * Single valued fields are set on the bean directly, see getSearchBean().
+ * 
+ * Note: not thread safe, a builder is used for one bean at a time.
+ */
+public class DccdSBBuilder
+{
+	public static final int DEFAULT_EXPECTED_VALUES = 4;
+
+	static
+	{
+		// the accessors of DccdSBField are used, check that they cover all multi-valued fields
+		int listFieldCount = 0;
+		for (Field field : DccdSB.class.getDeclaredFields())
+		{
+			SearchField searchField = field.getAnnotation(SearchField.class);
+			if (searchField == null || !List.class.equals(field.getType()))
+				continue;
+			Type type = field.getGenericType();
+			if (!(type instanceof ParameterizedType))
+				continue;
+			Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+			DccdSBField listField = DccdSBField.forName(searchField.name());
+			if (listField == null || !listField.getValueClass().equals(elementType))
+				throw new IllegalStateException("No DccdSBField for the multi-valued search field " 
+						+ searchField.name() + " of " + elementType);
+			listFieldCount++;
+		}
+		if (listFieldCount != DccdSBField.values().length)
+			throw new IllegalStateException("Not all DccdSBFields are multi-valued search fields of DccdSB");
+	}
+
+	private final DccdSB searchBean;
+	private final int expectedValues;
+	private final Map<Class<? extends Entity>, Integer> expectedEntities;
+	private final Map<DccdSBField, List<Object>> values = new EnumMap<DccdSBField, List<Object>>(DccdSBField.class);
+	// the entity classes whose fields get an empty list when they have no values
+	private final Set<Class<? extends Entity>> included = new HashSet<Class<? extends Entity>>();
+	private boolean built = false;
+
+	public DccdSBBuilder(DccdSB searchBean)
+	{
+		this(searchBean, DEFAULT_EXPECTED_VALUES);
+	}
+
+	/**
+	 * @param searchBean
+	 *        the bean to fill
+	 * @param expectedValues
+	 *        the initial capacity of the list of a field, 
+	 *        like the number of entities that could add a value
+	 */
+	public DccdSBBuilder(DccdSB searchBean, int expectedValues)
+	{
+		this(searchBean, expectedValues, Collections.<Class<? extends Entity>, Integer> emptyMap());
+	}
+
+	/**
+	 * The list of a field is sized for the number of entities that add its values, 
+	 * see DccdSBField.getEntityClass()
+	 * 
+	 * @param searchBean
+	 *        the bean to fill
+	 * @param expectedEntities
+	 *        the number of entities per entity class, like ProjectStatistics.getEntityCounts()
+	 */
+	public DccdSBBuilder(DccdSB searchBean, Map<Class<? extends Entity>, Integer> expectedEntities)
+	{
+		this(searchBean, DEFAULT_EXPECTED_VALUES, expectedEntities);
+	}
+
+	private DccdSBBuilder(DccdSB searchBean, int expectedValues, Map<Class<? extends Entity>, Integer> expectedEntities)
+	{
+		if (searchBean == null)
+			throw new IllegalArgumentException("searchBean must be specified");
+		if (expectedValues < 1)
+			throw new IllegalArgumentException("expectedValues must be 1 or bigger");
+		if (expectedEntities == null)
+			throw new IllegalArgumentException("expectedEntities must be specified");
+		this.searchBean = searchBean;
+		this.expectedValues = expectedValues;
+		this.expectedEntities = expectedEntities;
+	}
+
+	/**
+	 * @return The bean, for setting the single valued fields; 
+	 * the multi-valued fields of the bean are complete after build()
+	 */
+	public DccdSB getSearchBean()
+	{
+		return searchBean;
+	}
+
+	/**
+	 * Append a value to a multi-valued field with String values
+	 * 
+	 * @param field
+	 *        the field, like DccdSBField.TRIDAS_ELEMENT_TITLE
+	 * @param value
+	 * @return This builder
+	 */
+	public DccdSBBuilder add(DccdSBField field, String value)
+	{
+		return addValue(field, String.class, value);
+	}
+
+	/**
+	 * Append a value to a multi-valued field with Integer values
+	 * 
+	 * @param field
+	 *        the field, like DccdSBField.TRIDAS_ELEMENT_SLOPE_ANGLE
+	 * @param value
+	 * @return This builder
+	 */
+	public DccdSBBuilder add(DccdSBField field, Integer value)
+	{
+		return addValue(field, Integer.class, value);
+	}
+
+	/**
+	 * Append a value to a multi-valued field with Double values
+	 * 
+	 * @param field
+	 *        the field, like DccdSBField.TRIDAS_ELEMENT_ALTITUDE
+	 * @param value
+	 * @return This builder
+	 */
+	public DccdSBBuilder add(DccdSBField field, Double value)
+	{
+		return addValue(field, Double.class, value);
+	}
+
+	/**
+	 * Append a value to a multi-valued field with DateTime values
+	 * 
+	 * @param field
+	 *        the field, like DccdSBField.TRIDAS_SAMPLE_SAMPLINGDATE
+	 * @param value
+	 * @return This builder
+	 */
+	public DccdSBBuilder add(DccdSBField field, DateTime value)
+	{
+		return addValue(field, DateTime.class, value);
+	}
+
+	/**
+	 * The multi-valued fields of the entity class get an empty list on build() when no values are added, 
+	 * as the fillers did that set them on the bean; called by the entities that fill the bean
+	 * 
+	 * @param entityClass
+	 *        the class of the entity, see DccdSBField.getEntityClass()
+	 * @return This builder
+	 */
+	public DccdSBBuilder include(Class<? extends Entity> entityClass)
+	{
+		if (built)
+			throw new IllegalStateException("The search bean is built already");
+		included.add(entityClass);
+		return this;
+	}
+
+	private DccdSBBuilder addValue(DccdSBField field, Class<?> valueClass, Object value)
+	{
+		if (built)
+			throw new IllegalStateException("The search bean is built already");
+		if (!field.getValueClass().equals(valueClass))
+			throw new IllegalArgumentException("Values of " + field.getName() + " are not a " 
+					+ valueClass.getName() + " but a " + field.getValueClass().getName());
+
+		getValues(field).add(value);
+		return this;
+	}
+
+	/**
+	 * Add the values of all search fields that are set on the given bean; 
+	 * the values of multi-valued fields are appended, 
+	 * the single valued fields are set on the bean of this builder. 
+	 * For copying the information that is the same for many beans, filled only once.
+	 * 
+	 * @param template
+	 *        the bean with the values
+	 * @return This builder
+	 */
+	public DccdSBBuilder addAll(DccdSB template)
+	{
+		if (built)
+			throw new IllegalStateException("The search bean is built already");
+
+		for (DccdSBField field : DccdSBField.values())
+		{
+			// Note: an empty list is copied as well
+			List<?> templateValues = field.get(template);
+			if (templateValues != null)
+				getValues(field).addAll(templateValues);
+		}
+		copySingleValues(template);
+		return this;
+	}
+
+	// the single valued search fields, TestDccdSBBuilder checks that all are copied
+	private void copySingleValues(DccdSB template)
+	{
+		if (template.getId() != null)
+			searchBean.setId(template.getId());
+		if (template.getPid() != null)
+			searchBean.setPid(template.getPid());
+		if (template.getDatastreamId() != null)
+			searchBean.setDatastreamId(template.getDatastreamId());
+		if (template.getOwnerId() != null)
+			searchBean.setOwnerId(template.getOwnerId());
+		if (template.getAdministrativeState() != null)
+			searchBean.setAdministrativeState(template.getAdministrativeState());
+		if (template.getAdministrativeStateLastChange() != null)
+			searchBean.setAdministrativeStateLastChange(template.getAdministrativeStateLastChange());
+		if (template.getPermissionDefaultLevel() != null)
+			searchBean.setPermissionDefaultLevel(template.getPermissionDefaultLevel());
+		if (template.getTridasProjectIdentifierDomainExact() != null)
+			searchBean.setTridasProjectIdentifierDomainExact(template.getTridasProjectIdentifierDomainExact());
+		if (template.getTridasProjectIdentifierExact() != null)
+			searchBean.setTridasProjectIdentifierExact(template.getTridasProjectIdentifierExact());
+		if (template.getTridasProjectIdentifierDomain() != null)
+			searchBean.setTridasProjectIdentifierDomain(template.getTridasProjectIdentifierDomain());
+		if (template.getTridasProjectTitle() != null)
+			searchBean.setTridasProjectTitle(template.getTridasProjectTitle());
+		if (template.getTridasProjectIdentifier() != null)
+			searchBean.setTridasProjectIdentifier(template.getTridasProjectIdentifier());
+		if (template.getTridasProjectComments() != null)
+			searchBean.setTridasProjectComments(template.getTridasProjectComments());
+		if (template.getTridasProjectDescription() != null)
+			searchBean.setTridasProjectDescription(template.getTridasProjectDescription());
+		if (template.getTridasProjectCategory() != null)
+			searchBean.setTridasProjectCategory(template.getTridasProjectCategory());
+		if (template.getTridasProjectCategoryNormal() != null)
+			searchBean.setTridasProjectCategoryNormal(template.getTridasProjectCategoryNormal());
+		if (template.getTridasProjectCategoryNormaltridas() != null)
+			searchBean.setTridasProjectCategoryNormaltridas(template.getTridasProjectCategoryNormaltridas());
+		if (template.getTridasProjectInvestigator() != null)
+			searchBean.setTridasProjectInvestigator(template.getTridasProjectInvestigator());
+		if (template.getTridasProjectPeriod() != null)
+			searchBean.setTridasProjectPeriod(template.getTridasProjectPeriod());
+		if (template.getLat() != null)
+			searchBean.setLat(template.getLat());
+		if (template.getLng() != null)
+			searchBean.setLng(template.getLng());
+	}
+
+	private List<Object> getValues(DccdSBField field)
+	{
+		List<Object> list = values.get(field);
+		if (list == null)
+		{
+			list = new ArrayList<Object>(getExpectedValues(field));
+			values.put(field, list);
+		}
+		return list;
+	}
+
+	private int getExpectedValues(DccdSBField field)
+	{
+		Integer count = expectedEntities.get(field.getEntityClass());
+		return (count == null || count < 1) ? expectedValues : count;
+	}
+
+	/**
+	 * @param field
+	 * @return The number of values added to the field by this builder
+	 */
+	public int getCount(DccdSBField field)
+	{
+		List<Object> list = values.get(field);
+		return (list == null) ? 0 : list.size();
+	}
+
+	/**
+	 * Set the accumulated lists on the bean; 
+	 * values that the bean had already for a field are kept in front of the added ones 
+	 * and the fields of the included entity classes without values get an empty list. 
+	 * The builder can not be used after this.
+	 * 
+	 * @return The bean
+	 */
+	public DccdSB build()
+	{
+		if (built)
+			throw new IllegalStateException("The search bean is built already");
+		built = true;
+
+		for (DccdSBField field : DccdSBField.values())
+		{
+			List<Object> list = values.get(field);
+			List<?> previous = field.get(searchBean);
+			if (list == null)
+			{
+				if (previous == null && included.contains(field.getEntityClass()))
+					field.set(searchBean, new ArrayList<Object>(0));
+				continue;
+			}
+
+			if (previous != null && !previous.isEmpty())
+			{
+				List<Object> merged = new ArrayList<Object>(previous.size() + list.size());
+				merged.addAll(previous);
+				merged.addAll(list);
+				list = merged;
+			}
+			field.set(searchBean, list);
+		}
+		return searchBean;
+	}
+}
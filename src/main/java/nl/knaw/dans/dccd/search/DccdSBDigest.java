@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.search;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nl.knaw.dans.common.lang.search.bean.annotation.SearchField;
+import nl.knaw.dans.dccd.model.InternalErrorException;
+
+/**
+ * Digest of the indexed content of a search bean, 
+ * for detecting which beans changed since they were sent to the search index. 
+ * Only the fields with a SearchField annotation are used, 
+ * the name of the bean class is included because it determines the type of document. 
+ * 
+ * Note: the digests are only compared within a running application, 
+ * they are not meant to be stored.
+ */
+public class DccdSBDigest
+{
+	public static final String ALGORITHM = "SHA-1";
+
+	private static final String CHARSET = "UTF-8";
+
+	// the search fields of each bean class, sorted by name
+	private static final ConcurrentMap<Class<?>, List<Field>> fieldsMap = new ConcurrentHashMap<Class<?>, List<Field>>();
+
+	private DccdSBDigest()
+	{
+		// only static methods
+	}
+
+	/**
+	 * @param bean
+	 *        the search bean
+	 * @return The digest of the bean
+	 */
+	public static byte[] digest(DccdSB bean)
+	{
+		MessageDigest messageDigest = createMessageDigest();
+		update(messageDigest, bean.getClass().getName());
+		for (Field field : getSearchFields(bean.getClass()))
+		{
+			Object value;
+			try
+			{
+				value = field.get(bean);
+			}
+			catch (IllegalAccessException e)
+			{
+				// this really should not happen, the fields are made accessible
+				throw new InternalErrorException(e);
+			}
+			if (value == null)
+				continue;
+
+			update(messageDigest, field.getName());
+			if (value instanceof Collection)
+			{
+				Collection<?> values = (Collection<?>) value;
+				messageDigest.update(toBytes(values.size()));
+				for (Object element : values)
+					update(messageDigest, String.valueOf(element));
+			}
+			else
+			{
+				update(messageDigest, String.valueOf(value));
+			}
+		}
+		return messageDigest.digest();
+	}
+
+	// length prefixed, so different values can never give the same bytes
+	private static void update(MessageDigest messageDigest, String value)
+	{
+		try
+		{
+			byte[] bytes = value.getBytes(CHARSET);
+			messageDigest.update(toBytes(bytes.length));
+			messageDigest.update(bytes);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// this really should not happen, the encoding must be UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static byte[] toBytes(int value)
+	{
+		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+	}
+
+	private static List<Field> getSearchFields(Class<?> beanClass)
+	{
+		List<Field> fields = fieldsMap.get(beanClass);
+		if (fields == null)
+		{
+			fields = new ArrayList<Field>();
+			for (Class<?> c = beanClass; c != null && c != Object.class; c = c.getSuperclass())
+			{
+				for (Field field : c.getDeclaredFields())
+				{
+					if (field.isAnnotationPresent(SearchField.class))
+					{
+						field.setAccessible(true);
+						fields.add(field);
+					}
+				}
+			}
+			// Note: the order of getDeclaredFields is not specified
+			Collections.sort(fields, new Comparator<Field>()
+			{
+				public int compare(Field f1, Field f2)
+				{
+					return f1.getName().compareTo(f2.getName());
+				}
+			});
+			fields = Collections.unmodifiableList(fields);
+			fieldsMap.putIfAbsent(beanClass, fields);
+		}
+		return fields;
+	}
+
+	private static MessageDigest createMessageDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// this really should not happen, every JVM must have it
+			throw new InternalErrorException(e);
+		}
+	}
+}
@@ -0,0 +1,939 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.search;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.dccd.model.entities.ElementEntity;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.model.entities.ObjectEntity;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.model.entities.RadiusEntity;
+import nl.knaw.dans.dccd.model.entities.SampleEntity;
+
+import org.joda.time.DateTime;
+
+/**
+ * The multi-valued search fields of a DccdSB, 
+ * with the type of their values, the entities that add them and the accessors of the bean; 
+ * for filling beans with a DccdSBBuilder without reflection. 
+ * 
+ * Note: each multi-valued field of DccdSB must have a constant here, DccdSBBuilder checks this.
+ */
+public enum DccdSBField
+{
+	TRIDAS_OBJECT_TITLE(DccdSB.TRIDAS_OBJECT_TITLE_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectTitle();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectTitle(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_LABORATORY_COMBINED(DccdSB.TRIDAS_PROJECT_LABORATORY_COMBINED_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectLaboratoryCombined();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectLaboratoryCombined(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_TYPE(DccdSB.TRIDAS_PROJECT_TYPE_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectType();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectType(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_TYPE_NORMAL(DccdSB.TRIDAS_PROJECT_TYPE_NORMAL_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectTypeNormal();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectTypeNormal(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_LABORATORY_NAME(DccdSB.TRIDAS_PROJECT_LABORATORY_NAME_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectLaboratoryName();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectLaboratoryName(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_LABORATORY_NAME_ACRONYM(DccdSB.TRIDAS_PROJECT_LABORATORY_NAME_ACRONYM_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectLaboratoryNameAcronym();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectLaboratoryNameAcronym(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_LABORATORY_ADDRESS_CITYORTOWN(DccdSB.TRIDAS_PROJECT_LABORATORY_ADDRESS_CITYORTOWN_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectLaboratoryAddressCityortown();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectLaboratoryAddressCityortown(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_LABORATORY_ADDRESS_COUNTRY(DccdSB.TRIDAS_PROJECT_LABORATORY_ADDRESS_COUNTRY_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectLaboratoryAddressCountry();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectLaboratoryAddressCountry(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_RESEARCH_IDENTIFIER(DccdSB.TRIDAS_PROJECT_RESEARCH_IDENTIFIER_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectResearchIdentifier();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectResearchIdentifier(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_RESEARCH_IDENTIFIER_DOMAIN(DccdSB.TRIDAS_PROJECT_RESEARCH_IDENTIFIER_DOMAIN_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectResearchIdentifierDomain();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectResearchIdentifierDomain(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_PROJECT_RESEARCH_DESCRIPTION(DccdSB.TRIDAS_PROJECT_RESEARCH_DESCRIPTION_NAME, String.class, ProjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasProjectResearchDescription();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasProjectResearchDescription(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_IDENTIFIER(DccdSB.TRIDAS_OBJECT_IDENTIFIER_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectIdentifier();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectIdentifier(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_COMMENTS(DccdSB.TRIDAS_OBJECT_COMMENTS_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectComments();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectComments(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_TYPE(DccdSB.TRIDAS_OBJECT_TYPE_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectType();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectType(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_TYPE_NORMAL(DccdSB.TRIDAS_OBJECT_TYPE_NORMAL_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectTypeNormal();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectTypeNormal(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_DESCRIPTION(DccdSB.TRIDAS_OBJECT_DESCRIPTION_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectDescription();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectDescription(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_CREATOR(DccdSB.TRIDAS_OBJECT_CREATOR_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectCreator();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectCreator(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_COVERAGE_COVERAGETEMPORALFOUNDATION(DccdSB.TRIDAS_OBJECT_COVERAGE_COVERAGETEMPORALFOUNDATION_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectCoverageCoveragetemporalfoundation();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectCoverageCoveragetemporalfoundation(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_LOCATION_LOCATIONTYPE(DccdSB.TRIDAS_OBJECT_LOCATION_LOCATIONTYPE_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectLocationLocationtype();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectLocationLocationtype(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_LOCATION_LOCATIONCOMMENT(DccdSB.TRIDAS_OBJECT_LOCATION_LOCATIONCOMMENT_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectLocationLocationcomment();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectLocationLocationcomment(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_OBJECT_GENERICFIELD(DccdSB.TRIDAS_OBJECT_GENERICFIELD_NAME, String.class, ObjectEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasObjectGenericfield();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasObjectGenericfield(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_TITLE(DccdSB.TRIDAS_ELEMENT_TITLE_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementTitle();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementTitle(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_IDENTIFIER(DccdSB.TRIDAS_ELEMENT_IDENTIFIER_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementIdentifier();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementIdentifier(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_TYPE(DccdSB.TRIDAS_ELEMENT_TYPE_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementType();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementType(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_TYPE_NORMAL(DccdSB.TRIDAS_ELEMENT_TYPE_NORMAL_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementTypeNormal();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementTypeNormal(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_DESCRIPTION(DccdSB.TRIDAS_ELEMENT_DESCRIPTION_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementDescription();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementDescription(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_TAXON(DccdSB.TRIDAS_ELEMENT_TAXON_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementTaxon();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementTaxon(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_SHAPE(DccdSB.TRIDAS_ELEMENT_SHAPE_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementShape();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementShape(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_ALTITUDE(DccdSB.TRIDAS_ELEMENT_ALTITUDE_NAME, Double.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementAltitude();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementAltitude(DccdSBField.<Double> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_SLOPE_ANGLE(DccdSB.TRIDAS_ELEMENT_SLOPE_ANGLE_NAME, Integer.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementSlopeAngle();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementSlopeAngle(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_SLOPE_AZIMUTH(DccdSB.TRIDAS_ELEMENT_SLOPE_AZIMUTH_NAME, Integer.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementSlopeAzimuth();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementSlopeAzimuth(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_SOIL_DESCRIPTION(DccdSB.TRIDAS_ELEMENT_SOIL_DESCRIPTION_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementSoilDescription();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementSoilDescription(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_SOIL_DEPTH(DccdSB.TRIDAS_ELEMENT_SOIL_DEPTH_NAME, Double.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementSoilDepth();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementSoilDepth(DccdSBField.<Double> cast(values));
+		}
+	},
+	TRIDAS_ELEMENT_BEDROCK_DESCRIPTION(DccdSB.TRIDAS_ELEMENT_BEDROCK_DESCRIPTION_NAME, String.class, ElementEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasElementBedrockDescription();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasElementBedrockDescription(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_SAMPLE_TITLE(DccdSB.TRIDAS_SAMPLE_TITLE_NAME, String.class, SampleEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasSampleTitle();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasSampleTitle(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_SAMPLE_IDENTIFIER(DccdSB.TRIDAS_SAMPLE_IDENTIFIER_NAME, String.class, SampleEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasSampleIdentifier();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasSampleIdentifier(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_SAMPLE_TYPE(DccdSB.TRIDAS_SAMPLE_TYPE_NAME, String.class, SampleEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasSampleType();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasSampleType(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_SAMPLE_TYPE_NORMAL(DccdSB.TRIDAS_SAMPLE_TYPE_NORMAL_NAME, String.class, SampleEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasSampleTypeNormal();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasSampleTypeNormal(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_SAMPLE_SAMPLINGDATE(DccdSB.TRIDAS_SAMPLE_SAMPLINGDATE_NAME, DateTime.class, SampleEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasSampleSamplingdate();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasSampleSamplingdate(DccdSBField.<DateTime> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_TITLE(DccdSB.TRIDAS_RADIUS_TITLE_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusTitle();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusTitle(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_IDENTIFIER(DccdSB.TRIDAS_RADIUS_IDENTIFIER_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusIdentifier();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusIdentifier(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_PITH(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_PITH_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessPith();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessPith(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessHeartwood();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessHeartwood(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITH(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITH_NAME, Integer.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopith(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITHFOUNDATION(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_HEARTWOOD_MISSINGHEARTWOODRINGSTOPITHFOUNDATION_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessHeartwoodMissingheartwoodringstopithfoundation(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessSapwood();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessSapwood(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_NROFSAPWOODRINGS(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_NROFSAPWOODRINGS_NAME, Integer.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessSapwoodNrofsapwoodrings();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessSapwoodNrofsapwoodrings(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARK(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARK_NAME, Integer.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobark(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARKFOUNDATION(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_MISSINGSAPWOODRINGSTOBARKFOUNDATION_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessSapwoodMissingsapwoodringstobarkfoundation(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_LASTRINGUNDERBARK(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_SAPWOOD_LASTRINGUNDERBARK_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessSapwoodLastringunderbark();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessSapwoodLastringunderbark(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_RADIUS_WOODCOMPLETENESS_BARK(DccdSB.TRIDAS_RADIUS_WOODCOMPLETENESS_BARK_NAME, String.class, RadiusEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasRadiusWoodcompletenessBark();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasRadiusWoodcompletenessBark(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_TITLE(DccdSB.TRIDAS_MEASUREMENTSERIES_TITLE_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesTitle();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesTitle(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_IDENTIFIER(DccdSB.TRIDAS_MEASUREMENTSERIES_IDENTIFIER_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesIdentifier();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesIdentifier(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_ANALYST(DccdSB.TRIDAS_MEASUREMENTSERIES_ANALYST_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesAnalyst();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesAnalyst(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_DENDROCHRONOLOGIST(DccdSB.TRIDAS_MEASUREMENTSERIES_DENDROCHRONOLOGIST_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesDendrochronologist();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesDendrochronologist(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_MEASURINGDATE(DccdSB.TRIDAS_MEASUREMENTSERIES_MEASURINGDATE_NAME, DateTime.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesMeasuringdate();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesMeasuringdate(DccdSBField.<DateTime> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_MEASURINGMETHOD(DccdSB.TRIDAS_MEASUREMENTSERIES_MEASURINGMETHOD_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesMeasuringmethod();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesMeasuringmethod(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_MEASURINGMETHOD_NORMAL(DccdSB.TRIDAS_MEASUREMENTSERIES_MEASURINGMETHOD_NORMAL_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesMeasuringmethodNormal();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesMeasuringmethodNormal(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_PROVENANCE(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_PROVENANCE_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationProvenance();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationProvenance(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_DEATHYEAR(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_DEATHYEAR_NAME, Integer.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationDeathyear();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationDeathyear(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_FIRSTYEAR(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_FIRSTYEAR_NAME, Integer.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationFirstyear();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationFirstyear(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_LASTYEAR(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_LASTYEAR_NAME, Integer.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationLastyear();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationLastyear(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_PITHYEAR(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_PITHYEAR_NAME, Integer.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationPithyear();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationPithyear(DccdSBField.<Integer> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_STATVALUE(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_STATVALUE_NAME, Double.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationStatfoundationStatvalue();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationStatfoundationStatvalue(DccdSBField.<Double> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_USEDSOFTWARE(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_USEDSOFTWARE_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationStatfoundationUsedsoftware();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationStatfoundationUsedsoftware(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_TYPE(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_TYPE_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationStatfoundationType();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationStatfoundationType(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_TYPE_NORMAL(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_TYPE_NORMAL_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationStatfoundationTypeNormal();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationStatfoundationTypeNormal(DccdSBField.<String> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_SIGNIFICANCELEVEL(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATION_STATFOUNDATION_SIGNIFICANCELEVEL_NAME, Double.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationStatfoundationSignificancelevel();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationStatfoundationSignificancelevel(DccdSBField.<Double> cast(values));
+		}
+	},
+	TRIDAS_MEASUREMENTSERIES_INTERPRETATIONUNSOLVED(DccdSB.TRIDAS_MEASUREMENTSERIES_INTERPRETATIONUNSOLVED_NAME, String.class, MeasurementSeriesEntity.class)
+	{
+		List<?> get(DccdSB bean)
+		{
+			return bean.getTridasMeasurementseriesInterpretationunsolved();
+		}
+
+		void set(DccdSB bean, List<Object> values)
+		{
+			bean.setTridasMeasurementseriesInterpretationunsolved(DccdSBField.<String> cast(values));
+		}
+	};
+
+	private static final Map<String, DccdSBField> byName = new HashMap<String, DccdSBField>();
+
+	static
+	{
+		for (DccdSBField field : values())
+			byName.put(field.name, field);
+	}
+
+	private final String name;
+	private final Class<?> valueClass;
+	private final Class<? extends Entity> entityClass;
+
+	private DccdSBField(String name, Class<?> valueClass, Class<? extends Entity> entityClass)
+	{
+		this.name = name;
+		this.valueClass = valueClass;
+		this.entityClass = entityClass;
+	}
+
+	/**
+	 * @return The (Solr) search field name, like DccdSB.TRIDAS_ELEMENT_TITLE_NAME
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return The class of the values
+	 */
+	public Class<?> getValueClass()
+	{
+		return valueClass;
+	}
+
+	/**
+	 * @return The class of the entities that add values, about one value per entity
+	 */
+	public Class<? extends Entity> getEntityClass()
+	{
+		return entityClass;
+	}
+
+	/**
+	 * @return The values of this field of the bean
+	 */
+	abstract List<?> get(DccdSB bean);
+
+	/**
+	 * Set the values of this field on the bean, the values must be of the value class
+	 */
+	abstract void set(DccdSB bean, List<Object> values);
+
+	// the builder checks the class of each value that is added
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> cast(List<Object> values)
+	{
+		return (List<T>) (List<?>) values;
+	}
+
+	/**
+	 * @param name
+	 *        the search field name
+	 * @return The field or null if there is no multi-valued field with that name
+	 */
+	public static DccdSBField forName(String name)
+	{
+		return byName.get(name);
+	}
+}
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.tridas.schema.TridasValue;
+import org.tridas.schema.TridasValues;
+
+/**
+ * Compact (primitive) form of TridasValues, for keeping many series in memory 
+ * or analysing them; a TridasValue object with its String for each ring costs a lot. 
+ * 
+ * The numbers are stored in an int array, or a double array when not all are integers. 
+ * Values that can't be restored exactly from a number (not numeric, '007', 
+ * or with more than just the value like a count or remarks) are kept 'as is' in a sparse side table. 
+ * The other parts of the TridasValues (variable, unit etc.) are kept in a header without the values. 
+ * 
+ * Use materialize() to get the TridasValues back, for instance for marshalling.
+ */
+public class CompactTridasValues implements Serializable
+{
+	private static final long serialVersionUID = -2651384067316572147L;
+
+	// the java field name of the value attribute of TridasValue
+	private static final String VALUE_FIELD = "value";
+
+	// the TridasValues without the values
+	private final TridasValues header;
+	private final int size;
+	// one of these is used
+	private final int[] ints;
+	private final double[] doubles;
+	// the values that could not be compacted, by index
+	private final Map<Integer, TridasValue> irregular;
+
+	private CompactTridasValues(TridasValues header, int size, int[] ints, double[] doubles, Map<Integer, TridasValue> irregular)
+	{
+		this.header = header;
+		this.size = size;
+		this.ints = ints;
+		this.doubles = doubles;
+		this.irregular = irregular;
+	}
+
+	/**
+	 * Create the compact form, the given values are not changed
+	 * 
+	 * @param values
+	 *        The tridas values
+	 * @return The compact form
+	 */
+	public static CompactTridasValues compact(TridasValues values)
+	{
+		TridasValues header = TridasCopier.shallowCopy(values);
+		header.getValues().clear();
+
+		List<TridasValue> valueList = values.getValues();
+		int size = valueList.size();
+		Map<Integer, TridasValue> irregular = new HashMap<Integer, TridasValue>();
+
+		// first try integers, the normal case for ring widths
+		int[] ints = new int[size];
+		boolean integral = true;
+		for (int i = 0; i < size && integral; i++)
+		{
+			TridasValue value = valueList.get(i);
+			if (!isPlain(value))
+			{
+				irregular.put(i, value);
+				continue;
+			}
+			String text = value.getValue();
+			try
+			{
+				ints[i] = Integer.parseInt(text);
+				if (!Integer.toString(ints[i]).equals(text))
+					irregular.put(i, value); // like '007'
+			}
+			catch (NumberFormatException e)
+			{
+				integral = false;
+			}
+		}
+		if (integral)
+			return new CompactTridasValues(header, size, ints, null, irregular);
+
+		irregular.clear();
+		double[] doubles = new double[size];
+		for (int i = 0; i < size; i++)
+		{
+			TridasValue value = valueList.get(i);
+			String text = value.getValue();
+			if (isPlain(value))
+			{
+				try
+				{
+					doubles[i] = Double.parseDouble(text);
+					if (format(doubles[i]).equals(text))
+						continue;
+				}
+				catch (NumberFormatException e)
+				{
+					// irregular
+				}
+			}
+			doubles[i] = Double.NaN;
+			irregular.put(i, value);
+		}
+		return new CompactTridasValues(header, size, null, doubles, irregular);
+	}
+
+	private static boolean isPlain(TridasValue value)
+	{
+		return value != null && value.getValue() != null && TridasCopier.hasOnly(value, VALUE_FIELD);
+	}
+
+	private static String format(double number)
+	{
+		if (number == Math.rint(number) && Math.abs(number) < 1e15)
+			return Long.toString((long) number);
+		else
+			return Double.toString(number);
+	}
+
+	/**
+	 * Create the TridasValues again; a new object each time, 
+	 * but the header parts and the irregular values are shared with this compact form
+	 * 
+	 * @return The tridas values
+	 */
+	public TridasValues materialize()
+	{
+		TridasValues values = TridasCopier.shallowCopy(header);
+		List<TridasValue> valueList = values.getValues();
+		if (valueList instanceof ArrayList)
+			((ArrayList<TridasValue>) valueList).ensureCapacity(size);
+		for (int i = 0; i < size; i++)
+		{
+			TridasValue value = irregular.get(i);
+			if (value == null)
+			{
+				value = new TridasValue();
+				value.setValue(getValue(i));
+			}
+			valueList.add(value);
+		}
+		return values;
+	}
+
+	/**
+	 * The header with the irregular values in index order,
+	 * for writing both as one TridasValues (xml) next to the numbers
+	 *
+	 * @see writeNumbers
+	 * @return A new TridasValues
+	 */
+	public TridasValues getIrregularValues()
+	{
+		TridasValues values = TridasCopier.shallowCopy(header);
+		values.getValues().addAll(new TreeMap<Integer, TridasValue>(irregular).values());
+		return values;
+	}
+
+	/**
+	 * Write the numbers and the indexes of the irregular values in binary form
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeNumbers(DataOutput out) throws IOException
+	{
+		out.writeInt(size);
+		out.writeBoolean(ints != null);
+		for (int i = 0; i < size; i++)
+		{
+			if (ints != null)
+				out.writeInt(ints[i]);
+			else
+				out.writeDouble(doubles[i]);
+		}
+		Set<Integer> indexes = new TreeSet<Integer>(irregular.keySet());
+		out.writeInt(indexes.size());
+		for (Integer index : indexes)
+		{
+			out.writeInt(index);
+		}
+	}
+
+	/**
+	 * Read the compact form written with writeNumbers
+	 *
+	 * @param in
+	 * @param irregularValues
+	 *        The TridasValues from getIrregularValues
+	 * @return The compact form
+	 * @throws IOException
+	 */
+	public static CompactTridasValues readNumbers(DataInput in, TridasValues irregularValues) throws IOException
+	{
+		int size = in.readInt();
+		if (size < 0)
+			throw new IOException("Invalid number of values: " + size);
+
+		int[] ints = null;
+		double[] doubles = null;
+		if (in.readBoolean())
+		{
+			ints = new int[size];
+			for (int i = 0; i < size; i++)
+			{
+				ints[i] = in.readInt();
+			}
+		}
+		else
+		{
+			doubles = new double[size];
+			for (int i = 0; i < size; i++)
+			{
+				doubles[i] = in.readDouble();
+			}
+		}
+
+		List<TridasValue> irregularList = irregularValues.getValues();
+		int irregularCount = in.readInt();
+		if (irregularCount != irregularList.size())
+			throw new IOException("Number of irregular values differs: " + irregularCount + " instead of " + irregularList.size());
+		Map<Integer, TridasValue> irregular = new HashMap<Integer, TridasValue>();
+		for (int i = 0; i < irregularCount; i++)
+		{
+			int index = in.readInt();
+			if (index < 0 || index >= size)
+				throw new IOException("Invalid index of irregular value: " + index);
+			irregular.put(index, irregularList.get(i));
+		}
+
+		TridasValues header = TridasCopier.shallowCopy(irregularValues);
+		header.getValues().clear();
+		return new CompactTridasValues(header, size, ints, doubles, irregular);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return true if the values are stored as integers
+	 */
+	public boolean isIntegral()
+	{
+		return ints != null;
+	}
+
+	/**
+	 * @return the number of values that are kept as TridasValue objects
+	 */
+	public int getIrregularCount()
+	{
+		return irregular.size();
+	}
+
+	/**
+	 * @param index
+	 * @return The value as in the xml
+	 */
+	public String getValue(int index)
+	{
+		TridasValue value = irregular.get(index);
+		if (value != null)
+			return value.getValue();
+		else if (ints != null)
+			return Integer.toString(ints[index]);
+		else
+			return format(doubles[index]);
+	}
+
+	/**
+	 * @param index
+	 * @return The number, NaN if the value is not a number
+	 */
+	public double getDouble(int index)
+	{
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+		TridasValue value = irregular.get(index);
+		if (value != null)
+		{
+			if (value.getValue() == null)
+				return Double.NaN;
+			try
+			{
+				return Double.parseDouble(value.getValue());
+			}
+			catch (NumberFormatException e)
+			{
+				return Double.NaN;
+			}
+		}
+		return (ints != null) ? ints[index] : doubles[index];
+	}
+
+	/**
+	 * @return All values as numbers, NaN for those that are not numbers
+	 */
+	public double[] toDoubleArray()
+	{
+		double[] result = new double[size];
+		for (int i = 0; i < size; i++)
+		{
+			result[i] = getDouble(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.datatype.Duration;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+
+import nl.knaw.dans.dccd.model.InternalErrorException;
+
+import org.w3c.dom.Node;
+
+/**
+ * Copies the JAXB generated TRiDaS (and gml) objects without marshalling them. 
+ * 
+ * For each class the fields to copy are looked up once (with reflection) 
+ * and kept in a 'plan', copying is then just getting and setting those fields. 
+ * Much faster than the JAXB round trip in TridasJAXBProvider.cloneTridas, 
+ * especially for series with large values lists. 
+ * 
+ * deepCopy gives a completely independent copy. 
+ * shallowCopy gives a new object sharing the sub objects with the original; 
+ * only the lists are new, so the copy can be pruned (lists emptied or replaced) 
+ * without changing the original. 
+ * Note: a shallow copy shares the unchanged subtrees, 
+ * changing a shared sub object changes it for both!
+ */
+public class TridasCopier
+{
+	// the plans per class, computed once
+	private static final ConcurrentMap<Class<?>, CopyPlan> plans = new ConcurrentHashMap<Class<?>, CopyPlan>();
+
+	private TridasCopier()
+	{
+		// only static methods
+	}
+
+	/**
+	 * Create a (deep) copy of the given tridas object, nothing is shared with the original. 
+	 * Objects that are referenced more than once (like IDREF's) are copied once.
+	 * 
+	 * @param tridas
+	 *        The tridas object to copy, can be null
+	 * @return The copy
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T deepCopy(T tridas)
+	{
+		return (T) copyValue(tridas, new IdentityHashMap<Object, Object>());
+	}
+
+	/**
+	 * Create a shallow copy of the given tridas object; 
+	 * a new object with the same field values, but with new lists (of the same elements).
+	 * 
+	 * @param tridas
+	 *        The tridas object to copy, can be null
+	 * @return The copy
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T shallowCopy(T tridas)
+	{
+		if (tridas == null || isImmutable(tridas.getClass()))
+			return tridas;
+
+		CopyPlan plan = getPlan(tridas.getClass());
+		Object copy = plan.newInstance();
+		for (Field field : plan.fields)
+		{
+			Object value = get(field, tridas);
+			if (value instanceof List)
+			{
+				value = new ArrayList<Object>((List<Object>) value);
+			}
+			set(field, copy, value);
+		}
+		return (T) copy;
+	}
+
+	/**
+	 * Check if nothing but the given fields is set, 
+	 * all other fields of the object are null or empty lists.
+	 * 
+	 * @param tridas
+	 *        The tridas object to check
+	 * @param fieldNames
+	 *        names of the (java) fields that may be set
+	 * @return true if only those fields are set
+	 */
+	public static boolean hasOnly(Object tridas, String... fieldNames)
+	{
+		List<String> allowed = Arrays.asList(fieldNames);
+		for (Field field : getPlan(tridas.getClass()).fields)
+		{
+			if (allowed.contains(field.getName()))
+				continue;
+			Object value = get(field, tridas);
+			if (value != null && !(value instanceof List && ((List<?>) value).isEmpty()))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isImmutable(Class<?> type)
+	{
+		return type.isPrimitive() || type.isEnum() || 
+			type == String.class || type == Boolean.class || type == Character.class || 
+			Number.class.isAssignableFrom(type) && 
+				(type.getName().startsWith("java.lang.") || type == BigInteger.class || type == BigDecimal.class) || 
+			type == QName.class || type == Class.class || 
+			Duration.class.isAssignableFrom(type);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object copyValue(Object value, IdentityHashMap<Object, Object> copies)
+	{
+		if (value == null || isImmutable(value.getClass()))
+			return value;
+
+		Object copy = copies.get(value);
+		if (copy != null)
+			return copy;
+
+		if (value instanceof List)
+		{
+			List<Object> list = (List<Object>) value;
+			List<Object> listCopy = new ArrayList<Object>(list.size());
+			copies.put(value, listCopy);
+			for (Object element : list)
+			{
+				listCopy.add(copyValue(element, copies));
+			}
+			copy = listCopy;
+		}
+		else if (value instanceof Map)
+		{
+			// like the otherAttributes of an @XmlAnyAttribute
+			Map<Object, Object> mapCopy = new LinkedHashMap<Object, Object>();
+			copies.put(value, mapCopy);
+			for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet())
+			{
+				mapCopy.put(copyValue(entry.getKey(), copies), copyValue(entry.getValue(), copies));
+			}
+			copy = mapCopy;
+		}
+		else if (value instanceof Collection)
+		{
+			throw new InternalErrorException("No copy for collection: " + value.getClass().getName());
+		}
+		else if (value instanceof JAXBElement)
+		{
+			JAXBElement<Object> element = (JAXBElement<Object>) value;
+			JAXBElement<Object> elementCopy = new JAXBElement<Object>(element.getName(), 
+					element.getDeclaredType(), element.getScope(), null);
+			copies.put(value, elementCopy);
+			elementCopy.setValue(copyValue(element.getValue(), copies));
+			elementCopy.setNil(element.isNil());
+			copy = elementCopy;
+		}
+		else if (value instanceof XMLGregorianCalendar)
+		{
+			copy = ((XMLGregorianCalendar) value).clone();
+			copies.put(value, copy);
+		}
+		else if (value instanceof Node)
+		{
+			// xs:any content
+			copy = ((Node) value).cloneNode(true);
+			copies.put(value, copy);
+		}
+		else if (value.getClass().isArray())
+		{
+			copy = copyArray(value, copies);
+		}
+		else
+		{
+			CopyPlan plan = getPlan(value.getClass());
+			copy = plan.newInstance();
+			copies.put(value, copy);
+			for (int i = 0; i < plan.fields.length; i++)
+			{
+				Field field = plan.fields[i];
+				Object fieldValue = get(field, value);
+				set(field, copy, plan.immutable[i] ? fieldValue : copyValue(fieldValue, copies));
+			}
+		}
+		return copy;
+	}
+
+	private static Object copyArray(Object array, IdentityHashMap<Object, Object> copies)
+	{
+		int length = java.lang.reflect.Array.getLength(array);
+		Object copy = java.lang.reflect.Array.newInstance(array.getClass().getComponentType(), length);
+		copies.put(array, copy);
+		if (array.getClass().getComponentType().isPrimitive())
+		{
+			System.arraycopy(array, 0, copy, 0, length);
+		}
+		else
+		{
+			Object[] elements = (Object[]) array;
+			Object[] elementsCopy = (Object[]) copy;
+			for (int i = 0; i < length; i++)
+			{
+				elementsCopy[i] = copyValue(elements[i], copies);
+			}
+		}
+		return copy;
+	}
+
+	private static CopyPlan getPlan(Class<?> type)
+	{
+		CopyPlan plan = plans.get(type);
+		if (plan == null)
+		{
+			plan = new CopyPlan(type);
+			CopyPlan existing = plans.putIfAbsent(type, plan);
+			if (existing != null)
+				plan = existing;
+		}
+		return plan;
+	}
+
+	private static Object get(Field field, Object object)
+	{
+		try
+		{
+			return field.get(object);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new InternalErrorException(e);
+		}
+	}
+
+	private static void set(Field field, Object object, Object value)
+	{
+		try
+		{
+			field.set(object, value);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new InternalErrorException(e);
+		}
+	}
+
+	/**
+	 * What to do for copying an object of a certain class; 
+	 * the constructor and the instance fields, including those of the super classes
+	 */
+	private static class CopyPlan
+	{
+		final Constructor<?> constructor;
+		final Field[] fields;
+		// no need to copy the value of these fields
+		final boolean[] immutable;
+
+		CopyPlan(Class<?> type)
+		{
+			try
+			{
+				constructor = type.getDeclaredConstructor();
+				constructor.setAccessible(true);
+			}
+			catch (NoSuchMethodException e)
+			{
+				throw new InternalErrorException("No copy for class without default constructor: " + type.getName());
+			}
+
+			List<Field> fieldList = new ArrayList<Field>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+			{
+				for (Field field : c.getDeclaredFields())
+				{
+					if (Modifier.isStatic(field.getModifiers()))
+						continue;
+					field.setAccessible(true);
+					fieldList.add(field);
+				}
+			}
+			fields = fieldList.toArray(new Field[fieldList.size()]);
+			immutable = new boolean[fields.length];
+			for (int i = 0; i < fields.length; i++)
+			{
+				Class<?> fieldType = fields[i].getType();
+				immutable[i] = isImmutable(fieldType) && 
+					(fieldType.isPrimitive() || Modifier.isFinal(fieldType.getModifiers()) || fieldType.isEnum());
+			}
+		}
+
+		Object newInstance()
+		{
+			try
+			{
+				return constructor.newInstance();
+			}
+			catch (Exception e)
+			{
+				throw new InternalErrorException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import nl.knaw.dans.dccd.model.InternalErrorException;
+
+/**
+ * Digest of the TRiDaS xml content, used for change tracking. 
+ * The object is marshalled straight into the digest, no xml String or byte array is created. 
+ * 
+ * Note: unlike the JAXB generated hashCode() equal digests mean equal xml, 
+ * and that is what would be stored in the repository.
+ */
+public class TridasDigest
+{
+	public static final String ALGORITHM = "SHA-1";
+
+	private TridasDigest()
+	{
+		// only static methods
+	}
+
+	/**
+	 * @param tridas
+	 *        the (pruned) tridas object, null gives the digest of 'nothing'
+	 * @return The digest of the xml of the tridas object
+	 */
+	public static byte[] digest(Object tridas)
+	{
+		MessageDigest messageDigest = createMessageDigest();
+		if (tridas == null)
+			return messageDigest.digest();
+
+		Marshaller marshaller = null;
+		try
+		{
+			marshaller = TridasJAXBProvider.borrowMarshaller();
+			marshaller.marshal(tridas, new DigestingOutputStream(messageDigest));
+		}
+		catch (JAXBException e)
+		{
+			throw new InternalErrorException(e);
+		}
+		finally
+		{
+			TridasJAXBProvider.returnMarshaller(marshaller);
+		}
+		return messageDigest.digest();
+	}
+
+	private static MessageDigest createMessageDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// this really should not happen, every JVM must have it
+			throw new InternalErrorException(e);
+		}
+	}
+
+	// feeds the bytes to the digest and drops them
+	private static class DigestingOutputStream extends OutputStream
+	{
+		private final MessageDigest messageDigest;
+
+		DigestingOutputStream(MessageDigest messageDigest)
+		{
+			this.messageDigest = messageDigest;
+		}
+
+		@Override
+		public void write(int b)
+		{
+			messageDigest.update((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			messageDigest.update(b, off, len);
+		}
+	}
+}
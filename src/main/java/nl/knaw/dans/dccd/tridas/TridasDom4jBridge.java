@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.MarshalException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.UnmarshallerHandler;
+import javax.xml.transform.stream.StreamSource;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXContentHandler;
+import org.dom4j.io.SAXWriter;
+import org.xml.sax.SAXException;
+
+/**
+ * Unmarshals TRiDaS from the XML we already have in memory, 
+ * without the asXML() String and UTF-8 bytes round trip.
+ * And the other way around; marshals TRiDaS into a dom4j Document without a String in between.
+ * 
+ * A dom4j Element (the xml content of a datastream) is streamed as SAX events 
+ * directly into the JAXB UnmarshallerHandler. 
+ * Note: dom4j's DocumentSource can't be used here, 
+ * it always streams the whole document the element belongs to (the FOXML). 
+ * 
+ * The (Un)marshaller is not thread-safe; callers must not share it between threads.
+ */
+public class TridasDom4jBridge
+{
+	private TridasDom4jBridge()
+	{
+		// only static methods
+	}
+
+	/**
+	 * Unmarshal the given element, and only that element.  
+	 * The namespaces used must be declared on the element or its descendants, 
+	 * which is the case for the fragments we marshal into the datastreams. 
+	 * 
+	 * @param unmarshaller
+	 * @param element
+	 * @return the TRiDaS object
+	 * @throws JAXBException
+	 */
+	public static Object unmarshal(Unmarshaller unmarshaller, Element element) throws JAXBException
+	{
+		if (element == null) throw new IllegalArgumentException("element must be specified");
+
+		UnmarshallerHandler handler = unmarshaller.getUnmarshallerHandler();
+		SAXWriter writer = new SAXWriter(handler);
+		try
+		{
+			handler.startDocument();
+			writer.write(element);
+			handler.endDocument();
+		}
+		catch (SAXException e)
+		{
+			throw new UnmarshalException(e);
+		}
+		return handler.getResult();
+	}
+
+	/**
+	 * Unmarshal the raw (UTF-8) bytes of a datastream, 
+	 * the parser reads the bytes and detects the encoding itself.
+	 * 
+	 * @param unmarshaller
+	 * @param xmlBytes
+	 * @return the TRiDaS object
+	 * @throws JAXBException
+	 */
+	public static Object unmarshal(Unmarshaller unmarshaller, byte[] xmlBytes) throws JAXBException
+	{
+		if (xmlBytes == null) throw new IllegalArgumentException("xml bytes must be specified");
+
+		return unmarshaller.unmarshal(new StreamSource(new ByteArrayInputStream(xmlBytes)));
+	}
+
+	/**
+	 * Marshal the tridas object into a new dom4j Document, 
+	 * the JAXB SAX events build the dom4j tree directly. 
+	 * Note: the marshaller must produce fragments, we start and end the document ourselves.
+	 * 
+	 * @param marshaller
+	 * @param tridas
+	 * @return the Document with the TRiDaS xml
+	 * @throws JAXBException
+	 */
+	public static Document marshal(Marshaller marshaller, Object tridas) throws JAXBException
+	{
+		if (tridas == null) throw new IllegalArgumentException("tridas must be specified");
+
+		SAXContentHandler handler = new SAXContentHandler();
+		try
+		{
+			handler.startDocument();
+			marshaller.marshal(tridas, handler);
+			handler.endDocument();
+		}
+		catch (SAXException e)
+		{
+			throw new MarshalException(e);
+		}
+		return handler.getDocument();
+	}
+}
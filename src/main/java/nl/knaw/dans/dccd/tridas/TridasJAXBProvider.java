@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.util.JAXBSource;
+
+import nl.knaw.dans.dccd.model.InternalErrorException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The one place where the JAXB context for TRiDaS (org.tridas.schema) is created. 
+ * 
+ * The context is thread-safe and expensive to create, so there is only one. 
+ * Marshallers and Unmarshallers are cheap but not thread-safe; 
+ * they are pooled and each thread borrows its own and returns it when done:
+ * <pre>
+ * Marshaller marshaller = TridasJAXBProvider.borrowMarshaller();
+ * try 
+ * {
+ *     marshaller.marshal(tridas, writer);
+ * }
+ * finally 
+ * {
+ *     TridasJAXBProvider.returnMarshaller(marshaller);
+ * }
+ * </pre>
+ */
+public class TridasJAXBProvider
+{
+	private static Logger logger = Logger.getLogger(TridasJAXBProvider.class);
+
+	public static final String TRIDAS_CONTEXT_PATH = "org.tridas.schema";
+	public static final String TRIDAS_XML_CHARSET = "UTF-8";
+	// changed with Java6 ? "com.sun.xml.internal.bind.marshaller.NamespacePrefixMapper"
+	private static final String NAMESPACE_PREFIX_MAPPER_PROPERTY = "com.sun.xml.bind.namespacePrefixMapper";
+
+	// no need to keep more idle instances than we have concurrent users of them
+	private static final int MAX_IDLE = 32;
+
+	private static JAXBContext context = null;
+
+	private static final Queue<Marshaller> marshallers = new ConcurrentLinkedQueue<Marshaller>();
+	private static final AtomicInteger idleMarshallers = new AtomicInteger();
+	private static final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<Unmarshaller>();
+	private static final AtomicInteger idleUnmarshallers = new AtomicInteger();
+
+	private TridasJAXBProvider()
+	{
+		// only static methods
+	}
+
+	public static synchronized JAXBContext getContext() throws JAXBException
+	{
+		if (context == null)
+		{
+			logger.debug("Creating JAXB context for: " + TRIDAS_CONTEXT_PATH);
+			context = JAXBContext.newInstance(TRIDAS_CONTEXT_PATH);
+		}
+		return context;
+	}
+
+	/**
+	 * Create a new (not pooled) marshaller, 
+	 * UTF-8, formatted output and readable namespace prefixes (tridas, xlink and gml). 
+	 * Use this when the marshaller gets extra settings, like a schema.
+	 * 
+	 * @param fragment
+	 *        true when producing xml fragments (no xml declaration), like for the datastreams
+	 * @return The Marshaller
+	 * @throws JAXBException
+	 */
+	public static Marshaller createMarshaller(boolean fragment) throws JAXBException
+	{
+		Marshaller marshaller = getContext().createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_ENCODING, TRIDAS_XML_CHARSET);
+		marshaller.setProperty(Marshaller.JAXB_FRAGMENT, fragment);
+		// improve readability
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		// change the namespace mapping
+		marshaller.setProperty(NAMESPACE_PREFIX_MAPPER_PROPERTY, new TridasNamespacePrefixMapper());
+		return marshaller;
+	}
+
+	/**
+	 * Borrow a marshaller for producing TRiDaS xml fragments, 
+	 * it must be returned with returnMarshaller() 
+	 * 
+	 * @return The Marshaller
+	 * @throws JAXBException
+	 */
+	public static Marshaller borrowMarshaller() throws JAXBException
+	{
+		Marshaller marshaller = marshallers.poll();
+		if (marshaller == null)
+		{
+			return createMarshaller(true);
+		}
+		idleMarshallers.decrementAndGet();
+		return marshaller;
+	}
+
+	public static void returnMarshaller(Marshaller marshaller)
+	{
+		if (marshaller == null)
+			return;
+
+		// don't let a listener leak to the next user
+		marshaller.setListener(null);
+		if (idleMarshallers.incrementAndGet() <= MAX_IDLE)
+		{
+			marshallers.offer(marshaller);
+		}
+		else
+		{
+			idleMarshallers.decrementAndGet(); // drop it
+		}
+	}
+
+	/**
+	 * Borrow an unmarshaller, it must be returned with returnUnmarshaller()
+	 * 
+	 * @return The Unmarshaller
+	 * @throws JAXBException
+	 */
+	public static Unmarshaller borrowUnmarshaller() throws JAXBException
+	{
+		Unmarshaller unmarshaller = unmarshallers.poll();
+		if (unmarshaller == null)
+		{
+			return getContext().createUnmarshaller();
+		}
+		idleUnmarshallers.decrementAndGet();
+		return unmarshaller;
+	}
+
+	public static void returnUnmarshaller(Unmarshaller unmarshaller)
+	{
+		if (unmarshaller == null)
+			return;
+
+		// back to the defaults
+		try
+		{
+			unmarshaller.setSchema(null);
+			unmarshaller.setEventHandler(null);
+			unmarshaller.setListener(null);
+		}
+		catch (JAXBException e)
+		{
+			logger.warn("Could not reset unmarshaller, not returned to the pool");
+			return;
+		}
+		if (idleUnmarshallers.incrementAndGet() <= MAX_IDLE)
+		{
+			unmarshallers.offer(unmarshaller);
+		}
+		else
+		{
+			idleUnmarshallers.decrementAndGet(); // drop it
+		}
+	}
+
+	/**
+	 * Create a (deep) clone of the given tridas object by marshalling and unmarshalling it 
+	 * Note: slow, use TridasCopier.deepCopy unless the JAXB round trip itself is needed
+	 * 
+	 * @param tridas
+	 *        The tridas object to clone
+	 * @return The clone
+	 */
+	public static Object cloneTridas(Object tridas)
+	{
+		Object result = null;
+		Unmarshaller unmarshaller = null;
+		try
+		{
+			unmarshaller = borrowUnmarshaller();
+			result = unmarshaller.unmarshal(new JAXBSource(getContext(), tridas));
+		}
+		catch (JAXBException e)
+		{
+			// coding error?
+			throw new InternalErrorException(e);
+		}
+		finally
+		{
+			returnUnmarshaller(unmarshaller);
+		}
+		return result;
+	}
+}
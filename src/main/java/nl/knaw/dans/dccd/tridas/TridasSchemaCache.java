@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.transform.Source;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import nl.knaw.dans.dccd.model.InternalErrorException;
+
+import org.apache.log4j.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Process-wide cache of the compiled TRiDaS schemas (with the gml and xlinks schemas they import). 
+ * 
+ * Compiling a schema is expensive, but a compiled Schema is thread-safe and can be reused. 
+ * Validators are not thread-safe; each thread keeps its own Validator per schema and resets it before use. 
+ * After reload() the schemas are compiled again on first use and the Validators are replaced. 
+ */
+public class TridasSchemaCache
+{
+	private static Logger logger = Logger.getLogger(TridasSchemaCache.class);
+
+	/** The schema used for validating before archiving */
+	public static final String TRIDAS_SCHEMA = "tridas.xsd";
+	/** The schema used for validating uploaded TRiDaS */
+	public static final String TRIDAS_1_2_2_SCHEMA = "tridas-1.2.2.xsd";
+
+	private static final ConcurrentMap<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+
+	// validators of the current thread, with the schema they where created for
+	private static final ThreadLocal<Map<String, Validator>> threadValidators = new ThreadLocal<Map<String, Validator>>()
+	{
+		@Override
+		protected Map<String, Validator> initialValue()
+		{
+			return new HashMap<String, Validator>();
+		}
+	};
+	private static final ThreadLocal<Map<String, Schema>> threadValidatorSchemas = new ThreadLocal<Map<String, Schema>>()
+	{
+		@Override
+		protected Map<String, Schema> initialValue()
+		{
+			return new HashMap<String, Schema>();
+		}
+	};
+
+	private TridasSchemaCache()
+	{
+		// only static methods
+	}
+
+	/**
+	 * Get the compiled schema, it is compiled only once
+	 * 
+	 * @param resourceName
+	 *        name of the xsd resource on the classpath, like "tridas.xsd"
+	 * @return The Schema
+	 */
+	public static Schema getSchema(String resourceName)
+	{
+		Schema schema = schemas.get(resourceName);
+		if (schema == null)
+		{
+			schema = compileSchema(resourceName);
+			Schema previous = schemas.putIfAbsent(resourceName, schema);
+			if (previous != null)
+			{
+				schema = previous; // another thread was first
+			}
+		}
+		return schema;
+	}
+
+	/**
+	 * Drop all compiled schemas, 
+	 * they will be compiled again the next time they are used.
+	 */
+	public static void reload()
+	{
+		logger.info("Reloading TRiDaS schemas");
+		schemas.clear();
+	}
+
+	/**
+	 * Validate the xml against the (cached) schema; 
+	 * the source is streamed into the Validator, no output is produced.
+	 * 
+	 * @param resourceName
+	 *        name of the xsd resource
+	 * @param source
+	 *        the xml to validate, for instance a JAXBSource
+	 * @throws SAXException
+	 *         when the xml is not valid, the first error found
+	 * @throws IOException
+	 */
+	public static void validate(String resourceName, Source source) throws SAXException, IOException
+	{
+		Validator validator = getValidator(resourceName);
+		validator.reset();
+		validator.validate(source);
+	}
+
+	private static Validator getValidator(String resourceName)
+	{
+		Schema schema = getSchema(resourceName);
+		Map<String, Validator> validators = threadValidators.get();
+		Map<String, Schema> validatorSchemas = threadValidatorSchemas.get();
+
+		Validator validator = validators.get(resourceName);
+		// a reload replaces the schema, and then the validator
+		if (validator == null || validatorSchemas.get(resourceName) != schema)
+		{
+			validator = schema.newValidator();
+			validators.put(resourceName, validator);
+			validatorSchemas.put(resourceName, schema);
+		}
+		return validator;
+	}
+
+	private static Schema compileSchema(String resourceName)
+	{
+		logger.debug("Compiling schema: " + resourceName);
+		try
+		{
+			// initialize validation, Schema validation in JAXB 2.0 is performed using JAXP 1.3
+			SchemaFactory sf = SchemaFactory.newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
+			// Note: couldn't get ClassLoader.getSystemResource working on the server
+			// resource loading probably has to do with the classpath...
+			URL schemaUrl = Thread.currentThread().getContextClassLoader().getResource(resourceName);
+			return sf.newSchema(schemaUrl);
+		}
+		catch (IllegalArgumentException e)
+		{
+			// this is an internal error, the schema should be available!
+			logger.error("Could not initialize schema validation");
+			throw (new InternalErrorException(e));
+		}
+		catch (SAXException e)
+		{
+			// this is an internal error, the schema should be available!
+			logger.error("Could not initialize schema validation");
+			throw (new InternalErrorException(e));
+		}
+	}
+}
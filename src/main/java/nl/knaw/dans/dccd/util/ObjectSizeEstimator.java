@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Estimates the memory retained by object graphs, without a heap dump. 
+ * The size of an object follows from its fields (a layout per class, cached) 
+ * assuming a 64 bit JVM with compressed references; 
+ * it is an estimate, the real layout (padding, alignment) differs per JVM.
+ * 
+ * An estimator counts every object once, so successive calls of add 
+ * only count what was not reachable from the previous roots. 
+ * This allows a breakdown: add the parts first and the whole last. 
+ * Not thread-safe, use an estimator for one walk only.
+ */
+public class ObjectSizeEstimator
+{
+	private static Logger logger = Logger.getLogger(ObjectSizeEstimator.class);
+
+	static final int OBJECT_HEADER = 12;
+	static final int ARRAY_HEADER = 16;
+	static final int REFERENCE = 4;
+	static final int ALIGNMENT = 8;
+
+	private static final ConcurrentMap<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<Class<?>, ClassLayout>();
+
+	private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	private final List<Class<?>> excludedTypes = new ArrayList<Class<?>>();
+
+	/**
+	 * Objects of the type (or a subtype) are not counted and not followed, 
+	 * for instance because they are shared with other object graphs
+	 * 
+	 * @param type
+	 */
+	public void excludeType(Class<?> type)
+	{
+		excludedTypes.add(type);
+	}
+
+	/**
+	 * The object is not counted and not followed
+	 * 
+	 * @param object
+	 */
+	public void exclude(Object object)
+	{
+		if (object != null)
+			visited.add(object);
+	}
+
+	/**
+	 * @param root
+	 * @return The estimated size in bytes of the objects reachable from the root 
+	 *         that were not counted before by this estimator
+	 */
+	public long add(Object root)
+	{
+		long size = 0;
+		Deque<Object> stack = new ArrayDeque<Object>();
+		push(stack, root);
+		while (!stack.isEmpty())
+		{
+			Object object = stack.pop();
+			Class<?> type = object.getClass();
+			if (type.isArray())
+			{
+				size += sizeOfArray(object, type);
+				if (!type.getComponentType().isPrimitive())
+				{
+					int length = Array.getLength(object);
+					for (int i = 0; i < length; i++)
+					{
+						push(stack, Array.get(object, i));
+					}
+				}
+			}
+			else
+			{
+				ClassLayout layout = getLayout(type);
+				size += layout.size;
+				for (Field field : layout.referenceFields)
+				{
+					try
+					{
+						push(stack, field.get(object));
+					}
+					catch (IllegalAccessException e)
+					{
+						// can't happen, the field is accessible
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+		}
+		return size;
+	}
+
+	private void push(Deque<Object> stack, Object object)
+	{
+		if (object == null || isShared(object) || !visited.add(object))
+			return;
+		stack.push(object);
+	}
+
+	// class objects and enum constants exist once for all
+	private boolean isShared(Object object)
+	{
+		if (object instanceof Class || object instanceof Enum)
+			return true;
+		for (Class<?> type : excludedTypes)
+		{
+			if (type.isInstance(object))
+				return true;
+		}
+		return false;
+	}
+
+	private static long sizeOfArray(Object array, Class<?> type)
+	{
+		int length = Array.getLength(array);
+		return align(ARRAY_HEADER + (long) length * sizeOfType(type.getComponentType()));
+	}
+
+	private static ClassLayout getLayout(Class<?> type)
+	{
+		ClassLayout layout = layouts.get(type);
+		if (layout == null)
+		{
+			layout = new ClassLayout(type);
+			ClassLayout previous = layouts.putIfAbsent(type, layout);
+			if (previous != null)
+				layout = previous;
+		}
+		return layout;
+	}
+
+	/**
+	 * @param type
+	 * @return The estimated size in bytes of an object of the type, without what it references
+	 */
+	public static long sizeOfInstance(Class<?> type)
+	{
+		return getLayout(type).size;
+	}
+
+	static int sizeOfType(Class<?> type)
+	{
+		if (type == long.class || type == double.class)
+			return 8;
+		else if (type == int.class || type == float.class)
+			return 4;
+		else if (type == short.class || type == char.class)
+			return 2;
+		else if (type == byte.class || type == boolean.class)
+			return 1;
+		else
+			return REFERENCE;
+	}
+
+	static long align(long size)
+	{
+		return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	/**
+	 * The shallow size and the reference fields of a class, including its superclasses
+	 */
+	private static class ClassLayout
+	{
+		final long size;
+		final Field[] referenceFields;
+
+		ClassLayout(Class<?> type)
+		{
+			long fieldsSize = 0;
+			List<Field> fields = new ArrayList<Field>();
+			for (Class<?> c = type; c != null; c = c.getSuperclass())
+			{
+				for (Field field : c.getDeclaredFields())
+				{
+					if (Modifier.isStatic(field.getModifiers()))
+						continue;
+					fieldsSize += sizeOfType(field.getType());
+					if (!field.getType().isPrimitive() && makeAccessible(field))
+						fields.add(field);
+				}
+			}
+			this.size = align(OBJECT_HEADER + fieldsSize);
+			this.referenceFields = fields.toArray(new Field[fields.size()]);
+		}
+
+		// Note: some JVMs don't allow access to the fields of their own classes, these are not followed
+		private static boolean makeAccessible(Field field)
+		{
+			try
+			{
+				field.setAccessible(true);
+				return true;
+			}
+			catch (RuntimeException e)
+			{
+				logger.debug("Not following field: " + field);
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+
+public class TestBulkIngestEngine
+{
+	// uses the TestData files, without the repository and the services
+	private static class LocalIngestEngine extends BulkIngestEngine
+	{
+		final List<String> stored = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> indexed = Collections.synchronizedList(new ArrayList<String>());
+		final String failingName;
+		String failingIndexName = "";
+		// the stored projects by sid, shared with the engine of a restart
+		Map<String, Project> repository = new ConcurrentHashMap<String, Project>();
+
+		LocalIngestEngine(String failingName)
+		{
+			super("testuser");
+			this.failingName = failingName;
+		}
+
+		@Override
+		protected Project parse(File file) throws Exception
+		{
+			return TridasTestData.loadProject(file);
+		}
+
+		@Override
+		protected List<ValidationErrorMessage> validate(Project project)
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		protected void store(Project project) throws Exception
+		{
+			if (project.getTitle().equals(failingName))
+				throw new DataServiceException("store failed");
+			stored.add(project.getTitle());
+			project.setStoreId("test:" + stored.size());
+			repository.put(project.getSid(), project);
+		}
+
+		@Override
+		protected Project retrieve(String sid) throws Exception
+		{
+			return repository.get(sid);
+		}
+
+		@Override
+		protected void index(Project project) throws Exception
+		{
+			if (project.getTitle().equals(failingIndexName))
+				throw new SearchServiceException("index failed");
+			indexed.add(project.getTitle());
+		}
+
+		@Override
+		protected void flushIndex()
+		{
+			// nothing to flush
+		}
+	}
+
+	private static List<File> getFiles()
+	{
+		return Arrays.asList(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)).subList(0, 8);
+	}
+
+	@Test
+	public void testIngestAndRestart() throws Exception
+	{
+		File logFile = File.createTempFile("ingest", ".log");
+		logFile.deleteOnExit();
+		List<File> files = getFiles();
+		String failingName = TridasTestData.loadProject(files.get(3)).getTitle();
+
+		LocalIngestEngine engine = new LocalIngestEngine(failingName);
+		engine.setWorkers(BulkIngestEngine.PARSE_STAGE, 3);
+		engine.setWorkers(BulkIngestEngine.TREE_STAGE, 2);
+		engine.setQueueCapacity(2);
+		ProgressLog log = new ProgressLog(logFile);
+		BulkIngestReport report = engine.ingest(files, log);
+		log.close();
+
+		assertEquals(files.size() - 1, report.getIngestedCount());
+		assertEquals(1, report.getFailedCount());
+		assertTrue(report.getFailures().get(files.get(3).getPath()).startsWith(BulkIngestEngine.STORE_STAGE));
+		assertEquals(files.size() - 1, engine.stored.size());
+		assertEquals(4, report.getStageMetrics().size());
+		assertEquals(files.size(), report.getStageMetrics().get(0).getProcessedCount());
+
+		// the restart only does the one that failed
+		LocalIngestEngine restarted = new LocalIngestEngine("");
+		log = new ProgressLog(logFile);
+		report = restarted.ingest(files, log);
+		log.close();
+
+		assertEquals(1, report.getIngestedCount());
+		assertEquals(files.size() - 1, report.getSkippedCount());
+		assertEquals(Collections.singletonList(failingName), restarted.stored);
+	}
+
+	@Test
+	public void testRestartAfterIndexFailed() throws Exception
+	{
+		File logFile = File.createTempFile("ingest", ".log");
+		logFile.deleteOnExit();
+		List<File> files = getFiles();
+		String failingName = TridasTestData.loadProject(files.get(5)).getTitle();
+
+		LocalIngestEngine engine = new LocalIngestEngine("");
+		engine.setIndexing(true);
+		engine.failingIndexName = failingName;
+		ProgressLog log = new ProgressLog(logFile);
+		BulkIngestReport report = engine.ingest(files, log);
+		log.close();
+
+		assertEquals(1, report.getFailedCount());
+		assertTrue(report.getFailures().get(files.get(5).getPath()).startsWith(BulkIngestEngine.INDEX_STAGE));
+		assertEquals(files.size(), engine.stored.size());
+
+		// the restart indexes the stored project without storing it again
+		LocalIngestEngine restarted = new LocalIngestEngine("");
+		restarted.setIndexing(true);
+		restarted.repository = engine.repository;
+		log = new ProgressLog(logFile);
+		report = restarted.ingest(files, log);
+		log.close();
+
+		assertEquals(1, report.getIngestedCount());
+		assertTrue(restarted.stored.isEmpty());
+		assertEquals(Collections.singletonList(failingName), restarted.indexed);
+	}
+
+	@Test(timeout = 60000)
+	public void testErrorStopsIngest() throws Exception
+	{
+		final String dyingName = TridasTestData.loadProject(getFiles().get(2)).getTitle();
+		LocalIngestEngine engine = new LocalIngestEngine("")
+		{
+			@Override
+			protected void buildTree(Project project)
+			{
+				if (project.getTitle().equals(dyingName))
+					throw new OutOfMemoryError("test");
+				super.buildTree(project);
+			}
+		};
+		File logFile = File.createTempFile("ingest", ".log");
+		logFile.deleteOnExit();
+		ProgressLog log = new ProgressLog(logFile);
+		try
+		{
+			engine.ingest(getFiles(), log);
+			fail("the error must stop the ingest");
+		}
+		catch (OutOfMemoryError e)
+		{
+			assertEquals("test", e.getMessage());
+		}
+		finally
+		{
+			log.close();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+
+public class TestProgressLog
+{
+	@Test
+	public void testRestart() throws Exception
+	{
+		File file = File.createTempFile("progress", ".log");
+		file.deleteOnExit();
+
+		ProgressLog log = new ProgressLog(file);
+		log.done("a.xml", "dccd:1");
+		log.failed("b.xml", "parse: not\tvalid\nxml");
+		log.done("c\td.xml", "dccd:2");
+		log.close();
+
+		// a second run reads what was done
+		log = new ProgressLog(file);
+		assertEquals(2, log.getDoneCount());
+		assertTrue(log.isDone("a.xml"));
+		assertEquals("dccd:1", log.getDetail("a.xml"));
+		assertFalse(log.isDone("b.xml"));
+		assertNull(log.getDetail("b.xml"));
+		assertTrue(log.isDone("c d.xml"));
+
+		// failed before, now done
+		log.done("b.xml", "dccd:3");
+		log.close();
+		assertTrue(new ProgressLog(file).isDone("b.xml"));
+	}
+
+	@Test
+	public void testCheckpoint() throws Exception
+	{
+		File file = File.createTempFile("progress", ".log");
+		file.deleteOnExit();
+
+		ProgressLog log = new ProgressLog(file);
+		log.checkpoint("a.xml", "dccd:1");
+		log.failed("a.xml", "index: no connection");
+		log.close();
+
+		log = new ProgressLog(file);
+		assertFalse(log.isDone("a.xml"));
+		assertEquals("dccd:1", log.getCheckpoint("a.xml"));
+		assertNull(log.getCheckpoint("b.xml"));
+		log.close();
+	}
+
+	@Test
+	public void testIncompleteLastLine() throws Exception
+	{
+		File file = File.createTempFile("progress", ".log");
+		file.deleteOnExit();
+
+		// killed while writing the last line
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), ProgressLog.CHARSET);
+		writer.write("DONE\ta.xml\tdccd:1\nDONE\tb.xml\nDONE\tc.xml\tdccd:");
+		writer.close();
+
+		ProgressLog log = new ProgressLog(file);
+		assertTrue(log.isDone("a.xml"));
+		// not all fields
+		assertFalse(log.isDone("b.xml"));
+		// no newline
+		assertFalse(log.isDone("c.xml"));
+		log.done("d.xml", "dccd:4");
+		log.close();
+
+		// the next item is on its own line
+		log = new ProgressLog(file);
+		assertEquals(2, log.getDoneCount());
+		assertEquals("dccd:4", log.getDetail("d.xml"));
+		log.close();
+	}
+
+	@Test
+	public void testEmptyCheckpoint() throws Exception
+	{
+		File file = File.createTempFile("progress", ".log");
+		file.deleteOnExit();
+
+		ProgressLog log = new ProgressLog(file);
+		log.checkpoint("a.xml", "dccd:1");
+		log.checkpoint("a.xml", "");
+		log.checkpoint("b.xml", null);
+		assertNull(log.getCheckpoint("a.xml"));
+		log.close();
+
+		log = new ProgressLog(file);
+		assertNull(log.getCheckpoint("a.xml"));
+		assertNull(log.getCheckpoint("b.xml"));
+		log.close();
+	}
+}
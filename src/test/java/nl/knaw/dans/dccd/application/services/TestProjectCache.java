@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.ProjectFootprint;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+
+public class TestProjectCache
+{
+	@Test
+	public void testEvictsLeastRecentlyUsed()
+	{
+		// room for two empty projects
+		ProjectCache cache = new ProjectCache(2 * ProjectCache.PROJECT_WEIGHT);
+		Project first = new Project("dccd:1", "first");
+		Project second = new Project("dccd:2", "second");
+		Project third = new Project("dccd:3", "third");
+
+		assertTrue(cache.put(first, cache.getGeneration()));
+		assertTrue(cache.put(second, cache.getGeneration()));
+		// use the first, so the second is evicted
+		assertSame(first, cache.get("dccd:1"));
+		assertTrue(cache.put(third, cache.getGeneration()));
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get("dccd:2"));
+		assertSame(first, cache.get("dccd:1"));
+		assertSame(third, cache.get("dccd:3"));
+		assertEquals(3, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2 * ProjectCache.PROJECT_WEIGHT, cache.getWeight());
+	}
+
+	@Test
+	public void testInvalidate()
+	{
+		ProjectCache cache = new ProjectCache(10 * ProjectCache.PROJECT_WEIGHT);
+		Project project = new Project("dccd:1", "project");
+		cache.put(project, cache.getGeneration());
+
+		cache.invalidate("dccd:1");
+		assertNull(cache.get("dccd:1"));
+		assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	public void testNotCachedWhenInvalidatedDuringRetrieval()
+	{
+		ProjectCache cache = new ProjectCache(10 * ProjectCache.PROJECT_WEIGHT);
+		long generation = cache.getGeneration();
+		// the project is changed while it was retrieved
+		cache.invalidate("dccd:1");
+
+		assertFalse(cache.put(new Project("dccd:1", "stale"), generation));
+		assertNull(cache.get("dccd:1"));
+	}
+
+	@Test
+	public void testDisabled()
+	{
+		ProjectCache cache = new ProjectCache(0);
+		assertFalse(cache.isEnabled());
+		assertFalse(cache.put(new Project("dccd:1", "project"), cache.getGeneration()));
+		// no misses counted for a disabled cache
+		assertNull(cache.get("dccd:1"));
+		assertEquals(0, cache.getMissCount());
+	}
+
+	@Test
+	public void testCalibrate() throws Exception
+	{
+		File file = TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+		Project project = TridasTestData.loadProject(file);
+		ProjectCache cache = new ProjectCache(Long.MAX_VALUE);
+		assertTrue(cache.put(project, cache.getGeneration()));
+
+		ProjectFootprint footprint = project.getFootprint();
+		cache.calibrate(project, footprint);
+
+		// the same as the footprint, except for rounding per entity and value
+		long valueCount = 0;
+		for (ValuesEntity entity : project.entityTree.getEntities(ValuesEntity.class))
+		{
+			valueCount += entity.getValueCount();
+		}
+		long rounding = project.entityTree.getEntities().size() + valueCount;
+		assertTrue(Math.abs(cache.weigh(project) - footprint.getTotal()) <= rounding);
+	}
+
+	@Test
+	public void testWeighsEntitiesAndValues() throws Exception
+	{
+		ProjectCache cache = new ProjectCache(Long.MAX_VALUE);
+		File file = TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+		Project project = TridasTestData.loadProject(file);
+
+		long weight = cache.weigh(project);
+		int entities = project.entityTree.getEntities().size();
+		assertTrue(weight > ProjectCache.PROJECT_WEIGHT + entities * ProjectCache.ENTITY_WEIGHT);
+
+		// too large for the budget
+		ProjectCache smallCache = new ProjectCache(weight - 1);
+		assertFalse(smallCache.put(project, smallCache.getGeneration()));
+	}
+
+	@Test
+	public void testCompactsOnlyWhenCached() throws Exception
+	{
+		File file = TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+		Project project = TridasTestData.loadProject(file);
+		ProjectCache cache = new ProjectCache(Long.MAX_VALUE);
+		long weight = cache.weigh(project);
+
+		ProjectCache smallCache = new ProjectCache(weight - 1);
+		assertFalse(smallCache.put(project, smallCache.getGeneration()));
+		assertFalse(project.isValuesCompact());
+
+		long generation = cache.getGeneration();
+		cache.invalidate("dccd:other");
+		assertFalse(cache.put(project, generation));
+		assertFalse(project.isValuesCompact());
+
+		assertTrue(cache.put(project, cache.getGeneration()));
+		assertTrue(project.isValuesCompact());
+		// the copy is connected once
+		assertSame(project.getTridas(), project.getTridas());
+	}
+}
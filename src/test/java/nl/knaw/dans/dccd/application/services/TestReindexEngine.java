@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.common.lang.search.exceptions.SearchEngineException;
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+
+public class TestReindexEngine
+{
+	// uses the TestData files as the projects, without the repository and the search engine
+	private static class LocalReindexEngine extends ReindexEngine
+	{
+		final Map<String, File> files;
+		final String failingSid;
+		final boolean failingSend;
+		final List<Object> sent = Collections.synchronizedList(new ArrayList<Object>());
+		final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<String> forgotten = Collections.synchronizedList(new ArrayList<String>());
+		final SearchIndexUpdates indexUpdates = new SearchIndexUpdates();
+		SearchIndexWriter indexWriter = null;
+		// this project is updated by the search service after it was loaded
+		String updatedSid = "";
+
+		LocalReindexEngine(Map<String, File> files, String failingSid, boolean failingSend)
+		{
+			this.files = files;
+			this.failingSid = failingSid;
+			this.failingSend = failingSend;
+		}
+
+		@Override
+		protected Project load(String sid) throws Exception
+		{
+			if (sid.equals(failingSid))
+				throw new DataServiceException("load failed");
+			Project project = TridasTestData.loadProject(files.get(sid));
+			if (sid.equals(updatedSid))
+			{
+				indexUpdates.lock(sid);
+				indexUpdates.updated(sid);
+				indexUpdates.unlock(sid);
+			}
+			return project;
+		}
+
+		@Override
+		protected void send(List<Object> beans) throws Exception
+		{
+			if (failingSend)
+				throw new SearchServiceException("send failed");
+			batchSizes.add(beans.size());
+			sent.addAll(beans);
+		}
+
+		@Override
+		protected SearchIndexWriter getIndexWriter()
+		{
+			return indexWriter;
+		}
+
+		@Override
+		protected SearchIndexUpdates getIndexUpdates()
+		{
+			return indexUpdates;
+		}
+
+		@Override
+		protected void forgetBeanDigests(Collection<String> sids)
+		{
+			forgotten.addAll(sids);
+		}
+	}
+
+	private static Map<String, File> getFiles()
+	{
+		Map<String, File> files = new LinkedHashMap<String, File>();
+		List<File> xmlFiles = Arrays.asList(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)).subList(0, 6);
+		for (File file : xmlFiles)
+			files.put("dccd:" + (files.size() + 1), file);
+		return files;
+	}
+
+	private static File createLogFile() throws Exception
+	{
+		File logFile = File.createTempFile("reindex", ".log");
+		logFile.deleteOnExit();
+		return logFile;
+	}
+
+	@Test
+	public void testReindexAndRestart() throws Exception
+	{
+		File logFile = createLogFile();
+		Map<String, File> files = getFiles();
+		List<String> sids = new ArrayList<String>(files.keySet());
+
+		LocalReindexEngine engine = new LocalReindexEngine(files, "dccd:3", false);
+		engine.setWorkers(ReindexEngine.LOAD_STAGE, 2);
+		engine.setWorkers(ReindexEngine.BEANS_STAGE, 3);
+		engine.setQueueCapacity(2);
+		engine.setBatchSize(5);
+		ProgressLog log = new ProgressLog(logFile);
+		ReindexReport report = engine.reindex(sids.iterator(), log);
+		log.close();
+
+		assertEquals(sids.size() - 1, report.getReindexedCount());
+		assertEquals(1, report.getFailedCount());
+		assertTrue(report.getFailures().get("dccd:3").startsWith(ReindexEngine.LOAD_STAGE));
+		assertEquals(engine.sent.size(), report.getBeanCount());
+		assertEquals(engine.batchSizes.size(), report.getBatchCount());
+		// at least the project bean for each project
+		assertTrue(engine.sent.size() >= sids.size() - 1);
+		// the beans of a project are not split, so only the last batch can be smaller
+		for (int i = 0; i < engine.batchSizes.size() - 1; i++)
+			assertTrue(engine.batchSizes.get(i) >= 5);
+		assertEquals(3, report.getStageMetrics().size());
+		// the one that failed to load is not processed by the load stage
+		assertEquals(sids.size() - 1, report.getStageMetrics().get(0).getProcessedCount());
+		assertEquals(1, report.getStageMetrics().get(0).getFailedCount());
+
+		// the restart only does the one that failed
+		LocalReindexEngine restarted = new LocalReindexEngine(files, "", false);
+		log = new ProgressLog(logFile);
+		report = restarted.reindex(sids.iterator(), log);
+		log.close();
+
+		assertEquals(1, report.getReindexedCount());
+		assertEquals(sids.size() - 1, report.getSkippedCount());
+		assertEquals(1, report.getBatchCount());
+	}
+
+	@Test
+	public void testFailedSend() throws Exception
+	{
+		File logFile = createLogFile();
+		Map<String, File> files = getFiles();
+		List<String> sids = new ArrayList<String>(files.keySet());
+
+		// all beans in one batch, so all projects fail
+		LocalReindexEngine engine = new LocalReindexEngine(files, "", true);
+		engine.setBatchSize(Integer.MAX_VALUE);
+		ProgressLog log = new ProgressLog(logFile);
+		ReindexReport report = engine.reindex(sids.iterator(), log);
+		log.close();
+
+		assertEquals(0, report.getReindexedCount());
+		assertEquals(sids.size(), report.getFailedCount());
+		assertTrue(report.getFailures().get(sids.get(0)).startsWith(ReindexEngine.INDEX_STAGE));
+		assertEquals(0, report.getBatchCount());
+
+		// nothing was done, so the restart does them all
+		LocalReindexEngine restarted = new LocalReindexEngine(files, "", false);
+		log = new ProgressLog(logFile);
+		report = restarted.reindex(sids.iterator(), log);
+		log.close();
+
+		assertEquals(sids.size(), report.getReindexedCount());
+		assertEquals(0, report.getSkippedCount());
+	}
+
+	@Test
+	public void testSendsThroughIndexWriter() throws Exception
+	{
+		Map<String, File> files = getFiles();
+		List<String> sids = new ArrayList<String>(files.keySet());
+		final List<Object> indexed = Collections.synchronizedList(new ArrayList<Object>());
+		SearchIndexWriter writer = new SearchIndexWriter(null, 100, 60 * 1000, 10)
+		{
+			@Override
+			protected void send(List<Object> deletes, List<Object> indexes) throws SearchEngineException
+			{
+				indexed.addAll(indexes);
+			}
+		};
+		// an update that is pending when the reindex starts
+		writer.index(sids.get(0), Arrays.asList("stale"));
+
+		LocalReindexEngine engine = new LocalReindexEngine(files, "", false);
+		engine.indexWriter = writer;
+		ProgressLog log = new ProgressLog(createLogFile());
+		ReindexReport report = engine.reindex(sids.iterator(), log);
+		log.close();
+		writer.close();
+
+		assertEquals(sids.size(), report.getReindexedCount());
+		assertTrue(engine.sent.isEmpty());
+		assertEquals(indexed.size(), report.getBeanCount());
+		// replaced by the reindex
+		assertFalse(indexed.contains("stale"));
+	}
+
+	@Test
+	public void testSkipsProjectUpdatedAfterLoad() throws Exception
+	{
+		Map<String, File> files = getFiles();
+		List<String> sids = new ArrayList<String>(files.keySet());
+
+		// each project in its own batch
+		LocalReindexEngine expected = new LocalReindexEngine(files, "", false);
+		expected.setBatchSize(1);
+		ProgressLog log = new ProgressLog(createLogFile());
+		expected.reindex(sids.iterator(), log);
+		log.close();
+
+		LocalReindexEngine engine = new LocalReindexEngine(files, "", false);
+		engine.setBatchSize(1);
+		engine.updatedSid = sids.get(1);
+		log = new ProgressLog(createLogFile());
+		ReindexReport report = engine.reindex(sids.iterator(), log);
+
+		// done, but the newer update is not overwritten
+		assertEquals(sids.size(), report.getReindexedCount());
+		assertEquals("updated while reindexing", log.getDetail(sids.get(1)));
+		assertEquals(expected.batchSizes.size() - 1, engine.batchSizes.size());
+		assertFalse(engine.forgotten.contains(sids.get(1)));
+		assertEquals(sids.size() - 1, engine.forgotten.size());
+		log.close();
+	}
+}
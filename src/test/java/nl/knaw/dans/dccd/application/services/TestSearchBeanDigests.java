@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import nl.knaw.dans.dccd.search.DccdObjectSB;
+import nl.knaw.dans.dccd.search.DccdProjectSB;
+import nl.knaw.dans.dccd.search.DccdSB;
+
+import org.junit.Test;
+
+public class TestSearchBeanDigests
+{
+	private static DccdSB createBean(DccdSB bean, String sid, String datastreamId, String state)
+	{
+		bean.setPid(sid);
+		bean.setDatastreamId(datastreamId);
+		bean.composeId();
+		bean.setAdministrativeState(state);
+		return bean;
+	}
+
+	// new instances each time, like after regenerating
+	private static List<DccdSB> createBeans(String objectState, String... datastreamIds)
+	{
+		DccdSB[] beans = new DccdSB[datastreamIds.length + 1];
+		beans[0] = createBean(new DccdProjectSB(), "dccd:1", null, "PUBLISHED");
+		for (int i = 0; i < datastreamIds.length; i++)
+			beans[i + 1] = createBean(new DccdObjectSB(), "dccd:1", datastreamIds[i], objectState);
+		return Arrays.asList(beans);
+	}
+
+	@Test
+	public void testOnlyChanges()
+	{
+		SearchBeanDigests digests = new SearchBeanDigests(10);
+
+		// nothing known, all are sent
+		SearchBeanDigests.Changes changes = digests.update("dccd:1", createBeans("PUBLISHED", "o1", "o2", "o3"));
+		assertEquals(4, changes.getChanged().size());
+		assertTrue(changes.getRemoved().isEmpty());
+		assertTrue(digests.isKnown("dccd:1"));
+
+		changes = digests.update("dccd:1", createBeans("PUBLISHED", "o1", "o2", "o3"));
+		assertTrue(changes.isEmpty());
+		assertEquals(4, changes.getUnchangedCount());
+
+		// o2 is gone and o4 is new
+		changes = digests.update("dccd:1", createBeans("PUBLISHED", "o1", "o3", "o4"));
+		assertEquals(1, changes.getChanged().size());
+		assertEquals("dccd:1/o4", ((DccdSB) changes.getChanged().get(0)).getId());
+		assertEquals(1, changes.getRemoved().size());
+		DccdSB removed = (DccdSB) changes.getRemoved().get(0);
+		assertEquals("dccd:1/o2", removed.getId());
+		assertEquals("o2", removed.getDatastreamId());
+
+		// a change of a field
+		changes = digests.update("dccd:1", createBeans("DRAFT", "o1", "o3", "o4"));
+		assertEquals(3, changes.getChanged().size());
+		assertEquals(1, changes.getUnchangedCount());
+	}
+
+	@Test
+	public void testForget()
+	{
+		SearchBeanDigests digests = new SearchBeanDigests(10);
+		digests.update("dccd:1", createBeans("PUBLISHED", "o1"));
+		digests.forget("dccd:1");
+		assertFalse(digests.isKnown("dccd:1"));
+
+		SearchBeanDigests.Changes changes = digests.update("dccd:1", createBeans("PUBLISHED", "o1"));
+		assertEquals(2, changes.getChanged().size());
+	}
+
+	@Test
+	public void testCapacity()
+	{
+		SearchBeanDigests digests = new SearchBeanDigests(2);
+		digests.update("dccd:1", createBeans("PUBLISHED", "o1"));
+		digests.update("dccd:2", createBeans("PUBLISHED", "o1"));
+		// dccd:1 is used most recently
+		digests.update("dccd:1", createBeans("PUBLISHED", "o1"));
+		digests.update("dccd:3", createBeans("PUBLISHED", "o1"));
+
+		assertEquals(2, digests.size());
+		assertTrue(digests.isKnown("dccd:1"));
+		assertFalse(digests.isKnown("dccd:2"));
+		assertTrue(digests.isKnown("dccd:3"));
+	}
+}
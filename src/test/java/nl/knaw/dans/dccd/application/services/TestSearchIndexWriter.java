@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.application.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nl.knaw.dans.common.lang.search.exceptions.SearchEngineException;
+
+import org.junit.Test;
+
+public class TestSearchIndexWriter
+{
+	private static final long LONG_INTERVAL = 60 * 1000;
+
+	// records the batches instead of sending them
+	private static class RecordingIndexWriter extends SearchIndexWriter
+	{
+		final List<List<Object>> deleted = Collections.synchronizedList(new ArrayList<List<Object>>());
+		final List<List<Object>> indexed = Collections.synchronizedList(new ArrayList<List<Object>>());
+		final List<String> failedSids = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch firstBatch = new CountDownLatch(1);
+		volatile CountDownLatch gate = null;
+		volatile boolean failing = false;
+		volatile boolean failingWithError = false;
+		volatile boolean failingHandler = false;
+
+		RecordingIndexWriter(int batchSize, long commitIntervalMillis, int capacity)
+		{
+			super(null, batchSize, commitIntervalMillis, capacity);
+		}
+
+		@Override
+		protected void send(List<Object> deletes, List<Object> indexes) throws SearchEngineException
+		{
+			try
+			{
+				if (gate != null)
+					gate.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			firstBatch.countDown();
+			if (failing)
+				throw new IllegalStateException("test failure");
+			if (failingWithError)
+				throw new AssertionError("test error");
+			deleted.add(deletes);
+			indexed.add(indexes);
+		}
+
+		@Override
+		protected void sendFailed(List<String> sids)
+		{
+			failedSids.addAll(sids);
+			if (failingHandler)
+				throw new IllegalStateException("test handler failure");
+		}
+	}
+
+	@Test
+	public void testCoalescesPerProject() throws Exception
+	{
+		RecordingIndexWriter writer = new RecordingIndexWriter(100, LONG_INTERVAL, 10);
+		writer.index("dccd:1", Arrays.asList("old"));
+		writer.index("dccd:1", Arrays.asList("new"));
+		writer.delete("dccd:2", Arrays.asList("gone"));
+		// the pending delete is kept
+		writer.delete("dccd:3", Arrays.asList("previous"));
+		writer.index("dccd:3", Arrays.asList("current"));
+		assertEquals(3, writer.getPendingCount());
+
+		assertTrue(writer.flush(10, TimeUnit.SECONDS));
+		assertEquals(1, writer.getBatchCount());
+		assertEquals(Arrays.<Object>asList("gone", "previous"), writer.deleted.get(0));
+		assertEquals(Arrays.<Object>asList("new", "current"), writer.indexed.get(0));
+		assertEquals(2, writer.getCoalescedCount());
+		assertEquals(2, writer.getIndexedCount());
+		assertEquals(2, writer.getDeletedCount());
+		assertEquals(0, writer.getPendingCount());
+		writer.close();
+	}
+
+	@Test
+	public void testMergesPartialUpdates() throws Exception
+	{
+		RecordingIndexWriter writer = new RecordingIndexWriter(100, LONG_INTERVAL, 10);
+		writer.index("dccd:1", Arrays.asList("a", "b"));
+		// the pending b is dropped by the delete
+		writer.update("dccd:1", Arrays.asList("b"), Arrays.asList("c"));
+		// the newer a replaces the pending one
+		writer.update("dccd:1", Collections.emptyList(), Arrays.asList("a"));
+		assertEquals(1, writer.getPendingCount());
+
+		assertTrue(writer.flush(10, TimeUnit.SECONDS));
+		assertEquals(1, writer.getBatchCount());
+		assertEquals(Arrays.<Object>asList("b"), writer.deleted.get(0));
+		assertEquals(Arrays.<Object>asList("c", "a"), writer.indexed.get(0));
+		assertEquals(2, writer.getCoalescedCount());
+		writer.close();
+	}
+
+	@Test
+	public void testSendsFullBatch() throws Exception
+	{
+		RecordingIndexWriter writer = new RecordingIndexWriter(2, LONG_INTERVAL, 10);
+		writer.index("dccd:1", Arrays.asList("a"));
+		writer.index("dccd:2", Arrays.asList("b"));
+		assertTrue(writer.firstBatch.await(10, TimeUnit.SECONDS));
+		writer.index("dccd:3", Arrays.asList("c"));
+
+		writer.close();
+		assertEquals(2, writer.getBatchCount());
+		assertEquals(Arrays.<Object>asList("a", "b"), writer.indexed.get(0));
+		assertEquals(Arrays.<Object>asList("c"), writer.indexed.get(1));
+	}
+
+	@Test
+	public void testSendsAfterCommitInterval() throws Exception
+	{
+		RecordingIndexWriter writer = new RecordingIndexWriter(100, 50, 10);
+		writer.index("dccd:1", Arrays.asList("a"));
+		// no flush
+		assertTrue(writer.firstBatch.await(10, TimeUnit.SECONDS));
+		writer.close();
+		assertEquals(1, writer.getIndexedCount());
+	}
+
+	@Test
+	public void testBackPressure() throws Exception
+	{
+		final RecordingIndexWriter writer = new RecordingIndexWriter(1, 0, 1);
+		writer.gate = new CountDownLatch(1);
+		writer.index("dccd:1", Arrays.asList("a"));
+		// the first is being sent, the second is pending
+		assertTrue(waitUntilPending(writer, 0));
+		writer.index("dccd:2", Arrays.asList("b"));
+		// a pending project can still be changed
+		writer.index("dccd:2", Arrays.asList("b2"));
+
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					writer.index("dccd:3", Arrays.asList("c"));
+					submitted.countDown();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		thread.start();
+		assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+		writer.gate.countDown();
+		assertTrue(submitted.await(10, TimeUnit.SECONDS));
+		writer.close();
+		assertEquals(3, writer.getIndexedCount());
+	}
+
+	@Test
+	public void testContinuesAfterFailure() throws Exception
+	{
+		RecordingIndexWriter writer = new RecordingIndexWriter(1, 0, 10);
+		writer.failing = true;
+		writer.index("dccd:1", Arrays.asList("a"));
+		assertTrue(writer.flush(10, TimeUnit.SECONDS));
+		assertEquals(1, writer.getFailedCount());
+		assertEquals(Arrays.asList("dccd:1"), writer.failedSids);
+
+		writer.failing = false;
+		writer.index("dccd:2", Arrays.asList("b"));
+		assertTrue(writer.flush(10, TimeUnit.SECONDS));
+		assertEquals(1, writer.getIndexedCount());
+		writer.close();
+	}
+
+	@Test
+	public void testContinuesAfterErrorAndFailedHandler() throws Exception
+	{
+		RecordingIndexWriter writer = new RecordingIndexWriter(1, 0, 10);
+		writer.failingWithError = true;
+		writer.failingHandler = true;
+		writer.index("dccd:1", Arrays.asList("a"));
+		assertTrue(writer.flush(10, TimeUnit.SECONDS));
+		assertEquals(1, writer.getFailedCount());
+
+		writer.failingWithError = false;
+		writer.index("dccd:2", Arrays.asList("b"));
+		assertTrue(writer.flush(10, TimeUnit.SECONDS));
+		assertEquals(1, writer.getIndexedCount());
+		writer.close();
+	}
+
+	@Test
+	public void testFlushWaitsOnlyForEarlierUpdates() throws Exception
+	{
+		final RecordingIndexWriter writer = new RecordingIndexWriter(100, LONG_INTERVAL, 10);
+		writer.gate = new CountDownLatch(1);
+		writer.index("dccd:1", Arrays.asList("a"));
+
+		final CountDownLatch flushed = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					if (writer.flush(10, TimeUnit.SECONDS))
+						flushed.countDown();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		thread.start();
+		// the first is being sent
+		assertTrue(waitUntilPending(writer, 0));
+		writer.index("dccd:2", Arrays.asList("b"));
+
+		writer.gate.countDown();
+		assertTrue(flushed.await(10, TimeUnit.SECONDS));
+		// the later one waits for the commit interval
+		assertEquals(1, writer.getPendingCount());
+		writer.close();
+		assertEquals(2, writer.getIndexedCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosed() throws Exception
+	{
+		RecordingIndexWriter writer = new RecordingIndexWriter(1, 0, 10);
+		writer.close();
+		writer.index("dccd:1", Arrays.asList("a"));
+	}
+
+	private static boolean waitUntilPending(SearchIndexWriter writer, int count) throws InterruptedException
+	{
+		for (int i = 0; i < 1000; i++)
+		{
+			if (writer.getPendingCount() == count)
+				return true;
+			Thread.sleep(10);
+		}
+		return false;
+	}
+}
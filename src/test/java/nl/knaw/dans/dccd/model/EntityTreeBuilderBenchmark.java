@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import nl.knaw.dans.dccd.model.entities.ElementEntity;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.model.entities.ObjectEntity;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.model.entities.RadiusEntity;
+import nl.knaw.dans.dccd.model.entities.SampleEntity;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+
+import org.apache.log4j.Logger;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.junit.Test;
+
+/**
+ * Compares building the entity tree from the tree structure xml (ETS datastream) bytes 
+ * of a synthetic project with about 50000 entities; 
+ * parsing with dom4j and then building, against the single pass StAX builder. 
+ * Reports the cpu time per build.
+ * 
+ * Not run by the normal build (excluded in the pom), 
+ * run it with: mvn test -Dtest=EntityTreeBuilderBenchmark
+ */
+public class EntityTreeBuilderBenchmark
+{
+	private static Logger logger = Logger.getLogger(EntityTreeBuilderBenchmark.class);
+
+	// 93 objects with 541 entities each
+	private static final int OBJECTS = 93;
+	private static final int ELEMENTS_PER_OBJECT = 20;
+	private static final int SERIES_PER_RADIUS = 12;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 10;
+
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	private static <T extends Entity> T add(Entity parent, T entity, String title)
+	{
+		entity.setTitle(title);
+		parent.getDendroEntities().add(entity);
+		return entity;
+	}
+
+	private static EntityTree createTree()
+	{
+		ProjectEntity project = new ProjectEntity();
+		project.setTitle("Synthetic project");
+		for (int o = 0; o < OBJECTS; o++)
+		{
+			ObjectEntity object = add(project, new ObjectEntity(), "object " + o);
+			for (int e = 0; e < ELEMENTS_PER_OBJECT; e++)
+			{
+				ElementEntity element = add(object, new ElementEntity(), "element " + e);
+				SampleEntity sample = add(element, new SampleEntity(), "sample");
+				RadiusEntity radius = add(sample, new RadiusEntity(), "radius");
+				for (int s = 0; s < SERIES_PER_RADIUS; s++)
+				{
+					MeasurementSeriesEntity series = add(radius, new MeasurementSeriesEntity(), "series " + s);
+					add(series, new ValuesEntity(), "");
+				}
+			}
+		}
+		EntityTree entityTree = new EntityTree();
+		entityTree.setProjectEntity(project);
+		int id = 0;
+		for (Entity entity : entityTree.getEntities())
+		{
+			entity.setId(EntityTree.ENTITY_ID_PREFIX + (++id));
+		}
+		entityTree.invalidateIndex();
+		return entityTree;
+	}
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		EntityTree source = createTree();
+		byte[] xml = source.asObjectXML();
+		logger.info("Benchmarking with " + source.getEntities().size() + " entities, " + (xml.length / 1024) + " KB xml");
+
+		// both give the same tree
+		TestEntityTreeBuilder.assertSameStructure("benchmark", buildWithDom4j(xml), buildWithStream(xml));
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			buildWithDom4j(xml);
+			buildWithStream(xml);
+		}
+
+		long dom4jTotal = 0;
+		long streamTotal = 0;
+		for (int i = 0; i < ROUNDS; i++)
+		{
+			long cpu = threadBean.getCurrentThreadCpuTime();
+			buildWithDom4j(xml);
+			dom4jTotal += threadBean.getCurrentThreadCpuTime() - cpu;
+
+			cpu = threadBean.getCurrentThreadCpuTime();
+			buildWithStream(xml);
+			streamTotal += threadBean.getCurrentThreadCpuTime() - cpu;
+		}
+
+		report("dom4j and build", dom4jTotal);
+		report("StAX builder   ", streamTotal);
+	}
+
+	private void report(String label, long total)
+	{
+		logger.info(label + ": cpu " + (total / ROUNDS / 1000000.0) + " ms per build");
+	}
+
+	private static EntityTree buildWithDom4j(byte[] xml) throws Exception
+	{
+		Element treeElement = new SAXReader().read(new ByteArrayInputStream(xml)).getRootElement();
+		EntityTree entityTree = new EntityTree();
+		entityTree.setProjectEntity(EntityTreeBuilder.buildTree(treeElement));
+		entityTree.setLastEntityId(EntityTreeBuilder.getLastEntityId(treeElement));
+		return entityTree;
+	}
+
+	private static EntityTree buildWithStream(byte[] xml) throws Exception
+	{
+		EntityTree entityTree = new EntityTree();
+		EntityTreeBuilder.buildTree(new ByteArrayInputStream(xml), entityTree);
+		return entityTree;
+	}
+}
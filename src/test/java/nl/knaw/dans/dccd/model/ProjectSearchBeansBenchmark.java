@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.knaw.dans.dccd.search.DccdProjectSB;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Compares generating the search beans of the test data projects; 
+ * filling the project bean with all entities and then walking the tree again 
+ * for each object (ProjectEntity.getSearchBeans), against the single pass ProjectSearchBeans. 
+ * Reports the cpu time per 1000 entities, for each permission level.
+ * 
+ * Not run by the normal build (excluded in the pom), 
+ * run it with: mvn test -Dtest=ProjectSearchBeansBenchmark
+ */
+public class ProjectSearchBeansBenchmark
+{
+	private static Logger logger = Logger.getLogger(ProjectSearchBeansBenchmark.class);
+
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 10;
+
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		List<Project> projects = new ArrayList<Project>();
+		long entityCount = 0;
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			Project project = TridasTestData.loadProject(file);
+			projects.add(project);
+			entityCount += project.entityTree.getEntities().size();
+		}
+		logger.info("Benchmarking with " + projects.size() + " projects, " + entityCount + " entities");
+
+		ProjectPermissionLevel[] levels = { ProjectPermissionLevel.minimum(), 
+				ProjectPermissionLevel.OBJECT, ProjectPermissionLevel.maximum() };
+		for (ProjectPermissionLevel level : levels)
+		{
+			for (int i = 0; i < WARMUP_ROUNDS; i++)
+			{
+				generateWithTreeWalks(projects, level);
+				generateInOnePass(projects, level);
+			}
+
+			long walksTotal = 0;
+			long onePassTotal = 0;
+			for (int i = 0; i < ROUNDS; i++)
+			{
+				long cpu = threadBean.getCurrentThreadCpuTime();
+				generateWithTreeWalks(projects, level);
+				walksTotal += threadBean.getCurrentThreadCpuTime() - cpu;
+
+				cpu = threadBean.getCurrentThreadCpuTime();
+				generateInOnePass(projects, level);
+				onePassTotal += threadBean.getCurrentThreadCpuTime() - cpu;
+			}
+
+			report(level + " tree walk per object", walksTotal, entityCount);
+			report(level + " one pass            ", onePassTotal, entityCount);
+		}
+	}
+
+	private void report(String label, long total, long entityCount)
+	{
+		logger.info(label + ": cpu " + (total / ROUNDS / 1000000.0 * 1000 / entityCount) + " ms per 1000 entities");
+	}
+
+	private static int generateWithTreeWalks(List<Project> projects, ProjectPermissionLevel level)
+	{
+		int beanCount = 0;
+		for (Project project : projects)
+		{
+			TestProjectSearchBeans.fillCompleteBean(project.entityTree);
+			beanCount += 1 + project.entityTree.getProjectEntity().getSearchBeans(level).size();
+		}
+		return beanCount;
+	}
+
+	private static int generateInOnePass(List<Project> projects, ProjectPermissionLevel level)
+	{
+		int beanCount = 0;
+		for (Project project : projects)
+		{
+			ProjectSearchBeans beans = ProjectSearchBeans.generate(project.entityTree.getProjectEntity(), 
+					new DccdProjectSB(), level, project.getStatistics().getEntityCounts());
+			beanCount += 1 + beans.getObjectBeans().size();
+		}
+		return beanCount;
+	}
+}
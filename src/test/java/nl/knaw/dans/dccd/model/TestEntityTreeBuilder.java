@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.List;
+
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+public class TestEntityTreeBuilder
+{
+	private static EntityTree buildWithStream(String xml) throws Exception
+	{
+		EntityTree entityTree = new EntityTree();
+		EntityTreeBuilder.buildTree(new ByteArrayInputStream(xml.getBytes("UTF-8")), entityTree);
+		return entityTree;
+	}
+
+	private static EntityTree buildWithDom4j(String xml) throws Exception
+	{
+		Element treeElement = DocumentHelper.parseText(xml).getRootElement();
+		EntityTree entityTree = new EntityTree();
+		entityTree.setProjectEntity(EntityTreeBuilder.buildTree(treeElement));
+		entityTree.setLastEntityId(EntityTreeBuilder.getLastEntityId(treeElement));
+		return entityTree;
+	}
+
+	static void assertSameStructure(String message, EntityTree expected, EntityTree actual)
+	{
+		List<Entity> expectedEntities = expected.getEntities();
+		List<Entity> actualEntities = actual.getEntities();
+		assertEquals(message, expectedEntities.size(), actualEntities.size());
+		for (int i = 0; i < expectedEntities.size(); i++)
+		{
+			Entity expectedEntity = expectedEntities.get(i);
+			Entity actualEntity = actualEntities.get(i);
+			assertEquals(message, expectedEntity.getClass(), actualEntity.getClass());
+			assertEquals(message, expectedEntity.getId(), actualEntity.getId());
+			assertEquals(message, expectedEntity.getTitle(), actualEntity.getTitle());
+			assertEquals(message, expected.getIndex().getDepth(i), actual.getIndex().getDepth(i));
+		}
+		assertEquals(message, expected.getLastEntityId(), actual.getLastEntityId());
+	}
+
+	@Test
+	public void testSameAsDom4jForAllTestData() throws Exception
+	{
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			EntityTree entityTree = TridasTestData.loadProject(file).entityTree;
+			String xml = entityTree.asXMLString();
+
+			assertSameStructure(file.getName(), entityTree, buildWithStream(xml));
+			assertSameStructure(file.getName(), buildWithDom4j(xml), buildWithStream(xml));
+		}
+	}
+
+	@Test
+	public void testUnknownAndUnorderedElements() throws Exception
+	{
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<entitytree:entitytree xmlns:entitytree=\"http://dans.knaw.nl/dccd/entitytree/\" version=\"0.1\" lastDatastreamId=\"12\">"
+			+ "<entitytree:project datastreamId=\"TF1\" title=\"p\">"
+			+ "<entitytree:derivedseries datastreamId=\"TF2\" title=\"d\"><entitytree:values datastreamId=\"TF3\" title=\"\"/></entitytree:derivedseries>"
+			+ "<entitytree:unknown><entitytree:object datastreamId=\"TF9\" title=\"skipped\"/></entitytree:unknown>"
+			+ "<entitytree:object datastreamId=\"TF4\" title=\"o1\"><entitytree:sample datastreamId=\"TF10\" title=\"misplaced\"/></entitytree:object>"
+			+ "<entitytree:object datastreamId=\"TF5\" title=\"o2\"/>"
+			+ "</entitytree:project>"
+			+ "<entitytree:project datastreamId=\"TF6\" title=\"second\"/>"
+			+ "</entitytree:entitytree>";
+
+		EntityTree entityTree = buildWithStream(xml);
+		assertSameStructure("unordered", buildWithDom4j(xml), entityTree);
+		// the objects first
+		assertEquals("TF4", entityTree.getEntities().get(1).getId());
+		assertEquals(5, entityTree.getEntities().size());
+		assertEquals(12, entityTree.getLastEntityId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoProject() throws Exception
+	{
+		buildWithStream("<entitytree version=\"0.1\"><object datastreamId=\"TF1\"/></entitytree>");
+	}
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.model.entities.RadiusEntity;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.dom4j.Element;
+import org.junit.Test;
+import org.tridas.schema.TridasMeasurementSeries;
+import org.tridas.schema.TridasRadius;
+import org.tridas.schema.TridasValues;
+
+public class TestEntityTreeChange
+{
+	private static Project loadProject() throws Exception
+	{
+		File file = TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+		return TridasTestData.loadProject(file);
+	}
+
+	private static Map<Entity, String> getIds(EntityTree entityTree)
+	{
+		Map<Entity, String> ids = new HashMap<Entity, String>();
+		for (Entity entity : entityTree.getEntities())
+		{
+			ids.put(entity, entity.getId());
+		}
+		return ids;
+	}
+
+	private static TridasMeasurementSeries createSeries(String title)
+	{
+		TridasMeasurementSeries series = new TridasMeasurementSeries();
+		series.setTitle(title);
+		series.getValues().add(new TridasValues());
+		return series;
+	}
+
+	@Test
+	public void testAddAndRemoveSeries() throws Exception
+	{
+		Project project = loadProject();
+		EntityTree entityTree = project.entityTree;
+		int entityCount = entityTree.getEntities().size();
+		assertEquals(entityCount, entityTree.getLastEntityId());
+		Map<Entity, String> ids = getIds(entityTree);
+
+		RadiusEntity radius = entityTree.getEntities(RadiusEntity.class).get(0);
+		TridasRadius tridasRadius = (TridasRadius) radius.getTridasAsObject();
+		tridasRadius.getMeasurementSeries().add(createSeries("added series"));
+		entityTree.setDirty(false);
+
+		EntityTreeChange change = project.updateEntityTree(radius);
+		assertEquals(2, change.getAddedEntities().size());
+		assertTrue(change.getRemovedEntities().isEmpty());
+		assertTrue(entityTree.isDirty());
+		MeasurementSeriesEntity added = (MeasurementSeriesEntity) change.getAddedEntities().get(0);
+		assertEquals("added series", added.getTitle());
+		assertEquals(EntityTree.ENTITY_ID_PREFIX + (entityCount + 1), added.getId());
+		assertTrue(change.getAddedEntities().get(1) instanceof ValuesEntity);
+		assertEquals(EntityTree.ENTITY_ID_PREFIX + (entityCount + 2), change.getAddedEntities().get(1).getId());
+		assertSame(added, entityTree.getEntity(added.getId()));
+		assertEquals(entityCount + 2, entityTree.getEntities().size());
+
+		// the others kept their id's
+		for (Map.Entry<Entity, String> entry : ids.entrySet())
+		{
+			assertEquals(entry.getValue(), entry.getKey().getId());
+			assertSame(entry.getKey(), entityTree.getEntity(entry.getValue()));
+		}
+
+		// remove the added one and add another; no id's are used again
+		tridasRadius.getMeasurementSeries().remove(added.getTridasAsObject());
+		tridasRadius.getMeasurementSeries().add(createSeries("another series"));
+		change = project.updateEntityTree(radius);
+		List<Entity> removed = new ArrayList<Entity>(change.getRemovedEntities());
+		assertEquals(2, removed.size());
+		assertSame(added, removed.get(0));
+		assertEquals(EntityTree.ENTITY_ID_PREFIX + (entityCount + 3), change.getAddedEntities().get(0).getId());
+		assertEquals(entityCount + 2, entityTree.getEntities().size());
+		// their datastreams are purged by the update of the project
+		assertEquals(Arrays.asList(added.getId(), removed.get(1).getId()), project.getRemovedEntityIds());
+		project.clearRemovedEntityIds(project.getRemovedEntityIds());
+		assertTrue(project.getRemovedEntityIds().isEmpty());
+
+		// nothing changed
+		assertTrue(project.updateEntityTree(radius).isEmpty());
+	}
+
+	@Test
+	public void testLastIdIsStoredWithTheStructure() throws Exception
+	{
+		Project project = loadProject();
+		EntityTree entityTree = project.entityTree;
+		RadiusEntity radius = entityTree.getEntities(RadiusEntity.class).get(0);
+		TridasRadius tridasRadius = (TridasRadius) radius.getTridasAsObject();
+		tridasRadius.getMeasurementSeries().add(createSeries("added series"));
+		project.updateEntityTree(radius);
+		// removing it leaves the id's of the last two unused
+		tridasRadius.getMeasurementSeries().remove(tridasRadius.getMeasurementSeries().size() - 1);
+		project.updateEntityTree(radius);
+		int lastId = entityTree.getLastEntityId();
+
+		Element treeElement = entityTree.getTreeStructAsDocument().getRootElement();
+		assertEquals(lastId, EntityTreeBuilder.getLastEntityId(treeElement));
+
+		EntityTree restored = new EntityTree();
+		restored.setProjectEntity(EntityTreeBuilder.buildTree(treeElement));
+		assertFalse(lastId == restored.getLastEntityId());
+		restored.setLastEntityId(EntityTreeBuilder.getLastEntityId(treeElement));
+		assertEquals(lastId, restored.getLastEntityId());
+	}
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+
+public class TestEntityTreeIndex
+{
+	// the straightforward recursive pre-order walk
+	private static void collect(Entity entity, List<Entity> list)
+	{
+		list.add(entity);
+		for (Entity subEntity : entity.getDendroEntities())
+		{
+			collect(subEntity, list);
+		}
+	}
+
+	@Test
+	public void testPreOrderForAllTestData() throws Exception
+	{
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			Project project = TridasTestData.loadProject(file);
+			EntityTree entityTree = project.entityTree;
+
+			List<Entity> expected = new ArrayList<Entity>();
+			collect(entityTree.getProjectEntity(), expected);
+			assertEquals(file.getName(), expected, entityTree.getEntities());
+			assertEquals(file.getName(), expected.subList(1, expected.size()), entityTree.getProjectEntity().getSubTreeAsList());
+
+			for (Entity entity : expected)
+			{
+				assertSame(entity, entityTree.getEntity(entity.getId()));
+			}
+		}
+	}
+
+	@Test
+	public void testLookups() throws Exception
+	{
+		File file = TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+		EntityTree entityTree = TridasTestData.loadProject(file).entityTree;
+		EntityTreeIndex index = entityTree.getIndex();
+
+		// the same index until the structure changes
+		assertSame(index, entityTree.getIndex());
+		assertEquals(0, index.getDepth(0));
+		assertNull(entityTree.getEntity("no such id"));
+
+		int seriesCount = 0;
+		for (Entity entity : entityTree.getEntities())
+		{
+			if (entity instanceof MeasurementSeriesEntity)
+				seriesCount++;
+		}
+		assertEquals(seriesCount, entityTree.getMeasurementSeriesEntities().size());
+		assertEquals(1, entityTree.getEntities(ProjectEntity.class).size());
+
+		entityTree.setProjectEntity(entityTree.getProjectEntity());
+		assertNotSame(index, entityTree.getIndex());
+	}
+
+	@Test
+	public void testVisitorCanStop() throws Exception
+	{
+		File file = TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+		EntityTreeIndex index = TridasTestData.loadProject(file).entityTree.getIndex();
+		assertTrue(index.size() > 1);
+
+		final List<Entity> visited = new ArrayList<Entity>();
+		boolean completed = index.accept(new EntityTreeIndex.Visitor()
+		{
+			public boolean visit(Entity entity, int depth)
+			{
+				visited.add(entity);
+				return depth == 0; // stop after the first child of the root
+			}
+		});
+
+		assertFalse(completed);
+		assertEquals(2, visited.size());
+	}
+
+	@Test
+	public void testEmptyTree()
+	{
+		EntityTree entityTree = new EntityTree();
+		assertEquals(0, entityTree.getEntities().size());
+		assertEquals(0, entityTree.getMeasurementSeriesEntities().size());
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.dccd.model.entities.AbstractEntityVisitor;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+
+public class TestEntityVisitor
+{
+	private static class CountingVisitor extends AbstractEntityVisitor
+	{
+		final Map<Class<?>, Integer> counts = new HashMap<Class<?>, Integer>();
+		final List<Entity> visited = new ArrayList<Entity>();
+
+		@Override
+		protected void visitEntity(Entity entity)
+		{
+			Integer count = counts.get(entity.getClass());
+			counts.put(entity.getClass(), (count == null) ? 1 : count + 1);
+			visited.add(entity);
+		}
+	}
+
+	private static class SeriesVisitor extends AbstractEntityVisitor
+	{
+		final List<MeasurementSeriesEntity> series = new ArrayList<MeasurementSeriesEntity>();
+
+		@Override
+		public void visit(MeasurementSeriesEntity entity)
+		{
+			series.add(entity);
+		}
+	}
+
+	@Test
+	public void testOneWalkWithSeveralVisitors() throws Exception
+	{
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			EntityTree entityTree = TridasTestData.loadProject(file).entityTree;
+			CountingVisitor counter = new CountingVisitor();
+			SeriesVisitor seriesVisitor = new SeriesVisitor();
+			entityTree.accept(counter, seriesVisitor);
+
+			List<Entity> entities = entityTree.getEntities();
+			assertEquals(file.getName(), entities, counter.visited);
+			assertEquals(file.getName(), entityTree.getMeasurementSeriesEntities(), seriesVisitor.series);
+			for (Map.Entry<Class<?>, Integer> entry : counter.counts.entrySet())
+			{
+				assertEquals(file.getName() + " " + entry.getKey().getSimpleName(), 
+						entityTree.getIndex().getEntities(entry.getKey().asSubclass(Entity.class)).size(), 
+						entry.getValue().intValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import nl.knaw.dans.dccd.application.services.FootprintMetrics;
+import nl.knaw.dans.dccd.model.entities.ObjectEntity;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+public class TestProjectFootprint
+{
+	private static Logger logger = Logger.getLogger(TestProjectFootprint.class);
+
+	@Test
+	public void testFootprintForAllTestData() throws Exception
+	{
+		FootprintMetrics metrics = new FootprintMetrics();
+		for (File file : TridasTestData.getAllXmlFiles())
+		{
+			String message = file.getName();
+			Project project = TridasTestData.loadProject(file);
+			ProjectFootprint footprint = project.getFootprint();
+			logger.info(file.getName() + ": " + footprint);
+
+			long sum = 0;
+			for (Long bytes : footprint.getCategories().values())
+			{
+				sum += bytes;
+			}
+			assertEquals(message, sum, footprint.getTotal());
+			assertTrue(message, footprint.getEntities(ProjectEntity.class) > 0);
+			assertTrue(message, footprint.get(ProjectFootprint.PROJECT) > 0);
+			if (!project.entityTree.getEntities(ObjectEntity.class).isEmpty())
+				assertTrue(message, footprint.getEntities(ObjectEntity.class) > 0);
+			if (project.getStatistics().getRingCount() > 0)
+				assertTrue(message, footprint.get(ProjectFootprint.VALUES) > 0);
+
+			metrics.record(footprint);
+		}
+		logger.info(metrics);
+		assertEquals(TridasTestData.getAllXmlFiles().size(), metrics.getCount());
+		assertTrue(metrics.getMax() <= metrics.getTotal());
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.ObjectEntity;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.search.DccdProjectSB;
+import nl.knaw.dans.dccd.search.DccdSB;
+import nl.knaw.dans.dccd.search.DccdSBBuilder;
+import nl.knaw.dans.dccd.search.DccdSBDigest;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+
+public class TestProjectSearchBeans
+{
+	@Test
+	public void testSameAsTreeWalkPerObject() throws Exception
+	{
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			Project project = TridasTestData.loadProject(file);
+			ProjectEntity projectEntity = project.entityTree.getProjectEntity();
+			for (ProjectPermissionLevel level : ProjectPermissionLevel.values())
+			{
+				String message = file.getName() + " " + level;
+				DccdProjectSB projectBean = new DccdProjectSB();
+				ProjectSearchBeans beans = ProjectSearchBeans.generate(projectEntity, projectBean, level, 
+						project.getStatistics().getEntityCounts());
+
+				assertSame(message, projectBean, beans.getProjectBean());
+				assertTrue(message, Arrays.equals(DccdSBDigest.digest(fillCompleteBean(project.entityTree)), 
+						DccdSBDigest.digest(beans.getProjectBean())));
+
+				List<DccdSB> expected = projectEntity.getSearchBeans(level);
+				List<DccdSB> objectBeans = beans.getObjectBeans();
+				assertEquals(message, project.entityTree.getEntities(ObjectEntity.class).size(), objectBeans.size());
+				assertEquals(message, expected.size(), objectBeans.size());
+				for (int i = 0; i < expected.size(); i++)
+				{
+					assertEquals(message, expected.get(i).getDatastreamId(), objectBeans.get(i).getDatastreamId());
+					assertTrue(message + " " + expected.get(i).getDatastreamId(), 
+							Arrays.equals(DccdSBDigest.digest(expected.get(i)), DccdSBDigest.digest(objectBeans.get(i))));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNoObjectBeansWithoutTridas()
+	{
+		ProjectEntity projectEntity = new ProjectEntity();
+		ObjectEntity objectEntity = new ObjectEntity();
+		projectEntity.getDendroEntities().add(objectEntity);
+
+		ProjectSearchBeans beans = ProjectSearchBeans.generate(projectEntity, new DccdProjectSB(), 
+				ProjectPermissionLevel.maximum(), Collections.<Class<? extends Entity>, Integer> emptyMap());
+		assertTrue(beans.getObjectBeans().isEmpty());
+	}
+
+	// the project bean as filled by Project, with all subentities after the project entity
+	static DccdSB fillCompleteBean(EntityTree entityTree)
+	{
+		List<Entity> entities = entityTree.getEntities();
+		DccdSBBuilder builder = new DccdSBBuilder(new DccdProjectSB(), entities.size());
+		for (Entity entity : entities)
+		{
+			entity.fillSearchBean(builder);
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.tridas.TridasDigest;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+
+public class TestProjectSnapshotCodec
+{
+	private static Project loadProject(File file) throws Exception
+	{
+		Project project = TridasTestData.loadProject(file);
+		project.setFileName(file.getName());
+		project.setTridasLanguage(new Locale("nl", "NL"));
+
+		DccdUserImpl user = new DccdUserImpl();
+		user.setId("testuser");
+		user.setSurname("Janssen");
+		user.setEmail("jan.jansen@bar.com");
+		user.setState(DccdUser.State.ACTIVE);
+		DccdOrganisationImpl organisation = new DccdOrganisationImpl("testOrganisation");
+		organisation.setState(DccdOrganisation.State.ACTIVE);
+		project.setCreationMetadata(new ProjectCreationMetadata(user, organisation));
+		project.getPermissionMetadata().setUserPermission("tovaluesuser", ProjectPermissionLevel.VALUES);
+		project.getAdministrativeMetadata().setManagerId("testuser");
+		project.getAdministrativeMetadata().setLegalOwnerOrganisationId("testOrganisation");
+
+		project.addOriginalFileBinaryUnit(file.getName(), DccdOriginalFileBinaryUnit.UNIT_ID_PREFIX + 1);
+		return project;
+	}
+
+	@Test
+	public void testRoundTripAllTestData() throws Exception
+	{
+		for (File file : TridasTestData.getAllXmlFiles())
+		{
+			String message = file.getPath();
+			Project project = loadProject(file);
+			Project copy = ProjectSnapshotCodec.fromBytes(ProjectSnapshotCodec.toBytes(project));
+
+			assertEquals(message, project.getSid(), copy.getSid());
+			assertEquals(message, project.getTitle(), copy.getTitle());
+			assertEquals(message, project.getFileName(), copy.getFileName());
+			assertEquals(message, project.getTridasLanguage(), copy.getTridasLanguage());
+
+			assertEquals(message, project.getCreationMetadata().asXMLString(), copy.getCreationMetadata().asXMLString());
+			assertEquals(message, project.getPermissionMetadata().asXMLString(), copy.getPermissionMetadata().asXMLString());
+			assertEquals(message, project.getAdministrativeMetadata().asXMLString(), copy.getAdministrativeMetadata().asXMLString());
+
+			assertEquals(message, 1, copy.getOriginalFileBinaryUnits().size());
+			assertEquals(message, file.getName(), copy.getOriginalFileBinaryUnits().get(0).getFileName());
+			assertEquals(message, project.getOriginalFileBinaryUnits().get(0).getUnitId(), 
+					copy.getOriginalFileBinaryUnits().get(0).getUnitId());
+
+			assertEquals(message, project.hasTridasVocabulary(), copy.hasTridasVocabulary());
+			if (project.hasTridasVocabulary())
+				assertArrayEquals(message, TridasDigest.digest(project.getVocabulary().getTridasAsObject()), 
+						TridasDigest.digest(copy.getVocabulary().getTridasAsObject()));
+
+			TestEntityTreeBuilder.assertSameStructure(message, project.entityTree, copy.entityTree);
+			assertArrayEquals(message, TridasDigest.digest(project.getTridas()), TridasDigest.digest(copy.getTridas()));
+			for (Entity entity : copy.entityTree.getEntities())
+			{
+				assertFalse(message + " " + entity.getId(), entity.isDirty());
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupportedVersion() throws Exception
+	{
+		byte[] snapshot = ProjectSnapshotCodec.toBytes(loadProject(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0]));
+		snapshot[7] = (byte) (ProjectSnapshotCodec.VERSION + 1); // last byte of the version
+		ProjectSnapshotCodec.fromBytes(snapshot);
+	}
+
+	@Test
+	public void testIncompleteSnapshot() throws Exception
+	{
+		byte[] snapshot = ProjectSnapshotCodec.toBytes(loadProject(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0]));
+		try
+		{
+			ProjectSnapshotCodec.fromBytes(Arrays.copyOf(snapshot, snapshot.length / 2));
+			fail("incomplete snapshot was read");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testCorruptLength() throws Exception
+	{
+		// a huge length for the title, the snapshot ends long before that
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(ProjectSnapshotCodec.MAGIC);
+		out.writeInt(ProjectSnapshotCodec.VERSION);
+		DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(out));
+		data.writeInt(3);
+		data.writeBytes("sid");
+		data.writeInt(Integer.MAX_VALUE - 8);
+		data.writeBytes("title");
+		data.close();
+		try
+		{
+			ProjectSnapshotCodec.fromBytes(bytes.toByteArray());
+			fail("corrupt snapshot was read");
+		}
+		catch (IOException e)
+		{
+			// expected, and not an OutOfMemoryError
+		}
+	}
+}
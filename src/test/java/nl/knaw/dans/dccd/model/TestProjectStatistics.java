@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+
+import nl.knaw.dans.dccd.model.entities.ElementEntity;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.model.entities.ObjectEntity;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+import org.tridas.schema.ControlledVoc;
+import org.tridas.schema.TridasElement;
+import org.tridas.schema.TridasValues;
+
+public class TestProjectStatistics
+{
+	@Test
+	public void testStatisticsForAllTestData() throws Exception
+	{
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			String message = file.getName();
+			Project project = TridasTestData.loadProject(file);
+			ProjectStatistics statistics = project.getStatistics();
+
+			assertEquals(message, project.entityTree.getEntities().size(), statistics.getEntityCount());
+			assertEquals(message, 1, statistics.getEntityCount(ProjectEntity.class));
+			assertEquals(message, project.entityTree.getEntities(ObjectEntity.class).size(), statistics.getEntityCount(ObjectEntity.class));
+			assertEquals(message, project.getMeasurementSeriesEntities().size(), statistics.getEntityCount(MeasurementSeriesEntity.class));
+
+			long ringCount = 0;
+			for (ValuesEntity entity : project.entityTree.getEntities(ValuesEntity.class))
+			{
+				ringCount += ((TridasValues) entity.getTridasAsObject()).getValues().size();
+			}
+			assertEquals(message, ringCount, statistics.getRingCount());
+
+			Set<String> taxa = new TreeSet<String>();
+			for (ElementEntity entity : project.entityTree.getEntities(ElementEntity.class))
+			{
+				TridasElement element = (TridasElement) entity.getTridasAsObject();
+				if (element.isSetTaxon())
+					taxa.add(element.getTaxon().getValue());
+			}
+			assertEquals(message, taxa, statistics.getTaxa());
+
+			if (statistics.getFirstYear() != null && statistics.getLastYear() != null)
+				assertTrue(message, statistics.getFirstYear() <= statistics.getLastYear());
+			assertTrue(message, statistics.getObjectLocations().size() <= statistics.getEntityCount(ObjectEntity.class));
+		}
+	}
+
+	@Test
+	public void testComputedOnce() throws Exception
+	{
+		Project project = TridasTestData.loadProject(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0]);
+		ProjectStatistics statistics = project.getStatistics();
+		assertSame(statistics, project.getStatistics());
+
+		// compact values are counted without expanding them
+		project.compactValues();
+		project.invalidateStatistics();
+		ProjectStatistics compactStatistics = project.getStatistics();
+		assertNotSame(statistics, compactStatistics);
+		assertEquals(statistics.getRingCount(), compactStatistics.getRingCount());
+		for (ValuesEntity entity : project.entityTree.getEntities(ValuesEntity.class))
+		{
+			assertTrue(entity.isCompact());
+		}
+
+		project.updateEntityTree();
+		assertNotSame(compactStatistics, project.getStatistics());
+	}
+
+	@Test
+	public void testStructureChange() throws Exception
+	{
+		Project project = TridasTestData.loadProject(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0]);
+		int entityCount = project.getStatistics().getEntityCount();
+
+		// remove the first object from the tridas and the tree
+		ProjectEntity projectEntity = project.entityTree.getProjectEntity();
+		Entity removed = project.entityTree.getEntities(ObjectEntity.class).get(0);
+		project.getTridas().getObjects().remove(removed.getTridasAsObject());
+		EntityTreeChange change = project.updateEntityTree(projectEntity);
+
+		assertEquals(entityCount - change.getRemovedEntities().size(), project.getStatistics().getEntityCount());
+	}
+
+	@Test
+	public void testComputedAtUpdate() throws Exception
+	{
+		Project project = TridasTestData.loadProject(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0]);
+		project.updateEntityTree();
+
+		// changed after the update, the statistics are those of the update
+		ControlledVoc taxon = new ControlledVoc();
+		taxon.setValue("Not a taxon of the test data");
+		ElementEntity elementEntity = project.entityTree.getEntities(ElementEntity.class).get(0);
+		((TridasElement) elementEntity.getTridasAsObject()).setTaxon(taxon);
+		assertFalse(project.getStatistics().getTaxa().contains(taxon.getValue()));
+
+		project.updateEntityTree();
+		assertTrue(project.getStatistics().getTaxa().contains(taxon.getValue()));
+	}
+}
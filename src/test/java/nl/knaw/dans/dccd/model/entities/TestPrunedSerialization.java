@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.model.entities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.tridas.TridasDigest;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.junit.Test;
+import org.tridas.schema.TridasMeasurementSeries;
+import org.tridas.schema.TridasProject;
+import org.tridas.schema.TridasValues;
+
+public class TestPrunedSerialization
+{
+	private static final int THREADS = 4;
+	private static final int ROUNDS = 10;
+
+	private static Project loadProject() throws Exception
+	{
+		return TridasTestData.loadProject(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0]);
+	}
+
+	@Test
+	public void testSerializingLeavesTridasUnchanged() throws Exception
+	{
+		Project project = loadProject();
+		TridasProject tridas = project.getTridas();
+		byte[] digest = TridasDigest.digest(tridas);
+
+		for (MeasurementSeriesEntity entity : project.entityTree.getEntities(MeasurementSeriesEntity.class))
+		{
+			TridasMeasurementSeries series = (TridasMeasurementSeries) entity.getTridasAsObject();
+			List<TridasValues> values = series.getValues();
+			int size = values.size();
+
+			String xml = entity.asXMLString();
+			assertFalse(xml.contains("<tridas:values") || xml.contains("<values"));
+			entity.asElement();
+			entity.isDirty();
+
+			assertSame(values, series.getValues());
+			assertEquals(size, series.getValues().size());
+		}
+		project.entityTree.getProjectEntity().asXMLString();
+
+		assertArrayEquals(digest, TridasDigest.digest(tridas));
+	}
+
+	@Test
+	public void testConcurrentSerializing() throws Exception
+	{
+		Project project = loadProject();
+		final List<Entity> entities = project.entityTree.getEntities();
+		final List<String> expected = new ArrayList<String>();
+		for (Entity entity : entities)
+		{
+			expected.add(entity.getXMLString());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < THREADS; t++)
+			{
+				results.add(executor.submit(new Callable<Boolean>()
+				{
+					public Boolean call() throws Exception
+					{
+						for (int round = 0; round < ROUNDS; round++)
+						{
+							for (int i = 0; i < entities.size(); i++)
+							{
+								if (!expected.get(i).equals(entities.get(i).getXMLString()))
+									return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results)
+			{
+				assertEquals(Boolean.TRUE, result.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
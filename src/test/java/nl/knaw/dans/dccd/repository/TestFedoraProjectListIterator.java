@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.repository.fedora.FedoraProjectListException;
+import nl.knaw.dans.dccd.repository.fedora.FedoraProjectListIterator;
+
+import org.junit.Test;
+
+public class TestFedoraProjectListIterator
+{
+	private static final String PAGE_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + 
+		"<result xmlns=\"http://www.fedora.info/definitions/1/0/types/\">\n";
+
+	private static String page(String token, int from, int to)
+	{
+		StringBuilder xml = new StringBuilder(PAGE_START);
+		if (token != null)
+		{
+			xml.append("<listSession><token>").append(token).append("</token>");
+			xml.append("<cursor>0</cursor><completeListSize>5</completeListSize></listSession>\n");
+		}
+		xml.append("<resultList>\n");
+		for (int i = from; i <= to; i++)
+		{
+			xml.append("<objectFields><pid>dccd:").append(i).append("</pid>");
+			xml.append("<title>Project ").append(i).append("</title></objectFields>\n");
+		}
+		xml.append("</resultList>\n</result>\n");
+		return xml.toString();
+	}
+
+	// serves the pages from memory and records the tokens used
+	private static class PagesIterator extends FedoraProjectListIterator
+	{
+		final String[] pages;
+		final List<String> tokens = new ArrayList<String>();
+
+		PagesIterator(String... pages)
+		{
+			super("http://localhost/fedora", 2);
+			this.pages = pages;
+		}
+
+		@Override
+		protected InputStream openPage(String token) throws IOException
+		{
+			tokens.add(token);
+			return new ByteArrayInputStream(pages[tokens.size() - 1].getBytes("UTF-8"));
+		}
+	}
+
+	@Test
+	public void testFollowsSessionToken()
+	{
+		PagesIterator iterator = new PagesIterator(page("abc", 1, 2), page("def", 3, 4), page(null, 5, 5));
+		List<String> ids = new ArrayList<String>();
+		while (iterator.hasNext())
+		{
+			Project project = iterator.next();
+			ids.add(project.getSid());
+		}
+
+		assertEquals(5, ids.size());
+		assertEquals("dccd:1", ids.get(0));
+		assertEquals("dccd:5", ids.get(4));
+		assertEquals(3, iterator.getPageCount());
+		assertNull(iterator.tokens.get(0));
+		assertEquals("abc", iterator.tokens.get(1));
+		assertEquals("def", iterator.tokens.get(2));
+	}
+
+	@Test
+	public void testPagesAreReadWhenNeeded()
+	{
+		PagesIterator iterator = new PagesIterator(page("abc", 1, 2), page(null, 3, 3));
+		assertTrue(iterator.hasNext());
+		assertEquals("Project 1", iterator.next().getTitle());
+		assertEquals(1, iterator.getPageCount());
+
+		iterator.close();
+		assertFalse(iterator.hasNext());
+		assertEquals(1, iterator.getPageCount());
+	}
+
+	@Test
+	public void testEmptyResult()
+	{
+		PagesIterator iterator = new PagesIterator(page(null, 1, 0));
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test(expected = FedoraProjectListException.class)
+	public void testIncorrectResult()
+	{
+		PagesIterator iterator = new PagesIterator(PAGE_START + "<resultList><objectFields><pid>dccd:1</pid>");
+		iterator.hasNext();
+		iterator.next();
+		iterator.hasNext();
+	}
+}
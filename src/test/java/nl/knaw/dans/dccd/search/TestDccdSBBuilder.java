@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.dans.common.lang.search.bean.annotation.SearchField;
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.entities.ElementEntity;
+import nl.knaw.dans.dccd.model.entities.Entity;
+import nl.knaw.dans.dccd.model.entities.ObjectEntity;
+import nl.knaw.dans.dccd.model.entities.SampleEntity;
+import nl.knaw.dans.dccd.tridas.TridasTestData;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.tridas.schema.TridasElement;
+
+public class TestDccdSBBuilder
+{
+	@Test
+	public void testAddAndBuild()
+	{
+		DccdSB bean = new DccdObjectSB();
+		DccdSBBuilder builder = new DccdSBBuilder(bean);
+		builder.add(DccdSBField.TRIDAS_ELEMENT_TITLE, "a").add(DccdSBField.TRIDAS_ELEMENT_TITLE, "b");
+		builder.add(DccdSBField.TRIDAS_ELEMENT_SLOPE_ANGLE, Integer.valueOf(12));
+		assertEquals(2, builder.getCount(DccdSBField.TRIDAS_ELEMENT_TITLE));
+		assertEquals(0, builder.getCount(DccdSBField.TRIDAS_SAMPLE_TITLE));
+
+		// nothing set before build
+		assertNull(bean.getTridasElementTitle());
+
+		assertSame(bean, builder.build());
+		assertEquals(Arrays.asList("a", "b"), bean.getTridasElementTitle());
+		assertEquals(Arrays.asList(Integer.valueOf(12)), bean.getTridasElementSlopeAngle());
+		// fields without values are left alone
+		assertNull(bean.getTridasSampleTitle());
+	}
+
+	@Test
+	public void testKeepsExistingValues()
+	{
+		DccdSB bean = new DccdObjectSB();
+		List<String> titles = new ArrayList<String>();
+		titles.add("first");
+		bean.setTridasElementTitle(titles);
+
+		new DccdSBBuilder(bean).add(DccdSBField.TRIDAS_ELEMENT_TITLE, "second").build();
+		assertEquals(Arrays.asList("first", "second"), bean.getTridasElementTitle());
+	}
+
+	@Test
+	public void testAddAll()
+	{
+		DccdSB template = new DccdObjectSB();
+		template.setTridasProjectTitle("project");
+		template.setTridasElementTitle(new ArrayList<String>(Arrays.asList("a")));
+
+		DccdSB bean = new DccdObjectSB();
+		new DccdSBBuilder(bean).addAll(template).add(DccdSBField.TRIDAS_ELEMENT_TITLE, "b").build();
+		assertEquals("project", bean.getTridasProjectTitle());
+		assertEquals(Arrays.asList("a", "b"), bean.getTridasElementTitle());
+		// the template is not changed
+		assertEquals(Arrays.asList("a"), template.getTridasElementTitle());
+		assertNull(bean.getTridasSampleTitle());
+	}
+
+	@Test
+	public void testAddAllCopiesAllSearchFields() throws Exception
+	{
+		DccdSB template = new DccdObjectSB();
+		List<Field> fields = new ArrayList<Field>();
+		for (Field field : DccdSB.class.getDeclaredFields())
+		{
+			if (field.getAnnotation(SearchField.class) == null)
+				continue;
+			field.setAccessible(true);
+			fields.add(field);
+			field.set(template, createValue(field));
+		}
+
+		DccdSB bean = new DccdSBBuilder(new DccdObjectSB()).addAll(template).build();
+		for (Field field : fields)
+			assertEquals(field.getName(), field.get(template), field.get(bean));
+	}
+
+	private static Object createValue(Field field)
+	{
+		if (List.class.equals(field.getType()))
+		{
+			DccdSBField listField = DccdSBField.forName(field.getAnnotation(SearchField.class).name());
+			List<Object> values = new ArrayList<Object>();
+			values.add(createValue(listField.getValueClass(), field.getName()));
+			return values;
+		}
+		return createValue(field.getType(), field.getName());
+	}
+
+	private static Object createValue(Class<?> type, String name)
+	{
+		if (String.class.equals(type))
+			return name;
+		if (Integer.class.equals(type))
+			return Integer.valueOf(name.length());
+		if (Double.class.equals(type))
+			return Double.valueOf(name.length());
+		if (DateTime.class.equals(type))
+			return new DateTime(name.length());
+		throw new IllegalArgumentException("No test value for " + type);
+	}
+
+	@Test
+	public void testAccessors() throws Exception
+	{
+		DccdSB bean = new DccdObjectSB();
+		for (DccdSBField field : DccdSBField.values())
+		{
+			List<Object> values = new ArrayList<Object>();
+			field.set(bean, values);
+			assertSame(field.getName(), values, field.get(bean));
+		}
+		// each accessor uses its own field of the bean
+		for (Field field : DccdSB.class.getDeclaredFields())
+		{
+			SearchField searchField = field.getAnnotation(SearchField.class);
+			if (searchField == null || !List.class.equals(field.getType()))
+				continue;
+			field.setAccessible(true);
+			assertSame(searchField.name(), field.get(bean), DccdSBField.forName(searchField.name()).get(bean));
+		}
+	}
+
+	@Test
+	public void testIncludedFieldsGetEmptyList()
+	{
+		DccdSB bean = new DccdObjectSB();
+		new DccdSBBuilder(bean).include(SampleEntity.class).add(DccdSBField.TRIDAS_SAMPLE_TITLE, "s").build();
+		assertEquals(Arrays.asList("s"), bean.getTridasSampleTitle());
+		assertTrue(bean.getTridasSampleIdentifier().isEmpty());
+		assertTrue(bean.getTridasSampleSamplingdate().isEmpty());
+		// not included
+		assertNull(bean.getTridasElementTitle());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongType()
+	{
+		new DccdSBBuilder(new DccdObjectSB()).add(DccdSBField.TRIDAS_ELEMENT_SLOPE_ANGLE, "12");
+	}
+
+	@Test
+	public void testAllListFields()
+	{
+		// the check of the builder that each multi-valued field of the bean has a DccdSBField
+		DccdSBBuilder builder = new DccdSBBuilder(new DccdObjectSB());
+		for (DccdSBField field : DccdSBField.values())
+		{
+			assertSame(field, DccdSBField.forName(field.getName()));
+			assertEquals(0, builder.getCount(field));
+		}
+		assertNull(DccdSBField.forName(DccdSB.TRIDAS_PROJECT_TITLE_NAME));
+	}
+
+	@Test
+	public void testSizedPerEntityClass()
+	{
+		Map<Class<? extends Entity>, Integer> expectedEntities = new HashMap<Class<? extends Entity>, Integer>();
+		expectedEntities.put(ElementEntity.class, 3);
+		DccdSB bean = new DccdProjectSB();
+		DccdSBBuilder builder = new DccdSBBuilder(bean, expectedEntities);
+		builder.add(DccdSBField.TRIDAS_ELEMENT_TITLE, "a").add(DccdSBField.TRIDAS_SAMPLE_TITLE, "s");
+		builder.build();
+		assertEquals(Arrays.asList("a"), bean.getTridasElementTitle());
+		assertEquals(Arrays.asList("s"), bean.getTridasSampleTitle());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testBuildOnce()
+	{
+		DccdSBBuilder builder = new DccdSBBuilder(new DccdObjectSB());
+		builder.build();
+		builder.build();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNoAddAfterBuild()
+	{
+		DccdSBBuilder builder = new DccdSBBuilder(new DccdObjectSB());
+		builder.build();
+		builder.add(DccdSBField.TRIDAS_ELEMENT_TITLE, "late");
+	}
+
+	@Test
+	public void testObjectBeansForAllTestData() throws Exception
+	{
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			Project project = TridasTestData.loadProject(file);
+			List<DccdSB> beans = project.entityTree.getProjectEntity().getSearchBeans();
+			List<ObjectEntity> objects = new ArrayList<ObjectEntity>();
+			for (Entity entity : project.entityTree.getProjectEntity().getSubTreeAsList())
+			{
+				if (entity instanceof ObjectEntity)
+					objects.add((ObjectEntity) entity);
+			}
+			assertEquals(file.getName(), objects.size(), beans.size());
+
+			for (int i = 0; i < beans.size(); i++)
+			{
+				List<String> expected = new ArrayList<String>();
+				for (Entity entity : objects.get(i).getSubTreeAsList())
+				{
+					if (entity instanceof ElementEntity)
+					{
+						TridasElement element = (TridasElement) entity.getTridasAsObject();
+						if (element.isSetTitle())
+							expected.add(element.getTitle());
+					}
+				}
+				List<String> titles = beans.get(i).getTridasElementTitle();
+				if (titles == null)
+					titles = new ArrayList<String>();
+				assertEquals(file.getName(), expected, titles);
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.entities.MeasurementSeriesEntity;
+import nl.knaw.dans.dccd.model.entities.ValuesEntity;
+
+import org.junit.Test;
+import org.tridas.schema.TridasMeasurementSeries;
+import org.tridas.schema.TridasProject;
+import org.tridas.schema.TridasValue;
+import org.tridas.schema.TridasValues;
+
+public class TestCompactTridasValues
+{
+	private static TridasValues createValues(String... texts)
+	{
+		TridasValues values = new TridasValues();
+		for (String text : texts)
+		{
+			TridasValue value = new TridasValue();
+			value.setValue(text);
+			values.getValues().add(value);
+		}
+		return values;
+	}
+
+	@Test
+	public void testRoundTripForAllTestData() throws Exception
+	{
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			Project project = TridasTestData.loadProject(file);
+			for (ValuesEntity entity : project.entityTree.getEntities(ValuesEntity.class))
+			{
+				TridasValues values = (TridasValues) entity.getTridasAsObject();
+				CompactTridasValues compact = CompactTridasValues.compact(values);
+				assertEquals(file.getName(), values.getValues().size(), compact.size());
+				assertArrayEquals(file.getName(), TridasDigest.digest(values), TridasDigest.digest(compact.materialize()));
+			}
+		}
+	}
+
+	@Test
+	public void testIntegers()
+	{
+		CompactTridasValues compact = CompactTridasValues.compact(createValues("120", "87", "-1", "007"));
+		assertTrue(compact.isIntegral());
+		assertEquals(1, compact.getIrregularCount());
+		assertEquals("007", compact.getValue(3));
+		assertEquals(87.0, compact.getDouble(1), 0.0);
+		assertArrayEquals(new double[] {120, 87, -1, 7}, compact.toDoubleArray(), 0.0);
+	}
+
+	@Test
+	public void testDecimalsAndText()
+	{
+		CompactTridasValues compact = CompactTridasValues.compact(createValues("1.5", "2", "0.25", "1.50", "abc"));
+		assertFalse(compact.isIntegral());
+		assertEquals(2, compact.getIrregularCount());
+		assertEquals("2", compact.getValue(1));
+		assertEquals("1.50", compact.getValue(3));
+		assertEquals(1.5, compact.getDouble(3), 0.0);
+		assertTrue(Double.isNaN(compact.getDouble(4)));
+
+		TridasValues values = compact.materialize();
+		assertEquals(5, values.getValues().size());
+		assertEquals("abc", values.getValues().get(4).getValue());
+	}
+
+	@Test
+	public void testCompactValuesEntity() throws Exception
+	{
+		Project project = TridasTestData.loadProject(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0]);
+		ValuesEntity entity = project.entityTree.getEntities(ValuesEntity.class).get(0);
+		entity.setDirty(false);
+		String xml = entity.getXMLString();
+		int count = entity.getValueCount();
+
+		assertTrue(entity.compactTridas());
+		assertTrue(entity.isCompact());
+		// serializing doesn't expand
+		assertEquals(xml, entity.getXMLString());
+		assertFalse(entity.isDirty());
+		assertEquals(count, entity.getValueCount());
+		assertTrue(entity.isCompact());
+
+		// getting the tridas gives a temporary copy
+		TridasValues values = (TridasValues) entity.getTridasAsObject();
+		assertTrue(entity.isCompact());
+		assertNotSame(values, entity.getTridasAsObject());
+		assertEquals(count, values.getValues().size());
+		assertEquals(xml, entity.getXMLString());
+
+		// setting it does not
+		entity.setTridasObject(values);
+		assertFalse(entity.isCompact());
+		assertSame(values, entity.getTridasAsObject());
+	}
+
+	@Test
+	public void testCompactConnectedProject() throws Exception
+	{
+		Project project = TridasTestData.loadProject(TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0]);
+		assertFalse(project.isTridasConnectDeferred());
+		byte[] digest = TridasDigest.digest(project.getTridas());
+
+		assertTrue(project.compactValues() > 0);
+		assertTrue(project.isValuesCompact());
+		// the series don't keep the values
+		for (MeasurementSeriesEntity entity : project.entityTree.getEntities(MeasurementSeriesEntity.class))
+			assertTrue(((TridasMeasurementSeries) entity.getTridasAsObject()).getValues().isEmpty());
+
+		// reading the tridas gives a connected copy and keeps the values compact
+		TridasProject tridas = project.getTridas();
+		assertArrayEquals(digest, TridasDigest.digest(tridas));
+		assertNotSame(tridas, project.getTridas());
+		for (ValuesEntity entity : project.entityTree.getEntities(ValuesEntity.class))
+			assertTrue(entity.isCompact());
+	}
+}
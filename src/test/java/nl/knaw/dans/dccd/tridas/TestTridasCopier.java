@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.tridas.schema.TridasObject;
+import org.tridas.schema.TridasProject;
+
+public class TestTridasCopier
+{
+	@Test
+	public void testDeepCopyForAllTestData() throws Exception
+	{
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			TridasProject tridas = TridasTestData.loadProject(file).getTridas();
+			TridasProject copy = TridasCopier.deepCopy(tridas);
+
+			assertNotSame(tridas, copy);
+			assertArrayEquals(file.getName(), TridasDigest.digest(tridas), TridasDigest.digest(copy));
+			// the same as the JAXB round trip
+			assertArrayEquals(file.getName(), TridasDigest.digest(TridasJAXBProvider.cloneTridas(tridas)), TridasDigest.digest(copy));
+		}
+	}
+
+	@Test
+	public void testDeepCopyIsIndependent() throws Exception
+	{
+		File file = TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+		TridasProject tridas = TridasTestData.loadProject(file).getTridas();
+		byte[] digest = TridasDigest.digest(tridas);
+
+		TridasProject copy = TridasCopier.deepCopy(tridas);
+		assertNotSame(tridas.getObjects(), copy.getObjects());
+		copy.setTitle(copy.getTitle() + " changed");
+		if (!copy.getObjects().isEmpty())
+		{
+			assertNotSame(tridas.getObjects().get(0), copy.getObjects().get(0));
+			copy.getObjects().get(0).setTitle("changed");
+		}
+		copy.getObjects().clear();
+
+		assertArrayEquals(digest, TridasDigest.digest(tridas));
+	}
+
+	@Test
+	public void testShallowCopySharesSubObjects() throws Exception
+	{
+		File file = TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+		TridasProject tridas = TridasTestData.loadProject(file).getTridas();
+		int objectCount = tridas.getObjects().size();
+		assertTrue(objectCount > 0);
+		byte[] digest = TridasDigest.digest(tridas);
+
+		TridasProject copy = TridasCopier.shallowCopy(tridas);
+		assertNotSame(tridas, copy);
+		assertSame(tridas.getIdentifier(), copy.getIdentifier());
+		assertNotSame(tridas.getObjects(), copy.getObjects());
+		TridasObject firstObject = tridas.getObjects().get(0);
+		assertSame(firstObject, copy.getObjects().get(0));
+
+		// pruning the copy leaves the original intact
+		copy.getObjects().clear();
+		assertEquals(objectCount, tridas.getObjects().size());
+		assertArrayEquals(digest, TridasDigest.digest(tridas));
+		assertFalse(Arrays.equals(digest, TridasDigest.digest(copy)));
+	}
+
+	@Test
+	public void testNull()
+	{
+		assertEquals(null, TridasCopier.deepCopy(null));
+		assertEquals(null, TridasCopier.shallowCopy(null));
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.entities.ProjectEntity;
+
+import org.junit.Test;
+import org.tridas.schema.TridasProject;
+
+public class TestTridasDigest
+{
+	private static File getTestFile()
+	{
+		return TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER)[0];
+	}
+
+	@Test
+	public void testEqualContentHasEqualDigest() throws Exception
+	{
+		TridasProject tridas = TridasTestData.loadProject(getTestFile()).getTridas();
+		TridasProject copy = (TridasProject) TridasJAXBProvider.cloneTridas(tridas);
+
+		assertArrayEquals(TridasDigest.digest(tridas), TridasDigest.digest(copy));
+
+		copy.setTitle(copy.getTitle() + " changed");
+		assertFalse(Arrays.equals(TridasDigest.digest(tridas), TridasDigest.digest(copy)));
+	}
+
+	@Test
+	public void testEntityDirtyOnlyWhenChanged() throws Exception
+	{
+		Project project = TridasTestData.loadProject(getTestFile());
+		ProjectEntity entity = project.entityTree.getProjectEntity();
+		entity.trackChanges();
+		entity.setDirty(false);
+		assertFalse(entity.isDirty());
+
+		TridasProject tridas = (TridasProject) entity.getTridasAsObject();
+		String title = tridas.getTitle();
+		tridas.setTitle(title + " changed");
+		assertTrue(entity.isDirty());
+
+		// changed back is the original again
+		tridas.setTitle(title);
+		assertFalse(entity.isDirty());
+	}
+
+	@Test
+	public void testEntityDirtyWhenMarkedModified() throws Exception
+	{
+		Project project = TridasTestData.loadProject(getTestFile());
+		ProjectEntity entity = project.entityTree.getProjectEntity();
+		entity.setDirty(false);
+		assertFalse(entity.isDirty());
+
+		// without tracking the changes, only the modifications through the entity count
+		TridasProject tridas = (TridasProject) entity.getTridasAsObject();
+		tridas.setTitle(tridas.getTitle() + " changed");
+		assertFalse(entity.isDirty());
+		entity.markModified();
+		assertTrue(entity.isDirty());
+
+		entity.setDirty(false);
+		assertFalse(entity.isDirty());
+		entity.setTridasObject(tridas);
+		assertTrue(entity.isDirty());
+	}
+}
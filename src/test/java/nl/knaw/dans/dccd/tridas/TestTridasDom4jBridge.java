@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import javax.xml.bind.Unmarshaller;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.entities.Entity;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+public class TestTridasDom4jBridge
+{
+	@Test
+	public void testUnmarshalElementInsideDocument() throws Exception
+	{
+		Project project = TridasTestData.loadProject(new File(TridasTestData.DCCD_OUTPUT_FOLDER, "Catras-AKK00010.CAT.xml"));
+		Unmarshaller unmarshaller = TridasJAXBProvider.getContext().createUnmarshaller();
+
+		for (Entity entity : project.entityTree.getEntities())
+		{
+			// embed it like the xml content of a datastream in the FOXML
+			Document foxml = DocumentHelper.createDocument();
+			Element xmlContent = foxml.addElement("foxml:xmlContent", "info:fedora/fedora-system:def/foxml#");
+			Element element = entity.asElement().createCopy();
+			xmlContent.add(element);
+
+			// the old way, with the String round trip
+			Object expected = unmarshaller.unmarshal(new ByteArrayInputStream(element.asXML().getBytes("UTF-8")));
+
+			Object tridas = TridasDom4jBridge.unmarshal(unmarshaller, element);
+			assertEquals(expected.getClass(), tridas.getClass());
+			assertEquals(expected.hashCode(), tridas.hashCode());
+
+			tridas = TridasDom4jBridge.unmarshal(unmarshaller, element.asXML().getBytes("UTF-8"));
+			assertEquals(expected.getClass(), tridas.getClass());
+			assertEquals(expected.hashCode(), tridas.hashCode());
+		}
+	}
+}
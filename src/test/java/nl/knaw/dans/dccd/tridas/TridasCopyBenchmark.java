@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.tridas.schema.TridasMeasurementSeries;
+import org.tridas.schema.TridasValue;
+import org.tridas.schema.TridasValues;
+
+/**
+ * Compares copying a measurement series with a large values list; 
+ * the JAXB round trip against the TridasCopier deep copy, 
+ * and the shallow copy that is enough for a pruned view. 
+ * Reports the cpu time per copy.
+ * 
+ * Not run by the normal build (excluded in the pom), 
+ * run it with: mvn test -Dtest=TridasCopyBenchmark
+ */
+public class TridasCopyBenchmark
+{
+	private static Logger logger = Logger.getLogger(TridasCopyBenchmark.class);
+
+	private static final int VALUES_COUNT = 50000;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 20;
+
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	private static TridasMeasurementSeries createSeries()
+	{
+		TridasMeasurementSeries series = new TridasMeasurementSeries();
+		series.setTitle("Benchmark series");
+		TridasValues values = new TridasValues();
+		for (int i = 0; i < VALUES_COUNT; i++)
+		{
+			TridasValue value = new TridasValue();
+			value.setValue(Integer.toString(100 + i % 400));
+			values.getValues().add(value);
+		}
+		series.getValues().add(values);
+		return series;
+	}
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		TridasMeasurementSeries series = createSeries();
+		logger.info("Benchmarking with a series of " + VALUES_COUNT + " values");
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			TridasJAXBProvider.cloneTridas(series);
+			TridasCopier.deepCopy(series);
+			TridasCopier.shallowCopy(series);
+		}
+
+		long jaxbTotal = 0;
+		long deepTotal = 0;
+		long shallowTotal = 0;
+		for (int i = 0; i < ROUNDS; i++)
+		{
+			long cpu = threadBean.getCurrentThreadCpuTime();
+			TridasJAXBProvider.cloneTridas(series);
+			jaxbTotal += threadBean.getCurrentThreadCpuTime() - cpu;
+
+			cpu = threadBean.getCurrentThreadCpuTime();
+			TridasCopier.deepCopy(series);
+			deepTotal += threadBean.getCurrentThreadCpuTime() - cpu;
+
+			cpu = threadBean.getCurrentThreadCpuTime();
+			TridasCopier.shallowCopy(series);
+			shallowTotal += threadBean.getCurrentThreadCpuTime() - cpu;
+		}
+
+		report("JAXB round trip", jaxbTotal);
+		report("deep copy      ", deepTotal);
+		report("shallow copy   ", shallowTotal);
+	}
+
+	private void report(String label, long total)
+	{
+		logger.info(label + ": cpu " + (total / ROUNDS / 1000000.0) + " ms per copy");
+	}
+}
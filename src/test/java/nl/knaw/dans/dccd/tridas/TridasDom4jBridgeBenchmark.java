@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.Unmarshaller;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.entities.Entity;
+
+import org.apache.log4j.Logger;
+import org.dom4j.Element;
+import org.junit.Test;
+
+/**
+ * Compares unmarshalling the entity datastreams with the old String round trip 
+ * against the dom4j bridge, for all files in TestData/DCCD-Output-From-TRiCYCLE. 
+ * 
+ * Not run by the normal build (excluded in the pom), 
+ * run it with: mvn test -Dtest=TridasDom4jBridgeBenchmark
+ */
+public class TridasDom4jBridgeBenchmark
+{
+	private static Logger logger = Logger.getLogger(TridasDom4jBridgeBenchmark.class);
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 20;
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		// all entity elements of all projects, like the xml content of the datastreams
+		List<Element> elements = new ArrayList<Element>();
+		for (File file : TridasTestData.getXmlFiles(TridasTestData.DCCD_OUTPUT_FOLDER))
+		{
+			Project project = TridasTestData.loadProject(file);
+			for (Entity entity : project.entityTree.getEntities())
+			{
+				elements.add(entity.asElement());
+			}
+		}
+		logger.info("Benchmarking with " + elements.size() + " entity elements");
+
+		Unmarshaller unmarshaller = TridasJAXBProvider.getContext().createUnmarshaller();
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			unmarshalWithString(unmarshaller, elements);
+			unmarshalWithBridge(unmarshaller, elements);
+		}
+
+		long stringNanos = 0;
+		long bridgeNanos = 0;
+		for (int i = 0; i < ROUNDS; i++)
+		{
+			long start = System.nanoTime();
+			unmarshalWithString(unmarshaller, elements);
+			stringNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			unmarshalWithBridge(unmarshaller, elements);
+			bridgeNanos += System.nanoTime() - start;
+		}
+
+		logger.info("String round trip: " + (stringNanos / ROUNDS / 1000000.0) + " ms per round");
+		logger.info("dom4j bridge:      " + (bridgeNanos / ROUNDS / 1000000.0) + " ms per round");
+	}
+
+	private int unmarshalWithString(Unmarshaller unmarshaller, List<Element> elements) throws Exception
+	{
+		int count = 0;
+		for (Element element : elements)
+		{
+			String xml = element.asXML();
+			if (unmarshaller.unmarshal(new ByteArrayInputStream(xml.getBytes("UTF-8"))) != null)
+				count++;
+		}
+		return count;
+	}
+
+	private int unmarshalWithBridge(Unmarshaller unmarshaller, List<Element> elements) throws Exception
+	{
+		int count = 0;
+		for (Element element : elements)
+		{
+			if (TridasDom4jBridge.unmarshal(unmarshaller, element) != null)
+				count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import nl.knaw.dans.dccd.model.Project;
+import nl.knaw.dans.dccd.model.entities.Entity;
+
+import org.apache.log4j.Logger;
+import org.dom4j.DocumentHelper;
+import org.junit.Test;
+
+/**
+ * Compares creating the datastream xml content for all entities of the largest TestData project, 
+ * like the ingest does; the old String round trip against marshalling directly into dom4j. 
+ * Reports the cpu time and, when the JVM supports it, the allocated bytes (garbage) per round.
+ * 
+ * Not run by the normal build (excluded in the pom), 
+ * run it with: mvn test -Dtest=TridasMarshalBenchmark
+ */
+public class TridasMarshalBenchmark
+{
+	private static Logger logger = Logger.getLogger(TridasMarshalBenchmark.class);
+
+	private static final String LARGEST_PROJECT_FILE = "Past-Voorburg 1988.p4p.xml";
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 20;
+
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		Project project = TridasTestData.loadProject(new File(TridasTestData.DCCD_OUTPUT_FOLDER, LARGEST_PROJECT_FILE));
+		List<Entity> entities = project.entityTree.getEntities();
+		logger.info("Benchmarking with " + entities.size() + " entities");
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			serializeWithString(entities);
+			serializeDirect(entities);
+		}
+
+		long[] stringTotals = new long[2];
+		long[] directTotals = new long[2];
+		for (int i = 0; i < ROUNDS; i++)
+		{
+			long cpu = threadBean.getCurrentThreadCpuTime();
+			long allocated = getAllocatedBytes();
+			serializeWithString(entities);
+			stringTotals[0] += threadBean.getCurrentThreadCpuTime() - cpu;
+			stringTotals[1] += getAllocatedBytes() - allocated;
+
+			cpu = threadBean.getCurrentThreadCpuTime();
+			allocated = getAllocatedBytes();
+			serializeDirect(entities);
+			directTotals[0] += threadBean.getCurrentThreadCpuTime() - cpu;
+			directTotals[1] += getAllocatedBytes() - allocated;
+		}
+
+		report("String round trip", stringTotals);
+		report("direct to dom4j  ", directTotals);
+	}
+
+	private void report(String label, long[] totals)
+	{
+		String allocated = getAllocatedBytes() < 0 ? "n/a" : (totals[1] / ROUNDS / 1024) + " KB";
+		logger.info(label + ": cpu " + (totals[0] / ROUNDS / 1000000.0) + " ms, allocated " + allocated + " per round");
+	}
+
+	// Note: only the Sun/Oracle JVM has the allocation counter, -1 otherwise
+	private long getAllocatedBytes()
+	{
+		if (threadBean instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+			if (sunThreadBean.isThreadAllocatedMemorySupported())
+				return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	// how it was done before
+	private int serializeWithString(List<Entity> entities) throws Exception
+	{
+		int count = 0;
+		for (Entity entity : entities)
+		{
+			if (DocumentHelper.parseText(entity.getXMLString()).getRootElement() != null)
+				count++;
+		}
+		return count;
+	}
+
+	private int serializeDirect(List<Entity> entities) throws Exception
+	{
+		int count = 0;
+		for (Entity entity : entities)
+		{
+			if (entity.asElement() != null)
+				count++;
+		}
+		return count;
+	}
+}
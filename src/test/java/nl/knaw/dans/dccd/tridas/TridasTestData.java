@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.tridas;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+
+import nl.knaw.dans.dccd.model.Project;
+
+import org.tridas.schema.TridasProject;
+import org.tridas.schema.TridasTridas;
+
+/**
+ * Loads the TRiDaS files in the TestData folder as Projects, 
+ * without the repository or any of the services. 
+ * Used by the tests and benchmarks that need realistic data. 
+ */
+public class TridasTestData
+{
+	public static final File DCCD_OUTPUT_FOLDER = new File("TestData/DCCD-Output-From-TRiCYCLE");
+	/** All folders with TRiDaS files */
+	public static final File[] FOLDERS = new File[] { 
+			DCCD_OUTPUT_FOLDER, 
+			new File("TestData/TRiCYCLE-Output-From-Legacy"), 
+			new File("TestData/Input"), 
+			new File("TestData/Output") };
+
+	private TridasTestData()
+	{
+		// only static methods
+	}
+
+	/**
+	 * @return the xml files in the folder, sorted by name
+	 */
+	public static File[] getXmlFiles(File folder)
+	{
+		File[] files = folder.listFiles(new FilenameFilter()
+		{
+			public boolean accept(File dir, String name)
+			{
+				// assume xml files have (lowercase) extension xml
+				return name.endsWith(".xml");
+			}
+		});
+		if (files == null)
+		{
+			throw new IllegalArgumentException("Could not get files from folder: " + folder.getAbsolutePath());
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * @return the xml files in all the FOLDERS
+	 */
+	public static List<File> getAllXmlFiles()
+	{
+		List<File> files = new ArrayList<File>();
+		for (File folder : FOLDERS)
+		{
+			files.addAll(Arrays.asList(getXmlFiles(folder)));
+		}
+		return files;
+	}
+
+	public static TridasTridas loadTridas(File file) throws JAXBException
+	{
+		return (TridasTridas) TridasJAXBProvider.getContext().createUnmarshaller().unmarshal(file);
+	}
+
+	/**
+	 * Create a Project with the (first) TRiDaS project in the file and build its entity tree
+	 */
+	public static Project loadProject(File file) throws JAXBException
+	{
+		TridasTridas tridas = loadTridas(file);
+		TridasProject tridasProject = tridas.getProjects().get(0);
+
+		Project project = new Project("dccd:test", tridasProject.getTitle());
+		project.setTridas(tridasProject);
+		if (tridas.getVocabulary() != null)
+		{
+			project.setTridasVocabulary(tridas.getVocabulary());
+		}
+		project.entityTree.buildTree(tridasProject);
+		return project;
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2015 DANS - Data Archiving and Networked Services
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package nl.knaw.dans.dccd.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestObjectSizeEstimator
+{
+	private static class Node
+	{
+		long number;
+		Node next;
+	}
+
+	@Test
+	public void testShallowSizes()
+	{
+		assertEquals(16, ObjectSizeEstimator.sizeOfInstance(Object.class));
+		// header + long + reference
+		assertEquals(ObjectSizeEstimator.align(12 + 8 + 4), ObjectSizeEstimator.sizeOfInstance(Node.class));
+		assertEquals(16 + 10 * 4, new ObjectSizeEstimator().add(new int[10]));
+		assertEquals(16 + 8 * 3, new ObjectSizeEstimator().add(new double[3]));
+	}
+
+	@Test
+	public void testCountsOnce()
+	{
+		Node first = new Node();
+		Node second = new Node();
+		first.next = second;
+		second.next = first; // cycle
+		long nodeSize = ObjectSizeEstimator.sizeOfInstance(Node.class);
+
+		ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+		assertEquals(2 * nodeSize, estimator.add(first));
+		// already counted
+		assertEquals(0, estimator.add(second));
+
+		estimator = new ObjectSizeEstimator();
+		estimator.exclude(second);
+		assertEquals(nodeSize, estimator.add(first));
+	}
+
+	@Test
+	public void testExcludedType()
+	{
+		List<Object> list = new ArrayList<Object>();
+		list.add(new Node());
+		long withNode = new ObjectSizeEstimator().add(list);
+
+		ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+		estimator.excludeType(Node.class);
+		assertEquals(withNode - ObjectSizeEstimator.sizeOfInstance(Node.class), estimator.add(list));
+		assertTrue(withNode > 0);
+	}
+}